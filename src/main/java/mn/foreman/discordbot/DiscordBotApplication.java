@@ -1,22 +1,33 @@
 package mn.foreman.discordbot;
 
-import mn.foreman.discordbot.db.SessionRepository;
+import mn.foreman.discordbot.bot.TrafficReplay;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
+
+import java.util.Arrays;
 
 /** The Foreman Discord bot. */
 @SpringBootApplication
-@EnableMongoRepositories(basePackageClasses = SessionRepository.class)
 public class DiscordBotApplication {
 
     /**
-     * Application entry point.
+     * Application entry point. {@code replay <file> [speed]} plays a traffic
+     * recording back offline instead of starting the bot.
      *
      * @param args The command line arguments.
+     *
+     * @throws Exception on failure to replay.
      */
-    public static void main(final String[] args) {
+    public static void main(final String[] args) throws Exception {
+        if (args.length > 1 && "replay".equals(args[0])) {
+            TrafficReplay.main(
+                    Arrays.copyOfRange(
+                            args,
+                            1,
+                            args.length));
+            return;
+        }
         SpringApplication.run(
                 DiscordBotApplication.class,
                 args);
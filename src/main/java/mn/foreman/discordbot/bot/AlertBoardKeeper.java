@@ -0,0 +1,279 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.discordbot.db.AlertBoard;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * An {@link AlertBoardKeeper} merges notifications into a session's {@link
+ * AlertBoard} and renders the board when it changes.
+ *
+ * <p>Foreman keeps reporting an incident for as long as it lasts, so an
+ * incident is on the board until it hasn't been reported for a while. Only
+ * incidents that weren't already on the board are sent as new messages.
+ * Changes are coalesced so the board message is edited at most once per
+ * interval, no matter how often it changes.</p>
+ */
+public class AlertBoardKeeper {
+
+    /** The miner ID used for notifications that don't contain miners. */
+    private static final int NO_MINER = -1;
+
+    /** The min time between renders of a board. */
+    private final Duration editInterval;
+
+    /** How long an incident stays on the board after it was last reported. */
+    private final Duration expireAfter;
+
+    /** The max entries per board. */
+    private final int maxEntries;
+
+    /** The max miners to render. */
+    private final int maxNotifications;
+
+    /** The renderer for messages. */
+    private final MessageRenderer messageRenderer;
+
+    /**
+     * Constructor.
+     *
+     * @param messageRenderer  The renderer for messages.
+     * @param maxNotifications The max miners to render.
+     * @param maxEntries       The max entries per board.
+     * @param editInterval     The min time between renders of a board.
+     * @param expireAfter      How long an incident stays on the board after
+     *                         it was last reported.
+     */
+    public AlertBoardKeeper(
+            final MessageRenderer messageRenderer,
+            final int maxNotifications,
+            final int maxEntries,
+            final Duration editInterval,
+            final Duration expireAfter) {
+        this.messageRenderer = messageRenderer;
+        this.maxNotifications = maxNotifications;
+        this.maxEntries = maxEntries;
+        this.editInterval = editInterval;
+        this.expireAfter = expireAfter;
+    }
+
+    /**
+     * Merges the provided notification into the board.
+     *
+     * @param board         The board.
+     * @param subject       The notification subject.
+     * @param failingMiners The failing miners.
+     * @param now           The current time.
+     *
+     * @return The miners that are new incidents, or empty if nothing in the
+     *         notification is new.
+     */
+    public Optional<List<Notifications.Notification.FailingMiner>> add(
+            final AlertBoard board,
+            final String subject,
+            final List<Notifications.Notification.FailingMiner> failingMiners,
+            final Instant now) {
+        final Map<String, AlertBoard.Entry> index = new HashMap<>();
+        for (final AlertBoard.Entry entry : board.getEntries()) {
+            index.put(
+                    toKey(entry.getMinerId(), entry.getSubject()),
+                    entry);
+        }
+
+        if (failingMiners.isEmpty()) {
+            return merge(
+                    board,
+                    index,
+                    subject,
+                    null,
+                    NO_MINER,
+                    null,
+                    now)
+                    ? Optional.of(failingMiners)
+                    : Optional.empty();
+        }
+
+        final List<Notifications.Notification.FailingMiner> fresh = new ArrayList<>();
+        for (final Notifications.Notification.FailingMiner failingMiner : failingMiners) {
+            if (merge(
+                    board,
+                    index,
+                    subject,
+                    failingMiner.miner,
+                    failingMiner.minerId,
+                    failingMiner.diagnosis,
+                    now)) {
+                fresh.add(failingMiner);
+            }
+        }
+        return fresh.isEmpty()
+                ? Optional.empty()
+                : Optional.of(fresh);
+    }
+
+    /**
+     * Drops the incidents that are over and renders the board if it changed
+     * and the edit interval has passed. The rendered board only holds its
+     * first page, since it's a single message.
+     *
+     * @param board The board.
+     * @param now   The current time.
+     *
+     * @return The board to send, or empty if it shouldn't be edited yet.
+     */
+    public Optional<NotificationsProcessorImpl.DiscordNotification> render(
+            final AlertBoard board,
+            final Instant now) {
+        final Instant expiry = now.minus(this.expireAfter);
+        if (board.getEntries().removeIf(entry -> entry.getLastSeen().isBefore(expiry))) {
+            board.setDirty(true);
+        }
+        if (!board.isDirty() ||
+                (board.getLastRendered() != null &&
+                        now.isBefore(board.getLastRendered().plus(this.editInterval)))) {
+            return Optional.empty();
+        }
+
+        final MessageRenderer.PagedMessage message =
+                this.messageRenderer.newMessage("**Alert Board**\n\n");
+        final List<AlertBoard.Entry> warnings = new ArrayList<>();
+        int minersWritten = 0;
+        int minersSkipped = 0;
+        for (final AlertBoard.Entry entry : board.getEntries()) {
+            if (entry.getMiner() == null) {
+                warnings.add(entry);
+            } else if (minersWritten < this.maxNotifications) {
+                final StringBuilder builder = message.entry();
+                this.messageRenderer
+                        .appendMinerLink(
+                                builder,
+                                entry.getMiner(),
+                                entry.getMinerId())
+                        .append(" - *")
+                        .append(entry.getSubject())
+                        .append("*\n");
+                for (final String diag : entry.getDiagnosis()) {
+                    builder
+                            .append(diag)
+                            .append('\n');
+                }
+                builder.append('\n');
+                message.commit();
+                minersWritten++;
+            } else {
+                minersSkipped++;
+            }
+        }
+        if (minersSkipped > 0) {
+            message
+                    .entry()
+                    .append("*...and ")
+                    .append(minersSkipped)
+                    .append(" more*\n\n");
+            message.commit();
+        }
+        for (final AlertBoard.Entry warning : warnings) {
+            message
+                    .entry()
+                    .append("**")
+                    .append(warning.getSubject())
+                    .append("**\n\n");
+            message.commit();
+        }
+        if (board.getEntries().isEmpty()) {
+            message
+                    .entry()
+                    .append("All clear");
+            message.commit();
+        }
+        message
+                .entry()
+                .append("*Updated <t:")
+                .append(now.getEpochSecond())
+                .append(":R>*");
+        message.commit();
+
+        board.setDirty(false);
+        board.setLastRendered(now);
+        return Optional.of(
+                NotificationsProcessorImpl.DiscordNotification
+                        .builder()
+                        .error(minersWritten + minersSkipped > 0)
+                        .message(message.toPages().get(0))
+                        .board(true)
+                        .build());
+    }
+
+    /**
+     * Creates the key for an entry.
+     *
+     * @param minerId The miner ID.
+     * @param subject The subject.
+     *
+     * @return The key.
+     */
+    private static String toKey(
+            final int minerId,
+            final String subject) {
+        return minerId + "|" + subject;
+    }
+
+    /**
+     * Merges a miner or subject into the board, adding a new entry if it
+     * isn't already there.
+     *
+     * @param board     The board.
+     * @param index     The existing entries, by key.
+     * @param subject   The subject.
+     * @param miner     The miner name.
+     * @param minerId   The miner ID.
+     * @param diagnosis The diagnosis.
+     * @param now       The current time.
+     *
+     * @return Whether or not the incident is new.
+     */
+    private boolean merge(
+            final AlertBoard board,
+            final Map<String, AlertBoard.Entry> index,
+            final String subject,
+            final String miner,
+            final int minerId,
+            final List<String> diagnosis,
+            final Instant now) {
+        final String key = toKey(minerId, subject);
+        final AlertBoard.Entry entry = index.get(key);
+        if (entry != null) {
+            entry.setLastSeen(now);
+            if (diagnosis != null && !diagnosis.equals(entry.getDiagnosis())) {
+                entry.setDiagnosis(new ArrayList<>(diagnosis));
+                board.setDirty(true);
+            }
+            return false;
+        }
+        if (board.getEntries().size() < this.maxEntries) {
+            final AlertBoard.Entry added =
+                    AlertBoard.Entry
+                            .builder()
+                            .subject(subject)
+                            .miner(miner)
+                            .minerId(minerId)
+                            .firstSeen(now)
+                            .lastSeen(now)
+                            .build();
+            if (diagnosis != null) {
+                added.setDiagnosis(new ArrayList<>(diagnosis));
+            }
+            board.getEntries().add(added);
+            index.put(key, added);
+            board.setDirty(true);
+        }
+        return true;
+    }
+}
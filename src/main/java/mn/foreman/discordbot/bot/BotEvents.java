@@ -0,0 +1,131 @@
+package mn.foreman.discordbot.bot;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The Java Flight Recorder events for the bot's own work, so recordings can
+ * line GC pauses and thread stalls up with what the bot was doing at the
+ * time. The bundled {@code jfr/todd.jfc} settings enable all of them.
+ *
+ * <p>Every event is cheap to create when it isn't being recorded, so callers
+ * create them unconditionally.</p>
+ */
+public class BotEvents {
+
+    /** A command that was run by a user. */
+    @Name("mn.foreman.discordbot.Command")
+    @Label("Command")
+    @Category({"Foreman Bot", "Commands"})
+    @Description("A command that was run by a user")
+    @StackTrace(false)
+    public static class CommandEvent
+            extends Event {
+
+        /** The command. */
+        @Label("Command")
+        public String command;
+
+        /** The guild, or null for private messages. */
+        @Label("Guild")
+        public String guildId;
+
+        /** Whether or not the command was throttled. */
+        @Label("Throttled")
+        public boolean throttled;
+
+        /** The user. */
+        @Label("User")
+        public String userId;
+    }
+
+    /** A notification sent to Discord, from being requested to completing. */
+    @Name("mn.foreman.discordbot.DiscordSend")
+    @Label("Discord Send")
+    @Category({"Foreman Bot", "Discord"})
+    @Description("A notification sent to Discord, from being requested until Discord accepted it")
+    @StackTrace(false)
+    public static class DiscordSendEvent
+            extends Event {
+
+        /** Whether or not the send failed. */
+        @Label("Failed")
+        public boolean failed;
+
+        /** How long the send waited for the gateway or the replay budget. */
+        @Label("Queued")
+        @Timespan(Timespan.MILLISECONDS)
+        public long queuedMillis;
+
+        /** Whether or not the notification was replayed after downtime. */
+        @Label("Replay")
+        public boolean replay;
+
+        /** The session. */
+        @Label("Session")
+        public String sessionId;
+    }
+
+    /** A call to the Foreman API. */
+    @Name("mn.foreman.discordbot.ForemanCall")
+    @Label("Foreman Call")
+    @Category({"Foreman Bot", "Foreman"})
+    @Description("A call to the Foreman API that was admitted by the limiter")
+    @StackTrace(false)
+    public static class ForemanCallEvent
+            extends Event {
+
+        /** Whether or not the call failed. */
+        @Label("Failed")
+        public boolean failed;
+    }
+
+    /** A poll of a single session. */
+    @Name("mn.foreman.discordbot.SessionPoll")
+    @Label("Session Poll")
+    @Category({"Foreman Bot", "Notifications"})
+    @Description("A poll of a single session for notifications")
+    @StackTrace(false)
+    public static class SessionPollEvent
+            extends Event {
+
+        /** The Foreman client. */
+        @Label("Client")
+        public int clientId;
+
+        /** How many messages were rendered. */
+        @Label("Messages")
+        public int messages;
+
+        /** How many notifications were fetched. */
+        @Label("Notifications")
+        public int notifications;
+
+        /** The session. */
+        @Label("Session")
+        public String sessionId;
+    }
+
+    /** A sweep over every due session. */
+    @Name("mn.foreman.discordbot.Sweep")
+    @Label("Sweep")
+    @Category({"Foreman Bot", "Notifications"})
+    @Description("A sweep over every session that's due for notifications")
+    @StackTrace(false)
+    public static class SweepEvent
+            extends Event {
+
+        /** Which pipeline ran the sweep. */
+        @Label("Pipeline")
+        public String pipeline;
+
+        /** How many sessions were swept. */
+        @Label("Sessions")
+        public int sessions;
+    }
+}
@@ -0,0 +1,134 @@
+package mn.foreman.discordbot.bot;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link CatchUpPolicy} decides how notifications that were raised while
+ * the bot was down are replayed once it's back.
+ *
+ * <p>A session is catching up on its first poll after a restart, which is
+ * detected by its last poll having happened before this process started.
+ * That poll looks back to the last poll rather than to the start of the
+ * process, bounded by a max window, and relies on the session's cursor to
+ * avoid sending anything twice. Large backlogs are collapsed into a summary,
+ * and every replayed message is paced by a single budget that's shared by all
+ * sessions so a restart can't flood Discord.</p>
+ */
+public class CatchUpPolicy {
+
+    /** How many notifications a backlog can have before it's collapsed. */
+    private final int collapseAbove;
+
+    /** Whether or not catch-up is enabled. */
+    private final boolean enabled;
+
+    /** The min time between replayed messages, across every session. */
+    private final long intervalNanos;
+
+    /** The furthest back a session will catch up. */
+    private final Duration maxWindow;
+
+    /** When the next replayed message may be sent. */
+    private long nextSlot;
+
+    /**
+     * Constructor.
+     *
+     * @param enabled       Whether or not catch-up is enabled.
+     * @param maxWindow     The furthest back a session will catch up.
+     * @param collapseAbove How many notifications a backlog can have before
+     *                      it's collapsed.
+     * @param ratePerSecond The max replayed messages per second, across every
+     *                      session.
+     */
+    public CatchUpPolicy(
+            final boolean enabled,
+            final Duration maxWindow,
+            final int collapseAbove,
+            final double ratePerSecond) {
+        this.enabled = enabled;
+        this.maxWindow = maxWindow;
+        this.collapseAbove = collapseAbove;
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        this.nextSlot = System.nanoTime();
+    }
+
+    /**
+     * Returns the earliest date that notifications should be fetched from.
+     *
+     * @param dateRegistered When the session was registered.
+     * @param lastPolled     When the session was last polled, or null if
+     *                       unknown.
+     * @param startTime      When this process started.
+     *
+     * @return The start date.
+     */
+    public Instant getStartDate(
+            final Instant dateRegistered,
+            final Instant lastPolled,
+            final Instant startTime) {
+        Instant startDate = startTime;
+        if (this.enabled) {
+            final Instant earliest = Instant.now().minus(this.maxWindow);
+            startDate =
+                    lastPolled != null && lastPolled.isBefore(startTime)
+                            ? lastPolled
+                            : startTime;
+            if (lastPolled == null || startDate.isBefore(earliest)) {
+                startDate = earliest;
+            }
+        }
+        return dateRegistered.isAfter(startDate)
+                ? dateRegistered
+                : startDate;
+    }
+
+    /**
+     * Returns whether or not a session is catching up.
+     *
+     * @param lastPolled When the session was last polled, or null if unknown.
+     * @param startTime  When this process started.
+     *
+     * @return Whether or not the session is catching up.
+     */
+    public boolean isCatchingUp(
+            final Instant lastPolled,
+            final Instant startTime) {
+        return this.enabled &&
+                (lastPolled == null || lastPolled.isBefore(startTime));
+    }
+
+    /**
+     * Returns whether or not a backlog is large enough to be collapsed.
+     *
+     * @param backlog The number of notifications in the backlog.
+     *
+     * @return Whether or not to collapse.
+     */
+    public boolean shouldCollapse(final int backlog) {
+        return backlog > this.collapseAbove;
+    }
+
+    /**
+     * Returns an executor that runs a replayed message once the shared budget
+     * allows it.
+     *
+     * @return The executor.
+     */
+    public Executor nextReplaySlot() {
+        final long delay;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            final long slot = Math.max(now, this.nextSlot);
+            this.nextSlot = slot + this.intervalNanos;
+            delay = slot - now;
+        }
+        return CompletableFuture.delayedExecutor(
+                delay,
+                TimeUnit.NANOSECONDS);
+    }
+}
@@ -10,32 +10,50 @@ public enum Command {
     /** Displays the help menu. */
     HELP(
             "help",
-            "Displays a help menu"),
+            "Displays a help menu",
+            1),
 
     /** Start bot setup. */
     START(
             "start",
-            "Begins the bot setup process"),
+            "Begins the bot setup process",
+            1),
 
     /** Begins the registration process. */
     REGISTER(
             "register",
-            "Registers the bot with new API credentials. Notifications will be sent to the channel where the registration was performed."),
+            "Registers the bot with new API credentials. Notifications will be sent to the channel where the registration was performed.",
+            2),
 
     /** Test bot connectivity. */
     TEST(
             "test",
-            "Tests connectivity with the Foreman API"),
+            "Tests connectivity with the Foreman API",
+            2),
 
     /** Stops the bot from notifying you. */
     FORGET(
             "forget",
-            "Stops the bot from notifying you"),
+            "Stops the bot from notifying you",
+            1),
 
     /** The status command. */
     STATUS(
             "status",
-            "Displays the current non-okay status for each miner in Foreman");
+            "Displays the current non-okay status for each miner in Foreman (add changes to see what changed recently, without checking again)",
+            5),
+
+    /** Switches between immediate notifications and digests. */
+    DIGEST(
+            "digest",
+            "Sends one summary every N minutes instead of a message for every notification (0 sends them right away)",
+            1),
+
+    /** Switches between a message per notification and an alert board. */
+    BOARD(
+            "board",
+            "Keeps one message with what's currently wrong, edited in place, and only posts new problems (on or off)",
+            1);
 
     /** All of the known commands. */
     private static final ConcurrentMap<String, Command> VALUES =
@@ -47,6 +65,9 @@ public enum Command {
         }
     }
 
+    /** The tokens the command takes from the throttle. */
+    private final int cost;
+
     /** The description. */
     private final String description;
 
@@ -58,12 +79,15 @@ public enum Command {
      *
      * @param key         The key.
      * @param description The description.
+     * @param cost        The tokens the command takes from the throttle.
      */
     Command(
             final String key,
-            final String description) {
+            final String description,
+            final int cost) {
         this.key = key;
         this.description = description;
+        this.cost = cost;
     }
 
     /**
@@ -89,6 +113,15 @@ public enum Command {
         return Optional.empty();
     }
 
+    /**
+     * Returns the tokens the command takes from the throttle.
+     *
+     * @return The cost.
+     */
+    public int getCost() {
+        return this.cost;
+    }
+
     /**
      * Returns the description.
      *
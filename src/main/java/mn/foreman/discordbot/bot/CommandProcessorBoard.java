@@ -0,0 +1,127 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.discordbot.db.AlertBoard;
+
+import net.dv8tion.jda.api.entities.MessageChannel;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.springframework.data.repository.CrudRepository;
+
+import java.awt.*;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Switches a session between receiving a message for every notification and
+ * keeping an alert board that's edited in place.
+ */
+public class CommandProcessorBoard<T>
+        implements CommandProcessor {
+
+    /** Obtains the board from the session. */
+    private final Function<T, AlertBoard> boardGetter;
+
+    /** Applies the board to the session. */
+    private final BiConsumer<T, AlertBoard> boardSetter;
+
+    /** Obtains the ID from the event. */
+    private final Function<MessageReceivedEvent, String> idSupplier;
+
+    /** The repository for sessions. */
+    private final CrudRepository<T, String> sessionRepository;
+
+    /** Persists whether or not the session uses its board. */
+    private final Consumer<T> settingsSaver;
+
+    /**
+     * Constructor.
+     *
+     * @param sessionRepository The repository.
+     * @param idSupplier        The ID supplier.
+     * @param boardGetter       Obtains the board from the session.
+     * @param boardSetter       Applies the board to the session.
+     * @param settingsSaver     Persists whether or not the session uses its
+     *                          board, without overwriting what a concurrent
+     *                          poll rendered or posted.
+     */
+    public CommandProcessorBoard(
+            final CrudRepository<T, String> sessionRepository,
+            final Function<MessageReceivedEvent, String> idSupplier,
+            final Function<T, AlertBoard> boardGetter,
+            final BiConsumer<T, AlertBoard> boardSetter,
+            final Consumer<T> settingsSaver) {
+        this.sessionRepository = sessionRepository;
+        this.idSupplier = idSupplier;
+        this.boardGetter = boardGetter;
+        this.boardSetter = boardSetter;
+        this.settingsSaver = settingsSaver;
+    }
+
+    @Override
+    public void process(final MessageReceivedEvent event) {
+        final String id = this.idSupplier.apply(event);
+        final MessageChannel messageChannel = event.getChannel();
+
+        final Optional<T> sessionOpt = this.sessionRepository.findById(id);
+        if (sessionOpt.isPresent()) {
+            final String[] split =
+                    event
+                            .getMessage()
+                            .getContentRaw()
+                            .split(" ");
+            if (split.length >= 2 && "on".equalsIgnoreCase(split[1])) {
+                apply(
+                        sessionOpt.get(),
+                        true,
+                        messageChannel);
+            } else if (split.length >= 2 && "off".equalsIgnoreCase(split[1])) {
+                apply(
+                        sessionOpt.get(),
+                        false,
+                        messageChannel);
+            } else {
+                MessageUtils.sendError(messageChannel);
+            }
+        } else {
+            MessageUtils.sendSimple(
+                    "We haven't met yet...",
+                    Color.RED,
+                    messageChannel);
+        }
+    }
+
+    /**
+     * Turns the board on or off. Turning it on marks the board to be rendered
+     * with the next poll, which edits the message that was already posted, if
+     * there is one, rather than leaving it behind.
+     *
+     * @param session        The session.
+     * @param enabled        Whether or not to use the board.
+     * @param messageChannel The channel to respond to.
+     */
+    private void apply(
+            final T session,
+            final boolean enabled,
+            final MessageChannel messageChannel) {
+        AlertBoard board = this.boardGetter.apply(session);
+        if (board == null && enabled) {
+            board = AlertBoard.builder().build();
+            this.boardSetter.accept(
+                    session,
+                    board);
+        }
+        if (board != null) {
+            board.setEnabled(enabled);
+            board.setDirty(enabled || board.isDirty());
+            this.settingsSaver.accept(session);
+        }
+
+        MessageUtils.sendSimple(
+                enabled
+                        ? "Got it - I'll keep a board of what's wrong here, and only post new problems"
+                        : "Got it - I'll send notifications as they happen",
+                Color.GREEN,
+                messageChannel);
+    }
+}
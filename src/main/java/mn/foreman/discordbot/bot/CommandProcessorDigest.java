@@ -0,0 +1,138 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.discordbot.db.Digest;
+
+import net.dv8tion.jda.api.entities.MessageChannel;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.repository.CrudRepository;
+
+import java.awt.*;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Switches a session between receiving every notification as it happens and
+ * receiving one digest per window.
+ */
+public class CommandProcessorDigest<T>
+        implements CommandProcessor {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(CommandProcessorDigest.class);
+
+    /** Obtains the digest from the session. */
+    private final Function<T, Digest> digestGetter;
+
+    /** Applies the digest to the session. */
+    private final BiConsumer<T, Digest> digestSetter;
+
+    /** Obtains the ID from the event. */
+    private final Function<MessageReceivedEvent, String> idSupplier;
+
+    /** Persists the session's digest interval. */
+    private final Consumer<T> intervalSaver;
+
+    /** The repository for sessions. */
+    private final CrudRepository<T, String> sessionRepository;
+
+    /**
+     * Constructor.
+     *
+     * @param sessionRepository The repository.
+     * @param idSupplier        The ID supplier.
+     * @param digestGetter      Obtains the digest from the session.
+     * @param digestSetter      Applies the digest to the session.
+     * @param intervalSaver     Persists the session's digest interval,
+     *                          without overwriting what a concurrent poll
+     *                          buffered or committed.
+     */
+    public CommandProcessorDigest(
+            final CrudRepository<T, String> sessionRepository,
+            final Function<MessageReceivedEvent, String> idSupplier,
+            final Function<T, Digest> digestGetter,
+            final BiConsumer<T, Digest> digestSetter,
+            final Consumer<T> intervalSaver) {
+        this.sessionRepository = sessionRepository;
+        this.idSupplier = idSupplier;
+        this.digestGetter = digestGetter;
+        this.digestSetter = digestSetter;
+        this.intervalSaver = intervalSaver;
+    }
+
+    @Override
+    public void process(final MessageReceivedEvent event) {
+        final String id = this.idSupplier.apply(event);
+        final MessageChannel messageChannel = event.getChannel();
+
+        final Optional<T> sessionOpt = this.sessionRepository.findById(id);
+        if (sessionOpt.isPresent()) {
+            final String[] split =
+                    event
+                            .getMessage()
+                            .getContentRaw()
+                            .split(" ");
+            if (split.length >= 2) {
+                try {
+                    final int minutes = Integer.parseInt(split[1]);
+                    if (minutes >= 0) {
+                        applyInterval(
+                                sessionOpt.get(),
+                                minutes,
+                                messageChannel);
+                    } else {
+                        MessageUtils.sendError(messageChannel);
+                    }
+                } catch (final NumberFormatException nfe) {
+                    LOG.warn("Number not provided", nfe);
+                    MessageUtils.sendSimple(
+                            "Minutes should have been a number",
+                            Color.RED,
+                            messageChannel);
+                }
+            } else {
+                MessageUtils.sendError(messageChannel);
+            }
+        } else {
+            MessageUtils.sendSimple(
+                    "We haven't met yet...",
+                    Color.RED,
+                    messageChannel);
+        }
+    }
+
+    /**
+     * Applies the new interval to the session. Anything already buffered is
+     * kept and goes out with the next digest, or with the next poll if digests
+     * were turned off.
+     *
+     * @param session        The session.
+     * @param minutes        The new interval.
+     * @param messageChannel The channel to respond to.
+     */
+    private void applyInterval(
+            final T session,
+            final int minutes,
+            final MessageChannel messageChannel) {
+        Digest digest = this.digestGetter.apply(session);
+        if (digest == null) {
+            digest = Digest.builder().build();
+            this.digestSetter.accept(session, digest);
+        }
+        digest.setIntervalMinutes(minutes);
+        this.intervalSaver.accept(session);
+
+        MessageUtils.sendSimple(
+                minutes > 0
+                        ? String.format(
+                        "Got it - I'll send you a summary every %d minutes",
+                        minutes)
+                        : "Got it - I'll send notifications as they happen",
+                Color.GREEN,
+                messageChannel);
+    }
+}
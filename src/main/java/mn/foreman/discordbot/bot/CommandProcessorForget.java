@@ -2,7 +2,7 @@ package mn.foreman.discordbot.bot;
 
 import net.dv8tion.jda.api.entities.MessageChannel;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
-import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.repository.CrudRepository;
 
 import java.awt.*;
 import java.util.Optional;
@@ -16,7 +16,7 @@ public class CommandProcessorForget<T>
     private final Function<MessageReceivedEvent, String> idSupplier;
 
     /** The session repository. */
-    private final MongoRepository<T, String> sessionRepository;
+    private final CrudRepository<T, String> sessionRepository;
 
     /**
      * Constructor.
@@ -25,7 +25,7 @@ public class CommandProcessorForget<T>
      * @param idSupplier        The ID supplier.
      */
     public CommandProcessorForget(
-            final MongoRepository<T, String> sessionRepository,
+            final CrudRepository<T, String> sessionRepository,
             final Function<MessageReceivedEvent, String> idSupplier) {
         this.sessionRepository = sessionRepository;
         this.idSupplier = idSupplier;
@@ -8,7 +8,7 @@ import net.dv8tion.jda.api.entities.MessageChannel;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.repository.CrudRepository;
 
 import java.awt.*;
 import java.util.function.BiFunction;
@@ -38,7 +38,7 @@ public class CommandProcessorRegister<T>
     private final Function<MessageReceivedEvent, T> newCallback;
 
     /** The repository for sessions. */
-    private final MongoRepository<T, String> sessionRepository;
+    private final CrudRepository<T, String> sessionRepository;
 
     /** Callback for updating an existing session. */
     private final BiFunction<T, MessageReceivedEvent, T> updateCallback;
@@ -56,7 +56,7 @@ public class CommandProcessorRegister<T>
      * @param foremanDashboardUrl The dashboard URL.
      */
     public CommandProcessorRegister(
-            final MongoRepository<T, String> sessionRepository,
+            final CrudRepository<T, String> sessionRepository,
             final Function<MessageReceivedEvent, String> idSupplier,
             final BiFunction<T, MessageReceivedEvent, T> updateCallback,
             final Function<MessageReceivedEvent, T> newCallback,
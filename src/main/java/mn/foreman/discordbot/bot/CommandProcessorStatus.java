@@ -1,31 +1,59 @@
 package mn.foreman.discordbot.bot;
 
-import mn.foreman.api.ForemanApi;
 import mn.foreman.api.endpoints.miners.Miners;
 import mn.foreman.api.endpoints.pickaxe.Pickaxe;
 
 import net.dv8tion.jda.api.entities.MessageChannel;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
-import org.springframework.data.mongodb.repository.MongoRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.repository.CrudRepository;
 
 import java.awt.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
-/** Gets the status of all of the miners in Foreman. */
+/**
+ * Gets the status of all of the miners in Foreman.
+ *
+ * <p>If a stream supplier is provided, each pickaxe's miners are streamed
+ * through a {@link MinerStatusParser} so healthy miners are never
+ * materialized. Otherwise, the API handlers are used.</p>
+ *
+ * <p>Every check is recorded in the {@link MinerHistory}, if provided, and
+ * {@code status changes} is answered from that history without calling
+ * Foreman.</p>
+ */
 public class CommandProcessorStatus<T>
         implements CommandProcessor {
 
-    /** The supplier for creating new API handlers. */
-    private final BiFunction<T, String, ForemanApi> apiSupplier;
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(CommandProcessorStatus.class);
 
-    /** The dashboard URL. */
-    private final String foremanDashboardUrl;
+    /** The argument that shows what changed instead of checking. */
+    private static final String CHANGES = "changes";
+
+    /** The header for unhealthy miners. */
+    private static final String UNHEALTHY = "**Miners Unhealthy**\n\n";
+
+    /** Obtains the Foreman client ID from the session. */
+    private final Function<T, Integer> clientIdSupplier;
+
+    /** The minimum time between progress edits. */
+    private final long editIntervalMillis;
+
+    /** The limiter for calls to Foreman. */
+    private final ForemanCallLimiter foremanCallLimiter;
 
     /** Obtains the ID from the event. */
     private final Function<MessageReceivedEvent, String> idSupplier;
@@ -33,29 +61,61 @@ public class CommandProcessorStatus<T>
     /** The max notifications to send at once. */
     private final int maxNotifications;
 
+    /** The renderer for messages. */
+    private final MessageRenderer messageRenderer;
+
+    /** The history of each account's miners, or null to not keep one. */
+    private final MinerHistory minerHistory;
+
+    /** The parser for streamed miners. */
+    private final MinerStatusParser minerStatusParser;
+
+    /** Opens a pickaxe's raw miners response, or null to use the API. */
+    private final BiFunction<T, String, InputStream> minersStreamer;
+
+    /** Obtains the miners on a pickaxe. */
+    private final BiFunction<T, String, List<Miners.Miner>> minersSupplier;
+
+    /** Obtains a session's pickaxes. */
+    private final Function<T, List<Pickaxe.PickaxeInstance>> pickaxesSupplier;
+
     /** The repository for sessions. */
-    private final MongoRepository<T, String> sessionRepository;
+    private final CrudRepository<T, String> sessionRepository;
 
     /**
      * Constructor.
      *
-     * @param sessionRepository   The repository.
-     * @param idSupplier          The ID supplier.
-     * @param apiSupplier         The API supplier.
-     * @param foremanDashboardUrl The dashboard URL.
-     * @param maxNotifications    The max notifications.
+     * @param sessionRepository  The repository.
+     * @param idSupplier         The ID supplier.
+     * @param minerSources       Where pickaxes and miners are read from.
+     * @param messageRenderer    The renderer for messages.
+     * @param maxNotifications   The max notifications.
+     * @param editIntervalMillis The minimum time between progress edits.
+     * @param clientIdSupplier   Obtains the Foreman client ID from the session.
+     * @param minerHistory       The history of each account's miners, or null
+     *                           to not keep one.
      */
     public CommandProcessorStatus(
-            final MongoRepository<T, String> sessionRepository,
+            final CrudRepository<T, String> sessionRepository,
             final Function<MessageReceivedEvent, String> idSupplier,
-            final BiFunction<T, String, ForemanApi> apiSupplier,
-            final String foremanDashboardUrl,
-            final int maxNotifications) {
+            final MinerSources<T> minerSources,
+            final MessageRenderer messageRenderer,
+            final int maxNotifications,
+            final long editIntervalMillis,
+            final Function<T, Integer> clientIdSupplier,
+            final MinerHistory minerHistory) {
         this.sessionRepository = sessionRepository;
         this.idSupplier = idSupplier;
-        this.apiSupplier = apiSupplier;
-        this.foremanDashboardUrl = foremanDashboardUrl;
+        this.pickaxesSupplier = minerSources.getPickaxesSupplier();
+        this.minersSupplier = minerSources.getMinersSupplier();
+        this.minersStreamer = minerSources.getMinersStreamer();
+        this.minerStatusParser = minerSources.getMinerStatusParser();
+        this.foremanCallLimiter = minerSources.getForemanCallLimiter();
+        this.messageRenderer = messageRenderer;
         this.maxNotifications = maxNotifications;
+        this.editIntervalMillis = editIntervalMillis;
+        this.clientIdSupplier = clientIdSupplier;
+        this.minerHistory = minerHistory;
     }
 
     @Override
@@ -66,50 +126,60 @@ public class CommandProcessorStatus<T>
         final Optional<T> sessionOpt = this.sessionRepository.findById(id);
         if (sessionOpt.isPresent()) {
             final T session = sessionOpt.get();
-            final ForemanApi foremanApi =
-                    this.apiSupplier.apply(
-                            session,
-                            "");
-
-            final List<Pickaxe.PickaxeInstance> pickaxes =
-                    foremanApi.pickaxe().all();
-            final Map<String, List<Miners.Miner>> troubleMiners =
-                    pickaxes
-                            .stream()
-                            .map(pickaxe -> getMiners(session, pickaxe))
-                            .flatMap(List::stream)
-                            .filter(miner -> !miner.status.equals("okay"))
-                            .filter(miner -> miner.seen)
-                            .filter(miner -> miner.active)
-                            .collect(Collectors.groupingBy(miner -> miner.status));
-            if (!troubleMiners.isEmpty()) {
-                final List<Miners.Miner> failingMiners =
-                        troubleMiners.getOrDefault(
-                                "fail",
-                                Collections.emptyList());
-                final List<Miners.Miner> warningMiners =
-                        troubleMiners.getOrDefault(
-                                "warn",
-                                Collections.emptyList());
-                String discordMessage = "**Miners Unhealthy**\n\n";
-                if (!warningMiners.isEmpty()) {
-                    discordMessage += toMessage("Warn", warningMiners);
-                }
-                if (!failingMiners.isEmpty()) {
-                    discordMessage += toMessage("Fail", failingMiners);
-                }
-                MessageUtils.sendSimple(
-                        discordMessage,
-                        failingMiners.isEmpty()
-                                ? Color.ORANGE
-                                : Color.RED,
-                        messageChannel);
-            } else {
-                MessageUtils.sendSimple(
-                        "**Miners Healthy!**",
-                        Color.GREEN,
+
+            final String[] split =
+                    event
+                            .getMessage()
+                            .getContentRaw()
+                            .split(" ");
+            if (split.length >= 2 && CHANGES.equalsIgnoreCase(split[1])) {
+                sendChanges(
+                        session,
                         messageChannel);
+                return;
+            }
+
+            // Let the user know we're on it before crawling anything
+            final LiveMessage reply =
+                    new LiveMessage(
+                            "Checking on your miners...",
+                            messageChannel,
+                            this.editIntervalMillis);
+
+            final MinerBuckets troubleMiners = new MinerBuckets();
+            try {
+                findTroubleMiners(
+                        session,
+                        troubleMiners,
+                        (checked, total) -> {
+                            final String progress =
+                                    "*Checked " + checked + " of " + total + " pickaxes...*\n\n";
+                            reply.update(
+                                    () -> troubleMiners.isEmpty()
+                                            ? progress + "**No unhealthy miners so far**"
+                                            : toFirstPage(progress + UNHEALTHY, troubleMiners),
+                                    troubleMiners.isEmpty()
+                                            ? Color.ORANGE
+                                            : toColor(troubleMiners));
+                        });
+            } catch (final RejectedExecutionException e) {
+                reply.finish(
+                        Collections.singletonList(
+                                "Foreman is busy right now, try again in a bit"),
+                        Color.RED);
+                return;
+            } catch (final RuntimeException e) {
+                // Never leave the placeholder or a partial count behind
+                LOG.warn("Failed to check the miners for {}", id, e);
+                reply.finish(
+                        Collections.singletonList(
+                                "Something went wrong checking your miners, try again later"),
+                        Color.RED);
+                return;
             }
+            reply.finish(
+                    toMessages(troubleMiners),
+                    toColor(troubleMiners));
         } else {
             MessageUtils.sendSimple(
                     "We haven't met yet...",
@@ -119,37 +189,98 @@ public class CommandProcessorStatus<T>
     }
 
     /**
-     * Obtains the miners on the provided pickaxe.
-     *
-     * @param session The session.
-     * @param pickaxe The pickaxe.
+     * Finds the unhealthy miners on every one of the session's pickaxes.
      *
-     * @return The miners.
+     * @param session       The session.
+     * @param troubleMiners The destination.
+     * @param onProgress    Called after each pickaxe with how many have been
+     *                      checked and how many there are.
      */
-    private List<Miners.Miner> getMiners(
+    public void findTroubleMiners(
             final T session,
-            final Pickaxe.PickaxeInstance pickaxe) {
-        final ForemanApi foremanApi =
-                this.apiSupplier.apply(
-                        session,
-                        pickaxe.key);
-        return foremanApi.miners().all();
+            final MinerBuckets troubleMiners,
+            final BiConsumer<Integer, Integer> onProgress) {
+        final List<Pickaxe.PickaxeInstance> pickaxes =
+                this.foremanCallLimiter.call(() ->
+                        this.pickaxesSupplier.apply(session));
+        for (int i = 0; i < pickaxes.size(); i++) {
+            addMiners(
+                    session,
+                    pickaxes.get(i),
+                    troubleMiners);
+            onProgress.accept(
+                    i + 1,
+                    pickaxes.size());
+        }
+        if (this.minerHistory != null) {
+            this.minerHistory.recordCheck(
+                    this.clientIdSupplier.apply(session),
+                    troubleMiners,
+                    Instant.now());
+        }
     }
 
     /**
-     * Creates a string containing the message.
+     * Renders the outcome of a status check.
      *
-     * @param status Miner status (warn or fail).
-     * @param miners The failing miners.
+     * @param troubleMiners The non-okay miners, by status.
      *
-     * @return The message.
+     * @return The pages.
      */
-    private String toMessage(
-            final String status,
-            final List<Miners.Miner> miners) {
-        final StringBuilder message =
-                new StringBuilder("**" + status + "**:\n");
+    public List<String> toMessages(final MinerBuckets troubleMiners) {
+        return troubleMiners.isEmpty()
+                ? Collections.singletonList("**Miners Healthy!**")
+                : toPages(UNHEALTHY, troubleMiners);
+    }
+
+    /**
+     * Adds the unhealthy miners on the provided pickaxe to the buckets.
+     *
+     * @param session       The session.
+     * @param pickaxe       The pickaxe.
+     * @param troubleMiners The destination.
+     */
+    private void addMiners(
+            final T session,
+            final Pickaxe.PickaxeInstance pickaxe,
+            final MinerBuckets troubleMiners) {
+        if (this.minersStreamer != null) {
+            this.foremanCallLimiter.call(() -> {
+                try {
+                    this.minerStatusParser.parse(
+                            this.minersStreamer.apply(
+                                    session,
+                                    pickaxe.key),
+                            troubleMiners);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return null;
+            });
+        } else {
+            for (final Miners.Miner miner : getMiners(session, pickaxe)) {
+                if (!miner.status.equals("okay") && miner.seen && miner.active) {
+                    troubleMiners.add(
+                            miner.status,
+                            miner.id,
+                            miner.name);
+                }
+            }
+        }
+    }
 
+    /**
+     * Appends the provided miners to the message, one entry per miner, so the
+     * message can be split between them if it gets too long.
+     *
+     * @param status  Miner status (warn or fail).
+     * @param miners  The failing miners.
+     * @param message The message.
+     */
+    private void appendMiners(
+            final String status,
+            final MinerBuckets.Bucket miners,
+            final MessageRenderer.PagedMessage message) {
         boolean truncated = false;
         int minersLength = miners.size();
         if (this.maxNotifications < minersLength) {
@@ -157,32 +288,150 @@ public class CommandProcessorStatus<T>
             truncated = true;
         }
 
-        for (int i = 0; i < minersLength; i++) {
-            final Miners.Miner miner = miners.get(i);
-            message
-                    .append(toMinerUrl(miner))
-                    .append("\n");
+        for (int i = 0; i < minersLength && !message.isFull(); i++) {
+            final StringBuilder entry = message.entry();
+            if (i == 0) {
+                entry
+                        .append("**")
+                        .append(status)
+                        .append("**:\n");
+            }
+            this.messageRenderer
+                    .appendMinerLink(
+                            entry,
+                            miners.getName(i),
+                            miners.getId(i))
+                    .append('\n');
+            if (i == minersLength - 1) {
+                if (truncated) {
+                    entry.append("**TRUNCATED**");
+                }
+                entry.append('\n');
+            }
+            message.commit();
+        }
+    }
+
+    /**
+     * Obtains the miners on the provided pickaxe.
+     *
+     * @param session The session.
+     * @param pickaxe The pickaxe.
+     *
+     * @return The miners.
+     */
+    private List<Miners.Miner> getMiners(
+            final T session,
+            final Pickaxe.PickaxeInstance pickaxe) {
+        return this.foremanCallLimiter.call(() ->
+                this.minersSupplier.apply(
+                        session,
+                        pickaxe.key));
+    }
+
+    /**
+     * Sends what changed on the session's account, from memory.
+     *
+     * @param session        The session.
+     * @param messageChannel The channel to reply in.
+     */
+    private void sendChanges(
+            final T session,
+            final MessageChannel messageChannel) {
+        final Optional<List<String>> pages =
+                this.minerHistory != null
+                        ? this.minerHistory.render(this.clientIdSupplier.apply(session))
+                        : Optional.empty();
+        if (pages.isPresent()) {
+            for (final String page : pages.get()) {
+                MessageUtils.sendSimple(
+                        page,
+                        messageChannel);
+            }
+        } else {
+            MessageUtils.sendSimple(
+                    "Nothing to compare with yet, check on your miners' status first",
+                    messageChannel);
         }
-        if (truncated) {
-            message.append("**TRUNCATED**");
+    }
+
+    /**
+     * Picks the embed color for the provided miners.
+     *
+     * @param troubleMiners The non-okay miners, by status.
+     *
+     * @return The color.
+     */
+    private static Color toColor(final MinerBuckets troubleMiners) {
+        if (troubleMiners.isEmpty()) {
+            return Color.GREEN;
         }
-        return message
-                .append("\n")
-                .toString();
+        return troubleMiners.contains("fail")
+                ? Color.RED
+                : Color.ORANGE;
+    }
+
+    /**
+     * Renders only as many of the provided miners as fit on the first page,
+     * for progress updates.
+     *
+     * @param header        The header for the page.
+     * @param troubleMiners The non-okay miners, by status.
+     *
+     * @return The page.
+     */
+    private String toFirstPage(
+            final String header,
+            final MinerBuckets troubleMiners) {
+        return toPages(
+                header,
+                troubleMiners,
+                1).get(0);
+    }
+
+    /**
+     * Renders the provided miners into pages.
+     *
+     * @param header        The header for the first page.
+     * @param troubleMiners The non-okay miners, by status.
+     *
+     * @return The pages.
+     */
+    private List<String> toPages(
+            final String header,
+            final MinerBuckets troubleMiners) {
+        return toPages(
+                header,
+                troubleMiners,
+                Integer.MAX_VALUE);
     }
 
     /**
-     * Creates a URL with the provided miner's info.
+     * Renders the provided miners into pages, stopping once the max pages
+     * are full.
      *
-     * @param miner The miner.
+     * @param header        The header for the first page.
+     * @param troubleMiners The non-okay miners, by status.
+     * @param maxPages      The max pages.
      *
-     * @return The markdown link.
+     * @return The pages.
      */
-    private String toMinerUrl(final Miners.Miner miner) {
-        return String.format(
-                "[%s](%s/dashboard/miners/%d/details/)",
-                miner.name,
-                this.foremanDashboardUrl,
-                miner.id);
+    private List<String> toPages(
+            final String header,
+            final MinerBuckets troubleMiners,
+            final int maxPages) {
+        final MinerBuckets.Bucket failingMiners = troubleMiners.get("fail");
+        final MinerBuckets.Bucket warningMiners = troubleMiners.get("warn");
+        final MessageRenderer.PagedMessage message =
+                this.messageRenderer.newMessage(
+                        header,
+                        maxPages);
+        if (warningMiners != null) {
+            appendMiners("Warn", warningMiners, message);
+        }
+        if (failingMiners != null) {
+            appendMiners("Fail", failingMiners, message);
+        }
+        return message.toPages();
     }
 }
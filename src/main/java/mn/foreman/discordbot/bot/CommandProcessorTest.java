@@ -5,7 +5,7 @@ import mn.foreman.api.endpoints.ping.Ping;
 
 import net.dv8tion.jda.api.entities.MessageChannel;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
-import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.repository.CrudRepository;
 
 import java.awt.*;
 import java.util.Optional;
@@ -22,7 +22,7 @@ public class CommandProcessorTest<T>
     private final Function<MessageReceivedEvent, String> idSupplier;
 
     /** The session repository. */
-    private final MongoRepository<T, String> sessionRepository;
+    private final CrudRepository<T, String> sessionRepository;
 
     /** The start processor. */
     private final CommandProcessor startProcessor;
@@ -36,7 +36,7 @@ public class CommandProcessorTest<T>
      * @param startProcessor    The start processor.
      */
     public CommandProcessorTest(
-            final MongoRepository<T, String> sessionRepository,
+            final CrudRepository<T, String> sessionRepository,
             final Function<MessageReceivedEvent, String> idSupplier,
             final Function<T, ForemanApi> apiSupplier,
             final CommandProcessor startProcessor) {
@@ -0,0 +1,271 @@
+package mn.foreman.discordbot.bot;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link CommandThrottle} limits how often commands can be run, both per
+ * guild and per user, so a single impatient admin can't saturate the Foreman
+ * API or the bot's threads.
+ *
+ * <p>Every guild and every user has a token bucket, and each {@link Command}
+ * costs a number of tokens from both. Buckets are tracked as the time at
+ * which they'll be full again, so admitting a command is a single
+ * compare-and-set with no locks. A bucket that hasn't been touched for as
+ * long as it takes to refill is full, so it carries no state and expires on
+ * its own; the least recently used buckets are also dropped once too many
+ * are being tracked.</p>
+ */
+public class CommandThrottle {
+
+    /** Obtains the current time, in nanos. */
+    private final LongSupplier clock;
+
+    /** The buckets for each guild. */
+    private final Buckets guilds;
+
+    /** The registry for metrics. */
+    private final MeterRegistry meterRegistry;
+
+    /** The buckets for each user. */
+    private final Buckets users;
+
+    /**
+     * Constructor.
+     *
+     * @param guildCapacity     The max tokens a guild can hold.
+     * @param guildPerMinute    The tokens a guild regains per minute.
+     * @param userCapacity      The max tokens a user can hold.
+     * @param userPerMinute     The tokens a user regains per minute.
+     * @param maxTrackedBuckets How many buckets of each kind can be tracked
+     *                          before the least recently used are dropped.
+     * @param meterRegistry     The registry for metrics.
+     */
+    public CommandThrottle(
+            final int guildCapacity,
+            final double guildPerMinute,
+            final int userCapacity,
+            final double userPerMinute,
+            final int maxTrackedBuckets,
+            final MeterRegistry meterRegistry) {
+        this(
+                guildCapacity,
+                guildPerMinute,
+                userCapacity,
+                userPerMinute,
+                maxTrackedBuckets,
+                meterRegistry,
+                System::nanoTime);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param guildCapacity     The max tokens a guild can hold.
+     * @param guildPerMinute    The tokens a guild regains per minute.
+     * @param userCapacity      The max tokens a user can hold.
+     * @param userPerMinute     The tokens a user regains per minute.
+     * @param maxTrackedBuckets How many buckets of each kind can be tracked
+     *                          before the least recently used are dropped.
+     * @param meterRegistry     The registry for metrics.
+     * @param clock             Obtains the current time, in nanos.
+     */
+    CommandThrottle(
+            final int guildCapacity,
+            final double guildPerMinute,
+            final int userCapacity,
+            final double userPerMinute,
+            final int maxTrackedBuckets,
+            final MeterRegistry meterRegistry,
+            final LongSupplier clock) {
+        this.clock = clock;
+        this.guilds =
+                new Buckets(
+                        guildCapacity,
+                        guildPerMinute,
+                        maxTrackedBuckets,
+                        clock);
+        this.users =
+                new Buckets(
+                        userCapacity,
+                        userPerMinute,
+                        maxTrackedBuckets,
+                        clock);
+        this.meterRegistry = meterRegistry;
+        meterRegistry.gauge(
+                "bot.commands.throttle.buckets",
+                this,
+                throttle -> throttle.guilds.buckets.size() + throttle.users.buckets.size());
+    }
+
+    /**
+     * Takes the tokens for a command from the guild and from the user. Nothing
+     * is taken if either doesn't have enough.
+     *
+     * @param guildId The guild, or null for private messages.
+     * @param userId  The user.
+     * @param command The command.
+     *
+     * @return 0 if the command can run, otherwise how many millis until it
+     *         can.
+     */
+    public long tryAcquire(
+            final String guildId,
+            final String userId,
+            final Command command) {
+        final long now = this.clock.getAsLong();
+        final long cost = command.getCost();
+
+        final long userWait =
+                this.users.tryAcquire(
+                        userId,
+                        cost,
+                        now);
+        if (userWait > 0) {
+            return reject(
+                    command,
+                    "user",
+                    userWait);
+        }
+
+        if (guildId != null) {
+            final long guildWait =
+                    this.guilds.tryAcquire(
+                            guildId,
+                            cost,
+                            now);
+            if (guildWait > 0) {
+                this.users.refund(
+                        userId,
+                        cost);
+                return reject(
+                        command,
+                        "guild",
+                        guildWait);
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Counts a rejected command.
+     *
+     * @param command   The command.
+     * @param scope     The bucket that rejected it.
+     * @param waitNanos How long until it could run.
+     *
+     * @return How many millis until it could run.
+     */
+    private long reject(
+            final Command command,
+            final String scope,
+            final long waitNanos) {
+        this.meterRegistry
+                .counter(
+                        "bot.commands.throttled",
+                        "command",
+                        command.name(),
+                        "scope",
+                        scope)
+                .increment();
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+    }
+
+    /** The token buckets for one kind of key. */
+    private static class Buckets {
+
+        /** When each bucket will be full again. */
+        private final LoadingCache<String, AtomicLong> buckets;
+
+        /** How far ahead of now a bucket can be before it's empty. */
+        private final long burstNanos;
+
+        /** The time it takes to regain one token. */
+        private final long intervalNanos;
+
+        /**
+         * Constructor.
+         *
+         * @param capacity   The max tokens a bucket can hold.
+         * @param perMinute  The tokens a bucket regains per minute.
+         * @param maxTracked How many buckets can be tracked before the least
+         *                   recently used are dropped.
+         * @param clock      Obtains the current time, in nanos.
+         */
+        private Buckets(
+                final int capacity,
+                final double perMinute,
+                final int maxTracked,
+                final LongSupplier clock) {
+            this.intervalNanos = (long) (TimeUnit.MINUTES.toNanos(1) / perMinute);
+            this.burstNanos = capacity * this.intervalNanos;
+            // A bucket is never more than a burst ahead of its last use, so
+            // once that long has passed it's full and can go
+            this.buckets =
+                    CacheBuilder
+                            .newBuilder()
+                            .expireAfterAccess(
+                                    this.burstNanos,
+                                    TimeUnit.NANOSECONDS)
+                            .maximumSize(maxTracked)
+                            .ticker(new Ticker() {
+                                @Override
+                                public long read() {
+                                    return clock.getAsLong();
+                                }
+                            })
+                            .build(CacheLoader.from(() -> new AtomicLong(clock.getAsLong())));
+        }
+
+        /**
+         * Gives back tokens that were taken.
+         *
+         * @param key  The bucket.
+         * @param cost The tokens.
+         */
+        private void refund(
+                final String key,
+                final long cost) {
+            final AtomicLong bucket = this.buckets.getIfPresent(key);
+            if (bucket != null) {
+                bucket.addAndGet(-cost * this.intervalNanos);
+            }
+        }
+
+        /**
+         * Takes tokens from a bucket.
+         *
+         * @param key  The bucket.
+         * @param cost The tokens.
+         * @param now  The current time, in nanos.
+         *
+         * @return 0 if the tokens were taken, otherwise how many nanos until
+         *         they'd be available.
+         */
+        private long tryAcquire(
+                final String key,
+                final long cost,
+                final long now) {
+            final AtomicLong bucket = this.buckets.getUnchecked(key);
+            while (true) {
+                final long fullAt = bucket.get();
+                final long next =
+                        (fullAt - now > 0 ? fullAt : now) + cost * this.intervalNanos;
+                if (next - now > this.burstNanos) {
+                    return next - now - this.burstNanos;
+                }
+                if (bucket.compareAndSet(fullAt, next)) {
+                    return 0;
+                }
+            }
+        }
+    }
+}
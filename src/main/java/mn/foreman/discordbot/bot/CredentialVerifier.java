@@ -0,0 +1,82 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.api.ForemanApi;
+import mn.foreman.discordbot.db.Session;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Tells a session whose credentials stopped working apart from one that just
+ * has nothing to send.
+ *
+ * <p>The API handlers swallow errors, so a revoked key polls as an empty list
+ * of notifications and never backs off. After an empty poll, the session's
+ * credentials are pinged, the same way the {@link SessionProber} checks them,
+ * and a rejected ping is thrown as a failure. Sessions that passed are only
+ * pinged again once the verify interval has passed, so a quiet session costs
+ * at most one extra call per interval.</p>
+ */
+public class CredentialVerifier {
+
+    /** The supplier for API handlers. */
+    private final Function<Session, ForemanApi> apiSupplier;
+
+    /** The limiter for calls to Foreman. */
+    private final ForemanCallLimiter foremanCallLimiter;
+
+    /** The sessions whose credentials were recently verified. */
+    private final Cache<String, Boolean> verified;
+
+    /**
+     * Constructor.
+     *
+     * @param apiSupplier        The supplier for API handlers.
+     * @param foremanCallLimiter The limiter for calls to Foreman.
+     * @param verifyInterval     How long a verified session is trusted.
+     * @param maxTracked         The max verified sessions to remember.
+     */
+    public CredentialVerifier(
+            final Function<Session, ForemanApi> apiSupplier,
+            final ForemanCallLimiter foremanCallLimiter,
+            final Duration verifyInterval,
+            final int maxTracked) {
+        this.apiSupplier = apiSupplier;
+        this.foremanCallLimiter = foremanCallLimiter;
+        this.verified =
+                CacheBuilder
+                        .newBuilder()
+                        .expireAfterWrite(verifyInterval)
+                        .maximumSize(maxTracked)
+                        .build();
+    }
+
+    /**
+     * Verifies the session's credentials after a poll that came back empty,
+     * unless they were verified recently.
+     *
+     * @param session The session.
+     *
+     * @throws IllegalStateException if the credentials were rejected.
+     * @throws java.util.concurrent.RejectedExecutionException if Foreman is
+     *                                                         shedding load.
+     */
+    public void verifyEmpty(final Session session) {
+        if (this.verified.getIfPresent(session.getId()) != null) {
+            return;
+        }
+        if (!this.foremanCallLimiter.call(() ->
+                this.apiSupplier
+                        .apply(session)
+                        .ping()
+                        .pingClient())) {
+            throw new IllegalStateException("Credentials rejected");
+        }
+        this.verified.put(
+                session.getId(),
+                Boolean.TRUE);
+    }
+}
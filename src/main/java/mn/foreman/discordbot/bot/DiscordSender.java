@@ -0,0 +1,500 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.discordbot.db.AlertBoard;
+import mn.foreman.discordbot.db.Session;
+import mn.foreman.discordbot.db.SessionStore;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.Tracer;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.MessageChannel;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
+import net.dv8tion.jda.api.requests.ErrorResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Sends notifications to a {@link Session}'s destination: its channel for
+ * guild sessions, or a direct message for private sessions.
+ *
+ * <p>Destinations that no longer exist, or that the bot can no longer reach,
+ * quarantine the session rather than failing on every sweep.</p>
+ */
+public class DiscordSender
+        implements NotificationSender {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(DiscordSender.class);
+
+    /** The errors that mean the destination won't accept messages again. */
+    private static final Set<ErrorResponse> UNREACHABLE =
+            EnumSet.of(
+                    ErrorResponse.CANNOT_SEND_TO_USER,
+                    ErrorResponse.MISSING_ACCESS,
+                    ErrorResponse.UNKNOWN_CHANNEL,
+                    ErrorResponse.UNKNOWN_GUILD,
+                    ErrorResponse.UNKNOWN_USER);
+
+    /** The policy that paces replayed notifications. */
+    private final CatchUpPolicy catchUpPolicy;
+
+    /** Tracks whether or not the gateway is ready. */
+    private final GatewayReadiness gatewayReadiness;
+
+    /** The JDA. */
+    private final JDA jda;
+
+    /** The health tracker for sessions. */
+    private final SessionHealth sessionHealth;
+
+    /** The session repository. */
+    private final SessionStore sessionRepository;
+
+    /** The tracer. */
+    private final Tracer tracer;
+
+    /** The recorder for sent messages, or null if traffic isn't recorded. */
+    private final TrafficRecorder trafficRecorder;
+
+    /** The client for guild webhooks, or null if they aren't used. */
+    private final WebhookClient webhookClient;
+
+    /**
+     * Constructor.
+     *
+     * @param jda               The JDA.
+     * @param sessionRepository The session repository.
+     * @param sessionHealth     The health tracker for sessions.
+     * @param gatewayReadiness  Tracks whether or not the gateway is ready.
+     * @param catchUpPolicy     The policy that paces replayed notifications.
+     * @param tracer            The tracer.
+     * @param trafficRecorder   The recorder for sent messages, or null if
+     *                          traffic isn't recorded.
+     * @param webhookClient     The client for guild webhooks, or null if
+     *                          they aren't used.
+     */
+    public DiscordSender(
+            final JDA jda,
+            final SessionStore sessionRepository,
+            final SessionHealth sessionHealth,
+            final GatewayReadiness gatewayReadiness,
+            final CatchUpPolicy catchUpPolicy,
+            final Tracer tracer,
+            final TrafficRecorder trafficRecorder,
+            final WebhookClient webhookClient) {
+        this.jda = jda;
+        this.gatewayReadiness = gatewayReadiness;
+        this.sessionRepository = sessionRepository;
+        this.sessionHealth = sessionHealth;
+        this.catchUpPolicy = catchUpPolicy;
+        this.tracer = tracer;
+        this.trafficRecorder = trafficRecorder;
+        this.webhookClient = webhookClient;
+    }
+
+    /**
+     * Returns whether or not a failed send would fail the same way if it were
+     * retried, because Discord rejected the message rather than being
+     * unavailable or slow to respond.
+     *
+     * @param throwable The failure.
+     *
+     * @return Whether or not the failure is permanent.
+     */
+    public static boolean isPermanent(final Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause.getCause() != null && !(cause instanceof ErrorResponseException)) {
+            cause = cause.getCause();
+        }
+        return cause instanceof ErrorResponseException &&
+                ((ErrorResponseException) cause).getErrorResponse() != ErrorResponse.SERVER_ERROR;
+    }
+
+    /**
+     * Checks whether or not the session's destination is on the gateway shard
+     * this node holds.
+     *
+     * @param session The session.
+     *
+     * @return Whether or not this node can deliver to the session.
+     */
+    public boolean handles(final Session session) {
+        final JDA.ShardInfo shardInfo = this.jda.getShardInfo();
+        return ShardUtils.shardOf(
+                session,
+                shardInfo.getShardTotal()) == shardInfo.getShardId();
+    }
+
+    /**
+     * Checks whether or not the session's destination still exists. Must only
+     * be called once the gateway is ready.
+     *
+     * @param session The session.
+     *
+     * @return Whether or not the destination exists.
+     */
+    public boolean isReachable(final Session session) {
+        switch (session.getType()) {
+            case GUILD:
+                return this.jda.getTextChannelById(session.getChannelId()) != null;
+            case PRIVATE:
+                try {
+                    return this.jda
+                            .retrieveUserById(session.getId())
+                            .complete() != null;
+                } catch (final ErrorResponseException e) {
+                    return false;
+                }
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Sends the notification to the session's destination. If the gateway
+     * isn't ready yet, the send is buffered until it is. Replayed
+     * notifications wait for their turn in the shared replay budget.
+     *
+     * <p>The send is traced from the moment it's requested until Discord
+     * accepts it, with an event marking when it was actually dispatched.</p>
+     *
+     * @param notification The notification.
+     * @param session      The session.
+     *
+     * @return A future that completes once Discord has accepted the message.
+     */
+    @Override
+    public CompletableFuture<Void> send(
+            final NotificationsProcessorImpl.DiscordNotification notification,
+            final Session session) {
+        final BotEvents.DiscordSendEvent event = new BotEvents.DiscordSendEvent();
+        event.sessionId = session.getId();
+        event.replay = notification.isReplay();
+        event.begin();
+        final long requested = System.nanoTime();
+        final Span span =
+                this.tracer
+                        .spanBuilder("discord.send")
+                        .setAttribute(TraceUtils.SESSION_ID, session.getId())
+                        .setAttribute(TraceUtils.SESSION_TYPE, String.valueOf(session.getType()))
+                        .setAttribute("replay", notification.isReplay())
+                        .startSpan();
+        final Runnable onDispatch = () -> {
+            span.addEvent("dispatched");
+            event.queuedMillis =
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requested);
+        };
+        return this.gatewayReadiness
+                .whenReady(() -> {
+                    if (notification.isReplay()) {
+                        return CompletableFuture
+                                .runAsync(
+                                        () -> {
+                                        },
+                                        this.catchUpPolicy.nextReplaySlot())
+                                .thenCompose(ignored ->
+                                        sendNow(
+                                                notification,
+                                                session,
+                                                onDispatch));
+                    }
+                    return sendNow(
+                            notification,
+                            session,
+                            onDispatch);
+                })
+                .whenComplete((ignored, throwable) -> {
+                    if (throwable != null) {
+                        TraceUtils.fail(
+                                span,
+                                throwable);
+                    }
+                    span.end();
+                    event.failed = throwable != null;
+                    event.commit();
+                    if (this.trafficRecorder != null) {
+                        this.trafficRecorder.recordSend(
+                                session.getId(),
+                                notification,
+                                throwable != null);
+                    }
+                });
+    }
+
+    /**
+     * Quarantines the session if the failure means its destination is gone
+     * for good.
+     *
+     * @param session   The session.
+     * @param throwable The failure.
+     */
+    private void onFailure(
+            final Session session,
+            final Throwable throwable) {
+        final Throwable cause =
+                throwable instanceof CompletionException && throwable.getCause() != null
+                        ? throwable.getCause()
+                        : throwable;
+        if (cause instanceof ErrorResponseException &&
+                UNREACHABLE.contains(((ErrorResponseException) cause).getErrorResponse())) {
+            quarantine(
+                    session,
+                    ((ErrorResponseException) cause).getErrorResponse().name());
+        } else {
+            LOG.warn("Failed to send to {}: {}", session.getId(), cause.getMessage());
+        }
+    }
+
+    /**
+     * Quarantines the session and persists its health.
+     *
+     * @param session The session.
+     * @param reason  Why the session was quarantined.
+     */
+    private void quarantine(
+            final Session session,
+            final String reason) {
+        this.sessionHealth.quarantine(
+                session,
+                reason);
+        this.sessionRepository.saveHealth(session);
+    }
+
+    /**
+     * Sends the notification to the session's destination.
+     *
+     * @param notification The notification.
+     * @param session      The session.
+     * @param onDispatch   Called as the message is handed to JDA.
+     *
+     * @return A future that completes once Discord has accepted the message.
+     */
+    private CompletableFuture<Void> sendNow(
+            final NotificationsProcessorImpl.DiscordNotification notification,
+            final Session session,
+            final Runnable onDispatch) {
+        onDispatch.run();
+        final MessageEmbed embed =
+                MessageUtils.toEmbed(
+                        notification.getMessage(),
+                        notification.isError()
+                                ? Color.RED
+                                : Color.GREEN);
+        final CompletableFuture<Void> sent;
+        if (notification.isBoard() && session.getAlertBoard() != null) {
+            sent = sendBoard(
+                    embed,
+                    session);
+        } else if (this.webhookClient != null && session.getWebhookUrl() != null) {
+            sent = sendToWebhook(
+                    notification,
+                    embed,
+                    session);
+        } else {
+            sent = sendToDestination(
+                    embed,
+                    session);
+        }
+        return sent.whenComplete((ignored, throwable) -> {
+            if (throwable != null) {
+                onFailure(
+                        session,
+                        throwable);
+            }
+        });
+    }
+
+    /**
+     * Posts the message through the session's webhook. If the webhook has
+     * been deleted, it's forgotten and the message is sent by the bot
+     * instead.
+     *
+     * @param notification The notification.
+     * @param embed        The message, for sending it by the bot.
+     * @param session      The session.
+     *
+     * @return A future that completes once the message is sent.
+     */
+    private CompletableFuture<Void> sendToWebhook(
+            final NotificationsProcessorImpl.DiscordNotification notification,
+            final MessageEmbed embed,
+            final Session session) {
+        return this.webhookClient
+                .post(
+                        session.getWebhookUrl(),
+                        notification.getMessage(),
+                        notification.isError()
+                                ? Color.RED
+                                : Color.GREEN)
+                .handle((ignored, throwable) -> {
+                    if (throwable == null) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    if (WebhookClient.isGone(throwable)) {
+                        LOG.info("Webhook for {} is gone, falling back to the bot",
+                                session.getId());
+                        session.setWebhookUrl(null);
+                        this.sessionRepository.saveWebhookUrl(session);
+                        return sendToDestination(
+                                embed,
+                                session);
+                    }
+                    return CompletableFuture.<Void>failedFuture(throwable);
+                })
+                .thenCompose(Function.identity());
+    }
+
+    /**
+     * Opens the session's destination: its channel for guild sessions, or a
+     * direct message with its user for private sessions. If the destination
+     * is gone, the session is quarantined.
+     *
+     * @param session The session.
+     *
+     * @return A future that completes with the destination, or null if it's
+     *         gone.
+     */
+    private CompletableFuture<MessageChannel> openDestination(final Session session) {
+        switch (session.getType()) {
+            case GUILD:
+                final MessageChannel messageChannel =
+                        this.jda.getTextChannelById(session.getChannelId());
+                if (messageChannel == null) {
+                    quarantine(
+                            session,
+                            "Channel missing");
+                }
+                return CompletableFuture.completedFuture(messageChannel);
+            case PRIVATE:
+                return this.jda
+                        .retrieveUserById(session.getId())
+                        .submit()
+                        .thenCompose(user -> {
+                            if (user != null) {
+                                return user
+                                        .openPrivateChannel()
+                                        .submit()
+                                        .thenApply(privateChannel -> privateChannel);
+                            }
+                            quarantine(
+                                    session,
+                                    "User missing");
+                            return CompletableFuture.completedFuture(null);
+                        });
+            default:
+                LOG.warn("Unknown session type for {}", session);
+                return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Posts the session's alert board, replacing the previous one in place.
+     * If the previous board is gone or was posted somewhere else, a new one is
+     * posted and remembered on the session.
+     *
+     * @param embed   The board.
+     * @param session The session.
+     *
+     * @return A future that completes once the board is written.
+     */
+    private CompletableFuture<Void> sendBoard(
+            final MessageEmbed embed,
+            final Session session) {
+        final AlertBoard board = session.getAlertBoard();
+        return openDestination(session)
+                .thenCompose(messageChannel -> {
+                    if (messageChannel == null) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    if (board.getMessageId() == null ||
+                            !messageChannel.getId().equals(board.getChannelId())) {
+                        return postBoard(
+                                messageChannel,
+                                embed,
+                                session);
+                    }
+                    return messageChannel
+                            .editMessageById(
+                                    board.getMessageId(),
+                                    embed)
+                            .submit()
+                            .handle((message, throwable) -> {
+                                if (throwable == null) {
+                                    return CompletableFuture.<Void>completedFuture(null);
+                                }
+                                final Throwable cause =
+                                        throwable instanceof CompletionException && throwable.getCause() != null
+                                                ? throwable.getCause()
+                                                : throwable;
+                                if (cause instanceof ErrorResponseException &&
+                                        ((ErrorResponseException) cause).getErrorResponse() == ErrorResponse.UNKNOWN_MESSAGE) {
+                                    // Somebody deleted the board
+                                    return postBoard(
+                                            messageChannel,
+                                            embed,
+                                            session);
+                                }
+                                return CompletableFuture.<Void>failedFuture(throwable);
+                            })
+                            .thenCompose(Function.identity());
+                });
+    }
+
+    /**
+     * Posts a new alert board and remembers it on the session.
+     *
+     * @param messageChannel The destination.
+     * @param embed          The board.
+     * @param session        The session.
+     *
+     * @return A future that completes once the board is posted.
+     */
+    private CompletableFuture<Void> postBoard(
+            final MessageChannel messageChannel,
+            final MessageEmbed embed,
+            final Session session) {
+        return messageChannel
+                .sendMessage(embed)
+                .submit()
+                .thenAccept(message -> {
+                    final AlertBoard board = session.getAlertBoard();
+                    board.setChannelId(messageChannel.getId());
+                    board.setMessageId(message.getId());
+                    this.sessionRepository.saveBoardMessage(session);
+                });
+    }
+
+    /**
+     * Sends the message to the session's destination.
+     *
+     * @param embed   The message.
+     * @param session The session.
+     *
+     * @return A future that completes once the message is sent.
+     */
+    private CompletableFuture<Void> sendToDestination(
+            final MessageEmbed embed,
+            final Session session) {
+        return openDestination(session)
+                .thenCompose(messageChannel -> {
+                    if (messageChannel == null) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    return messageChannel
+                            .sendMessage(embed)
+                            .submit()
+                            .thenAccept(message -> {
+                            });
+                });
+    }
+}
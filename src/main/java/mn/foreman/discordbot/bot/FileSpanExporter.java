@@ -0,0 +1,136 @@
+package mn.foreman.discordbot.bot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.EventData;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link SpanExporter} that appends every finished span to a local file as
+ * one JSON object per line, so traces can be analyzed without running a
+ * collector.
+ */
+public class FileSpanExporter
+        implements SpanExporter {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(FileSpanExporter.class);
+
+    /** The mapper. */
+    private final ObjectMapper objectMapper;
+
+    /** The file. */
+    private final Writer writer;
+
+    /**
+     * Constructor.
+     *
+     * @param path         The file.
+     * @param objectMapper The mapper.
+     *
+     * @throws IOException on failure to open the file.
+     */
+    public FileSpanExporter(
+            final Path path,
+            final ObjectMapper objectMapper) throws IOException {
+        this.writer =
+                Files.newBufferedWriter(
+                        path,
+                        StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND);
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public synchronized CompletableResultCode export(final Collection<SpanData> spans) {
+        try {
+            for (final SpanData span : spans) {
+                this.writer.write(this.objectMapper.writeValueAsString(toMap(span)));
+                this.writer.write('\n');
+            }
+            this.writer.flush();
+            return CompletableResultCode.ofSuccess();
+        } catch (final IOException e) {
+            LOG.warn("Failed to write {} spans", spans.size(), e);
+            return CompletableResultCode.ofFailure();
+        }
+    }
+
+    @Override
+    public synchronized CompletableResultCode flush() {
+        try {
+            this.writer.flush();
+            return CompletableResultCode.ofSuccess();
+        } catch (final IOException e) {
+            return CompletableResultCode.ofFailure();
+        }
+    }
+
+    @Override
+    public synchronized CompletableResultCode shutdown() {
+        try {
+            this.writer.close();
+            return CompletableResultCode.ofSuccess();
+        } catch (final IOException e) {
+            return CompletableResultCode.ofFailure();
+        }
+    }
+
+    /**
+     * Converts a span to the fields that are written.
+     *
+     * @param span The span.
+     *
+     * @return The fields.
+     */
+    private static Map<String, Object> toMap(final SpanData span) {
+        final Map<String, Object> attributes = new LinkedHashMap<>();
+        span.getAttributes().forEach((key, value) ->
+                attributes.put(
+                        key.getKey(),
+                        value));
+
+        final List<Map<String, Object>> events = new ArrayList<>();
+        for (final EventData event : span.getEvents()) {
+            final Map<String, Object> fields = new LinkedHashMap<>();
+            fields.put("name", event.getName());
+            fields.put("offsetMicros",
+                    TimeUnit.NANOSECONDS.toMicros(
+                            event.getEpochNanos() - span.getStartEpochNanos()));
+            events.add(fields);
+        }
+
+        final Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("traceId", span.getTraceId());
+        fields.put("spanId", span.getSpanId());
+        fields.put("parentSpanId", span.getParentSpanId());
+        fields.put("name", span.getName());
+        fields.put("startEpochMicros",
+                TimeUnit.NANOSECONDS.toMicros(span.getStartEpochNanos()));
+        fields.put("durationMicros",
+                TimeUnit.NANOSECONDS.toMicros(
+                        span.getEndEpochNanos() - span.getStartEpochNanos()));
+        fields.put("status", span.getStatus().getStatusCode().name());
+        fields.put("attributes", attributes);
+        fields.put("events", events);
+        return fields;
+    }
+}
@@ -0,0 +1,193 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.api.ForemanApi;
+import mn.foreman.api.ForemanApiImpl;
+import mn.foreman.api.JdkWebUtil;
+import mn.foreman.api.WebUtil;
+import mn.foreman.api.endpoints.miners.Miners;
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.api.endpoints.pickaxe.Pickaxe;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ForemanSource} that reads from the live Foreman API.
+ *
+ * <p>Notifications fetched for a sweep never wait past the sweep's
+ * {@link SweepDeadline}.</p>
+ */
+public class ForemanApiSource
+        implements ForemanSource {
+
+    /** The max time a request can take. */
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    /** The API URL. */
+    private final String foremanApiUrl;
+
+    /** The client for streaming miners. */
+    private final ForemanHttpClient foremanHttpClient;
+
+    /** The mapper. */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Constructor.
+     *
+     * @param foremanApiUrl     The API URL.
+     * @param objectMapper      The mapper.
+     * @param foremanHttpClient The client for streaming miners.
+     */
+    public ForemanApiSource(
+            final String foremanApiUrl,
+            final ObjectMapper objectMapper,
+            final ForemanHttpClient foremanHttpClient) {
+        this.foremanApiUrl = foremanApiUrl;
+        this.objectMapper = objectMapper;
+        this.foremanHttpClient = foremanHttpClient;
+    }
+
+    @Override
+    public List<Miners.Miner> miners(
+            final int clientId,
+            final String apiKey,
+            final String pickaxe) {
+        return toApi(
+                clientId,
+                apiKey,
+                pickaxe)
+                .miners()
+                .all();
+    }
+
+    @Override
+    public List<Notifications.Notification> notifications(
+            final int clientId,
+            final String apiKey,
+            final int lastNotificationId,
+            final Instant startDate) {
+        final long timeoutMillis =
+                TimeUnit.NANOSECONDS.toMillis(
+                        SweepDeadline.remainingNanos(
+                                TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS)));
+        try {
+            return toApi(
+                    clientId,
+                    "",
+                    new JdkWebUtil(
+                            this.foremanApiUrl,
+                            apiKey,
+                            (int) Math.max(1, timeoutMillis),
+                            TimeUnit.MILLISECONDS))
+                    .notifications()
+                    .discord(
+                            lastNotificationId,
+                            startDate);
+        } catch (final RuntimeException e) {
+            if (SweepDeadline.isPassed()) {
+                // Cut short by the sweep, not by anything wrong with the session
+                throw new RejectedExecutionException("The sweep's deadline passed during the fetch", e);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<Notifications.Notification>> notificationsAsync(
+            final int clientId,
+            final String apiKey,
+            final int lastNotificationId,
+            final Instant startDate) {
+        return this.foremanHttpClient.callAsync(
+                webUtil ->
+                        toApi(
+                                clientId,
+                                "",
+                                webUtil)
+                                .notifications()
+                                .discord(
+                                        lastNotificationId,
+                                        startDate),
+                apiKey);
+    }
+
+    @Override
+    public InputStream openMiners(
+            final int clientId,
+            final String apiKey,
+            final String pickaxe) throws IOException {
+        return this.foremanHttpClient.open(
+                webUtil ->
+                        toApi(
+                                clientId,
+                                pickaxe,
+                                webUtil)
+                                .miners()
+                                .all(),
+                apiKey);
+    }
+
+    @Override
+    public List<Pickaxe.PickaxeInstance> pickaxes(
+            final int clientId,
+            final String apiKey) {
+        return toApi(
+                clientId,
+                apiKey,
+                "")
+                .pickaxe()
+                .all();
+    }
+
+    /**
+     * Creates an API handler.
+     *
+     * @param clientId The client ID.
+     * @param apiKey   The API key.
+     * @param pickaxe  The pickaxe key, or empty for client-wide endpoints.
+     *
+     * @return The handler.
+     */
+    private ForemanApi toApi(
+            final int clientId,
+            final String apiKey,
+            final String pickaxe) {
+        return toApi(
+                clientId,
+                pickaxe,
+                new JdkWebUtil(
+                        this.foremanApiUrl,
+                        apiKey,
+                        (int) TIMEOUT_MILLIS,
+                        TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Creates an API handler that makes its requests through the provided
+     * {@link WebUtil}.
+     *
+     * @param clientId The client ID.
+     * @param pickaxe  The pickaxe key, or empty for client-wide endpoints.
+     * @param webUtil  The {@link WebUtil}.
+     *
+     * @return The handler.
+     */
+    private ForemanApi toApi(
+            final int clientId,
+            final String pickaxe,
+            final WebUtil webUtil) {
+        return new ForemanApiImpl(
+                Integer.toString(clientId),
+                pickaxe,
+                this.objectMapper,
+                webUtil);
+    }
+}
@@ -0,0 +1,320 @@
+package mn.foreman.discordbot.bot;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A {@link ForemanCallLimiter} bounds how many calls to the Foreman API can be
+ * in flight at once, adapting that bound to how the API is responding.
+ *
+ * <p>The limit follows AIMD: every call that completes quickly while the
+ * limit is being used raises it a little, and every slow or failed call
+ * multiplies it down. Calls that would exceed the limit are rejected rather
+ * than queued, so a struggling API sheds load instead of piling up threads
+ * that are each waiting out the full timeout.</p>
+ *
+ * <p>The API handlers swallow errors, so a call that takes longer than the
+ * slow-call threshold counts as a failure. When too many of the most recent
+ * calls failed, the circuit opens and every call is rejected until the open
+ * duration has passed. A single probe is then let through: if it's healthy,
+ * the circuit closes; otherwise, it opens again. Only the probe decides, so
+ * calls that were already in flight when the circuit opened can't close it
+ * or open it again when they finally finish.</p>
+ */
+public class ForemanCallLimiter {
+
+    /** The factor the limit is multiplied by on a slow or failed call. */
+    private final double backoffRatio;
+
+    /** The failure rate, from 0 to 1, that opens the circuit. */
+    private final double failureRate;
+
+    /** The max limit. */
+    private final int maxLimit;
+
+    /** The min limit. */
+    private final int minLimit;
+
+    /** How long the circuit stays open before a probe is allowed. */
+    private final long openMillis;
+
+    /** The outcomes of the most recent calls; true for failures. */
+    private final boolean[] outcomes;
+
+    /** The counter for calls rejected by the limit. */
+    private final Counter rejectedLimit;
+
+    /** The counter for calls rejected while the circuit was open. */
+    private final Counter rejectedOpen;
+
+    /** How long a call can take before it counts as a failure. */
+    private final long slowCallNanos;
+
+    /** How many of the recorded outcomes were failures. */
+    private int failures;
+
+    /** The number of calls in flight. */
+    private volatile int inFlight;
+
+    /** The current limit. */
+    private volatile double limit;
+
+    /** When the circuit was last opened. */
+    private long openedAt;
+
+    /** How many outcomes have been recorded, up to the window size. */
+    private int outcomeCount;
+
+    /** Where the next outcome will be recorded. */
+    private int outcomeIndex;
+
+    /** Whether or not the half-open probe is in flight. */
+    private boolean probing;
+
+    /** The circuit state. */
+    private volatile State state = State.CLOSED;
+
+    /**
+     * Constructor.
+     *
+     * @param initialLimit   The initial limit.
+     * @param minLimit       The min limit.
+     * @param maxLimit       The max limit.
+     * @param backoffRatio   The factor the limit is multiplied by on a slow or
+     *                       failed call.
+     * @param slowCallMillis How long a call can take before it counts as a
+     *                       failure.
+     * @param windowSize     How many of the most recent calls are considered
+     *                       when deciding whether to open the circuit.
+     * @param failureRate    The failure rate, from 0 to 1, that opens the
+     *                       circuit.
+     * @param openMillis     How long the circuit stays open before a probe is
+     *                       allowed.
+     * @param meterRegistry  The registry for metrics.
+     */
+    public ForemanCallLimiter(
+            final int initialLimit,
+            final int minLimit,
+            final int maxLimit,
+            final double backoffRatio,
+            final long slowCallMillis,
+            final int windowSize,
+            final double failureRate,
+            final long openMillis,
+            final MeterRegistry meterRegistry) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.outcomes = new boolean[windowSize];
+        this.failureRate = failureRate;
+        this.openMillis = openMillis;
+        meterRegistry.gauge(
+                "bot.foreman.limit",
+                this,
+                limiter -> limiter.limit);
+        meterRegistry.gauge(
+                "bot.foreman.inflight",
+                this,
+                limiter -> limiter.inFlight);
+        meterRegistry.gauge(
+                "bot.foreman.circuit.open",
+                this,
+                limiter -> limiter.state != State.CLOSED ? 1 : 0);
+        this.rejectedLimit =
+                meterRegistry.counter(
+                        "bot.foreman.rejected",
+                        "reason",
+                        "limit");
+        this.rejectedOpen =
+                meterRegistry.counter(
+                        "bot.foreman.rejected",
+                        "reason",
+                        "circuit");
+    }
+
+    /**
+     * Performs a blocking call to the API.
+     *
+     * @param call The call.
+     * @param <T>  The response type.
+     *
+     * @return The response.
+     *
+     * @throws RejectedExecutionException if the call was shed.
+     */
+    public <T> T call(final Supplier<T> call) {
+        final boolean probe = acquire();
+        final BotEvents.ForemanCallEvent event = new BotEvents.ForemanCallEvent();
+        event.begin();
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final T result = call.get();
+            failed = false;
+            return result;
+        } finally {
+            release(
+                    System.nanoTime() - start,
+                    failed,
+                    probe);
+            event.failed = failed;
+            event.commit();
+        }
+    }
+
+    /**
+     * Performs a non-blocking call to the API. The call holds its room in
+     * the limit until the returned future completes.
+     *
+     * @param call The call.
+     * @param <T>  The response type.
+     *
+     * @return The response, or a {@link RejectedExecutionException} if the
+     *         call was shed.
+     */
+    public <T> CompletableFuture<T> callAsync(final Supplier<CompletableFuture<T>> call) {
+        final boolean probe;
+        try {
+            probe = acquire();
+        } catch (final RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        final BotEvents.ForemanCallEvent event = new BotEvents.ForemanCallEvent();
+        event.begin();
+        final long start = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (final RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((result, throwable) -> {
+            release(
+                    System.nanoTime() - start,
+                    throwable != null,
+                    probe);
+            event.failed = throwable != null;
+            event.commit();
+        });
+    }
+
+    /**
+     * Reserves room for a call.
+     *
+     * @return Whether or not the call is the half-open probe.
+     *
+     * @throws RejectedExecutionException if the call was shed.
+     */
+    private synchronized boolean acquire() {
+        if (this.state == State.OPEN) {
+            if (System.currentTimeMillis() - this.openedAt < this.openMillis) {
+                this.rejectedOpen.increment();
+                throw new RejectedExecutionException("Foreman circuit is open");
+            }
+            this.state = State.HALF_OPEN;
+        }
+        if (this.state == State.HALF_OPEN) {
+            if (this.probing) {
+                this.rejectedOpen.increment();
+                throw new RejectedExecutionException("Foreman circuit is open");
+            }
+            this.probing = true;
+            this.inFlight++;
+            return true;
+        } else if (this.inFlight >= (int) this.limit) {
+            this.rejectedLimit.increment();
+            throw new RejectedExecutionException(
+                    "Foreman limit of " + (int) this.limit + " reached");
+        }
+        this.inFlight++;
+        return false;
+    }
+
+    /**
+     * Opens the circuit and forgets the recorded outcomes.
+     */
+    private void open() {
+        this.state = State.OPEN;
+        this.openedAt = System.currentTimeMillis();
+        this.outcomeCount = 0;
+        this.outcomeIndex = 0;
+        this.failures = 0;
+    }
+
+    /**
+     * Records the outcome of a call that was previously reserved.
+     *
+     * @param rttNanos How long the call took.
+     * @param failed   Whether or not the call threw.
+     * @param probe    Whether or not the call was the half-open probe.
+     */
+    private synchronized void release(
+            final long rttNanos,
+            final boolean failed,
+            final boolean probe) {
+        final boolean unhealthy = failed || rttNanos >= this.slowCallNanos;
+        final int usage = this.inFlight--;
+
+        if (unhealthy) {
+            this.limit = Math.max(this.minLimit, this.limit * this.backoffRatio);
+        } else if (usage * 2 >= this.limit) {
+            // Only grow when the limit is actually being used
+            this.limit = Math.min(this.maxLimit, this.limit + 1 / this.limit);
+        }
+
+        if (probe) {
+            this.probing = false;
+            if (unhealthy) {
+                open();
+            } else {
+                this.state = State.CLOSED;
+            }
+            return;
+        }
+
+        switch (this.state) {
+            case CLOSED:
+                if (this.outcomeCount == this.outcomes.length) {
+                    if (this.outcomes[this.outcomeIndex]) {
+                        this.failures--;
+                    }
+                } else {
+                    this.outcomeCount++;
+                }
+                this.outcomes[this.outcomeIndex] = unhealthy;
+                if (unhealthy) {
+                    this.failures++;
+                }
+                this.outcomeIndex = (this.outcomeIndex + 1) % this.outcomes.length;
+                if (this.outcomeCount == this.outcomes.length &&
+                        this.failures >= this.failureRate * this.outcomes.length) {
+                    open();
+                }
+                break;
+            default:
+                // Calls that were in flight when the circuit opened don't
+                // count; only the probe decides whether it closes
+                break;
+        }
+    }
+
+    /** The circuit states. */
+    private enum State {
+
+        /** Calls are allowed, up to the limit. */
+        CLOSED,
+
+        /** A single probe is allowed. */
+        HALF_OPEN,
+
+        /** Every call is rejected. */
+        OPEN
+    }
+}
@@ -0,0 +1,262 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.api.WebUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * A client for the Foreman API endpoints that the bot streams directly, rather
+ * than reading through the API handlers.
+ *
+ * <p>Unlike the {@link mn.foreman.api.JdkWebUtil}-backed API handlers,
+ * responses can be parsed as they arrive, and a single {@link HttpClient} (and
+ * its connection pool) is shared by every session. The request is always the
+ * one the API handler would make, so the bot never keeps its own copy of an
+ * endpoint's path.</p>
+ *
+ * <p>It can also run an API handler's call without holding a thread while
+ * the request is in flight. The handler still decides what to request and
+ * how to parse the response; only the network I/O is moved onto the
+ * client's asynchronous send.</p>
+ */
+public class ForemanHttpClient {
+
+    /** The API URL. */
+    private final String foremanApiUrl;
+
+    /** The shared client. */
+    private final HttpClient httpClient;
+
+    /** The request timeout. */
+    private final Duration timeout;
+
+    /**
+     * Constructor.
+     *
+     * @param foremanApiUrl The API URL.
+     * @param timeout       The request timeout.
+     */
+    public ForemanHttpClient(
+            final String foremanApiUrl,
+            final Duration timeout) {
+        this.foremanApiUrl = foremanApiUrl;
+        this.timeout = timeout;
+        this.httpClient =
+                HttpClient
+                        .newBuilder()
+                        .connectTimeout(timeout)
+                        .build();
+    }
+
+    /**
+     * Performs a blocking GET for the request that an API handler's call
+     * makes, returning the body as a stream so it can be parsed as it arrives
+     * instead of by the handler. Only calls that make a single GET are
+     * supported. The limiter isn't applied, since the caller's parse is part
+     * of the call.
+     *
+     * @param call   The call, given the {@link WebUtil} to build its handler
+     *               with.
+     * @param apiKey The API key.
+     *
+     * @return The response body, which must be closed.
+     *
+     * @throws IOException on failure.
+     */
+    public InputStream open(
+            final Function<WebUtil, ?> call,
+            final String apiKey) throws IOException {
+        final Object[] requested = toRequest(call);
+        if (requested == null) {
+            throw new IOException("The call didn't make a request");
+        }
+        final HttpResponse<InputStream> response;
+        try {
+            response =
+                    this.httpClient.send(
+                            newRequest(
+                                    toPathAndQuery(requested),
+                                    apiKey),
+                            HttpResponse.BodyHandlers.ofInputStream());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new IOException(
+                    "Foreman responded with " + response.statusCode());
+        }
+        return response.body();
+    }
+
+    /**
+     * Performs a call through an API handler without blocking on the
+     * network. The call is run against a {@link WebUtil} that answers nothing
+     * to learn the request it makes, that request is sent asynchronously, and
+     * the call is run again against a {@link WebUtil} that answers with the
+     * response, so the handler parses it. Only calls that make a single GET
+     * are supported. The limiter isn't applied.
+     *
+     * @param call   The call, given the {@link WebUtil} to build its handler
+     *               with.
+     * @param apiKey The API key.
+     * @param <T>    The response type.
+     *
+     * @return The parsed response.
+     */
+    public <T> CompletableFuture<T> callAsync(
+            final Function<WebUtil, T> call,
+            final String apiKey) {
+        final Object[] requested = toRequest(call);
+        if (requested == null) {
+            return CompletableFuture.failedFuture(
+                    new IllegalStateException("The call didn't make a request"));
+        }
+        return this.httpClient
+                .sendAsync(
+                        newRequest(
+                                toPathAndQuery(requested),
+                                apiKey),
+                        HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> {
+                    if (response.statusCode() != 200) {
+                        throw new CompletionException(
+                                new IOException(
+                                        "Foreman responded with " + response.statusCode()));
+                    }
+                    return call.apply(toWebUtil((method, args) -> {
+                        if (!toPathAndQuery(args).equals(toPathAndQuery(requested))) {
+                            throw new IllegalStateException("The call made more than one request");
+                        }
+                        return response.body();
+                    }));
+                });
+    }
+
+    /**
+     * Builds the path and query from the arguments to a {@link WebUtil} GET:
+     * the path, and optionally a map of query parameters.
+     *
+     * @param args The arguments.
+     *
+     * @return The path and query.
+     */
+    private static String toPathAndQuery(final Object[] args) {
+        final StringBuilder pathAndQuery = new StringBuilder();
+        for (final Object arg : args) {
+            if (arg instanceof String && pathAndQuery.length() == 0) {
+                pathAndQuery.append(arg);
+            } else if (arg instanceof Map) {
+                for (final Map.Entry<?, ?> param : ((Map<?, ?>) arg).entrySet()) {
+                    pathAndQuery
+                            .append(pathAndQuery.indexOf("?") < 0 ? '?' : '&')
+                            .append(URLEncoder.encode(String.valueOf(param.getKey()), StandardCharsets.UTF_8))
+                            .append('=')
+                            .append(URLEncoder.encode(String.valueOf(param.getValue()), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return pathAndQuery.toString();
+    }
+
+    /**
+     * Learns the request that a call makes by running it against a
+     * {@link WebUtil} that answers nothing.
+     *
+     * @param call The call.
+     *
+     * @return The arguments to the first GET, or null if none was made.
+     */
+    private static Object[] toRequest(final Function<WebUtil, ?> call) {
+        final AtomicReference<Object[]> request = new AtomicReference<>();
+        try {
+            call.apply(toWebUtil((method, args) -> {
+                request.compareAndSet(null, args);
+                return null;
+            }));
+        } catch (final RuntimeException e) {
+            // Expected when the handler can't parse an empty response
+        }
+        return request.get();
+    }
+
+    /**
+     * Creates a {@link WebUtil} that answers GETs through the provided
+     * function, and refuses everything else.
+     *
+     * @param get Answers a GET with the response body, or null for none.
+     *
+     * @return The {@link WebUtil}.
+     */
+    private static WebUtil toWebUtil(final GetHandler get) {
+        return (WebUtil) Proxy.newProxyInstance(
+                WebUtil.class.getClassLoader(),
+                new Class<?>[]{WebUtil.class},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return method.invoke(get, args);
+                    }
+                    if (!"get".equals(method.getName()) || args == null) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    final String body = get.get(method, args);
+                    return method.getReturnType() == Optional.class
+                            ? Optional.ofNullable(body)
+                            : body;
+                });
+    }
+
+    /**
+     * Creates a GET request against the API.
+     *
+     * @param pathAndQuery The path and query.
+     * @param apiKey       The API key.
+     *
+     * @return The request.
+     */
+    private HttpRequest newRequest(
+            final String pathAndQuery,
+            final String apiKey) {
+        return HttpRequest
+                .newBuilder(URI.create(this.foremanApiUrl + pathAndQuery))
+                .timeout(this.timeout)
+                .header("Authorization", "Token " + apiKey)
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+    }
+
+    /** Answers a GET made through a {@link WebUtil}. */
+    @FunctionalInterface
+    private interface GetHandler {
+
+        /**
+         * Answers a GET.
+         *
+         * @param method The {@link WebUtil} method.
+         * @param args   Its arguments.
+         *
+         * @return The response body, or null for none.
+         */
+        String get(
+                Method method,
+                Object[] args);
+    }
+}
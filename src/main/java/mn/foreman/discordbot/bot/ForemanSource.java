@@ -0,0 +1,94 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.api.endpoints.miners.Miners;
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.api.endpoints.pickaxe.Pickaxe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link ForemanSource} provides everything the bot reads from Foreman for
+ * a client, so the live API can be recorded, or swapped for a recording.
+ */
+public interface ForemanSource {
+
+    /**
+     * Returns the miners on a pickaxe.
+     *
+     * @param clientId The client ID.
+     * @param apiKey   The API key.
+     * @param pickaxe  The pickaxe key.
+     *
+     * @return The miners.
+     */
+    List<Miners.Miner> miners(
+            int clientId,
+            String apiKey,
+            String pickaxe);
+
+    /**
+     * Returns the pending Discord notifications.
+     *
+     * @param clientId           The client ID.
+     * @param apiKey             The API key.
+     * @param lastNotificationId The last notification that was sent.
+     * @param startDate          The earliest notification date.
+     *
+     * @return The notifications.
+     */
+    List<Notifications.Notification> notifications(
+            int clientId,
+            String apiKey,
+            int lastNotificationId,
+            Instant startDate);
+
+    /**
+     * Returns the pending Discord notifications without blocking the caller
+     * while they're fetched.
+     *
+     * @param clientId           The client ID.
+     * @param apiKey             The API key.
+     * @param lastNotificationId The last notification that was sent.
+     * @param startDate          The earliest notification date.
+     *
+     * @return The notifications.
+     */
+    CompletableFuture<List<Notifications.Notification>> notificationsAsync(
+            int clientId,
+            String apiKey,
+            int lastNotificationId,
+            Instant startDate);
+
+    /**
+     * Opens the raw miners response for a pickaxe, so it can be parsed as it
+     * arrives.
+     *
+     * @param clientId The client ID.
+     * @param apiKey   The API key.
+     * @param pickaxe  The pickaxe key.
+     *
+     * @return The response body, which must be closed.
+     *
+     * @throws IOException on failure.
+     */
+    InputStream openMiners(
+            int clientId,
+            String apiKey,
+            String pickaxe) throws IOException;
+
+    /**
+     * Returns the client's pickaxes.
+     *
+     * @param clientId The client ID.
+     * @param apiKey   The API key.
+     *
+     * @return The pickaxes.
+     */
+    List<Pickaxe.PickaxeInstance> pickaxes(
+            int clientId,
+            String apiKey);
+}
@@ -3,7 +3,7 @@ package mn.foreman.discordbot.bot;
 import mn.foreman.api.ForemanApi;
 import mn.foreman.api.ForemanApiImpl;
 import mn.foreman.api.JdkWebUtil;
-import mn.foreman.discordbot.db.ChatSession;
+import mn.foreman.discordbot.db.Session;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -39,17 +39,17 @@ public class ForemanUtils {
     /**
      * Returns a new {@link ForemanApi} handler.
      *
-     * @param chatSession    The session.
+     * @param session        The session.
      * @param foremanBaseUrl The Foreman base URL.
      *
      * @return The new API handler.
      */
     public static ForemanApi toApi(
-            final ChatSession chatSession,
+            final Session session,
             final String foremanBaseUrl) {
         return toApi(
-                chatSession.getClientId(),
-                chatSession.getApiKey(),
+                session.getClientId(),
+                session.getApiKey(),
                 foremanBaseUrl);
     }
 }
@@ -0,0 +1,139 @@
+package mn.foreman.discordbot.bot;
+
+import net.dv8tion.jda.api.events.ReadyEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Tracks whether or not the Discord gateway has finished its initial login.
+ *
+ * <p>The gateway connects in the background while the rest of the application
+ * starts, and its caches (channels, guilds) are empty until it's ready. Work
+ * that depends on them is deferred until then, rather than failing or
+ * mistaking a destination for missing. Deferred work is released in the
+ * order it arrived, outside the lock, so work that arrives once the gateway
+ * is ready runs right away instead of waiting behind it.</p>
+ *
+ * <p>Sweeps don't start and pushes are refused until the gateway is ready,
+ * since both move cursors past what they send, so what's deferred is mostly
+ * command replies. The queue is bounded regardless: once it's full, more work
+ * is rejected rather than held.</p>
+ *
+ * <p>Both startup milestones, the application context and the gateway, are
+ * logged with the time since the JVM started so startup can be compared
+ * between deploys.</p>
+ */
+public class GatewayReadiness
+        extends ListenerAdapter
+        implements ApplicationListener<ApplicationReadyEvent> {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(GatewayReadiness.class);
+
+    /** The deferred tasks, guarded by this. */
+    private final Queue<Runnable> deferred = new ArrayDeque<>();
+
+    /** The max tasks to defer. */
+    private final int maxDeferred;
+
+    /** Whether or not the gateway is ready. */
+    private volatile boolean ready;
+
+    /**
+     * Constructor.
+     *
+     * @param maxDeferred The max tasks to defer until the gateway is ready.
+     */
+    public GatewayReadiness(final int maxDeferred) {
+        this.maxDeferred = maxDeferred;
+    }
+
+    /**
+     * Returns whether or not the gateway is ready.
+     *
+     * @return Whether or not the gateway is ready.
+     */
+    public boolean isReady() {
+        return this.ready;
+    }
+
+    @Override
+    public void onApplicationEvent(final ApplicationReadyEvent event) {
+        LOG.info("Application ready {}ms after JVM start, gateway {}",
+                ManagementFactory.getRuntimeMXBean().getUptime(),
+                isReady() ? "ready" : "still connecting");
+    }
+
+    @Override
+    public void onReady(final @NotNull ReadyEvent event) {
+        final List<Runnable> released;
+        synchronized (this) {
+            this.ready = true;
+            released = new ArrayList<>(this.deferred);
+            this.deferred.clear();
+        }
+        LOG.info("Gateway ready {}ms after JVM start, releasing {} deferred sends",
+                ManagementFactory.getRuntimeMXBean().getUptime(),
+                released.size());
+        // Run outside the lock, so new sends aren't held up behind these
+        for (final Runnable task : released) {
+            task.run();
+        }
+    }
+
+    /**
+     * Runs the provided task once the gateway is ready, or right away if it
+     * already is. If too many tasks are already waiting, the task is rejected
+     * with a {@link RejectedExecutionException}.
+     *
+     * @param task The task.
+     * @param <T>  The task result type.
+     *
+     * @return The task result.
+     */
+    public <T> CompletableFuture<T> whenReady(
+            final Supplier<CompletableFuture<T>> task) {
+        if (!this.ready) {
+            synchronized (this) {
+                if (!this.ready) {
+                    if (this.deferred.size() >= this.maxDeferred) {
+                        return CompletableFuture.failedFuture(
+                                new RejectedExecutionException(
+                                        "Too many sends are waiting for the gateway"));
+                    }
+                    final CompletableFuture<T> result = new CompletableFuture<>();
+                    this.deferred.add(() -> {
+                        try {
+                            task.get().whenComplete((value, throwable) -> {
+                                if (throwable != null) {
+                                    result.completeExceptionally(throwable);
+                                } else {
+                                    result.complete(value);
+                                }
+                            });
+                        } catch (final RuntimeException e) {
+                            // Don't stop the rest from being released
+                            result.completeExceptionally(e);
+                        }
+                    });
+                    return result;
+                }
+            }
+        }
+        return task.get();
+    }
+}
@@ -0,0 +1,550 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.api.endpoints.miners.Miners;
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.api.endpoints.pickaxe.Pickaxe;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A {@link ForemanSource} that hedges the idempotent reads from another
+ * source to cut tail latency.
+ *
+ * <p>Each endpoint tracks the latencies of its most recent calls, including
+ * the ones that failed, so an endpoint that's timing out raises its own
+ * threshold instead of hiding its slowest calls. When a call
+ * takes longer than the configured percentile of those latencies, a second
+ * attempt is started, and whichever attempt succeeds first is returned. The
+ * slower attempt is left to finish on its own, since the API handlers can't
+ * be aborted.</p>
+ *
+ * <p>Hedges are paid for from a budget that every call adds a fraction of a
+ * hedge to, so the extra load on Foreman stays bounded by that fraction even
+ * when every call is slow. Raw miners responses are streamed, and
+ * asynchronous calls don't hold a thread while they're slow, so neither is
+ * hedged.</p>
+ *
+ * <p>The caller's permit from the {@link ForemanCallLimiter} only covers the
+ * first attempt, so every hedge takes a permit of its own. Attempts run on a
+ * bounded pool. When the pool is full, the first attempt runs on the
+ * caller's thread instead, since the caller already holds its permit, and
+ * it isn't hedged. A hedge that the pool or the limiter turns away is
+ * counted as denied.</p>
+ *
+ * <p>Every attempt carries the caller's {@link SweepDeadline}, so neither
+ * attempt waits on Foreman past the end of the caller's sweep.</p>
+ */
+public class HedgingForemanSource
+        implements ForemanSource {
+
+    /** How many samples are recorded between recomputing a threshold. */
+    private static final int RECOMPUTE_EVERY = 50;
+
+    /** The fraction of a hedge that every call adds to the budget. */
+    private final double budgetRatio;
+
+    /** Obtains the current time, in nanos. */
+    private final LongSupplier clock;
+
+    /** The source that's hedged. */
+    private final ForemanSource delegate;
+
+    /** The thread pool that attempts run on. */
+    private final ExecutorService executorService;
+
+    /** The limiter that every hedge takes a permit from. */
+    private final ForemanCallLimiter foremanCallLimiter;
+
+    /** The max hedges that can be saved up in the budget. */
+    private final double maxBudget;
+
+    /** The max delay before a hedge. */
+    private final long maxDelayNanos;
+
+    /** The endpoint for miners. */
+    private final Endpoint miners;
+
+    /** The min delay before a hedge. */
+    private final long minDelayNanos;
+
+    /** How many samples an endpoint needs before it's hedged. */
+    private final int minSamples;
+
+    /** The endpoint for notifications. */
+    private final Endpoint notifications;
+
+    /** The percentile, from 0 to 1, that starts a hedge. */
+    private final double percentile;
+
+    /** The endpoint for pickaxes. */
+    private final Endpoint pickaxes;
+
+    /** The hedges that can currently be paid for. */
+    private double budget;
+
+    /**
+     * Constructor.
+     *
+     * @param delegate           The source that's hedged.
+     * @param executorService    The thread pool that attempts run on.
+     * @param foremanCallLimiter The limiter that every hedge takes a permit
+     *                           from.
+     * @param percentile         The percentile, from 0 to 1, of an endpoint's
+     *                           latencies that starts a hedge.
+     * @param window             How many recent latencies are tracked per
+     *                           endpoint.
+     * @param minSamples         How many latencies an endpoint needs before
+     *                           it's hedged.
+     * @param minDelayMillis     The min delay before a hedge.
+     * @param maxDelayMillis     The max delay before a hedge.
+     * @param budgetRatio        The max hedges per call, from 0 to 1.
+     * @param maxBudget          The max hedges that can be saved up.
+     * @param meterRegistry      The registry for metrics.
+     */
+    public HedgingForemanSource(
+            final ForemanSource delegate,
+            final ExecutorService executorService,
+            final ForemanCallLimiter foremanCallLimiter,
+            final double percentile,
+            final int window,
+            final int minSamples,
+            final long minDelayMillis,
+            final long maxDelayMillis,
+            final double budgetRatio,
+            final double maxBudget,
+            final MeterRegistry meterRegistry) {
+        this(
+                delegate,
+                executorService,
+                foremanCallLimiter,
+                percentile,
+                window,
+                minSamples,
+                minDelayMillis,
+                maxDelayMillis,
+                budgetRatio,
+                maxBudget,
+                meterRegistry,
+                System::nanoTime);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param delegate           The source that's hedged.
+     * @param executorService    The thread pool that attempts run on.
+     * @param foremanCallLimiter The limiter that every hedge takes a permit
+     *                           from.
+     * @param percentile         The percentile, from 0 to 1, of an endpoint's
+     *                           latencies that starts a hedge.
+     * @param window             How many recent latencies are tracked per
+     *                           endpoint.
+     * @param minSamples         How many latencies an endpoint needs before
+     *                           it's hedged.
+     * @param minDelayMillis     The min delay before a hedge.
+     * @param maxDelayMillis     The max delay before a hedge.
+     * @param budgetRatio        The max hedges per call, from 0 to 1.
+     * @param maxBudget          The max hedges that can be saved up.
+     * @param meterRegistry      The registry for metrics.
+     * @param clock              Obtains the current time, in nanos, for
+     *                           measuring latencies.
+     */
+    HedgingForemanSource(
+            final ForemanSource delegate,
+            final ExecutorService executorService,
+            final ForemanCallLimiter foremanCallLimiter,
+            final double percentile,
+            final int window,
+            final int minSamples,
+            final long minDelayMillis,
+            final long maxDelayMillis,
+            final double budgetRatio,
+            final double maxBudget,
+            final MeterRegistry meterRegistry,
+            final LongSupplier clock) {
+        this.delegate = delegate;
+        this.clock = clock;
+        this.executorService = executorService;
+        this.foremanCallLimiter = foremanCallLimiter;
+        this.percentile = percentile;
+        this.minSamples = minSamples;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.budgetRatio = budgetRatio;
+        this.maxBudget = maxBudget;
+        this.budget = maxBudget;
+        this.miners =
+                new Endpoint(
+                        "miners",
+                        window,
+                        meterRegistry);
+        this.notifications =
+                new Endpoint(
+                        "notifications",
+                        window,
+                        meterRegistry);
+        this.pickaxes =
+                new Endpoint(
+                        "pickaxes",
+                        window,
+                        meterRegistry);
+    }
+
+    @Override
+    public List<Miners.Miner> miners(
+            final int clientId,
+            final String apiKey,
+            final String pickaxe) {
+        return hedge(
+                this.miners,
+                () -> this.delegate.miners(
+                        clientId,
+                        apiKey,
+                        pickaxe));
+    }
+
+    @Override
+    public List<Notifications.Notification> notifications(
+            final int clientId,
+            final String apiKey,
+            final int lastNotificationId,
+            final Instant startDate) {
+        return hedge(
+                this.notifications,
+                () -> this.delegate.notifications(
+                        clientId,
+                        apiKey,
+                        lastNotificationId,
+                        startDate));
+    }
+
+    @Override
+    public CompletableFuture<List<Notifications.Notification>> notificationsAsync(
+            final int clientId,
+            final String apiKey,
+            final int lastNotificationId,
+            final Instant startDate) {
+        return this.delegate.notificationsAsync(
+                clientId,
+                apiKey,
+                lastNotificationId,
+                startDate);
+    }
+
+    @Override
+    public InputStream openMiners(
+            final int clientId,
+            final String apiKey,
+            final String pickaxe) throws IOException {
+        return this.delegate.openMiners(
+                clientId,
+                apiKey,
+                pickaxe);
+    }
+
+    @Override
+    public List<Pickaxe.PickaxeInstance> pickaxes(
+            final int clientId,
+            final String apiKey) {
+        return hedge(
+                this.pickaxes,
+                () -> this.delegate.pickaxes(
+                        clientId,
+                        apiKey));
+    }
+
+    /**
+     * Performs a call on the current thread.
+     *
+     * @param call The call.
+     * @param <T>  The response type.
+     *
+     * @return The outcome of the call.
+     */
+    private static <T> CompletableFuture<T> callInline(final Supplier<T> call) {
+        try {
+            return CompletableFuture.completedFuture(call.get());
+        } catch (final RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Returns the result of a future, unwrapping the failure.
+     *
+     * @param future The future.
+     * @param <T>    The result type.
+     *
+     * @return The result.
+     */
+    private static <T> T join(final CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns whether or not a failure means the attempt was turned away.
+     *
+     * @param throwable The failure.
+     *
+     * @return Whether or not the attempt was rejected.
+     */
+    private static boolean isRejected(final Throwable throwable) {
+        return throwable instanceof RejectedExecutionException ||
+                throwable.getCause() instanceof RejectedExecutionException;
+    }
+
+    /**
+     * Starts an attempt, completing the result with its response unless
+     * another attempt already did. A hedge takes its own permit from the
+     * limiter. If the pool is full, the first attempt is made on the current
+     * thread.
+     *
+     * @param endpoint  The endpoint.
+     * @param call      The call.
+     * @param result    The result.
+     * @param remaining How many attempts haven't finished yet.
+     * @param hedge     Whether or not the attempt is a hedge.
+     * @param <T>       The response type.
+     */
+    private <T> void attempt(
+            final Endpoint endpoint,
+            final Supplier<T> call,
+            final CompletableFuture<T> result,
+            final AtomicInteger remaining,
+            final boolean hedge) {
+        final long start = this.clock.getAsLong();
+        CompletableFuture<T> future;
+        try {
+            future =
+                    CompletableFuture.supplyAsync(
+                            hedge
+                                    ? () -> this.foremanCallLimiter.call(() -> {
+                                        endpoint.sent.increment();
+                                        return call.get();
+                                    })
+                                    : call,
+                            this.executorService);
+        } catch (final RejectedExecutionException e) {
+            // The pool is full
+            future =
+                    hedge
+                            ? CompletableFuture.failedFuture(e)
+                            : callInline(call);
+        }
+        future
+                .whenComplete((response, throwable) -> {
+                    final boolean last = remaining.decrementAndGet() == 0;
+                    if (throwable != null && isRejected(throwable)) {
+                        if (hedge) {
+                            endpoint.denied.increment();
+                        }
+                    } else {
+                        // Foreman answered, even if it was with a failure
+                        endpoint.record(this.clock.getAsLong() - start);
+                    }
+                    if (throwable == null) {
+                        if (result.complete(response) && hedge) {
+                            endpoint.won.increment();
+                        }
+                    } else if (last) {
+                        // Only fail once every attempt has
+                        result.completeExceptionally(throwable);
+                    }
+                });
+    }
+
+    /**
+     * Performs a call, hedging it if it takes longer than the endpoint's
+     * threshold and the budget allows.
+     *
+     * @param endpoint The endpoint.
+     * @param call     The call.
+     * @param <T>      The response type.
+     *
+     * @return The first successful response.
+     */
+    private <T> T hedge(
+            final Endpoint endpoint,
+            final Supplier<T> call) {
+        final long delay = endpoint.delayNanos;
+        // Attempts run on other threads, but they're bound by the caller's sweep
+        final Long deadline = SweepDeadline.get();
+        final Supplier<T> bounded =
+                () -> SweepDeadline.call(
+                        deadline,
+                        call);
+        synchronized (this) {
+            this.budget = Math.min(this.maxBudget, this.budget + this.budgetRatio);
+        }
+
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final AtomicInteger remaining = new AtomicInteger(1);
+        attempt(
+                endpoint,
+                bounded,
+                result,
+                remaining,
+                false);
+        if (delay <= 0) {
+            return join(result);
+        }
+
+        try {
+            return result.get(
+                    delay,
+                    TimeUnit.NANOSECONDS);
+        } catch (final TimeoutException e) {
+            // Too slow, so hedge below
+        } catch (final ExecutionException e) {
+            return join(result);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+
+        if (!withdraw()) {
+            endpoint.denied.increment();
+            return join(result);
+        }
+        remaining.incrementAndGet();
+        if (result.isDone()) {
+            // The first attempt finished while the hedge was being paid for
+            return join(result);
+        }
+        attempt(
+                endpoint,
+                bounded,
+                result,
+                remaining,
+                true);
+        return join(result);
+    }
+
+    /**
+     * Takes a hedge from the budget.
+     *
+     * @return Whether or not the budget could pay for it.
+     */
+    private synchronized boolean withdraw() {
+        if (this.budget < 1) {
+            return false;
+        }
+        this.budget--;
+        return true;
+    }
+
+    /** The latencies and hedges for one endpoint. */
+    private class Endpoint {
+
+        /** The counter for hedges the budget couldn't pay for. */
+        private final Counter denied;
+
+        /** The most recent latencies, in nanos. */
+        private final long[] latencies;
+
+        /** The counter for hedges that were started. */
+        private final Counter sent;
+
+        /** The counter for hedges that responded first. */
+        private final Counter won;
+
+        /** The current delay before a hedge, or 0 if not hedging yet. */
+        private volatile long delayNanos;
+
+        /** How many latencies have been recorded. */
+        private long samples;
+
+        /**
+         * Constructor.
+         *
+         * @param name          The endpoint name.
+         * @param window        How many recent latencies are tracked.
+         * @param meterRegistry The registry for metrics.
+         */
+        Endpoint(
+                final String name,
+                final int window,
+                final MeterRegistry meterRegistry) {
+            this.latencies = new long[window];
+            this.sent =
+                    meterRegistry.counter(
+                            "bot.foreman.hedges",
+                            "endpoint",
+                            name,
+                            "outcome",
+                            "sent");
+            this.won =
+                    meterRegistry.counter(
+                            "bot.foreman.hedges",
+                            "endpoint",
+                            name,
+                            "outcome",
+                            "won");
+            this.denied =
+                    meterRegistry.counter(
+                            "bot.foreman.hedges",
+                            "endpoint",
+                            name,
+                            "outcome",
+                            "denied");
+            meterRegistry.gauge(
+                    "bot.foreman.hedge.delay",
+                    Tags.of("endpoint", name),
+                    this,
+                    endpoint -> TimeUnit.NANOSECONDS.toMillis(endpoint.delayNanos));
+        }
+
+        /**
+         * Records a latency, recomputing the delay before a hedge every so
+         * often.
+         *
+         * @param latencyNanos The latency.
+         */
+        synchronized void record(final long latencyNanos) {
+            this.latencies[(int) (this.samples++ % this.latencies.length)] = latencyNanos;
+            if (this.samples >= HedgingForemanSource.this.minSamples &&
+                    this.samples % RECOMPUTE_EVERY == 0) {
+                final long[] sorted =
+                        Arrays.copyOf(
+                                this.latencies,
+                                (int) Math.min(this.samples, this.latencies.length));
+                Arrays.sort(sorted);
+                final long threshold =
+                        sorted[(int) Math.min(
+                                sorted.length - 1,
+                                Math.floor(sorted.length * HedgingForemanSource.this.percentile))];
+                this.delayNanos =
+                        Math.max(
+                                HedgingForemanSource.this.minDelayNanos,
+                                Math.min(
+                                        HedgingForemanSource.this.maxDelayNanos,
+                                        threshold));
+            }
+        }
+    }
+}
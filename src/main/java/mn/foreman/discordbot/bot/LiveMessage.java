@@ -0,0 +1,149 @@
+package mn.foreman.discordbot.bot;
+
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * A {@link LiveMessage} is posted as soon as it's created and then edited in
+ * place as more of its content becomes available.
+ *
+ * <p>Edits are chained onto each other so they land in order, and
+ * intermediate updates are dropped if they arrive faster than the configured
+ * interval so the channel stays within Discord's rate limits. The final
+ * content is always written.</p>
+ */
+public class LiveMessage {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(LiveMessage.class);
+
+    /** The destination. */
+    private final MessageChannel messageChannel;
+
+    /** The minimum time between intermediate edits. */
+    private final long minEditIntervalMillis;
+
+    /** The posted placeholder. */
+    private final CompletableFuture<Message> placeholder;
+
+    /** When the message was last written. */
+    private long lastEdit;
+
+    /** The most recent write to the message. */
+    private CompletableFuture<Message> pending;
+
+    /**
+     * Constructor.
+     *
+     * @param placeholder           The placeholder to post right away.
+     * @param messageChannel        The destination.
+     * @param minEditIntervalMillis The minimum time between intermediate
+     *                              edits.
+     */
+    public LiveMessage(
+            final String placeholder,
+            final MessageChannel messageChannel,
+            final long minEditIntervalMillis) {
+        this.messageChannel = messageChannel;
+        this.minEditIntervalMillis = minEditIntervalMillis;
+        this.lastEdit = System.currentTimeMillis();
+        this.placeholder =
+                messageChannel
+                        .sendMessage(
+                                MessageUtils.toEmbed(
+                                        placeholder,
+                                        Color.ORANGE))
+                        .submit();
+        this.pending = this.placeholder;
+    }
+
+    /**
+     * Writes the final content. The first page replaces the message and any
+     * remaining pages are posted after it.
+     *
+     * @param pages The pages.
+     * @param color The color.
+     */
+    public void finish(
+            final List<String> pages,
+            final Color color) {
+        edit(
+                pages.get(0),
+                color,
+                true);
+        this.pending.whenComplete((message, throwable) -> {
+            for (int i = 1; i < pages.size(); i++) {
+                MessageUtils.sendSimple(
+                        pages.get(i),
+                        color,
+                        this.messageChannel);
+            }
+        });
+    }
+
+    /**
+     * Updates the message if enough time has passed since the last edit. The
+     * content is only rendered if it's going to be written.
+     *
+     * @param content The new content.
+     * @param color   The color.
+     */
+    public void update(
+            final Supplier<String> content,
+            final Color color) {
+        final long now = System.currentTimeMillis();
+        if (now - this.lastEdit >= this.minEditIntervalMillis) {
+            this.lastEdit = now;
+            edit(
+                    content.get(),
+                    color,
+                    false);
+        }
+    }
+
+    /**
+     * Chains an edit onto the previous write. If the placeholder never made
+     * it, the final content is sent as a new message instead.
+     *
+     * @param content The new content.
+     * @param color   The color.
+     * @param last    Whether or not this is the final content.
+     */
+    private void edit(
+            final String content,
+            final Color color,
+            final boolean last) {
+        this.pending =
+                this.pending
+                        .handle((message, throwable) -> message)
+                        .thenCompose(ignored ->
+                                this.placeholder.handle((message, throwable) -> message))
+                        .thenCompose(message -> {
+                            if (message != null) {
+                                return message
+                                        .editMessage(
+                                                MessageUtils.toEmbed(
+                                                        content,
+                                                        color))
+                                        .submit();
+                            } else if (last) {
+                                LOG.warn("Placeholder missing, sending instead");
+                                return this.messageChannel
+                                        .sendMessage(
+                                                MessageUtils.toEmbed(
+                                                        content,
+                                                        color))
+                                        .submit();
+                            }
+                            return CompletableFuture.completedFuture(null);
+                        });
+    }
+}
@@ -1,5 +1,7 @@
 package mn.foreman.discordbot.bot;
 
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.Tracer;
 import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.ChannelType;
 import net.dv8tion.jda.api.entities.Member;
@@ -14,6 +16,7 @@ import org.slf4j.LoggerFactory;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A {@link ListenerAdapter} that parses messages and dispatches them to the
@@ -32,17 +35,29 @@ public class MessageListener
     /** The processors. */
     private final Map<Command, CommandProcessor> commandProcessors;
 
+    /** The throttle for commands. */
+    private final CommandThrottle commandThrottle;
+
+    /** The tracer. */
+    private final Tracer tracer;
+
     /**
      * Constructor.
      *
      * @param commandPrefix     The command prefix.
      * @param commandProcessors The processors.
+     * @param commandThrottle   The throttle for commands.
+     * @param tracer            The tracer.
      */
     public MessageListener(
             final String commandPrefix,
-            final Map<Command, CommandProcessor> commandProcessors) {
+            final Map<Command, CommandProcessor> commandProcessors,
+            final CommandThrottle commandThrottle,
+            final Tracer tracer) {
         this.commandPrefix = commandPrefix;
         this.commandProcessors = new HashMap<>(commandProcessors);
+        this.commandThrottle = commandThrottle;
+        this.tracer = tracer;
     }
 
     @Override
@@ -57,7 +72,7 @@ public class MessageListener
                         event);
             }
         } else {
-            LOG.info("Dropping message from bot {}", author);
+            LOG.debug("Dropping message from bot {}", author.getId());
         }
     }
 
@@ -82,16 +97,22 @@ public class MessageListener
                         text);
         if (commandOptional.isPresent()) {
             final Command command = commandOptional.get();
-            LOG.info("Running command {} from {}:{}",
-                    command,
-                    event.getAuthor().getId(),
-                    event);
-            this.commandProcessors.getOrDefault(
-                    command,
-                    new CommandProcessorNull())
-                    .process(event);
+            final String guildId =
+                    event.isFromGuild()
+                            ? event.getGuild().getId()
+                            : null;
+            TraceUtils.trace(
+                    this.tracer
+                            .spanBuilder("command")
+                            .setAttribute(TraceUtils.COMMAND, command.name())
+                            .setAttribute(TraceUtils.GUILD_ID, guildId)
+                            .setAttribute(TraceUtils.USER_ID, event.getAuthor().getId()),
+                    () -> runCommand(
+                            command,
+                            guildId,
+                            event));
         } else {
-            LOG.info("Received a non-command: {}", message);
+            LOG.trace("Received a non-command: {}", message.getId());
         }
     }
 
@@ -106,7 +127,77 @@ public class MessageListener
         if (isPermitted(member)) {
             processMessage(event);
         } else {
-            LOG.info("Received message from non-permitted user: {}", author);
+            LOG.debug("Received message from non-permitted user: {}", author.getId());
+        }
+    }
+
+    /**
+     * Runs the command, unless the guild or the user has run too many
+     * recently.
+     *
+     * @param command The command.
+     * @param guildId The guild, or null for private messages.
+     * @param event   The event.
+     */
+    private void runCommand(
+            final Command command,
+            final String guildId,
+            final MessageReceivedEvent event) {
+        final BotEvents.CommandEvent commandEvent = new BotEvents.CommandEvent();
+        commandEvent.command = command.name();
+        commandEvent.guildId = guildId;
+        commandEvent.userId = event.getAuthor().getId();
+        commandEvent.begin();
+        try {
+            run(
+                    command,
+                    guildId,
+                    event,
+                    commandEvent);
+        } finally {
+            commandEvent.commit();
+        }
+    }
+
+    /**
+     * Runs the command if it isn't throttled.
+     *
+     * @param command      The command.
+     * @param guildId      The guild, or null for private messages.
+     * @param event        The event.
+     * @param commandEvent The command's JFR event.
+     */
+    private void run(
+            final Command command,
+            final String guildId,
+            final MessageReceivedEvent event,
+            final BotEvents.CommandEvent commandEvent) {
+        final long retryMillis =
+                this.commandThrottle.tryAcquire(
+                        guildId,
+                        event.getAuthor().getId(),
+                        command);
+        if (retryMillis > 0) {
+            commandEvent.throttled = true;
+            LOG.info("Throttled command {} from {}",
+                    command,
+                    event.getAuthor().getId());
+            Span.current().setAttribute("throttled", true);
+            MessageUtils.sendSimple(
+                    String.format(
+                            "Slow down! :hourglass: You can run `%s` again in %d seconds.",
+                            command.getKey(this.commandPrefix),
+                            TimeUnit.MILLISECONDS.toSeconds(retryMillis + 999)),
+                    event.getChannel());
+            return;
         }
+        LOG.info("command={} user={} guild={}",
+                command,
+                event.getAuthor().getId(),
+                guildId);
+        this.commandProcessors.getOrDefault(
+                command,
+                new CommandProcessorNull())
+                .process(event);
     }
 }
@@ -0,0 +1,288 @@
+package mn.foreman.discordbot.bot;
+
+import net.dv8tion.jda.api.entities.MessageEmbed;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link MessageRenderer} renders the markdown that the bot places into
+ * Discord embeds.
+ *
+ * <p>The link templates are split into their constant parts once, up front, so
+ * rendering a line is a handful of appends rather than a {@link
+ * String#format(String, Object...)} parse. Messages are assembled through a
+ * {@link PagedMessage}, which tracks the rendered length as entries are added
+ * and starts a new page whenever the next entry wouldn't fit within the embed
+ * description limit. Every page after the first starts with the last line of
+ * the header, marked as continued, so a page read on its own still says what
+ * it's about.</p>
+ */
+public class MessageRenderer {
+
+    /** The marker appended to a continued header. */
+    private static final String CONTINUED_MARKER = " (cont.)\n\n";
+
+    /** The marker appended to an entry that had to be cut. */
+    private static final String CUT_MARKER = "...\n";
+
+    /** The end of every miner link. */
+    private static final String MINER_LINK_SUFFIX = "/details/)";
+
+    /** The rendered link to the dashboard. */
+    private final String dashboardLink;
+
+    /** The max length of a single page. */
+    private final int maxLength;
+
+    /** The start of every miner link, after the miner name. */
+    private final String minerLinkPrefix;
+
+    /**
+     * Constructor.
+     *
+     * @param foremanDashboardUrl The dashboard URL.
+     */
+    public MessageRenderer(final String foremanDashboardUrl) {
+        this(
+                foremanDashboardUrl,
+                MessageEmbed.TEXT_MAX_LENGTH);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param foremanDashboardUrl The dashboard URL.
+     * @param maxLength           The max length of a single page.
+     */
+    public MessageRenderer(
+            final String foremanDashboardUrl,
+            final int maxLength) {
+        this.minerLinkPrefix = "](" + foremanDashboardUrl + "/dashboard/miners/";
+        this.dashboardLink = "[your dashboard](" + foremanDashboardUrl + "/dashboard/)";
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Appends a markdown link to the provided miner's details page.
+     *
+     * @param builder The destination.
+     * @param name    The miner name.
+     * @param minerId The miner ID.
+     *
+     * @return The builder.
+     */
+    public StringBuilder appendMinerLink(
+            final StringBuilder builder,
+            final String name,
+            final int minerId) {
+        return builder
+                .append('[')
+                .append(name)
+                .append(this.minerLinkPrefix)
+                .append(minerId)
+                .append(MINER_LINK_SUFFIX);
+    }
+
+    /**
+     * Returns the markdown link to the dashboard.
+     *
+     * @return The link.
+     */
+    public String getDashboardLink() {
+        return this.dashboardLink;
+    }
+
+    /**
+     * Starts a new paged message.
+     *
+     * @param header The header to place at the top of the first page. Its
+     *               last line is repeated at the top of every other page.
+     *
+     * @return The new message.
+     */
+    public PagedMessage newMessage(final CharSequence header) {
+        return newMessage(
+                header,
+                Integer.MAX_VALUE);
+    }
+
+    /**
+     * Starts a new paged message that stops taking entries once it has the
+     * provided number of pages.
+     *
+     * @param header   The header to place at the top of the first page. Its
+     *                 last line is repeated at the top of every other page.
+     * @param maxPages The max pages.
+     *
+     * @return The new message.
+     */
+    public PagedMessage newMessage(
+            final CharSequence header,
+            final int maxPages) {
+        return new PagedMessage(
+                header,
+                this.maxLength,
+                maxPages);
+    }
+
+    /**
+     * A {@link PagedMessage} accumulates entries into pages that each fit
+     * within the max length. Entries are never split across pages, and
+     * entries past the last allowed page are dropped.
+     */
+    public static class PagedMessage {
+
+        /** The header for every page after the first. */
+        private final String continuation;
+
+        /** The page currently being built. */
+        private final StringBuilder current;
+
+        /** The max length of a page. */
+        private final int maxLength;
+
+        /** The max pages. */
+        private final int maxPages;
+
+        /** The completed pages. */
+        private final List<String> pages = new ArrayList<>();
+
+        /** Scratch space for rendering a single entry. */
+        private final StringBuilder scratch = new StringBuilder(256);
+
+        /** Whether or not an entry was dropped for lack of pages. */
+        private boolean full;
+
+        /** The rendered length across all of the pages. */
+        private int length;
+
+        /**
+         * Constructor.
+         *
+         * @param header    The header.
+         * @param maxLength The max length of a page.
+         * @param maxPages  The max pages.
+         */
+        private PagedMessage(
+                final CharSequence header,
+                final int maxLength,
+                final int maxPages) {
+            this.maxLength = maxLength;
+            this.maxPages = maxPages;
+            this.current = new StringBuilder(Math.min(maxLength, 1024));
+            this.current.append(
+                    header,
+                    0,
+                    Math.min(header.length(), maxLength));
+            this.length = this.current.length();
+            this.continuation = toContinuation(header, maxLength);
+        }
+
+        /**
+         * Appends the entry held in {@link #entry()}, starting a new page if it
+         * doesn't fit on the current one. If that would be one page too many,
+         * the entry is dropped instead.
+         *
+         * @return This message.
+         */
+        public PagedMessage commit() {
+            final StringBuilder entry = this.scratch;
+            if (this.full) {
+                entry.setLength(0);
+                return this;
+            }
+            if (this.current.length() + entry.length() > this.maxLength &&
+                    this.current.length() > this.continuation.length()) {
+                if (this.pages.size() + 1 >= this.maxPages) {
+                    this.full = true;
+                    entry.setLength(0);
+                    return this;
+                }
+                this.pages.add(this.current.toString());
+                this.current.setLength(0);
+                this.current.append(this.continuation);
+                this.length += this.continuation.length();
+            }
+            final int room = this.maxLength - this.current.length();
+            if (entry.length() > room) {
+                // A single entry that can't fit anywhere gets cut
+                entry.setLength(Math.max(0, room - CUT_MARKER.length()));
+                entry.append(CUT_MARKER);
+            }
+            this.current.append(entry);
+            this.length += entry.length();
+            entry.setLength(0);
+            return this;
+        }
+
+        /**
+         * Returns a cleared, reusable builder for rendering the next entry.
+         * Call {@link #commit()} once the entry is complete.
+         *
+         * @return The entry builder.
+         */
+        public StringBuilder entry() {
+            this.scratch.setLength(0);
+            return this.scratch;
+        }
+
+        /**
+         * Returns whether or not the message ran out of pages, in which case
+         * further entries are dropped and needn't be rendered.
+         *
+         * @return Whether or not the message is full.
+         */
+        public boolean isFull() {
+            return this.full;
+        }
+
+        /**
+         * Returns the rendered length across every page, so far.
+         *
+         * @return The length.
+         */
+        public int length() {
+            return this.length;
+        }
+
+        /**
+         * Returns the pages.
+         *
+         * @return The pages.
+         */
+        public List<String> toPages() {
+            if (this.current.length() > 0) {
+                this.pages.add(this.current.toString());
+                this.current.setLength(0);
+            }
+            return Collections.unmodifiableList(this.pages);
+        }
+
+        /**
+         * Creates the header for continued pages from the last line of the
+         * first page's header.
+         *
+         * @param header    The header.
+         * @param maxLength The max length of a page.
+         *
+         * @return The continued header, or empty if the header is blank.
+         */
+        private static String toContinuation(
+                final CharSequence header,
+                final int maxLength) {
+            final String trimmed = header.toString().stripTrailing();
+            if (trimmed.isEmpty()) {
+                return "";
+            }
+            final String continuation =
+                    trimmed.substring(trimmed.lastIndexOf('\n') + 1) +
+                            CONTINUED_MARKER;
+            // Leave at least half of every page for entries
+            return continuation.length() <= maxLength / 2
+                    ? continuation
+                    : "";
+        }
+    }
+}
@@ -2,6 +2,7 @@ package mn.foreman.discordbot.bot;
 
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.MessageChannel;
+import net.dv8tion.jda.api.entities.MessageEmbed;
 
 import java.awt.*;
 
@@ -33,10 +34,9 @@ public class MessageUtils {
             final MessageChannel messageChannel) {
         messageChannel
                 .sendMessage(
-                        new EmbedBuilder()
-                                .setColor(color)
-                                .setDescription(message)
-                                .build())
+                        toEmbed(
+                                message,
+                                color))
                 .queue();
     }
 
@@ -54,4 +54,21 @@ public class MessageUtils {
                 Color.ORANGE,
                 messageChannel);
     }
+
+    /**
+     * Utility method to create a simple embed.
+     *
+     * @param message The message.
+     * @param color   The color.
+     *
+     * @return The embed.
+     */
+    public static MessageEmbed toEmbed(
+            final String message,
+            final Color color) {
+        return new EmbedBuilder()
+                .setColor(color)
+                .setDescription(message)
+                .build();
+    }
 }
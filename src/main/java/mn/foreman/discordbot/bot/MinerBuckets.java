@@ -0,0 +1,128 @@
+package mn.foreman.discordbot.bot;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact, per-status buffers of unhealthy miners.
+ *
+ * <p>Only what's rendered is kept, the ID and the name, in parallel arrays
+ * rather than one object per miner.</p>
+ */
+public class MinerBuckets {
+
+    /** The buckets, by status. */
+    private final Map<String, Bucket> buckets = new HashMap<>(4);
+
+    /**
+     * Adds a miner.
+     *
+     * @param status The miner status.
+     * @param id     The miner ID.
+     * @param name   The miner name.
+     */
+    public void add(
+            final String status,
+            final int id,
+            final String name) {
+        this.buckets
+                .computeIfAbsent(
+                        status,
+                        key -> new Bucket())
+                .add(id, name);
+    }
+
+    /**
+     * Returns whether or not there are any miners with the provided status.
+     *
+     * @param status The status.
+     *
+     * @return Whether or not there are any.
+     */
+    public boolean contains(final String status) {
+        return this.buckets.containsKey(status);
+    }
+
+    /**
+     * Returns the miners with the provided status.
+     *
+     * @param status The status.
+     *
+     * @return The miners, or null if there aren't any.
+     */
+    public Bucket get(final String status) {
+        return this.buckets.get(status);
+    }
+
+    /**
+     * Returns whether or not there aren't any miners.
+     *
+     * @return Whether or not there aren't any miners.
+     */
+    public boolean isEmpty() {
+        return this.buckets.isEmpty();
+    }
+
+    /** The miners with a single status. */
+    public static class Bucket {
+
+        /** The miner IDs. */
+        private int[] ids = new int[16];
+
+        /** The miner names. */
+        private String[] names = new String[16];
+
+        /** The number of miners. */
+        private int size;
+
+        /**
+         * Returns the ID of a miner.
+         *
+         * @param index The index.
+         *
+         * @return The ID.
+         */
+        public int getId(final int index) {
+            return this.ids[index];
+        }
+
+        /**
+         * Returns the name of a miner.
+         *
+         * @param index The index.
+         *
+         * @return The name.
+         */
+        public String getName(final int index) {
+            return this.names[index];
+        }
+
+        /**
+         * Returns the number of miners.
+         *
+         * @return The number of miners.
+         */
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * Adds a miner, growing the arrays as needed.
+         *
+         * @param id   The miner ID.
+         * @param name The miner name.
+         */
+        private void add(
+                final int id,
+                final String name) {
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.size * 2);
+                this.names = Arrays.copyOf(this.names, this.size * 2);
+            }
+            this.ids[this.size] = id;
+            this.names[this.size] = name;
+            this.size++;
+        }
+    }
+}
@@ -0,0 +1,654 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * A {@link MinerHistory} remembers how the miners on each Foreman account
+ * have changed, so {@code status changes} can be answered from memory
+ * without calling Foreman.
+ *
+ * <p>Every status check records a snapshot of the warning and failing
+ * miners, and every notification marks its miners as failing. Each account
+ * keeps its miners' latest statuses, a ring of their transitions, and a ring
+ * of how many were failing and warning over time, all in primitive arrays.
+ * The first status check only sets the baseline, since there's nothing to
+ * compare it with.</p>
+ *
+ * <p>Each account's arrays grow until they reach the per-account cap, after
+ * which the oldest transitions are overwritten and new miners are ignored.
+ * Accounts are evicted, least recently updated first, once all of them
+ * together would exceed the global cap.</p>
+ */
+public class MinerHistory {
+
+    /** A miner whose status isn't known. */
+    private static final byte UNKNOWN = 0;
+
+    /** A healthy miner. */
+    private static final byte OKAY = 1;
+
+    /** A miner with warnings. */
+    private static final byte WARN = 2;
+
+    /** A failing miner. */
+    private static final byte FAIL = 3;
+
+    /** The names of each status. */
+    private static final String[] STATUSES = {"new", "okay", "warn", "fail"};
+
+    /** The estimated fixed cost of an account. */
+    private static final int ACCOUNT_BYTES = 256;
+
+    /** The estimated cost of a transition. */
+    private static final int CHANGE_BYTES = 8 + 4 + 1 + 1;
+
+    /** The estimated cost of a miner, not counting its name. */
+    private static final int MINER_BYTES = 4 + 1 + 8 + 40;
+
+    /** The estimated cost of a sample. */
+    private static final int SAMPLE_BYTES = 8 + 4 + 4;
+
+    /** The history of each account, by client ID. */
+    private final Cache<Integer, Account> accounts;
+
+    /** The max estimated size of each account. */
+    private final int maxAccountBytes;
+
+    /** The max transitions to render. */
+    private final int maxNotifications;
+
+    /** The renderer for messages. */
+    private final MessageRenderer messageRenderer;
+
+    /** The min time between samples; closer updates replace the last one. */
+    private final Duration sampleInterval;
+
+    /** How many samples each account keeps. */
+    private final int samples;
+
+    /**
+     * Constructor.
+     *
+     * @param messageRenderer  The renderer for messages.
+     * @param maxNotifications The max transitions to render.
+     * @param maxAccountBytes  The max estimated size of each account.
+     * @param maxBytes         The max estimated size of every account together.
+     * @param samples          How many failing and warning counts each account
+     *                         keeps.
+     * @param sampleInterval   The min time between those counts.
+     */
+    public MinerHistory(
+            final MessageRenderer messageRenderer,
+            final int maxNotifications,
+            final int maxAccountBytes,
+            final long maxBytes,
+            final int samples,
+            final Duration sampleInterval) {
+        this.messageRenderer = messageRenderer;
+        this.maxNotifications = maxNotifications;
+        this.maxAccountBytes = maxAccountBytes;
+        this.samples = samples;
+        this.sampleInterval = sampleInterval;
+        this.accounts =
+                CacheBuilder.newBuilder()
+                        .maximumWeight(maxBytes)
+                        .weigher((Integer clientId, Account account) -> account.bytes)
+                        .build();
+    }
+
+    /**
+     * Records the outcome of a status check.
+     *
+     * @param clientId      The client ID.
+     * @param troubleMiners The non-okay miners, by status.
+     * @param now           The current time.
+     */
+    public void recordCheck(
+            final int clientId,
+            final MinerBuckets troubleMiners,
+            final Instant now) {
+        update(
+                clientId,
+                account -> account.check(
+                        troubleMiners,
+                        now.toEpochMilli()));
+    }
+
+    /**
+     * Records the miners in a notification as failing.
+     *
+     * @param clientId      The client ID.
+     * @param failingMiners The failing miners.
+     * @param now           The current time.
+     */
+    public void recordFailing(
+            final int clientId,
+            final List<Notifications.Notification.FailingMiner> failingMiners,
+            final Instant now) {
+        if (failingMiners == null || failingMiners.isEmpty()) {
+            return;
+        }
+        update(
+                clientId,
+                account -> {
+                    for (final Notifications.Notification.FailingMiner failingMiner : failingMiners) {
+                        account.set(
+                                failingMiner.minerId,
+                                failingMiner.miner,
+                                FAIL,
+                                now.toEpochMilli());
+                    }
+                    account.sample(now.toEpochMilli());
+                });
+    }
+
+    /**
+     * Renders what's known about an account's miners.
+     *
+     * @param clientId The client ID.
+     *
+     * @return The pages, or empty if nothing is known about the account.
+     */
+    public Optional<List<String>> render(final int clientId) {
+        final Account account = this.accounts.getIfPresent(clientId);
+        if (account == null) {
+            return Optional.empty();
+        }
+        synchronized (account) {
+            return Optional.of(account.render());
+        }
+    }
+
+    /**
+     * Applies an update to an account, creating it if needed, and reweighs
+     * it so the global cap is kept.
+     *
+     * @param clientId The client ID.
+     * @param update   The update.
+     */
+    private void update(
+            final int clientId,
+            final Consumer<Account> update) {
+        final Account account =
+                this.accounts.asMap().computeIfAbsent(
+                        clientId,
+                        id -> new Account());
+        synchronized (account) {
+            update.accept(account);
+        }
+        this.accounts.put(
+                clientId,
+                account);
+    }
+
+    /** The history of a single account. */
+    private class Account {
+
+        /** When each sample was taken. */
+        private final long[] sampledAt = new long[MinerHistory.this.samples];
+
+        /** How many miners were failing in each sample. */
+        private final int[] sampledFailing = new int[MinerHistory.this.samples];
+
+        /** How many miners were warning in each sample. */
+        private final int[] sampledWarning = new int[MinerHistory.this.samples];
+
+        /** The estimated size, which the cache reads as the weight. */
+        private volatile int bytes;
+
+        /** When each transition happened. */
+        private long[] changedAt = new long[16];
+
+        /** The previous status of each transition. */
+        private byte[] changedFrom = new byte[16];
+
+        /** The miner of each transition. */
+        private int[] changedMiner = new int[16];
+
+        /** The new status of each transition. */
+        private byte[] changedTo = new byte[16];
+
+        /** Where the next transition is written. */
+        private int changeHead;
+
+        /** How many transitions are held. */
+        private int changes;
+
+        /** When the last status check happened, or 0 if never. */
+        private long checkedAt;
+
+        /** How many miners are failing. */
+        private int failing;
+
+        /** The miner IDs, sorted. */
+        private int[] minerIds = new int[16];
+
+        /** The miner names, in ID order. */
+        private String[] minerNames = new String[16];
+
+        /** How many miners are tracked. */
+        private int miners;
+
+        /** The miner statuses, in ID order. */
+        private byte[] minerStatuses = new byte[16];
+
+        /** The estimated size of the miner names. */
+        private int nameBytes;
+
+        /** How many samples are held. */
+        private int sampleCount;
+
+        /** Where the next sample is written. */
+        private int sampleHead;
+
+        /** When the account last changed. */
+        private long updatedAt;
+
+        /** How many miners have warnings. */
+        private int warning;
+
+        /** Constructor. */
+        Account() {
+            resize();
+        }
+
+        /**
+         * Records a status check. Miners that aren't in the check are okay.
+         *
+         * @param troubleMiners The non-okay miners, by status.
+         * @param now           The current time, in millis.
+         */
+        void check(
+                final MinerBuckets troubleMiners,
+                final long now) {
+            final MinerBuckets.Bucket warnMiners = troubleMiners.get("warn");
+            final MinerBuckets.Bucket failMiners = troubleMiners.get("fail");
+
+            // Make room for new miners first, so the snapshot lines up
+            track(warnMiners);
+            track(failMiners);
+            final byte[] next = new byte[this.miners];
+            Arrays.fill(next, OKAY);
+            mark(warnMiners, next, WARN);
+            mark(failMiners, next, FAIL);
+
+            final boolean baseline = this.checkedAt == 0;
+            for (int i = 0; i < this.miners; i++) {
+                if (baseline && this.minerStatuses[i] == UNKNOWN) {
+                    setStatus(i, next[i]);
+                } else {
+                    transition(i, next[i], now);
+                }
+            }
+            this.checkedAt = now;
+            sample(now);
+        }
+
+        /**
+         * Renders the account.
+         *
+         * @return The pages.
+         */
+        List<String> render() {
+            final MessageRenderer.PagedMessage message =
+                    MinerHistory.this.messageRenderer.newMessage("**Recent Changes**\n\n");
+            final int shown = Math.min(this.changes, MinerHistory.this.maxNotifications);
+            for (int i = 1; i <= shown; i++) {
+                final int slot = Math.floorMod(this.changeHead - i, this.changedAt.length);
+                final int index = find(this.changedMiner[slot]);
+                final StringBuilder entry = message.entry();
+                entry
+                        .append("<t:")
+                        .append(this.changedAt[slot] / 1000)
+                        .append(":R> ");
+                MinerHistory.this.messageRenderer
+                        .appendMinerLink(
+                                entry,
+                                index >= 0 && this.minerNames[index] != null
+                                        ? this.minerNames[index]
+                                        : "#" + this.changedMiner[slot],
+                                this.changedMiner[slot])
+                        .append(": ")
+                        .append(STATUSES[this.changedFrom[slot]])
+                        .append(" -> **")
+                        .append(STATUSES[this.changedTo[slot]])
+                        .append("**\n");
+                message.commit();
+            }
+            if (this.changes == 0) {
+                message
+                        .entry()
+                        .append("No changes yet\n");
+                message.commit();
+            } else if (this.changes > shown) {
+                message
+                        .entry()
+                        .append("*...and ")
+                        .append(this.changes - shown)
+                        .append(" earlier*\n");
+                message.commit();
+            }
+
+            message
+                    .entry()
+                    .append("\n**Over Time**\n");
+            message.commit();
+            for (int i = 1; i <= this.sampleCount; i++) {
+                final int slot = Math.floorMod(this.sampleHead - i, this.sampledAt.length);
+                message
+                        .entry()
+                        .append("<t:")
+                        .append(this.sampledAt[slot] / 1000)
+                        .append(":R> - ")
+                        .append(this.sampledFailing[slot])
+                        .append(" failing, ")
+                        .append(this.sampledWarning[slot])
+                        .append(" warning\n");
+                message.commit();
+            }
+
+            final StringBuilder footer =
+                    message
+                            .entry()
+                            .append("\n*");
+            if (this.checkedAt > 0) {
+                footer
+                        .append("Last checked <t:")
+                        .append(this.checkedAt / 1000)
+                        .append(":R>, updated <t:");
+            } else {
+                footer.append("Never checked, updated <t:");
+            }
+            footer
+                    .append(this.updatedAt / 1000)
+                    .append(":R>*");
+            message.commit();
+            return message.toPages();
+        }
+
+        /**
+         * Records how many miners are failing and warning, replacing the last
+         * sample if it was taken too recently.
+         *
+         * @param now The current time, in millis.
+         */
+        void sample(final long now) {
+            this.updatedAt = now;
+            if (this.sampledAt.length == 0) {
+                return;
+            }
+            final int last = Math.floorMod(this.sampleHead - 1, this.sampledAt.length);
+            final int slot;
+            if (this.sampleCount > 0 &&
+                    now - this.sampledAt[last] < MinerHistory.this.sampleInterval.toMillis()) {
+                slot = last;
+            } else {
+                slot = this.sampleHead;
+                this.sampleHead = (this.sampleHead + 1) % this.sampledAt.length;
+                this.sampleCount = Math.min(this.sampleCount + 1, this.sampledAt.length);
+                this.sampledAt[slot] = now;
+            }
+            this.sampledFailing[slot] = this.failing;
+            this.sampledWarning[slot] = this.warning;
+        }
+
+        /**
+         * Sets a miner's status, tracking the miner if it's new.
+         *
+         * @param minerId The miner ID.
+         * @param name    The miner name.
+         * @param status  The status.
+         * @param now     The current time, in millis.
+         */
+        void set(
+                final int minerId,
+                final String name,
+                final byte status,
+                final long now) {
+            final int index = track(minerId, name);
+            if (index >= 0) {
+                transition(index, status, now);
+            }
+        }
+
+        /**
+         * Returns the fixed size of the account, without its growable
+         * arrays.
+         *
+         * @return The size.
+         */
+        private int baseBytes() {
+            return ACCOUNT_BYTES + this.sampledAt.length * SAMPLE_BYTES;
+        }
+
+        /**
+         * Returns whether or not the account can grow by the provided size.
+         *
+         * @param extra The size.
+         *
+         * @return Whether or not it stays under the per-account cap.
+         */
+        private boolean canGrow(final int extra) {
+            return this.bytes + extra <= MinerHistory.this.maxAccountBytes;
+        }
+
+        /**
+         * Finds a miner.
+         *
+         * @param minerId The miner ID.
+         *
+         * @return The index, or a negative insertion point if it isn't
+         *         tracked.
+         */
+        private int find(final int minerId) {
+            return Arrays.binarySearch(
+                    this.minerIds,
+                    0,
+                    this.miners,
+                    minerId);
+        }
+
+        /**
+         * Sets the status of the miners in a bucket.
+         *
+         * @param bucket The bucket.
+         * @param next   The statuses.
+         * @param status The status.
+         */
+        private void mark(
+                final MinerBuckets.Bucket bucket,
+                final byte[] next,
+                final byte status) {
+            if (bucket == null) {
+                return;
+            }
+            for (int i = 0; i < bucket.size(); i++) {
+                final int index = find(bucket.getId(i));
+                if (index >= 0) {
+                    next[index] = status;
+                }
+            }
+        }
+
+        /** Recomputes the estimated size. */
+        private void resize() {
+            this.bytes =
+                    baseBytes() +
+                            this.minerIds.length * MINER_BYTES +
+                            this.nameBytes +
+                            this.changedAt.length * CHANGE_BYTES;
+        }
+
+        /**
+         * Sets a miner's status, keeping the counts up to date.
+         *
+         * @param index  The miner.
+         * @param status The status.
+         */
+        private void setStatus(
+                final int index,
+                final byte status) {
+            final byte previous = this.minerStatuses[index];
+            this.failing += (status == FAIL ? 1 : 0) - (previous == FAIL ? 1 : 0);
+            this.warning += (status == WARN ? 1 : 0) - (previous == WARN ? 1 : 0);
+            this.minerStatuses[index] = status;
+        }
+
+        /**
+         * Tracks every miner in a bucket.
+         *
+         * @param bucket The bucket.
+         */
+        private void track(final MinerBuckets.Bucket bucket) {
+            if (bucket == null) {
+                return;
+            }
+            for (int i = 0; i < bucket.size(); i++) {
+                track(
+                        bucket.getId(i),
+                        bucket.getName(i));
+            }
+        }
+
+        /**
+         * Tracks a miner, growing the miner arrays if the cap allows.
+         *
+         * @param minerId The miner ID.
+         * @param name    The miner name.
+         *
+         * @return The index, or -1 if the account is full.
+         */
+        private int track(
+                final int minerId,
+                final String name) {
+            int index = find(minerId);
+            if (index >= 0) {
+                return index;
+            }
+            final int nameCost = name != null ? 40 + 2 * name.length() : 0;
+            if (this.miners == this.minerIds.length) {
+                final int grown = this.minerIds.length * 2;
+                if (!canGrow(this.minerIds.length * MINER_BYTES + nameCost)) {
+                    return -1;
+                }
+                this.minerIds = Arrays.copyOf(this.minerIds, grown);
+                this.minerNames = Arrays.copyOf(this.minerNames, grown);
+                this.minerStatuses = Arrays.copyOf(this.minerStatuses, grown);
+            } else if (!canGrow(nameCost)) {
+                return -1;
+            }
+            index = -index - 1;
+            System.arraycopy(this.minerIds, index, this.minerIds, index + 1, this.miners - index);
+            System.arraycopy(this.minerNames, index, this.minerNames, index + 1, this.miners - index);
+            System.arraycopy(this.minerStatuses, index, this.minerStatuses, index + 1, this.miners - index);
+            this.minerIds[index] = minerId;
+            this.minerNames[index] = name;
+            this.minerStatuses[index] = UNKNOWN;
+            this.miners++;
+            this.nameBytes += nameCost;
+            resize();
+            return index;
+        }
+
+        /**
+         * Moves a miner to a new status, recording the transition if it
+         * changed. The transitions grow if the cap allows and otherwise
+         * overwrite the oldest.
+         *
+         * @param index  The miner.
+         * @param status The new status.
+         * @param now    The current time, in millis.
+         */
+        private void transition(
+                final int index,
+                final byte status,
+                final long now) {
+            final byte previous = this.minerStatuses[index];
+            if (previous == status) {
+                return;
+            }
+            setStatus(index, status);
+            if (this.changes == this.changedAt.length &&
+                    canGrow(this.changedAt.length * CHANGE_BYTES)) {
+                // Unroll the ring so the oldest is first again
+                final int length = this.changedAt.length;
+                this.changedAt = unroll(this.changedAt, length * 2);
+                this.changedMiner = unroll(this.changedMiner, length * 2);
+                this.changedFrom = unroll(this.changedFrom, length * 2);
+                this.changedTo = unroll(this.changedTo, length * 2);
+                this.changeHead = length;
+                resize();
+            }
+            this.changedAt[this.changeHead] = now;
+            this.changedMiner[this.changeHead] = this.minerIds[index];
+            this.changedFrom[this.changeHead] = previous;
+            this.changedTo[this.changeHead] = status;
+            this.changeHead = (this.changeHead + 1) % this.changedAt.length;
+            this.changes = Math.min(this.changes + 1, this.changedAt.length);
+        }
+
+        /**
+         * Copies a full ring into a larger array, oldest first.
+         *
+         * @param ring   The ring.
+         * @param length The new length.
+         *
+         * @return The copy.
+         */
+        private long[] unroll(
+                final long[] ring,
+                final int length) {
+            final long[] unrolled = new long[length];
+            final int tail = ring.length - this.changeHead;
+            System.arraycopy(ring, this.changeHead, unrolled, 0, tail);
+            System.arraycopy(ring, 0, unrolled, tail, this.changeHead);
+            return unrolled;
+        }
+
+        /**
+         * Copies a full ring into a larger array, oldest first.
+         *
+         * @param ring   The ring.
+         * @param length The new length.
+         *
+         * @return The copy.
+         */
+        private int[] unroll(
+                final int[] ring,
+                final int length) {
+            final int[] unrolled = new int[length];
+            final int tail = ring.length - this.changeHead;
+            System.arraycopy(ring, this.changeHead, unrolled, 0, tail);
+            System.arraycopy(ring, 0, unrolled, tail, this.changeHead);
+            return unrolled;
+        }
+
+        /**
+         * Copies a full ring into a larger array, oldest first.
+         *
+         * @param ring   The ring.
+         * @param length The new length.
+         *
+         * @return The copy.
+         */
+        private byte[] unroll(
+                final byte[] ring,
+                final int length) {
+            final byte[] unrolled = new byte[length];
+            final int tail = ring.length - this.changeHead;
+            System.arraycopy(ring, this.changeHead, unrolled, 0, tail);
+            System.arraycopy(ring, 0, unrolled, tail, this.changeHead);
+            return unrolled;
+        }
+    }
+}
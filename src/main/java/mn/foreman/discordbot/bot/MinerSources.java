@@ -0,0 +1,38 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.api.endpoints.miners.Miners;
+import mn.foreman.api.endpoints.pickaxe.Pickaxe;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Where a {@link CommandProcessorStatus} reads a session's pickaxes and
+ * miners from.
+ *
+ * @param <T> The session type.
+ */
+@Data
+@Builder
+public class MinerSources<T> {
+
+    /** The limiter for calls to Foreman. */
+    private final ForemanCallLimiter foremanCallLimiter;
+
+    /** The parser for streamed miners. */
+    private final MinerStatusParser minerStatusParser;
+
+    /** Opens a pickaxe's raw miners response, or null to use the API. */
+    private final BiFunction<T, String, InputStream> minersStreamer;
+
+    /** Obtains the miners on a pickaxe. */
+    private final BiFunction<T, String, List<Miners.Miner>> minersSupplier;
+
+    /** Obtains a session's pickaxes. */
+    private final Function<T, List<Pickaxe.PickaxeInstance>> pickaxesSupplier;
+}
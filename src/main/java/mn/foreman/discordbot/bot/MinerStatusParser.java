@@ -0,0 +1,212 @@
+package mn.foreman.discordbot.bot;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.primitives.Ints;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * A {@link MinerStatusParser} reads a miners response as a stream of tokens,
+ * keeping only the unhealthy miners and only the fields that are rendered.
+ *
+ * <p>Healthy, unseen and inactive miners, and miners without a usable ID,
+ * are dropped as soon as their object ends, and nothing else in the response is ever turned into an object. The
+ * bytes parsed and, where the JVM supports it, the bytes allocated during the
+ * parse are recorded for every response.</p>
+ */
+public class MinerStatusParser {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(MinerStatusParser.class);
+
+    /** The status of healthy miners. */
+    private static final String OKAY = "okay";
+
+    /** The bytes allocated while parsing. */
+    private final DistributionSummary allocated;
+
+    /** The bytes parsed. */
+    private final DistributionSummary bytes;
+
+    /** The factory for parsers. */
+    private final JsonFactory jsonFactory;
+
+    /** The counter for miners that were kept. */
+    private final Counter kept;
+
+    /** The counter for miners that were parsed. */
+    private final Counter parsed;
+
+    /**
+     * Constructor.
+     *
+     * @param jsonFactory   The factory for parsers.
+     * @param meterRegistry The registry for metrics.
+     */
+    public MinerStatusParser(
+            final JsonFactory jsonFactory,
+            final MeterRegistry meterRegistry) {
+        this.jsonFactory = jsonFactory;
+        this.bytes =
+                DistributionSummary
+                        .builder("bot.status.parse.bytes")
+                        .baseUnit("bytes")
+                        .register(meterRegistry);
+        this.allocated =
+                DistributionSummary
+                        .builder("bot.status.parse.allocated")
+                        .baseUnit("bytes")
+                        .register(meterRegistry);
+        this.parsed =
+                meterRegistry.counter("bot.status.parse.miners");
+        this.kept =
+                meterRegistry.counter("bot.status.parse.kept");
+    }
+
+    /**
+     * Parses a miners response, adding the unhealthy miners to the buckets.
+     *
+     * @param inputStream The response, which is closed once parsed.
+     * @param buckets     The destination.
+     *
+     * @throws IOException on failure to read or parse.
+     */
+    public void parse(
+            final InputStream inputStream,
+            final MinerBuckets buckets) throws IOException {
+        final long allocatedBefore = getAllocatedBytes();
+        int parsedMiners = 0;
+        int keptMiners = 0;
+        long parsedBytes;
+        try (final JsonParser parser = this.jsonFactory.createParser(inputStream)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected an array of miners");
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                parsedMiners++;
+                if (parseMiner(parser, buckets)) {
+                    keptMiners++;
+                }
+            }
+            parsedBytes = parser.getCurrentLocation().getByteOffset();
+        }
+
+        final long allocatedAfter = getAllocatedBytes();
+        this.parsed.increment(parsedMiners);
+        this.kept.increment(keptMiners);
+        if (parsedBytes >= 0) {
+            this.bytes.record(parsedBytes);
+        }
+        if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+            this.allocated.record(allocatedAfter - allocatedBefore);
+        }
+        LOG.debug("Parsed {} miners ({} bytes), kept {}, allocated {} bytes",
+                parsedMiners,
+                parsedBytes,
+                keptMiners,
+                allocatedAfter - allocatedBefore);
+    }
+
+    /**
+     * Returns how many bytes the current thread has allocated, if the JVM
+     * supports measuring it.
+     *
+     * @return The bytes allocated, or -1 if unsupported.
+     */
+    private static long getAllocatedBytes() {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a single miner object, positioned at its start.
+     *
+     * @param parser  The parser.
+     * @param buckets The destination.
+     *
+     * @return Whether or not the miner was kept.
+     *
+     * @throws IOException on failure to read or parse.
+     */
+    private static boolean parseMiner(
+            final JsonParser parser,
+            final MinerBuckets buckets) throws IOException {
+        Integer id = null;
+        String name = null;
+        String status = null;
+        boolean seen = false;
+        boolean active = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            switch (field) {
+                case "id":
+                    id = toId(parser, value);
+                    break;
+                case "name":
+                    name = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    break;
+                case "status":
+                    status = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    break;
+                case "seen":
+                    seen = value == JsonToken.VALUE_TRUE;
+                    break;
+                case "active":
+                    active = value == JsonToken.VALUE_TRUE;
+                    break;
+                default:
+                    break;
+            }
+            // Everything else, and any known field that was sent as an object
+            // or array, is skipped without being materialized
+            parser.skipChildren();
+        }
+        if (id != null && status != null && !OKAY.equals(status) && seen && active) {
+            buckets.add(status, id, name);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads a miner's ID, which is sent as a number but may be a numeric
+     * string.
+     *
+     * @param parser The parser, positioned at the ID.
+     * @param value  The ID's token.
+     *
+     * @return The ID, or null if it's missing or isn't an integer.
+     *
+     * @throws IOException on failure to read or parse.
+     */
+    private static Integer toId(
+            final JsonParser parser,
+            final JsonToken value) throws IOException {
+        switch (value) {
+            case VALUE_NUMBER_INT:
+                return parser.getNumberType() == JsonParser.NumberType.INT
+                        ? parser.getIntValue()
+                        : null;
+            case VALUE_STRING:
+                return Ints.tryParse(parser.getText());
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.discordbot.db.Digest;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link NotificationDigester} merges notifications into a session's {@link
+ * Digest} and renders the digest once its window has elapsed.
+ *
+ * <p>Notifications are merged by miner, so a miner that's reported over and
+ * over during a window only shows up once, along with every subject it was
+ * reported under and how many times. The digest lives on the session
+ * document, so anything buffered survives a restart.</p>
+ */
+public class NotificationDigester {
+
+    /** The miner ID used for notifications that don't contain miners. */
+    private static final int NO_MINER = -1;
+
+    /** The max entries to buffer per digest. */
+    private final int maxEntries;
+
+    /** The max miners to render. */
+    private final int maxNotifications;
+
+    /** The renderer for messages. */
+    private final MessageRenderer messageRenderer;
+
+    /**
+     * Constructor.
+     *
+     * @param messageRenderer  The renderer for messages.
+     * @param maxNotifications The max miners to render.
+     * @param maxEntries       The max entries to buffer per digest.
+     */
+    public NotificationDigester(
+            final MessageRenderer messageRenderer,
+            final int maxNotifications,
+            final int maxEntries) {
+        this.messageRenderer = messageRenderer;
+        this.maxNotifications = maxNotifications;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Merges the provided notification into the digest.
+     *
+     * @param digest        The digest.
+     * @param subject       The notification subject.
+     * @param failingMiners The failing miners to merge.
+     * @param now           The current time.
+     */
+    public void add(
+            final Digest digest,
+            final String subject,
+            final List<Notifications.Notification.FailingMiner> failingMiners,
+            final Instant now) {
+        if (digest.getWindowStart() == null) {
+            digest.setWindowStart(now);
+        }
+
+        final Map<String, Digest.Entry> index = new HashMap<>();
+        for (final Digest.Entry entry : digest.getEntries()) {
+            index.put(
+                    toKey(entry.getMinerId(), entry.getSubjects().get(0)),
+                    entry);
+        }
+
+        if (failingMiners.isEmpty()) {
+            merge(
+                    digest,
+                    index,
+                    subject,
+                    null,
+                    NO_MINER,
+                    null);
+        } else {
+            for (final Notifications.Notification.FailingMiner failingMiner : failingMiners) {
+                merge(
+                        digest,
+                        index,
+                        subject,
+                        failingMiner.miner,
+                        failingMiner.minerId,
+                        failingMiner.diagnosis);
+            }
+        }
+    }
+
+    /**
+     * Returns whether or not the digest's window has elapsed and it should be
+     * sent.
+     *
+     * @param digest The digest.
+     * @param now    The current time.
+     *
+     * @return Whether or not the digest is due.
+     */
+    public boolean isDue(
+            final Digest digest,
+            final Instant now) {
+        final Instant windowStart = digest.getWindowStart();
+        return windowStart != null &&
+                !now.isBefore(
+                        windowStart.plus(
+                                Duration.ofMinutes(digest.getIntervalMinutes())));
+    }
+
+    /**
+     * Renders the digest and clears it so the next window can start.
+     *
+     * @param digest The digest.
+     *
+     * @return The notifications to send.
+     */
+    public List<NotificationsProcessorImpl.DiscordNotification> flush(
+            final Digest digest) {
+        return flush(
+                digest,
+                digest.getIntervalMinutes() > 0
+                        ? "**Notifications from the last " + digest.getIntervalMinutes() + " minutes**\n\n"
+                        : "**Notifications**\n\n");
+    }
+
+    /**
+     * Renders the digest under the provided header and clears it.
+     *
+     * @param digest The digest.
+     * @param header The header.
+     *
+     * @return The notifications to send.
+     */
+    public List<NotificationsProcessorImpl.DiscordNotification> flush(
+            final Digest digest,
+            final String header) {
+        final List<Digest.Entry> entries = digest.getEntries();
+        final MessageRenderer.PagedMessage message =
+                this.messageRenderer.newMessage(header);
+
+        boolean error = false;
+        int minersWritten = 0;
+        int minersSkipped = digest.getOverflow();
+        for (final Digest.Entry entry : entries) {
+            if (entry.getMiner() == null) {
+                final StringBuilder builder =
+                        message
+                                .entry()
+                                .append("**")
+                                .append(entry.getSubjects().get(0))
+                                .append("**");
+                appendCount(entry, builder).append("\n\n");
+                message.commit();
+            } else if (minersWritten < this.maxNotifications) {
+                error = true;
+                final StringBuilder builder = message.entry();
+                this.messageRenderer.appendMinerLink(
+                        builder,
+                        entry.getMiner(),
+                        entry.getMinerId());
+                appendCount(entry, builder).append('\n');
+                builder
+                        .append('*')
+                        .append(String.join(", ", entry.getSubjects()))
+                        .append("*\n");
+                for (final String diag : entry.getDiagnosis()) {
+                    builder
+                            .append(diag)
+                            .append('\n');
+                }
+                builder.append('\n');
+                message.commit();
+                minersWritten++;
+            } else {
+                error = true;
+                minersSkipped++;
+            }
+        }
+        if (minersSkipped > 0) {
+            message
+                    .entry()
+                    .append("*...and ")
+                    .append(minersSkipped)
+                    .append(" more*\n\nHead to ")
+                    .append(this.messageRenderer.getDashboardLink())
+                    .append(" to see the rest");
+            message.commit();
+        }
+
+        entries.clear();
+        digest.setOverflow(0);
+        digest.setWindowStart(null);
+        return NotificationsProcessorImpl.toDiscordNotifications(
+                message,
+                error);
+    }
+
+    /**
+     * Appends how many times the entry was seen, if more than once.
+     *
+     * @param entry   The entry.
+     * @param builder The destination.
+     *
+     * @return The builder.
+     */
+    private static StringBuilder appendCount(
+            final Digest.Entry entry,
+            final StringBuilder builder) {
+        if (entry.getCount() > 1) {
+            builder
+                    .append(" (x")
+                    .append(entry.getCount())
+                    .append(')');
+        }
+        return builder;
+    }
+
+    /**
+     * Creates the key for an entry.
+     *
+     * @param minerId The miner ID.
+     * @param subject The subject.
+     *
+     * @return The key.
+     */
+    private static String toKey(
+            final int minerId,
+            final String subject) {
+        return minerId != NO_MINER
+                ? Integer.toString(minerId)
+                : "|" + subject;
+    }
+
+    /**
+     * Merges a miner or subject into the digest, adding a new entry if it
+     * hasn't been seen during this window.
+     *
+     * @param digest    The digest.
+     * @param index     The existing entries, by key.
+     * @param subject   The subject.
+     * @param miner     The miner name.
+     * @param minerId   The miner ID.
+     * @param diagnosis The diagnosis.
+     */
+    private void merge(
+            final Digest digest,
+            final Map<String, Digest.Entry> index,
+            final String subject,
+            final String miner,
+            final int minerId,
+            final List<String> diagnosis) {
+        final String key = toKey(minerId, subject);
+        Digest.Entry entry = index.get(key);
+        if (entry == null) {
+            if (digest.getEntries().size() >= this.maxEntries) {
+                digest.setOverflow(digest.getOverflow() + 1);
+                return;
+            }
+            entry =
+                    Digest.Entry
+                            .builder()
+                            .miner(miner)
+                            .minerId(minerId)
+                            .build();
+            digest.getEntries().add(entry);
+            index.put(key, entry);
+        }
+
+        entry.setCount(entry.getCount() + 1);
+        if (!entry.getSubjects().contains(subject)) {
+            entry.getSubjects().add(subject);
+        }
+        if (diagnosis != null) {
+            entry.setDiagnosis(diagnosis);
+        }
+    }
+}
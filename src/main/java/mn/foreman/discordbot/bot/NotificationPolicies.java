@@ -0,0 +1,37 @@
+package mn.foreman.discordbot.bot;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * How a {@link NotificationsProcessorImpl} decides what to send for the
+ * notifications it renders.
+ */
+@Data
+@Builder
+public class NotificationPolicies {
+
+    /** The keeper for sessions that use an alert board. */
+    private final AlertBoardKeeper alertBoardKeeper;
+
+    /** The policy for replaying notifications missed during downtime. */
+    private final CatchUpPolicy catchUpPolicy;
+
+    /** The max notifications to send at once. */
+    private final int maxNotifications;
+
+    /** The max notifications to render per poll, or 0 for no limit. */
+    private final int maxPerPoll;
+
+    /** The renderer for messages. */
+    private final MessageRenderer messageRenderer;
+
+    /** The history of each account's miners, or null to not keep one. */
+    private final MinerHistory minerHistory;
+
+    /** The digester for sessions that receive digests. */
+    private final NotificationDigester notificationDigester;
+
+    /** The suppressor for repeated notifications. */
+    private final NotificationSuppressor notificationSuppressor;
+}
@@ -0,0 +1,438 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.discordbot.db.Session;
+import mn.foreman.discordbot.db.SessionStore;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * A {@link NotificationReceiver} accepts notifications that Foreman pushes to
+ * the bot, so they can be sent as soon as they happen rather than on the next
+ * poll.
+ *
+ * <p>Payloads are POSTed to {@code /notifications/<clientId>} as the same
+ * JSON list that the notifications API returns, with the
+ * {@code X-Foreman-Since} header holding the ID of the notification that
+ * came right before the batch. Every request is signed with the client's API
+ * key: the {@code X-Foreman-Signature} header holds the hex-encoded
+ * HMAC-SHA256 of the {@code X-Foreman-Timestamp} header, a period, the
+ * {@code X-Foreman-Since} header, a period, and the body. Only the sessions
+ * whose key produces that signature receive the notifications, and stale
+ * timestamps are rejected to stop replays.</p>
+ *
+ * <p>Pushed notifications flow through the same rendering and sending path as
+ * polled ones, and move the same cursor, so polling can run as a slow
+ * reconciliation without sending anything twice. A batch is only delivered
+ * to a session whose cursor has reached the notification it follows, since
+ * moving the cursor past it would skip whatever came in between. Otherwise
+ * it's left for the next poll. Pushes and polls for the same session are
+ * serialized by the {@link SessionLocks}, and a push that can't get the lock
+ * in time is answered with a 503 so it's retried.</p>
+ */
+public class NotificationReceiver {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(NotificationReceiver.class);
+
+    /** The type of a notifications payload. */
+    private static final TypeReference<List<Notifications.Notification>> NOTIFICATIONS_TYPE =
+            new TypeReference<List<Notifications.Notification>>() {
+            };
+
+    /** The path that notifications are pushed to. */
+    private static final String PATH = "/notifications/";
+
+    /** The header that contains the ID the notifications follow. */
+    private static final String SINCE_HEADER = "X-Foreman-Since";
+
+    /** The header that contains the signature. */
+    private static final String SIGNATURE_HEADER = "X-Foreman-Signature";
+
+    /** The header that contains when the payload was signed. */
+    private static final String TIMESTAMP_HEADER = "X-Foreman-Timestamp";
+
+    /** The largest payload that will be accepted. */
+    private final int maxBodyBytes;
+
+    /** The max difference between the signed timestamp and now. */
+    private final Duration maxSkew;
+
+    /** The sender for messages. */
+    private final NotificationSender notificationSender;
+
+    /** The processor that renders notifications. */
+    private final NotificationsProcessorImpl<Session> notificationsProcessor;
+
+    /** The mapper. */
+    private final ObjectMapper objectMapper;
+
+    /** The port to listen on. */
+    private final int port;
+
+    /** Whether or not notifications can be sent yet. */
+    private final BooleanSupplier ready;
+
+    /** The session repository. */
+    private final SessionStore sessionRepository;
+
+    /** The locks that serialize pushes and polls. */
+    private final SessionLocks sessionLocks;
+
+    /** The threads that requests are handled on. */
+    private final int threads;
+
+    /** The executor for requests. */
+    private ExecutorService executorService;
+
+    /** The server. */
+    private HttpServer server;
+
+    /**
+     * Constructor.
+     *
+     * @param port                   The port to listen on.
+     * @param threads                The threads that requests are handled on.
+     * @param maxBodyBytes           The largest payload that will be accepted.
+     * @param maxSkew                The max difference between the signed
+     *                               timestamp and now.
+     * @param sessionRepository      The session repository.
+     * @param sessionLocks           The locks that serialize pushes and
+     *                               polls.
+     * @param notificationsProcessor The processor that renders notifications.
+     * @param notificationSender     The sender for messages.
+     * @param objectMapper           The mapper.
+     * @param ready                  Whether or not notifications can be sent
+     *                               yet. Until then, pushes are refused so
+     *                               Foreman retries them.
+     */
+    public NotificationReceiver(
+            final int port,
+            final int threads,
+            final int maxBodyBytes,
+            final Duration maxSkew,
+            final SessionStore sessionRepository,
+            final SessionLocks sessionLocks,
+            final NotificationsProcessorImpl<Session> notificationsProcessor,
+            final NotificationSender notificationSender,
+            final ObjectMapper objectMapper,
+            final BooleanSupplier ready) {
+        this.port = port;
+        this.threads = threads;
+        this.maxBodyBytes = maxBodyBytes;
+        this.maxSkew = maxSkew;
+        this.sessionRepository = sessionRepository;
+        this.sessionLocks = sessionLocks;
+        this.notificationsProcessor = notificationsProcessor;
+        this.notificationSender = notificationSender;
+        this.objectMapper = objectMapper;
+        this.ready = ready;
+    }
+
+    /**
+     * Starts listening for notifications.
+     *
+     * @throws IOException on failure to bind.
+     */
+    public void start() throws IOException {
+        this.executorService = Executors.newFixedThreadPool(this.threads);
+        this.server = HttpServer.create(new InetSocketAddress(this.port), 0);
+        this.server.createContext(PATH, this::handle);
+        this.server.setExecutor(this.executorService);
+        this.server.start();
+        LOG.info("Listening for pushed notifications on {}", this.port);
+    }
+
+    /**
+     * Returns the port that's being listened on.
+     *
+     * @return The port.
+     */
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    /** Stops listening for notifications. */
+    public void stop() {
+        if (this.server != null) {
+            this.server.stop(1);
+            this.executorService.shutdown();
+        }
+    }
+
+    /**
+     * Renders and sends the notifications that the session hasn't seen yet,
+     * if the batch follows on from its cursor. Must be called while holding
+     * the session's lock.
+     *
+     * @param sessionId     The session ID.
+     * @param since         The ID of the notification before the batch.
+     * @param notifications The pushed notifications.
+     */
+    private void deliver(
+            final String sessionId,
+            final int since,
+            final List<Notifications.Notification> notifications) {
+        // Read again under the lock, since a poll may have moved the cursor
+        final Session session =
+                this.sessionRepository
+                        .findById(sessionId)
+                        .orElse(null);
+        if (session == null) {
+            return;
+        }
+        if (since > session.getLastNotificationId()) {
+            LOG.debug("Leaving pushed notifications after {} for the next poll of {}, which is at {}",
+                    since,
+                    sessionId,
+                    session.getLastNotificationId());
+            return;
+        }
+        final List<Notifications.Notification> unseen =
+                notifications
+                        .stream()
+                        .filter(notification -> notification.id > session.getLastNotificationId())
+                        .sorted(Comparator.comparingInt(notification -> notification.id))
+                        .collect(Collectors.toList());
+        if (unseen.isEmpty()) {
+            return;
+        }
+        this.notificationsProcessor
+                .render(
+                        session,
+                        unseen)
+                .forEach(message ->
+                        this.notificationSender.send(
+                                message,
+                                session));
+        this.sessionRepository.savePoll(session);
+        this.sessionLocks.recordPush(session);
+    }
+
+    /**
+     * Handles a pushed payload.
+     *
+     * @param exchange The exchange.
+     */
+    private void handle(final HttpExchange exchange) {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405);
+                return;
+            }
+            if (!this.ready.getAsBoolean()) {
+                respond(exchange, 503);
+                return;
+            }
+
+            final int clientId;
+            try {
+                clientId =
+                        Integer.parseInt(
+                                exchange
+                                        .getRequestURI()
+                                        .getPath()
+                                        .substring(PATH.length()));
+            } catch (final NumberFormatException e) {
+                respond(exchange, 404);
+                return;
+            }
+
+            final byte[] body = readBody(exchange.getRequestBody());
+            if (body == null) {
+                respond(exchange, 413);
+                return;
+            }
+
+            final String timestamp =
+                    exchange.getRequestHeaders().getFirst(TIMESTAMP_HEADER);
+            final String since =
+                    exchange.getRequestHeaders().getFirst(SINCE_HEADER);
+            final String signature =
+                    exchange.getRequestHeaders().getFirst(SIGNATURE_HEADER);
+            if (timestamp == null || since == null || signature == null || !isFresh(timestamp)) {
+                respond(exchange, 401);
+                return;
+            }
+
+            final List<Session> sessions =
+                    this.sessionRepository
+                            .findByClientId(clientId)
+                            .stream()
+                            .filter(session -> session.getDateRegistered() != null)
+                            .filter(session -> !session.isQuarantined())
+                            .filter(session ->
+                                    isSigned(
+                                            session.getApiKey(),
+                                            timestamp,
+                                            since,
+                                            body,
+                                            signature))
+                            .collect(Collectors.toList());
+            if (sessions.isEmpty()) {
+                respond(exchange, 401);
+                return;
+            }
+
+            final int after;
+            final List<Notifications.Notification> notifications;
+            try {
+                after = Integer.parseInt(since);
+                notifications =
+                        this.objectMapper.readValue(
+                                body,
+                                NOTIFICATIONS_TYPE);
+            } catch (final NumberFormatException | IOException e) {
+                respond(exchange, 400);
+                return;
+            }
+
+            LOG.debug("Received {} pushed notifications for {}",
+                    notifications.size(),
+                    clientId);
+            boolean busy = false;
+            for (final Session session : sessions) {
+                busy |=
+                        !this.sessionLocks.run(
+                                session.getId(),
+                                () -> deliver(
+                                        session.getId(),
+                                        after,
+                                        notifications));
+            }
+            // Sessions that were delivered to won't send it twice on a retry
+            respond(exchange, busy ? 503 : 204);
+        } catch (final Exception e) {
+            LOG.warn("Exception occurred while receiving notifications", e);
+            respond(exchange, 500);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Checks whether or not the signed timestamp is close enough to now.
+     *
+     * @param timestamp The timestamp, in epoch seconds.
+     *
+     * @return Whether or not the timestamp is fresh.
+     */
+    private boolean isFresh(final String timestamp) {
+        try {
+            final Instant signedAt =
+                    Instant.ofEpochSecond(Long.parseLong(timestamp));
+            return Duration
+                    .between(signedAt, Instant.now())
+                    .abs()
+                    .compareTo(this.maxSkew) <= 0;
+        } catch (final NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the body, giving up if it's larger than allowed.
+     *
+     * @param inputStream The body.
+     *
+     * @return The body, or null if it was too large.
+     *
+     * @throws IOException on failure to read.
+     */
+    private byte[] readBody(final InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            if (body.size() + read > this.maxBodyBytes) {
+                return null;
+            }
+            body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Checks whether or not the payload was signed with the provided key.
+     *
+     * @param apiKey    The key.
+     * @param timestamp The signed timestamp.
+     * @param since     The signed ID the notifications follow.
+     * @param body      The body.
+     * @param signature The provided signature, hex-encoded.
+     *
+     * @return Whether or not the signature matches.
+     */
+    private static boolean isSigned(
+            final String apiKey,
+            final String timestamp,
+            final String since,
+            final byte[] body,
+            final String signature) {
+        if (apiKey == null) {
+            return false;
+        }
+        try {
+            final Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(
+                    new SecretKeySpec(
+                            apiKey.getBytes(StandardCharsets.UTF_8),
+                            "HmacSHA256"));
+            mac.update(timestamp.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) '.');
+            mac.update(since.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) '.');
+            final byte[] expected = mac.doFinal(body);
+
+            final StringBuilder hex = new StringBuilder(expected.length * 2);
+            for (final byte b : expected) {
+                hex.append(String.format("%02x", b));
+            }
+            return MessageDigest.isEqual(
+                    hex.toString().getBytes(StandardCharsets.UTF_8),
+                    signature.toLowerCase().getBytes(StandardCharsets.UTF_8));
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Responds without a body.
+     *
+     * @param exchange The exchange.
+     * @param status   The status code.
+     */
+    private static void respond(
+            final HttpExchange exchange,
+            final int status) {
+        try {
+            exchange.sendResponseHeaders(status, -1);
+        } catch (final IOException e) {
+            LOG.debug("Failed to respond", e);
+        }
+    }
+}
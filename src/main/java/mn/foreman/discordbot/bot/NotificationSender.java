@@ -0,0 +1,37 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.discordbot.db.Session;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link NotificationSender} delivers rendered notifications to a
+ * {@link Session}'s destination, either straight to Discord or by handing
+ * them to a gateway node.
+ */
+public interface NotificationSender
+        extends BiConsumer<NotificationsProcessorImpl.DiscordNotification, Session> {
+
+    @Override
+    default void accept(
+            final NotificationsProcessorImpl.DiscordNotification notification,
+            final Session session) {
+        send(
+                notification,
+                session);
+    }
+
+    /**
+     * Sends the notification to the session's destination.
+     *
+     * @param notification The notification.
+     * @param session      The session.
+     *
+     * @return A future that completes once the notification has been
+     *         accepted for delivery.
+     */
+    CompletableFuture<Void> send(
+            NotificationsProcessorImpl.DiscordNotification notification,
+            Session session);
+}
@@ -0,0 +1,428 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link NotificationSuppressor} collapses repeated notifications that are
+ * sent to the same destination.
+ *
+ * <p>Repeats are keyed on the miner and the notification subject. The first
+ * occurrence is forwarded and opens a window; anything that matches inside of
+ * that window is dropped and counted. Once the window closes, a single summary
+ * is produced for every key that was repeated.</p>
+ *
+ * <p>Memory is bounded by both the number of destinations that are tracked
+ * and the number of keys tracked per destination. The least recently used are
+ * forgotten first. A window that's forgotten early, or that closes while its
+ * destination isn't being rendered, leaves its summary pending for that
+ * destination, so it's sent on the destination's next render rather than
+ * lost. Only summaries pending for more destinations than are tracked are
+ * dropped, and those are counted.</p>
+ */
+public class NotificationSuppressor {
+
+    /** The miner ID used for notifications that don't contain miners. */
+    private static final int NO_MINER = -1;
+
+    /** Obtains the current time, in millis. */
+    private final LongSupplier clock;
+
+    /** The destinations being tracked. */
+    private final Cache<String, Map<String, Window>> destinations;
+
+    /** The counter for summaries that were dropped before being sent. */
+    private final Counter dropped;
+
+    /** The counter for forwarded notifications. */
+    private final Counter forwarded;
+
+    /** The max keys to track per destination. */
+    private final int maxKeysPerDestination;
+
+    /** The summaries of windows that closed, by destination. */
+    private final Cache<String, List<Summary>> pending;
+
+    /** The counter for summaries that were produced. */
+    private final Counter summaries;
+
+    /** The counter for suppressed notifications. */
+    private final Counter suppressed;
+
+    /** The suppression window. */
+    private final long windowMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param windowMillis          The suppression window.
+     * @param maxDestinations       The max destinations to track.
+     * @param maxKeysPerDestination The max keys to track per destination.
+     * @param meterRegistry         The registry for metrics.
+     */
+    public NotificationSuppressor(
+            final long windowMillis,
+            final int maxDestinations,
+            final int maxKeysPerDestination,
+            final MeterRegistry meterRegistry) {
+        this(
+                windowMillis,
+                maxDestinations,
+                maxKeysPerDestination,
+                meterRegistry,
+                System::currentTimeMillis);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param windowMillis          The suppression window.
+     * @param maxDestinations       The max destinations to track.
+     * @param maxKeysPerDestination The max keys to track per destination.
+     * @param meterRegistry         The registry for metrics.
+     * @param clock                 Obtains the current time, in millis.
+     */
+    NotificationSuppressor(
+            final long windowMillis,
+            final int maxDestinations,
+            final int maxKeysPerDestination,
+            final MeterRegistry meterRegistry,
+            final LongSupplier clock) {
+        this.windowMillis = windowMillis;
+        this.maxKeysPerDestination = maxKeysPerDestination;
+        this.clock = clock;
+        this.destinations =
+                CacheBuilder
+                        .newBuilder()
+                        .maximumSize(maxDestinations)
+                        .<String, Map<String, Window>>removalListener(removal -> {
+                            if (removal.getCause() == RemovalCause.SIZE) {
+                                final Map<String, Window> windows = removal.getValue();
+                                synchronized (windows) {
+                                    windows.values().forEach(window ->
+                                            addPending(
+                                                    removal.getKey(),
+                                                    window));
+                                }
+                            }
+                        })
+                        .build();
+        this.dropped =
+                meterRegistry.counter("bot.notifications.flap.dropped");
+        this.pending =
+                CacheBuilder
+                        .newBuilder()
+                        .maximumSize(maxDestinations)
+                        .<String, List<Summary>>removalListener(removal -> {
+                            if (removal.getCause() == RemovalCause.SIZE) {
+                                this.dropped.increment(removal.getValue().size());
+                            }
+                        })
+                        .build();
+        this.forwarded =
+                meterRegistry.counter("bot.notifications.forwarded");
+        this.suppressed =
+                meterRegistry.counter("bot.notifications.suppressed");
+        this.summaries =
+                meterRegistry.counter("bot.notifications.flap.summaries");
+    }
+
+    /**
+     * Determines what should be forwarded for the provided notification.
+     *
+     * @param destination  The destination.
+     * @param notification The notification.
+     *
+     * @return The failing miners that should be forwarded, or empty if the
+     *         entire notification should be dropped.
+     */
+    public Optional<List<Notifications.Notification.FailingMiner>> admit(
+            final String destination,
+            final Notifications.Notification notification) {
+        if (this.windowMillis <= 0) {
+            return Optional.of(notification.failingMiners);
+        }
+
+        final Map<String, Window> windows = getWindows(destination);
+        final long now = this.clock.getAsLong();
+        synchronized (windows) {
+            if (notification.failingMiners.isEmpty()) {
+                return admit(
+                        windows,
+                        notification.subject,
+                        null,
+                        NO_MINER,
+                        now)
+                        ? Optional.of(notification.failingMiners)
+                        : Optional.empty();
+            }
+
+            final List<Notifications.Notification.FailingMiner> admitted =
+                    new ArrayList<>(notification.failingMiners.size());
+            for (final Notifications.Notification.FailingMiner failingMiner :
+                    notification.failingMiners) {
+                if (admit(
+                        windows,
+                        notification.subject,
+                        failingMiner.miner,
+                        failingMiner.minerId,
+                        now)) {
+                    admitted.add(failingMiner);
+                }
+            }
+            return admitted.isEmpty()
+                    ? Optional.empty()
+                    : Optional.of(admitted);
+        }
+    }
+
+    /**
+     * Closes the windows of every destination that have run out, leaving a
+     * summary pending for each one that suppressed anything. Meant to be run
+     * once per sweep, so summaries don't wait on more notifications for the
+     * same destination, and destinations that went quiet are forgotten.
+     */
+    public void closeExpired() {
+        final long now = this.clock.getAsLong();
+        for (final Map.Entry<String, Map<String, Window>> entry :
+                this.destinations.asMap().entrySet()) {
+            final Map<String, Window> windows = entry.getValue();
+            final boolean empty;
+            synchronized (windows) {
+                final Iterator<Window> iterator = windows.values().iterator();
+                while (iterator.hasNext()) {
+                    final Window window = iterator.next();
+                    if (window.windowEnd <= now) {
+                        iterator.remove();
+                        addPending(
+                                entry.getKey(),
+                                window);
+                    }
+                }
+                empty = windows.isEmpty();
+            }
+            if (empty) {
+                this.destinations.asMap().remove(
+                        entry.getKey(),
+                        windows);
+            }
+        }
+    }
+
+    /**
+     * Removes every window for the destination that has closed, returning a
+     * summary for each one that suppressed anything, along with any that were
+     * left pending.
+     *
+     * @param destination The destination.
+     *
+     * @return The summaries to send.
+     */
+    public List<Summary> closeWindows(final String destination) {
+        final List<Summary> closed = new LinkedList<>();
+        final Map<String, Window> windows =
+                this.destinations.getIfPresent(destination);
+        if (windows != null) {
+            final long now = this.clock.getAsLong();
+            synchronized (windows) {
+                final Iterator<Window> iterator = windows.values().iterator();
+                while (iterator.hasNext()) {
+                    final Window window = iterator.next();
+                    if (window.windowEnd <= now) {
+                        iterator.remove();
+                        if (window.suppressed > 0) {
+                            closed.add(toSummary(window));
+                        }
+                    }
+                }
+            }
+        }
+        final List<Summary> pending = this.pending.asMap().remove(destination);
+        if (pending != null) {
+            synchronized (pending) {
+                closed.addAll(pending);
+            }
+        }
+        this.summaries.increment(closed.size());
+        return closed;
+    }
+
+    /**
+     * Creates the summary for a window.
+     *
+     * @param window The window.
+     *
+     * @return The summary.
+     */
+    private static Summary toSummary(final Window window) {
+        return Summary
+                .builder()
+                .subject(window.subject)
+                .miner(window.miner)
+                .minerId(window.minerId)
+                .count(window.suppressed)
+                .build();
+    }
+
+    /**
+     * Leaves the summary of a window that closed pending for its destination,
+     * if it suppressed anything.
+     *
+     * @param destination The destination.
+     * @param window      The window.
+     */
+    private void addPending(
+            final String destination,
+            final Window window) {
+        if (window.suppressed <= 0) {
+            return;
+        }
+        final Summary summary = toSummary(window);
+        this.pending.asMap().compute(
+                destination,
+                (key, summaries) -> {
+                    final List<Summary> list =
+                            summaries != null
+                                    ? summaries
+                                    : new ArrayList<>();
+                    synchronized (list) {
+                        list.add(summary);
+                    }
+                    return list;
+                });
+    }
+
+    /**
+     * Checks whether or not a miner and subject pair should be forwarded,
+     * opening a new window or counting against an existing one.
+     *
+     * @param windows The windows for the destination.
+     * @param subject The subject.
+     * @param miner   The miner name.
+     * @param minerId The miner ID.
+     * @param now     The current time.
+     *
+     * @return Whether or not to forward.
+     */
+    private boolean admit(
+            final Map<String, Window> windows,
+            final String subject,
+            final String miner,
+            final int minerId,
+            final long now) {
+        final String key = minerId + "|" + subject;
+        final Window window = windows.get(key);
+        if (window != null && window.windowEnd > now) {
+            window.suppressed++;
+            this.suppressed.increment();
+            return false;
+        }
+        windows.put(
+                key,
+                new Window(
+                        subject,
+                        miner,
+                        minerId,
+                        now + this.windowMillis));
+        this.forwarded.increment();
+        return true;
+    }
+
+    /**
+     * Returns the windows for the provided destination, creating them if
+     * they don't exist.
+     *
+     * @param destination The destination.
+     *
+     * @return The windows.
+     */
+    private Map<String, Window> getWindows(final String destination) {
+        try {
+            return this.destinations.get(
+                    destination,
+                    () -> new LinkedHashMap<String, Window>(16, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry(
+                                final Map.Entry<String, Window> eldest) {
+                            if (size() > NotificationSuppressor.this.maxKeysPerDestination) {
+                                // Close the window early rather than lose its count
+                                addPending(
+                                        destination,
+                                        eldest.getValue());
+                                return true;
+                            }
+                            return false;
+                        }
+                    });
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** A summary of a key that was suppressed. */
+    @Data
+    @Builder
+    public static class Summary {
+
+        /** How many times it was suppressed. */
+        private final int count;
+
+        /** The miner name, or null if the notification had no miners. */
+        private final String miner;
+
+        /** The miner ID. */
+        private final int minerId;
+
+        /** The subject. */
+        private final String subject;
+    }
+
+    /** A suppression window for a single key. */
+    private static class Window {
+
+        /** The miner name. */
+        private final String miner;
+
+        /** The miner ID. */
+        private final int minerId;
+
+        /** The subject. */
+        private final String subject;
+
+        /** When the window closes. */
+        private final long windowEnd;
+
+        /** How many notifications were suppressed. */
+        private int suppressed;
+
+        /**
+         * Constructor.
+         *
+         * @param subject   The subject.
+         * @param miner     The miner name.
+         * @param minerId   The miner ID.
+         * @param windowEnd When the window closes.
+         */
+        private Window(
+                final String subject,
+                final String miner,
+                final int minerId,
+                final long windowEnd) {
+            this.subject = subject;
+            this.miner = miner;
+            this.minerId = minerId;
+            this.windowEnd = windowEnd;
+        }
+    }
+}
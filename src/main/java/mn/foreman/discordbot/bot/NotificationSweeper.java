@@ -0,0 +1,14 @@
+package mn.foreman.discordbot.bot;
+
+/**
+ * A {@link NotificationSweeper} periodically checks every registered session
+ * for pending notifications and sends them.
+ */
+public interface NotificationSweeper {
+
+    /**
+     * Runs a single sweep over every session. Returns once the sweep has
+     * finished.
+     */
+    void fetchAndNotify();
+}
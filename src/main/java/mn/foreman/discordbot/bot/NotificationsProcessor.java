@@ -14,8 +14,10 @@ public interface NotificationsProcessor<T> {
      * necessary.
      *
      * @param session The session.
+     *
+     * @return How many notifications were pending.
      */
-    void process(
+    int process(
             int id,
             String apiKey,
             Instant dateRegistered,
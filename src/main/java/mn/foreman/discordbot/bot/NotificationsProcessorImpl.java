@@ -1,22 +1,23 @@
 package mn.foreman.discordbot.bot;
 
-import mn.foreman.api.ForemanApi;
-import mn.foreman.api.ForemanApiImpl;
-import mn.foreman.api.JdkWebUtil;
 import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.discordbot.db.AlertBoard;
+import mn.foreman.discordbot.db.Digest;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Iterables;
+import io.opentelemetry.api.trace.SpanBuilder;
+import io.opentelemetry.api.trace.Tracer;
 import lombok.Builder;
 import lombok.Data;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.mongodb.repository.MongoRepository;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * A simple {@link NotificationsProcessor} implementation that sends
@@ -30,102 +31,315 @@ public class NotificationsProcessorImpl<T>
     private static final Logger LOG =
             LoggerFactory.getLogger(NotificationsProcessorImpl.class);
 
-    /** The API URL. */
-    private final String foremanApiUrl;
+    /** The keeper for sessions that use an alert board. */
+    private final AlertBoardKeeper alertBoardKeeper;
 
-    /** The base URL for Foreman. */
-    private final String foremanDashboardUrl;
+    /** Obtains the alert board from the session. */
+    private final Function<T, AlertBoard> alertBoardSupplier;
+
+    /** The policy for replaying notifications missed during downtime. */
+    private final CatchUpPolicy catchUpPolicy;
+
+    /** Obtains the Foreman client ID from the session. */
+    private final Function<T, Integer> clientIdSupplier;
+
+    /** Obtains the ID of the destination from the session. */
+    private final Function<T, String> destinationIdSupplier;
+
+    /** Obtains the digest from the session. */
+    private final Function<T, Digest> digestSupplier;
+
+    /** The limiter for calls to Foreman. */
+    private final ForemanCallLimiter foremanCallLimiter;
+
+    /** The source for notifications. */
+    private final ForemanSource foremanSource;
 
     /** The setter for the last notification ID. */
     private final BiConsumer<T, Integer> lastNotificationSetter;
 
+    /** The setter for when the session was last polled. */
+    private final BiConsumer<T, Instant> lastPolledSetter;
+
+    /** Persists when a session was last polled. */
+    private final Consumer<T> lastPolledSaver;
+
+    /** Obtains when the session was last polled. */
+    private final Function<T, Instant> lastPolledSupplier;
+
     /** The max notifications to send at once. */
     private final int maxNotifications;
 
-    /** The mapper. */
-    private final ObjectMapper objectMapper;
+    /** The max notifications to render for a session per poll. */
+    private final int maxPerPoll;
+
+    /** The renderer for messages. */
+    private final MessageRenderer messageRenderer;
+
+    /** The history of each account's miners, or null to not keep one. */
+    private final MinerHistory minerHistory;
+
+    /** The digester for sessions that receive digests. */
+    private final NotificationDigester notificationDigester;
+
+    /** The suppressor for repeated notifications. */
+    private final NotificationSuppressor notificationSuppressor;
 
     /** The message channel supplier. */
     private final BiConsumer<DiscordNotification, T> sender;
 
-    /** The session repository. */
-    private final MongoRepository<T, String> sessionRepository;
+    /** Persists a session. */
+    private final Consumer<T> sessionSaver;
 
     /** The bot start time. */
     private final Instant startTime;
 
+    /** The tracer. */
+    private final Tracer tracer;
+
     /**
      * Constructor.
      *
-     * @param sessionRepository      The session repository.
-     * @param sender                 The sender callback.
-     * @param lastNotificationSetter The last notification ID setter.
-     * @param objectMapper           The mapper.
-     * @param startTime              The start time.
-     * @param maxNotifications       The max notifications to send at once.
-     * @param foremanApiUrl          The API URL.
-     * @param foremanDashboardUrl    The Foreman dashboard URL.
+     * @param sessionAccess      How sessions are read and written.
+     * @param policies           How to decide what to send.
+     * @param sender             The sender callback.
+     * @param foremanSource      The source for notifications.
+     * @param foremanCallLimiter The limiter for calls to Foreman.
+     * @param startTime          The start time.
+     * @param tracer             The tracer.
      */
     public NotificationsProcessorImpl(
-            final MongoRepository<T, String> sessionRepository,
+            final SessionAccess<T> sessionAccess,
+            final NotificationPolicies policies,
             final BiConsumer<DiscordNotification, T> sender,
-            final BiConsumer<T, Integer> lastNotificationSetter,
-            final ObjectMapper objectMapper,
+            final ForemanSource foremanSource,
+            final ForemanCallLimiter foremanCallLimiter,
             final Instant startTime,
-            final int maxNotifications,
-            final String foremanApiUrl,
-            final String foremanDashboardUrl) {
-        this.sessionRepository = sessionRepository;
+            final Tracer tracer) {
+        this.alertBoardSupplier = sessionAccess.getAlertBoardSupplier();
+        this.clientIdSupplier = sessionAccess.getClientIdSupplier();
+        this.destinationIdSupplier = sessionAccess.getDestinationIdSupplier();
+        this.digestSupplier = sessionAccess.getDigestSupplier();
+        this.lastNotificationSetter = sessionAccess.getLastNotificationSetter();
+        this.lastPolledSetter = sessionAccess.getLastPolledSetter();
+        this.lastPolledSaver = sessionAccess.getLastPolledSaver();
+        this.lastPolledSupplier = sessionAccess.getLastPolledSupplier();
+        this.sessionSaver = sessionAccess.getSessionSaver();
+        this.alertBoardKeeper = policies.getAlertBoardKeeper();
+        this.catchUpPolicy = policies.getCatchUpPolicy();
+        this.maxNotifications = policies.getMaxNotifications();
+        this.maxPerPoll = policies.getMaxPerPoll();
+        this.messageRenderer = policies.getMessageRenderer();
+        this.minerHistory = policies.getMinerHistory();
+        this.notificationDigester = policies.getNotificationDigester();
+        this.notificationSuppressor = policies.getNotificationSuppressor();
         this.sender = sender;
-        this.lastNotificationSetter = lastNotificationSetter;
-        this.objectMapper = objectMapper;
+        this.foremanSource = foremanSource;
+        this.foremanCallLimiter = foremanCallLimiter;
         this.startTime = startTime;
-        this.maxNotifications = maxNotifications;
-        this.foremanApiUrl = foremanApiUrl;
-        this.foremanDashboardUrl = foremanDashboardUrl;
+        this.tracer = tracer;
     }
 
     @Override
-    public void process(
+    public int process(
             final int id,
             final String apiKey,
             final Instant dateRegistered,
             final int lastNotificationId,
             final T session) {
-        final ForemanApi foremanApi =
-                new ForemanApiImpl(
-                        Integer.toString(id),
-                        "",
-                        this.objectMapper,
-                        new JdkWebUtil(
-                                this.foremanApiUrl,
-                                apiKey,
-                                5,
-                                TimeUnit.SECONDS));
-
-        final Notifications notificationsApi =
-                foremanApi.notifications();
-
-        final List<Notifications.Notification> notifications =
-                notificationsApi.discord(
-                        lastNotificationId,
-                        dateRegistered.isAfter(this.startTime)
-                                ? dateRegistered
-                                : this.startTime);
-
-        LOG.info("Session {} has {} pending notifications",
-                session,
-                notifications);
-        if (!notifications.isEmpty()) {
-            LOG.info("Building notification message for {}", session);
-            notifications
-                    .stream()
-                    .map(this::toNotificationMessage)
-                    .forEach(message ->
+        final String destination = this.destinationIdSupplier.apply(session);
+        final BotEvents.SessionPollEvent event = new BotEvents.SessionPollEvent();
+        event.sessionId = destination;
+        event.clientId = id;
+        event.begin();
+        try {
+            return poll(
+                    id,
+                    apiKey,
+                    lastNotificationId,
+                    dateRegistered,
+                    session,
+                    this.tracer
+                            .spanBuilder("notifications.poll")
+                            .setAttribute(TraceUtils.CLIENT_ID, (long) id)
+                            .setAttribute(TraceUtils.SESSION_ID, destination),
+                    event);
+        } finally {
+            event.commit();
+        }
+    }
+
+    /**
+     * Fetches, renders and sends the notifications for a session, and
+     * persists its cursor.
+     *
+     * @param clientId           The client ID.
+     * @param apiKey             The API key.
+     * @param lastNotificationId The last notification that was sent.
+     * @param dateRegistered     When the session was registered.
+     * @param session            The session.
+     * @param spanBuilder        The builder for the poll's span.
+     * @param event              The poll's JFR event.
+     *
+     * @return How many notifications were pending.
+     */
+    private int poll(
+            final int clientId,
+            final String apiKey,
+            final int lastNotificationId,
+            final Instant dateRegistered,
+            final T session,
+            final SpanBuilder spanBuilder,
+            final BotEvents.SessionPollEvent event) {
+        return TraceUtils.trace(
+                spanBuilder,
+                () -> {
+                    final List<Notifications.Notification> notifications =
+                            TraceUtils.trace(
+                                    this.tracer.spanBuilder("foreman.notifications"),
+                                    () -> this.foremanCallLimiter.call(() ->
+                                            this.foremanSource.notifications(
+                                                    clientId,
+                                                    apiKey,
+                                                    lastNotificationId,
+                                                    getStartDate(
+                                                            dateRegistered,
+                                                            session))));
+
+                    final boolean catchingUp = isCatchingUp(session);
+                    final List<DiscordNotification> messages =
+                            TraceUtils.trace(
+                                    this.tracer
+                                            .spanBuilder("notifications.render")
+                                            .setAttribute("notifications", notifications.size()),
+                                    () -> renderPolled(
+                                            session,
+                                            notifications));
+                    event.notifications = notifications.size();
+                    event.messages = messages.size();
+                    messages.forEach(message ->
                             this.sender.accept(
                                     message,
                                     session));
 
+                    if (!notifications.isEmpty() || !messages.isEmpty() || catchingUp) {
+                        // The cursor, the digest buffer and the poll time are
+                        // persisted together
+                        TraceUtils.trace(
+                                this.tracer.spanBuilder("session.save"),
+                                () -> this.sessionSaver.accept(session));
+                    } else {
+                        // Nothing else changed, but the poll time still moves
+                        // forward so a restart doesn't catch up from further
+                        // back than it needs to
+                        this.lastPolledSaver.accept(session);
+                    }
+                    return notifications.size();
+                });
+    }
+
+    /**
+     * Returns the earliest date that notifications should be fetched from for
+     * a session.
+     *
+     * @param dateRegistered When the session was registered.
+     * @param session        The session.
+     *
+     * @return The start date.
+     */
+    public Instant getStartDate(
+            final Instant dateRegistered,
+            final T session) {
+        return this.catchUpPolicy.getStartDate(
+                dateRegistered,
+                this.lastPolledSupplier.apply(session),
+                this.startTime);
+    }
+
+    /**
+     * Returns whether or not the session hasn't been polled since this
+     * process started, in which case its next poll replays what was missed.
+     *
+     * @param session The session.
+     *
+     * @return Whether or not the session is catching up.
+     */
+    public boolean isCatchingUp(final T session) {
+        return this.catchUpPolicy.isCatchingUp(
+                this.lastPolledSupplier.apply(session),
+                this.startTime);
+    }
+
+    /**
+     * Applies freshly fetched notifications to the provided session and
+     * renders whatever should be sent as a result. The session's cursor,
+     * digest and alert board are updated in place; persisting the session is
+     * left to the caller.
+     *
+     * @param session       The session.
+     * @param notifications The fetched notifications.
+     *
+     * @return The messages to send.
+     */
+    public List<DiscordNotification> render(
+            final T session,
+            final List<Notifications.Notification> notifications) {
+        final String destination =
+                this.destinationIdSupplier.apply(session);
+
+        final Digest digest = this.digestSupplier.apply(session);
+        final boolean digesting =
+                digest != null && digest.getIntervalMinutes() > 0;
+        final AlertBoard board = this.alertBoardSupplier.apply(session);
+        final boolean boarding =
+                !digesting && board != null && board.isEnabled();
+        final Instant now = Instant.now();
+
+        LOG.debug("Session {} has {} pending notifications",
+                destination,
+                notifications.size());
+        final List<DiscordNotification> messages = new ArrayList<>();
+        if (!notifications.isEmpty()) {
+            for (final Notifications.Notification notification : notifications) {
+                if (this.minerHistory != null) {
+                    this.minerHistory.recordFailing(
+                            this.clientIdSupplier.apply(session),
+                            notification.failingMiners,
+                            now);
+                }
+                if (digesting) {
+                    // Repeats are merged by the digest itself
+                    this.notificationDigester.add(
+                            digest,
+                            notification.subject,
+                            notification.failingMiners,
+                            now);
+                } else if (boarding) {
+                    // Ongoing incidents are only shown on the board
+                    this.alertBoardKeeper
+                            .add(
+                                    board,
+                                    notification.subject,
+                                    notification.failingMiners,
+                                    now)
+                            .map(failingMiners ->
+                                    toNotificationMessages(
+                                            notification.subject,
+                                            failingMiners))
+                            .ifPresent(messages::addAll);
+                } else {
+                    this.notificationSuppressor
+                            .admit(
+                                    destination,
+                                    notification)
+                            .map(failingMiners ->
+                                    toNotificationMessages(
+                                            notification.subject,
+                                            failingMiners))
+                            .ifPresent(messages::addAll);
+                }
+            }
+
             final Notifications.Notification lastNotification =
                     Iterables.getLast(notifications);
             try {
@@ -133,91 +347,270 @@ public class NotificationsProcessorImpl<T>
             } catch (final Exception e) {
                 LOG.warn("Exception occurred while sending", e);
             }
-            this.sessionRepository.save(session);
         }
+
+        if (boarding) {
+            this.alertBoardKeeper
+                    .render(
+                            board,
+                            now)
+                    .ifPresent(messages::add);
+        }
+
+        if (digest != null &&
+                (digesting
+                        ? this.notificationDigester.isDue(digest, now)
+                        : digest.getWindowStart() != null)) {
+            // Send when the window closes, or right away if digests were
+            // turned off with notifications still buffered
+            LOG.debug("Sending digest for {}", destination);
+            messages.addAll(this.notificationDigester.flush(digest));
+        }
+
+        final List<NotificationSuppressor.Summary> summaries =
+                this.notificationSuppressor.closeWindows(destination);
+        if (!summaries.isEmpty()) {
+            messages.addAll(toSummaryMessages(summaries));
+        }
+        return messages;
+    }
+
+    /**
+     * Applies freshly polled notifications to the provided session, like
+     * {@link #render(Object, List)}, and records the poll. If the session is
+     * catching up, a large backlog is collapsed into a summary and every
+     * message is marked as a replay so it's paced.
+     *
+     * @param session       The session.
+     * @param notifications The polled notifications.
+     *
+     * @return The messages to send.
+     */
+    public List<DiscordNotification> renderPolled(
+            final T session,
+            final List<Notifications.Notification> notifications) {
+        final boolean catchingUp = isCatchingUp(session);
+        final Instant lastPolled = this.lastPolledSupplier.apply(session);
+        this.lastPolledSetter.accept(session, Instant.now());
+        if (!catchingUp) {
+            return render(
+                    session,
+                    limit(
+                            session,
+                            notifications,
+                            lastPolled));
+        }
+
+        LOG.debug("Catching up {} with {} missed notifications",
+                this.destinationIdSupplier.apply(session),
+                notifications.size());
+        final Digest digest = this.digestSupplier.apply(session);
+        final List<DiscordNotification> messages;
+        if (this.catchUpPolicy.shouldCollapse(notifications.size()) &&
+                (digest == null || digest.getIntervalMinutes() <= 0)) {
+            final Digest backlog = Digest.builder().build();
+            final Instant now = Instant.now();
+            for (final Notifications.Notification notification : notifications) {
+                this.notificationDigester.add(
+                        backlog,
+                        notification.subject,
+                        notification.failingMiners,
+                        now);
+            }
+            this.lastNotificationSetter.accept(
+                    session,
+                    Iterables.getLast(notifications).id);
+            messages =
+                    this.notificationDigester.flush(
+                            backlog,
+                            "**Missed while offline**\n\n");
+        } else {
+            messages =
+                    render(
+                            session,
+                            limit(
+                                    session,
+                                    notifications,
+                                    lastPolled));
+        }
+
+        final List<DiscordNotification> replays =
+                new ArrayList<>(messages.size());
+        for (final DiscordNotification message : messages) {
+            replays.add(
+                    DiscordNotification
+                            .builder()
+                            .error(message.isError())
+                            .message(message.getMessage())
+                            .replay(true)
+                            .board(message.isBoard())
+                            .build());
+        }
+        return replays;
     }
 
     /**
      * Appends the provided {@link Notifications.Notification.FailingMiner} as a
      * markdown list item.
      *
-     * @param failingMiner  The miner.
-     * @param stringBuilder The builder for creating the aggregated message.
+     * @param failingMiner The miner.
+     * @param message      The aggregated message.
      */
     private void appendMiner(
             final Notifications.Notification.FailingMiner failingMiner,
-            final StringBuilder stringBuilder) {
-        stringBuilder
-                .append(
-                        String.format(
-                                "[%s](%s/dashboard/miners/%d/details/)",
-                                failingMiner.miner,
-                                this.foremanDashboardUrl,
-                                failingMiner.minerId))
-                .append("\n");
-        failingMiner
-                .diagnosis
-                .forEach(
-                        diag ->
-                                stringBuilder
-                                        .append(diag)
-                                        .append("\n"));
-        stringBuilder
-                .append("\n");
+            final MessageRenderer.PagedMessage message) {
+        final StringBuilder entry = message.entry();
+        this.messageRenderer
+                .appendMinerLink(
+                        entry,
+                        failingMiner.miner,
+                        failingMiner.minerId)
+                .append('\n');
+        for (final String diag : failingMiner.diagnosis) {
+            entry
+                    .append(diag)
+                    .append('\n');
+        }
+        entry.append('\n');
+        message.commit();
     }
 
     /**
-     * Converts the provided notification to a Discord message to be sent.
+     * Converts the provided notification to the Discord messages to be sent.
+     * Large notifications are split between miners into as many messages as
+     * are needed to fit within Discord's limits.
      *
-     * @param notification The notification to process.
+     * @param subject       The notification subject.
+     * @param failingMiners The failing miners to include.
      *
-     * @return The Discord, markdown-formatted message.
+     * @return The Discord, markdown-formatted messages.
      */
-    private DiscordNotification toNotificationMessage(
-            final Notifications.Notification notification) {
-        final StringBuilder messageBuilder =
-                new StringBuilder();
-
+    private List<DiscordNotification> toNotificationMessages(
+            final String subject,
+            final List<Notifications.Notification.FailingMiner> failingMiners) {
         // Write the subject
-        messageBuilder.append(
-                String.format(
-                        "**%s**",
-                        notification.subject));
-
-        final List<Notifications.Notification.FailingMiner> failingMiners =
-                notification.failingMiners;
-        if (!failingMiners.isEmpty()) {
-            // Write the miners out as lists
-            messageBuilder.append("\n\n");
-            failingMiners
-                    .stream()
-                    .limit(this.maxNotifications)
-                    .forEach(
-                            miner ->
-                                    appendMiner(
-                                            miner,
-                                            messageBuilder));
-            if (failingMiners.size() > this.maxNotifications) {
-                // Too many were failing
-                messageBuilder
-                        .append("\n\n")
-                        .append(
-                                String.format(
-                                        "*...and %d more*",
-                                        failingMiners.size() - this.maxNotifications))
-                        .append("\n\n")
-                        .append(
-                                String.format(
-                                        "Head to [your dashboard](%s/dashboard/) to see the rest",
-                                        this.foremanDashboardUrl));
+        final MessageRenderer.PagedMessage message =
+                this.messageRenderer.newMessage(
+                        failingMiners.isEmpty()
+                                ? "**" + subject + "**"
+                                : "**" + subject + "**\n\n");
+
+        // Write the miners out as lists
+        final int toWrite =
+                Math.min(
+                        failingMiners.size(),
+                        this.maxNotifications);
+        for (int i = 0; i < toWrite; i++) {
+            appendMiner(
+                    failingMiners.get(i),
+                    message);
+        }
+        if (failingMiners.size() > this.maxNotifications) {
+            // Too many were failing
+            message
+                    .entry()
+                    .append("\n\n*...and ")
+                    .append(failingMiners.size() - this.maxNotifications)
+                    .append(" more*\n\nHead to ")
+                    .append(this.messageRenderer.getDashboardLink())
+                    .append(" to see the rest");
+            message.commit();
+        }
+
+        return toDiscordNotifications(
+                message,
+                !failingMiners.isEmpty());
+    }
+
+    /**
+     * Caps how many notifications are rendered for a session in one poll, so
+     * a single busy account can't hold a worker. Whatever's left is fetched
+     * from the cursor on the next sweep. A capped poll isn't recorded, which
+     * keeps the session at the front of the next sweep and, if it's catching
+     * up, catching up from the same point.
+     *
+     * @param session       The session.
+     * @param notifications The polled notifications.
+     * @param lastPolled    When the session was previously polled.
+     *
+     * @return The notifications to render now.
+     */
+    private List<Notifications.Notification> limit(
+            final T session,
+            final List<Notifications.Notification> notifications,
+            final Instant lastPolled) {
+        if (this.maxPerPoll <= 0 || notifications.size() <= this.maxPerPoll) {
+            return notifications;
+        }
+        LOG.debug("Carrying {} notifications for {} to the next sweep",
+                notifications.size() - this.maxPerPoll,
+                this.destinationIdSupplier.apply(session));
+        this.lastPolledSetter.accept(session, lastPolled);
+        return notifications.subList(0, this.maxPerPoll);
+    }
+
+    /**
+     * Converts the provided suppression summaries to the Discord messages to
+     * be sent.
+     *
+     * @param summaries The summaries.
+     *
+     * @return The Discord, markdown-formatted messages.
+     */
+    private List<DiscordNotification> toSummaryMessages(
+            final List<NotificationSuppressor.Summary> summaries) {
+        final MessageRenderer.PagedMessage message =
+                this.messageRenderer.newMessage("**Repeated Notifications**\n\n");
+        for (final NotificationSuppressor.Summary summary : summaries) {
+            final StringBuilder entry =
+                    message
+                            .entry()
+                            .append("**")
+                            .append(summary.getSubject())
+                            .append("**: ");
+            if (summary.getMiner() != null) {
+                this.messageRenderer
+                        .appendMinerLink(
+                                entry,
+                                summary.getMiner(),
+                                summary.getMinerId())
+                        .append(" flapped ");
+            } else {
+                entry.append("repeated ");
             }
+            entry
+                    .append(summary.getCount())
+                    .append(summary.getCount() == 1 ? " time\n" : " times\n");
+            message.commit();
         }
+        return toDiscordNotifications(
+                message,
+                true);
+    }
 
-        return DiscordNotification
-                .builder()
-                .error(!failingMiners.isEmpty())
-                .message(messageBuilder.toString())
-                .build();
+    /**
+     * Converts each page of the provided message to a notification.
+     *
+     * @param message The message.
+     * @param error   Whether or not the message represents an error.
+     *
+     * @return The notifications.
+     */
+    static List<DiscordNotification> toDiscordNotifications(
+            final MessageRenderer.PagedMessage message,
+            final boolean error) {
+        final List<String> pages = message.toPages();
+        final List<DiscordNotification> discordNotifications =
+                new ArrayList<>(pages.size());
+        for (final String page : pages) {
+            discordNotifications.add(
+                    DiscordNotification
+                            .builder()
+                            .error(error)
+                            .message(page)
+                            .build());
+        }
+        return discordNotifications;
     }
 
     /** A wrapper around the message to send and whether or not it's an error. */
@@ -225,10 +618,16 @@ public class NotificationsProcessorImpl<T>
     @Builder
     public static class DiscordNotification {
 
+        /** Whether or not the message replaces the session's alert board. */
+        private final boolean board;
+
         /** Whether or not the notification represents an error. */
         private final boolean error;
 
         /** The message. */
         private final String message;
+
+        /** Whether or not the notification was missed during downtime. */
+        private final boolean replay;
     }
 }
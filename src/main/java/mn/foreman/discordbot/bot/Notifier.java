@@ -1,66 +1,209 @@
 package mn.foreman.discordbot.bot;
 
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.mongodb.repository.MongoRepository;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 
-/** Queries the Foreman API for notifications and sends them. */
-public class Notifier<T> {
+/**
+ * Queries the Foreman API for notifications and sends them.
+ *
+ * <p>Every session is processed on the provided executor, so the size of that
+ * executor is the concurrency budget shared by every kind of session.</p>
+ *
+ * <p>Each sweep has a deadline. The sweep stops waiting once it passes, and
+ * sessions that haven't finished by then are left for the next sweep, which
+ * reaches them first since sessions are supplied stalest first. Fetches from
+ * Foreman are bound by the same {@link SweepDeadline}, so a session that's
+ * still running at the deadline doesn't hold its thread into the next
+ * sweep.</p>
+ */
+public class Notifier<T>
+        implements NotificationSweeper {
 
     /** The logger for this class. */
     private static final Logger LOG =
             LoggerFactory.getLogger(Notifier.class);
 
+    /** How long a sweep can run. */
+    private final long deadlineNanos;
+
+    /** The executor that sessions are processed on. */
+    private final ExecutorService executorService;
+
     /** The session filter. */
     private final Predicate<T> filter;
 
     /** The processor for notifications. */
     private final Consumer<T> notificationsProcessor;
 
-    /** The repository. */
-    private final MongoRepository<T, String> sessionRepository;
+    /** The supplier for the sessions to sweep. */
+    private final Supplier<List<T>> sessionSupplier;
+
+    /** The tracer. */
+    private final Tracer tracer;
 
     /**
      * Constructor.
      *
-     * @param sessionRepository      The repository.
+     * @param sessionSupplier        The supplier for the sessions to sweep.
      * @param filter                 The session filter.
      * @param notificationsProcessor The notification processor.
+     * @param executorService        The executor that sessions are processed
+     *                               on.
+     * @param tracer                 The tracer.
+     * @param deadline               How long a sweep can run.
      */
     public Notifier(
-            final MongoRepository<T, String> sessionRepository,
+            final Supplier<List<T>> sessionSupplier,
             final Predicate<T> filter,
-            final Consumer<T> notificationsProcessor) {
-        this.sessionRepository = sessionRepository;
+            final Consumer<T> notificationsProcessor,
+            final ExecutorService executorService,
+            final Tracer tracer,
+            final Duration deadline) {
+        this.sessionSupplier = sessionSupplier;
         this.filter = filter;
         this.notificationsProcessor = notificationsProcessor;
+        this.executorService = executorService;
+        this.tracer = tracer;
+        this.deadlineNanos = deadline.toNanos();
     }
 
     /**
      * Periodically fetches notifications for each session that this bot
      * monitors and sends messages to users, as necessary.
      */
+    @Override
     public void fetchAndNotify() {
-        try {
+        final BotEvents.SweepEvent event = new BotEvents.SweepEvent();
+        event.pipeline = "blocking";
+        event.begin();
+        final Span sweep =
+                this.tracer
+                        .spanBuilder("notifier.sweep")
+                        .startSpan();
+        try (final Scope ignored = sweep.makeCurrent()) {
+            final long start = System.nanoTime();
+            final long deadline = start + this.deadlineNanos;
             final List<T> sessions =
-                    this.sessionRepository.findAll();
-            LOG.info("Looking for notifications for {} sessions", sessions.size());
-            sessions
-                    .parallelStream()
-                    .filter(this.filter)
-                    .forEach(t -> {
-                        try {
-                            this.notificationsProcessor.accept(t);
+                    this.sessionSupplier.get();
+            sweep.setAttribute("sessions", sessions.size());
+            event.sessions = sessions.size();
+
+            final AtomicInteger polled = new AtomicInteger();
+            final AtomicInteger shed = new AtomicInteger();
+            final AtomicInteger failed = new AtomicInteger();
+            final AtomicInteger deferred = new AtomicInteger();
+
+            final List<Callable<Void>> tasks = new ArrayList<>(sessions.size());
+            final List<Span> spans = new ArrayList<>(sessions.size());
+            final List<AtomicBoolean> started = new ArrayList<>(sessions.size());
+            for (final T session : sessions) {
+                if (this.filter.test(session)) {
+                    // Started now so the time spent waiting for a thread shows
+                    final Span span =
+                            this.tracer
+                                    .spanBuilder("notifier.session")
+                                    .startSpan();
+                    final AtomicBoolean claimed = new AtomicBoolean();
+                    spans.add(span);
+                    started.add(claimed);
+                    tasks.add(() -> {
+                        if (!claimed.compareAndSet(false, true)) {
+                            // Already deferred by the sweep
+                            return null;
+                        }
+                        if (System.nanoTime() - deadline > 0) {
+                            deferred.incrementAndGet();
+                            span.addEvent("deferred");
+                            span.end();
+                            return null;
+                        }
+                        span.addEvent("dequeued");
+                        try (final Scope scope = span.makeCurrent()) {
+                            SweepDeadline.call(
+                                    deadline,
+                                    () -> {
+                                        this.notificationsProcessor.accept(session);
+                                        return null;
+                                    });
+                            polled.incrementAndGet();
+                        } catch (final RejectedExecutionException e) {
+                            if (System.nanoTime() - deadline >= 0) {
+                                // Cut short by the deadline, so it's next sweep's
+                                deferred.incrementAndGet();
+                                span.addEvent("deferred");
+                            } else {
+                                shed.incrementAndGet();
+                                span.addEvent("shed");
+                            }
                         } catch (final Exception e) {
-                            LOG.warn("Exception occurred", e);
+                            // Counted in the summary so failures don't scale the log
+                            failed.incrementAndGet();
+                            LOG.debug("Failed to poll a session", e);
+                            TraceUtils.fail(
+                                    span,
+                                    e);
+                        } finally {
+                            span.end();
                         }
+                        return null;
                     });
+                }
+            }
+
+            // Wait for the sweep to finish, or for its deadline, so sweeps
+            // never overlap
+            final List<Future<Void>> futures =
+                    this.executorService.invokeAll(
+                            tasks,
+                            deadline - System.nanoTime(),
+                            TimeUnit.NANOSECONDS);
+            int cancelled = 0;
+            for (int i = 0; i < futures.size(); i++) {
+                if (futures.get(i).isCancelled()) {
+                    cancelled++;
+                    if (started.get(i).compareAndSet(false, true)) {
+                        // Never reached a thread
+                        deferred.incrementAndGet();
+                        spans.get(i).addEvent("deferred");
+                        spans.get(i).end();
+                    }
+                }
+            }
+            sweep.setAttribute("cancelled", cancelled);
+            LOG.info("sweep pipeline=blocking sessions={} polled={} shed={} failed={} deferred={} durationMs={}",
+                    sessions.size(),
+                    polled.get(),
+                    shed.get(),
+                    failed.get(),
+                    deferred.get(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (final Exception e) {
             LOG.warn("Exception occurred while processing notifications", e);
+            TraceUtils.fail(
+                    sweep,
+                    e);
+        } finally {
+            sweep.end();
+            event.commit();
         }
     }
 }
@@ -0,0 +1,221 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.discordbot.db.Outbox;
+import mn.foreman.discordbot.db.OutboxMessage;
+import mn.foreman.discordbot.db.Session;
+import mn.foreman.discordbot.db.SessionStore;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers the messages that worker nodes left in the {@link Outbox}. Runs on
+ * gateway nodes.
+ *
+ * <p>Messages are claimed oldest first, and only while fewer than the max are
+ * in flight, so a node never holds more claims than it can deliver before
+ * they expire. A message is removed once Discord has either accepted it or
+ * rejected it for good; failures are handled by the {@link DiscordSender}
+ * exactly as they are for messages that never went through the outbox. Any
+ * other failure, like Discord being unavailable, releases the message to be
+ * retried with a growing delay, until it's failed too many times and is
+ * dead-lettered.</p>
+ *
+ * <p>The session is only read to find the destination. Whatever the send
+ * changes on it is stored field by field, so it can't overwrite what the
+ * worker that polled the session wrote in the meantime.</p>
+ */
+public class OutboxRelay {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(OutboxRelay.class);
+
+    /** The sender for messages. */
+    private final DiscordSender discordSender;
+
+    /** Tracks whether or not the gateway is ready. */
+    private final GatewayReadiness gatewayReadiness;
+
+    /** The messages currently being delivered. */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /** How long a claim lasts. */
+    private final Duration lease;
+
+    /** How many times a delivery can fail before it's dead-lettered. */
+    private final int maxAttempts;
+
+    /** The max messages to deliver at once. */
+    private final int maxInFlight;
+
+    /** The registry for metrics. */
+    private final MeterRegistry meterRegistry;
+
+    /** This node, as recorded on its claims. */
+    private final String nodeId;
+
+    /** The outbox. */
+    private final Outbox outbox;
+
+    /** The delay before the first retry, which doubles every attempt. */
+    private final Duration retryDelay;
+
+    /** The session repository. */
+    private final SessionStore sessionRepository;
+
+    /** The gateway shard this node holds. */
+    private final int shard;
+
+    /**
+     * Constructor.
+     *
+     * @param outbox            The outbox.
+     * @param sessionRepository The session repository.
+     * @param discordSender     The sender for messages.
+     * @param gatewayReadiness  Tracks whether or not the gateway is ready.
+     * @param nodeId            This node, as recorded on its claims.
+     * @param shard             The gateway shard this node holds.
+     * @param lease             How long a claim lasts.
+     * @param maxInFlight       The max messages to deliver at once.
+     * @param maxAttempts       How many times a delivery can fail before
+     *                          it's dead-lettered.
+     * @param retryDelay        The delay before the first retry, which
+     *                          doubles every attempt.
+     * @param meterRegistry     The registry for metrics.
+     */
+    public OutboxRelay(
+            final Outbox outbox,
+            final SessionStore sessionRepository,
+            final DiscordSender discordSender,
+            final GatewayReadiness gatewayReadiness,
+            final String nodeId,
+            final int shard,
+            final Duration lease,
+            final int maxInFlight,
+            final int maxAttempts,
+            final Duration retryDelay,
+            final MeterRegistry meterRegistry) {
+        this.outbox = outbox;
+        this.sessionRepository = sessionRepository;
+        this.discordSender = discordSender;
+        this.gatewayReadiness = gatewayReadiness;
+        this.nodeId = nodeId;
+        this.shard = shard;
+        this.lease = lease;
+        this.maxInFlight = maxInFlight;
+        this.maxAttempts = maxAttempts;
+        this.retryDelay = retryDelay;
+        this.meterRegistry = meterRegistry;
+        meterRegistry.gauge(
+                "bot.outbox.inflight",
+                this.inFlight);
+    }
+
+    /**
+     * Claims and delivers messages until the outbox is empty or enough are in
+     * flight.
+     */
+    public void relay() {
+        if (!this.gatewayReadiness.isReady()) {
+            return;
+        }
+        try {
+            while (this.inFlight.get() < this.maxInFlight) {
+                final Optional<OutboxMessage> message =
+                        this.outbox.claim(
+                                this.nodeId,
+                                this.shard,
+                                this.lease);
+                if (message.isEmpty()) {
+                    break;
+                }
+                deliver(message.get());
+            }
+        } catch (final Exception e) {
+            LOG.warn("Failed to relay from the outbox", e);
+        }
+    }
+
+    /**
+     * Delivers a claimed message, removing it once Discord has accepted it or
+     * rejected it for good.
+     *
+     * @param message The message.
+     */
+    private void deliver(final OutboxMessage message) {
+        final Optional<Session> session =
+                this.sessionRepository.findById(message.getSessionId());
+        if (session.isEmpty()) {
+            LOG.debug("Dropping outbox message for forgotten session {}", message.getSessionId());
+            this.outbox.remove(message);
+            return;
+        }
+
+        this.inFlight.incrementAndGet();
+        this.discordSender
+                .send(
+                        NotificationsProcessorImpl.DiscordNotification
+                                .builder()
+                                .message(message.getMessage())
+                                .error(message.isError())
+                                .replay(message.isReplay())
+                                .board(message.isBoard())
+                                .build(),
+                        session.get())
+                .whenComplete((ignored, throwable) -> {
+                    this.inFlight.decrementAndGet();
+                    try {
+                        this.meterRegistry
+                                .counter(
+                                        "bot.outbox.relayed",
+                                        "outcome",
+                                        finish(
+                                                message,
+                                                throwable))
+                                .increment();
+                    } catch (final Exception e) {
+                        LOG.warn("Failed to finish {} in the outbox", message.getId(), e);
+                    }
+                });
+    }
+
+    /**
+     * Removes, releases or dead-letters a message once its delivery has
+     * completed.
+     *
+     * @param message   The message.
+     * @param throwable The failure, or null if it was sent.
+     *
+     * @return The outcome.
+     */
+    private String finish(
+            final OutboxMessage message,
+            final Throwable throwable) {
+        if (throwable == null) {
+            this.outbox.remove(message);
+            return "sent";
+        }
+        if (DiscordSender.isPermanent(throwable)) {
+            this.outbox.remove(message);
+            return "rejected";
+        }
+        if (message.getAttempts() + 1 >= this.maxAttempts) {
+            LOG.warn("Dead-lettering {} for {} after {} attempts",
+                    message.getId(),
+                    message.getSessionId(),
+                    message.getAttempts() + 1);
+            this.outbox.deadLetter(message);
+            return "dead";
+        }
+        this.outbox.release(
+                message,
+                this.retryDelay.multipliedBy(1L << Math.min(message.getAttempts(), 10)));
+        return "retried";
+    }
+}
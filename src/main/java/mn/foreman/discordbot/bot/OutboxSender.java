@@ -0,0 +1,79 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.discordbot.db.Outbox;
+import mn.foreman.discordbot.db.OutboxMessage;
+import mn.foreman.discordbot.db.Session;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link NotificationSender} for worker nodes, which don't hold a Discord
+ * gateway. Every notification is written to the {@link Outbox}, addressed to
+ * the gateway shard that can deliver it.
+ */
+public class OutboxSender
+        implements NotificationSender {
+
+    /** The counter for enqueued messages. */
+    private final Counter enqueued;
+
+    /** The outbox. */
+    private final Outbox outbox;
+
+    /** How many gateway shards there are. */
+    private final int shardTotal;
+
+    /**
+     * Constructor.
+     *
+     * @param outbox        The outbox.
+     * @param shardTotal    How many gateway shards there are.
+     * @param meterRegistry The registry for metrics.
+     */
+    public OutboxSender(
+            final Outbox outbox,
+            final int shardTotal,
+            final MeterRegistry meterRegistry) {
+        this.outbox = outbox;
+        this.shardTotal = shardTotal;
+        this.enqueued = meterRegistry.counter("bot.outbox.enqueued");
+    }
+
+    /**
+     * Enqueues the notification for a gateway node.
+     *
+     * @param notification The notification.
+     * @param session      The session.
+     *
+     * @return A future that completes once the notification is in the outbox.
+     */
+    @Override
+    public CompletableFuture<Void> send(
+            final NotificationsProcessorImpl.DiscordNotification notification,
+            final Session session) {
+        try {
+            this.outbox.enqueue(
+                    OutboxMessage
+                            .builder()
+                            .sessionId(session.getId())
+                            .shard(
+                                    ShardUtils.shardOf(
+                                            session,
+                                            this.shardTotal))
+                            .message(notification.getMessage())
+                            .error(notification.isError())
+                            .replay(notification.isReplay())
+                            .board(notification.isBoard())
+                            .enqueued(Instant.now())
+                            .build());
+            this.enqueued.increment();
+            return CompletableFuture.completedFuture(null);
+        } catch (final RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.discordbot.db.ReactiveSessionRepository;
+import mn.foreman.discordbot.db.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A {@link NotificationSweeper} that sweeps sessions through a non-blocking
+ * pipeline.
+ *
+ * <p>Sessions are streamed from Mongo, or from the session registry, and flow
+ * through a fetch stage, a send stage and a batched commit stage. Each stage
+ * has its own concurrency bound, and demand is only signalled upstream as
+ * in-flight work completes, so a slow Discord side holds back the fetches
+ * and, in turn, the source of sessions.</p>
+ *
+ * <p>Notifications are fetched with the shared non-blocking HTTP client, and
+ * parsed by the same API handler as the blocking pipeline, since it's the
+ * one that knows the shape of the request. Only the occasional credential
+ * check after an empty poll still blocks, so it's moved onto a bounded
+ * scheduler.</p>
+ *
+ * <p>Each sweep has a deadline, after which no more sessions are started.
+ * Sessions are supplied stalest first, so the ones that weren't reached go
+ * first in the next sweep. Starting a sweep doesn't wait for it to finish,
+ * and a sweep that's due while the last one is still running is skipped.</p>
+ */
+public class ReactiveNotifier
+        implements NotificationSweeper {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(ReactiveNotifier.class);
+
+    /** Called with each session once it's committed. */
+    private final Consumer<Session> committedListener;
+
+    /** The max sessions to commit at once. */
+    private final int commitBatchSize;
+
+    /** The max time to hold a partial commit batch. */
+    private final Duration commitInterval;
+
+    /** The verifier for sessions whose polls come back empty. */
+    private final CredentialVerifier credentialVerifier;
+
+    /** How long a sweep can keep starting sessions. */
+    private final Duration deadline;
+
+    /** The max sessions being fetched at once. */
+    private final int fetchConcurrency;
+
+    /** The scheduler that blocking credential checks run on. */
+    private final Scheduler verifyScheduler;
+
+    /** The limiter for calls to Foreman. */
+    private final ForemanCallLimiter foremanCallLimiter;
+
+    /** The source for Foreman data. */
+    private final ForemanSource foremanSource;
+
+    /** The sender for messages. */
+    private final NotificationSender notificationSender;
+
+    /** The processor that renders notifications. */
+    private final NotificationsProcessorImpl<Session> notificationsProcessor;
+
+    /** The max sessions being sent to at once. */
+    private final int sendConcurrency;
+
+    /** The health tracker for sessions. */
+    private final SessionHealth sessionHealth;
+
+    /** The session repository. */
+    private final ReactiveSessionRepository sessionRepository;
+
+    /** The supplier for the sessions to sweep. */
+    private final Supplier<Flux<Session>> sessionSupplier;
+
+    /** Whether or not a sweep is running. */
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    /**
+     * Constructor.
+     *
+     * @param sessionSupplier        The supplier for the sessions to sweep.
+     * @param sessionRepository      The session repository.
+     * @param foremanSource          The source for Foreman data.
+     * @param foremanCallLimiter     The limiter for calls to Foreman.
+     * @param notificationsProcessor The processor that renders notifications.
+     * @param notificationSender     The sender for messages.
+     * @param fetchConcurrency       The max sessions being fetched at once.
+     * @param sendConcurrency        The max sessions being sent to at once.
+     * @param commitBatchSize        The max sessions to commit at once.
+     * @param commitInterval         The max time to hold a partial commit
+     *                               batch.
+     * @param sessionHealth          The health tracker for sessions.
+     * @param credentialVerifier     The verifier for sessions whose polls
+     *                               come back empty.
+     * @param committedListener      Called with each session once it's
+     *                               committed.
+     * @param deadline               How long a sweep can keep starting
+     *                               sessions.
+     */
+    public ReactiveNotifier(
+            final Supplier<Flux<Session>> sessionSupplier,
+            final ReactiveSessionRepository sessionRepository,
+            final ForemanSource foremanSource,
+            final ForemanCallLimiter foremanCallLimiter,
+            final NotificationsProcessorImpl<Session> notificationsProcessor,
+            final NotificationSender notificationSender,
+            final int fetchConcurrency,
+            final int sendConcurrency,
+            final int commitBatchSize,
+            final Duration commitInterval,
+            final SessionHealth sessionHealth,
+            final CredentialVerifier credentialVerifier,
+            final Consumer<Session> committedListener,
+            final Duration deadline) {
+        this.sessionSupplier = sessionSupplier;
+        this.sessionRepository = sessionRepository;
+        this.foremanSource = foremanSource;
+        this.foremanCallLimiter = foremanCallLimiter;
+        this.notificationsProcessor = notificationsProcessor;
+        this.notificationSender = notificationSender;
+        this.fetchConcurrency = fetchConcurrency;
+        this.sendConcurrency = sendConcurrency;
+        this.commitBatchSize = commitBatchSize;
+        this.commitInterval = commitInterval;
+        this.sessionHealth = sessionHealth;
+        this.credentialVerifier = credentialVerifier;
+        this.committedListener = committedListener;
+        this.deadline = deadline;
+        this.verifyScheduler =
+                Schedulers.newBoundedElastic(
+                        fetchConcurrency,
+                        Integer.MAX_VALUE,
+                        "foreman-verify",
+                        60,
+                        true);
+    }
+
+    @Override
+    public void fetchAndNotify() {
+        if (!this.sweeping.compareAndSet(false, true)) {
+            // Sweeps never overlap
+            LOG.warn("Skipping sweep, the previous one is still running");
+            return;
+        }
+        final BotEvents.SweepEvent event = new BotEvents.SweepEvent();
+        event.pipeline = "reactive";
+        event.begin();
+        final long start = System.nanoTime();
+        final long stopAt = start + this.deadline.toNanos();
+        try {
+            this.sessionSupplier
+                    .get()
+                    // Stop pulling sessions once the deadline passes; the
+                    // stalest are supplied first next time
+                    .takeWhile(session -> System.nanoTime() - stopAt < 0)
+                    .doOnNext(session -> event.sessions++)
+                    .flatMap(
+                            this::fetch,
+                            this.fetchConcurrency)
+                    .flatMap(
+                            this::send,
+                            this.sendConcurrency)
+                    .bufferTimeout(
+                            this.commitBatchSize,
+                            this.commitInterval)
+                    .concatMap(this::commit)
+                    .reduce(0L, Long::sum)
+                    .doFinally(signal -> {
+                        event.commit();
+                        this.sweeping.set(false);
+                    })
+                    .subscribe(
+                            committed ->
+                                    LOG.info("sweep pipeline=reactive sessions={} committed={} durationMs={}",
+                                            event.sessions,
+                                            committed,
+                                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)),
+                            e -> LOG.warn("Exception occurred while processing notifications", e));
+        } catch (final RuntimeException e) {
+            LOG.warn("Exception occurred while processing notifications", e);
+            event.commit();
+            this.sweeping.set(false);
+        }
+    }
+
+    /**
+     * Persists what changed on a batch of sessions, field by field, so a
+     * stale copy can't overwrite what commands and the gateway wrote during
+     * the sweep.
+     *
+     * @param sessions The sessions.
+     *
+     * @return How many sessions were committed.
+     */
+    private Mono<Long> commit(final List<Session> sessions) {
+        return Flux
+                .fromIterable(sessions)
+                .flatMap(this.sessionRepository::saveSwept)
+                .doOnNext(this.committedListener)
+                .count()
+                .onErrorResume(e -> {
+                    LOG.warn("Failed to commit {} sessions", sessions.size(), e);
+                    return Mono.just(0L);
+                });
+    }
+
+    /**
+     * Fetches the pending notifications for a session and renders them. A
+     * session that fails to fetch is backed off, and skipped if Foreman is
+     * shedding load.
+     *
+     * @param session The session.
+     *
+     * @return The rendered session.
+     */
+    private Mono<Pending> fetch(final Session session) {
+        return Mono
+                .fromFuture(() ->
+                        this.foremanCallLimiter.callAsync(() ->
+                                this.foremanSource.notificationsAsync(
+                                        session.getClientId(),
+                                        session.getApiKey(),
+                                        session.getLastNotificationId(),
+                                        this.notificationsProcessor.getStartDate(
+                                                session.getDateRegistered(),
+                                                session))))
+                .flatMap(notifications ->
+                        notifications.isEmpty()
+                                // A rejected key polls as empty, too
+                                ? Mono
+                                .fromRunnable(() -> this.credentialVerifier.verifyEmpty(session))
+                                .subscribeOn(this.verifyScheduler)
+                                .thenReturn(notifications)
+                                : Mono.just(notifications))
+                .map(notifications -> {
+                    final boolean catchingUp =
+                            this.notificationsProcessor.isCatchingUp(session);
+                    final List<NotificationsProcessorImpl.DiscordNotification> messages =
+                            this.notificationsProcessor.renderPolled(
+                                    session,
+                                    notifications);
+                    return new Pending(
+                            session,
+                            messages,
+                            this.sessionHealth.recordSuccess(session) ||
+                                    !notifications.isEmpty() ||
+                                    !messages.isEmpty() ||
+                                    catchingUp);
+                })
+                .onErrorResume(
+                        RejectedExecutionException.class,
+                        e -> Mono.empty())
+                .onErrorResume(e -> {
+                    this.sessionHealth.recordFailure(
+                            session,
+                            e);
+                    return Mono.just(
+                            new Pending(
+                                    session,
+                                    Collections.emptyList(),
+                                    true));
+                });
+    }
+
+    /**
+     * Sends the rendered messages for a session, in order. Emits the session
+     * once every message has been handed to Discord if it needs to be
+     * committed.
+     *
+     * @param pending The rendered session.
+     *
+     * @return The session to commit, if any.
+     */
+    private Mono<Session> send(final Pending pending) {
+        return Flux
+                .fromIterable(pending.messages)
+                .concatMap(message ->
+                        Mono
+                                .fromFuture(() ->
+                                        this.notificationSender.send(
+                                                message,
+                                                pending.session))
+                                .onErrorResume(e -> {
+                                    LOG.warn("Exception occurred while sending", e);
+                                    return Mono.empty();
+                                }))
+                .then(Mono.fromSupplier(() -> pending.session))
+                .filter(session -> pending.dirty);
+    }
+
+    /** A session along with what was rendered for it. */
+    private static class Pending {
+
+        /** Whether or not the session changed and needs to be committed. */
+        private final boolean dirty;
+
+        /** The rendered messages. */
+        private final List<NotificationsProcessorImpl.DiscordNotification> messages;
+
+        /** The session. */
+        private final Session session;
+
+        /**
+         * Constructor.
+         *
+         * @param session  The session.
+         * @param messages The rendered messages.
+         * @param dirty    Whether or not the session changed and needs to be
+         *                 committed.
+         */
+        private Pending(
+                final Session session,
+                final List<NotificationsProcessorImpl.DiscordNotification> messages,
+                final boolean dirty) {
+            this.session = session;
+            this.messages = messages;
+            this.dirty = dirty;
+        }
+    }
+}
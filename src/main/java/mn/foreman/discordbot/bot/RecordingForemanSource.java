@@ -0,0 +1,135 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.api.endpoints.miners.Miners;
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.api.endpoints.pickaxe.Pickaxe;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link ForemanSource} that records every response from another source.
+ *
+ * <p>Raw miners responses are read fully so they can be recorded, which gives
+ * up streaming while recording.</p>
+ */
+public class RecordingForemanSource
+        implements ForemanSource {
+
+    /** The source that's recorded. */
+    private final ForemanSource delegate;
+
+    /** The recorder. */
+    private final TrafficRecorder trafficRecorder;
+
+    /**
+     * Constructor.
+     *
+     * @param delegate        The source that's recorded.
+     * @param trafficRecorder The recorder.
+     */
+    public RecordingForemanSource(
+            final ForemanSource delegate,
+            final TrafficRecorder trafficRecorder) {
+        this.delegate = delegate;
+        this.trafficRecorder = trafficRecorder;
+    }
+
+    @Override
+    public List<Miners.Miner> miners(
+            final int clientId,
+            final String apiKey,
+            final String pickaxe) {
+        final List<Miners.Miner> miners =
+                this.delegate.miners(
+                        clientId,
+                        apiKey,
+                        pickaxe);
+        this.trafficRecorder.recordMiners(
+                clientId,
+                apiKey,
+                pickaxe,
+                miners);
+        return miners;
+    }
+
+    @Override
+    public List<Notifications.Notification> notifications(
+            final int clientId,
+            final String apiKey,
+            final int lastNotificationId,
+            final Instant startDate) {
+        final List<Notifications.Notification> notifications =
+                this.delegate.notifications(
+                        clientId,
+                        apiKey,
+                        lastNotificationId,
+                        startDate);
+        this.trafficRecorder.recordNotifications(
+                clientId,
+                apiKey,
+                notifications);
+        return notifications;
+    }
+
+    @Override
+    public CompletableFuture<List<Notifications.Notification>> notificationsAsync(
+            final int clientId,
+            final String apiKey,
+            final int lastNotificationId,
+            final Instant startDate) {
+        return this.delegate
+                .notificationsAsync(
+                        clientId,
+                        apiKey,
+                        lastNotificationId,
+                        startDate)
+                .thenApply(notifications -> {
+                    this.trafficRecorder.recordNotifications(
+                            clientId,
+                            apiKey,
+                            notifications);
+                    return notifications;
+                });
+    }
+
+    @Override
+    public InputStream openMiners(
+            final int clientId,
+            final String apiKey,
+            final String pickaxe) throws IOException {
+        final byte[] body;
+        try (final InputStream inputStream =
+                     this.delegate.openMiners(
+                             clientId,
+                             apiKey,
+                             pickaxe)) {
+            body = inputStream.readAllBytes();
+        }
+        this.trafficRecorder.recordMinersStream(
+                clientId,
+                apiKey,
+                pickaxe,
+                body);
+        return new ByteArrayInputStream(body);
+    }
+
+    @Override
+    public List<Pickaxe.PickaxeInstance> pickaxes(
+            final int clientId,
+            final String apiKey) {
+        final List<Pickaxe.PickaxeInstance> pickaxes =
+                this.delegate.pickaxes(
+                        clientId,
+                        apiKey);
+        this.trafficRecorder.recordPickaxes(
+                clientId,
+                apiKey,
+                pickaxes);
+        return pickaxes;
+    }
+}
@@ -0,0 +1,76 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.discordbot.db.AlertBoard;
+import mn.foreman.discordbot.db.Digest;
+import mn.foreman.discordbot.db.Session;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.Instant;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * How a {@link NotificationsProcessorImpl} reads and writes the parts of a
+ * session that it works with.
+ *
+ * @param <T> The session type.
+ */
+@Data
+@Builder
+public class SessionAccess<T> {
+
+    /** Obtains the alert board from the session. */
+    private final Function<T, AlertBoard> alertBoardSupplier;
+
+    /** Obtains the Foreman client ID from the session. */
+    private final Function<T, Integer> clientIdSupplier;
+
+    /** Obtains the ID of the destination from the session. */
+    private final Function<T, String> destinationIdSupplier;
+
+    /** Obtains the digest from the session. */
+    private final Function<T, Digest> digestSupplier;
+
+    /** The setter for the last notification ID. */
+    private final BiConsumer<T, Integer> lastNotificationSetter;
+
+    /** Persists when the session was last polled. */
+    private final Consumer<T> lastPolledSaver;
+
+    /** The setter for when the session was last polled. */
+    private final BiConsumer<T, Instant> lastPolledSetter;
+
+    /** Obtains when the session was last polled. */
+    private final Function<T, Instant> lastPolledSupplier;
+
+    /** Persists what rendering changed on a session. */
+    private final Consumer<T> sessionSaver;
+
+    /**
+     * Creates the access for {@link Session sessions}.
+     *
+     * @param sessionSaver    Persists what rendering changed on a session.
+     * @param lastPolledSaver Persists when a session was last polled.
+     *
+     * @return The access.
+     */
+    public static SessionAccess<Session> forSessions(
+            final Consumer<Session> sessionSaver,
+            final Consumer<Session> lastPolledSaver) {
+        return SessionAccess
+                .<Session>builder()
+                .alertBoardSupplier(Session::getAlertBoard)
+                .clientIdSupplier(Session::getClientId)
+                .destinationIdSupplier(Session::getId)
+                .digestSupplier(Session::getDigest)
+                .lastNotificationSetter(Session::setLastNotificationId)
+                .lastPolledSaver(lastPolledSaver)
+                .lastPolledSetter(Session::setLastPolled)
+                .lastPolledSupplier(Session::getLastPolled)
+                .sessionSaver(sessionSaver)
+                .build();
+    }
+}
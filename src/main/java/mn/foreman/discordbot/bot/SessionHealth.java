@@ -0,0 +1,143 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.discordbot.db.Session;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Tracks whether or not each {@link Session} can be swept.
+ *
+ * <p>Every failed sweep pushes the session's next attempt out exponentially,
+ * and a session that keeps failing, or whose destination no longer exists,
+ * is quarantined: it's left out of the sweep entirely and only probed at a
+ * low rate until it recovers. All of the state lives on the session document,
+ * so it survives restarts. Callers are responsible for persisting the session
+ * when a method reports a change.</p>
+ */
+public class SessionHealth {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(SessionHealth.class);
+
+    /** The backoff after the first failure. */
+    private final Duration baseBackoff;
+
+    /** The max backoff between attempts. */
+    private final Duration maxBackoff;
+
+    /** The time between probes of a quarantined session. */
+    private final Duration probeInterval;
+
+    /** How many failures in a row quarantine a session. */
+    private final int quarantineAfter;
+
+    /** The counter for sessions that were quarantined. */
+    private final Counter quarantined;
+
+    /** The counter for sessions that recovered. */
+    private final Counter recovered;
+
+    /**
+     * Constructor.
+     *
+     * @param baseBackoff     The backoff after the first failure.
+     * @param maxBackoff      The max backoff between attempts.
+     * @param quarantineAfter How many failures in a row quarantine a session.
+     * @param probeInterval   The time between probes of a quarantined
+     *                        session.
+     * @param meterRegistry   The registry for metrics.
+     */
+    public SessionHealth(
+            final Duration baseBackoff,
+            final Duration maxBackoff,
+            final int quarantineAfter,
+            final Duration probeInterval,
+            final MeterRegistry meterRegistry) {
+        this.baseBackoff = baseBackoff;
+        this.maxBackoff = maxBackoff;
+        this.quarantineAfter = quarantineAfter;
+        this.probeInterval = probeInterval;
+        this.quarantined =
+                meterRegistry.counter("bot.sessions.quarantined");
+        this.recovered =
+                meterRegistry.counter("bot.sessions.recovered");
+    }
+
+    /**
+     * Pulls the session out of the sweep until a probe finds it healthy.
+     *
+     * @param session The session.
+     * @param reason  Why the session was quarantined.
+     */
+    public void quarantine(
+            final Session session,
+            final String reason) {
+        if (!session.isQuarantined()) {
+            LOG.warn("Quarantining {}: {}", session.getId(), reason);
+            this.quarantined.increment();
+        }
+        session.setQuarantined(true);
+        session.setNextAttempt(Instant.now().plus(this.probeInterval));
+    }
+
+    /**
+     * Records a failed sweep or probe for the session.
+     *
+     * @param session The session.
+     * @param cause   The failure.
+     */
+    public void recordFailure(
+            final Session session,
+            final Throwable cause) {
+        final int failures = session.getConsecutiveFailures() + 1;
+        session.setConsecutiveFailures(failures);
+        if (session.isQuarantined() || failures >= this.quarantineAfter) {
+            quarantine(
+                    session,
+                    failures + " failures in a row, last: " + cause.getMessage());
+        } else {
+            // Double the wait after every failure, up to the max
+            final Duration backoff =
+                    this.baseBackoff.multipliedBy(1L << Math.min(failures - 1, 20));
+            LOG.debug("Backing off {} after {} failures: {}",
+                    session.getId(),
+                    failures,
+                    cause.getMessage());
+            session.setNextAttempt(
+                    Instant.now().plus(
+                            backoff.compareTo(this.maxBackoff) > 0
+                                    ? this.maxBackoff
+                                    : backoff));
+        }
+    }
+
+    /**
+     * Records a successful sweep or probe for the session.
+     *
+     * @param session The session.
+     *
+     * @return Whether or not the session changed and should be persisted.
+     */
+    public boolean recordSuccess(final Session session) {
+        if (session.getConsecutiveFailures() == 0 &&
+                session.getNextAttempt() == null &&
+                !session.isQuarantined()) {
+            return false;
+        }
+        if (session.isQuarantined()) {
+            LOG.info("{} recovered", session.getId());
+            this.recovered.increment();
+        }
+        session.setConsecutiveFailures(0);
+        session.setNextAttempt(null);
+        session.setQuarantined(false);
+        return true;
+    }
+}
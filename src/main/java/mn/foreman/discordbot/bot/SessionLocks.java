@@ -0,0 +1,120 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.discordbot.db.Session;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Striped;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Serializes the pushes and polls for each session within this process, so
+ * the same notifications are never rendered and sent by both at once.
+ *
+ * <p>A sweep works from sessions that were read when it started, so a push
+ * that lands in between leaves the sweep holding a stale cursor, digest and
+ * alert board. Each push records the state it left the session in, and the
+ * next poll of that session catches up from it before fetching.</p>
+ *
+ * <p>Across processes, pushes and polls are only kept apart by the cursor
+ * never moving backwards when it's stored.</p>
+ */
+public class SessionLocks {
+
+    /** The locks, striped by session ID. */
+    private final Striped<Lock> locks;
+
+    /** The state that pushes left sessions in, by session ID. */
+    private final Cache<String, Session> pushed;
+
+    /** How long to wait for a session's lock. */
+    private final Duration wait;
+
+    /**
+     * Constructor.
+     *
+     * @param stripes    How many locks sessions are spread across.
+     * @param wait       How long to wait for a session's lock.
+     * @param pushedTtl  How long a push's state is kept for the next poll.
+     * @param maxTracked The max pushed sessions to remember.
+     */
+    public SessionLocks(
+            final int stripes,
+            final Duration wait,
+            final Duration pushedTtl,
+            final int maxTracked) {
+        this.locks = Striped.lazyWeakLock(stripes);
+        this.wait = wait;
+        this.pushed =
+                CacheBuilder
+                        .newBuilder()
+                        .expireAfterWrite(pushedTtl)
+                        .maximumSize(maxTracked)
+                        .build();
+    }
+
+    /**
+     * Brings a session that's about to be polled up to date with the last
+     * push, if one happened since it was read. Must be called while holding
+     * the session's lock.
+     *
+     * @param session The session.
+     */
+    public void catchUp(final Session session) {
+        final Session latest = this.pushed.getIfPresent(session.getId());
+        if (latest != null) {
+            session.setLastNotificationId(
+                    Math.max(
+                            session.getLastNotificationId(),
+                            latest.getLastNotificationId()));
+            session.setDigest(latest.getDigest());
+            session.setAlertBoard(latest.getAlertBoard());
+            this.pushed.invalidate(session.getId());
+        }
+    }
+
+    /**
+     * Records the state a push left a session in. Must be called while
+     * holding the session's lock.
+     *
+     * @param session The session.
+     */
+    public void recordPush(final Session session) {
+        this.pushed.put(
+                session.getId(),
+                session);
+    }
+
+    /**
+     * Runs work while holding a session's lock.
+     *
+     * @param sessionId The session ID.
+     * @param work      The work.
+     *
+     * @return Whether or not the lock was acquired and the work ran.
+     */
+    public boolean run(
+            final String sessionId,
+            final Runnable work) {
+        final Lock lock = this.locks.get(sessionId);
+        try {
+            if (!lock.tryLock(
+                    this.wait.toMillis(),
+                    TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try {
+            work.run();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
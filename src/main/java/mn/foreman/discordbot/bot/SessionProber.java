@@ -0,0 +1,141 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.api.ForemanApi;
+import mn.foreman.discordbot.db.Session;
+import mn.foreman.discordbot.db.SessionStore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Periodically probes quarantined sessions, returning them to the sweep once
+ * both their credentials and their destination work again.
+ *
+ * <p>Only a small batch is probed per run, and each session is only probed
+ * once per probe interval, so dead sessions cost next to nothing.</p>
+ */
+public class SessionProber {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(SessionProber.class);
+
+    /** The supplier for API handlers. */
+    private final Function<Session, ForemanApi> apiSupplier;
+
+    /** The max sessions to probe per run. */
+    private final int batchSize;
+
+    /** The sender, used to check destinations. */
+    private final DiscordSender discordSender;
+
+    /** The limiter for calls to Foreman. */
+    private final ForemanCallLimiter foremanCallLimiter;
+
+    /** Tracks whether or not the gateway is ready. */
+    private final GatewayReadiness gatewayReadiness;
+
+    /** The health tracker for sessions. */
+    private final SessionHealth sessionHealth;
+
+    /** The session repository. */
+    private final SessionStore sessionRepository;
+
+    /**
+     * Constructor.
+     *
+     * @param sessionRepository  The session repository.
+     * @param sessionHealth      The health tracker for sessions.
+     * @param discordSender      The sender, used to check destinations.
+     * @param apiSupplier        The supplier for API handlers.
+     * @param foremanCallLimiter The limiter for calls to Foreman.
+     * @param batchSize          The max sessions to probe per run.
+     * @param gatewayReadiness   Tracks whether or not the gateway is ready.
+     */
+    public SessionProber(
+            final SessionStore sessionRepository,
+            final SessionHealth sessionHealth,
+            final DiscordSender discordSender,
+            final Function<Session, ForemanApi> apiSupplier,
+            final ForemanCallLimiter foremanCallLimiter,
+            final int batchSize,
+            final GatewayReadiness gatewayReadiness) {
+        this.sessionRepository = sessionRepository;
+        this.sessionHealth = sessionHealth;
+        this.discordSender = discordSender;
+        this.apiSupplier = apiSupplier;
+        this.foremanCallLimiter = foremanCallLimiter;
+        this.batchSize = batchSize;
+        this.gatewayReadiness = gatewayReadiness;
+    }
+
+    /**
+     * Probes the quarantined sessions that are due. Nothing is probed until
+     * the gateway is ready, since destinations can't be checked before then.
+     */
+    public void probe() {
+        if (!this.gatewayReadiness.isReady()) {
+            return;
+        }
+        try {
+            final List<Session> sessions =
+                    this.sessionRepository.findQuarantined(
+                            Instant.now(),
+                            PageRequest.of(0, this.batchSize));
+            for (final Session session : sessions) {
+                if (!this.discordSender.handles(session)) {
+                    // Another gateway shard can see the destination
+                    continue;
+                }
+                if (!probe(session)) {
+                    break;
+                }
+            }
+        } catch (final Exception e) {
+            LOG.warn("Exception occurred while probing sessions", e);
+        }
+    }
+
+    /**
+     * Probes a single session.
+     *
+     * @param session The session.
+     *
+     * @return Whether or not to keep probing; false if Foreman is shedding
+     *         load.
+     */
+    private boolean probe(final Session session) {
+        try {
+            if (!this.discordSender.isReachable(session)) {
+                this.sessionHealth.recordFailure(
+                        session,
+                        new IllegalStateException("Destination unreachable"));
+            } else if (!this.foremanCallLimiter.call(() ->
+                    this.apiSupplier
+                            .apply(session)
+                            .ping()
+                            .pingClient())) {
+                this.sessionHealth.recordFailure(
+                        session,
+                        new IllegalStateException("Credentials rejected"));
+            } else {
+                this.sessionHealth.recordSuccess(session);
+            }
+        } catch (final RejectedExecutionException e) {
+            // Foreman is unhealthy, so the probe says nothing about the session
+            return false;
+        } catch (final Exception e) {
+            this.sessionHealth.recordFailure(
+                    session,
+                    e);
+        }
+        this.sessionRepository.saveHealth(session);
+        return true;
+    }
+}
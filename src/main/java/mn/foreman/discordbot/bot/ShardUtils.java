@@ -0,0 +1,43 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.discordbot.db.Session;
+import mn.foreman.discordbot.db.SessionType;
+
+/** Utilities for splitting sessions between nodes. */
+public class ShardUtils {
+
+    /**
+     * Returns the gateway shard that can deliver to the session's
+     * destination. Guilds are assigned to shards by Discord; direct messages
+     * don't need the gateway, so they go to the first shard.
+     *
+     * @param session    The session.
+     * @param shardTotal How many gateway shards there are.
+     *
+     * @return The shard.
+     */
+    public static int shardOf(
+            final Session session,
+            final int shardTotal) {
+        if (shardTotal <= 1 || session.getType() != SessionType.GUILD) {
+            return 0;
+        }
+        return (int) ((Long.parseLong(session.getId()) >> 22) % shardTotal);
+    }
+
+    /**
+     * Returns the worker that polls the session.
+     *
+     * @param session     The session.
+     * @param workerCount How many workers there are.
+     *
+     * @return The worker.
+     */
+    public static int workerOf(
+            final Session session,
+            final int workerCount) {
+        return Math.floorMod(
+                session.getId().hashCode(),
+                workerCount);
+    }
+}
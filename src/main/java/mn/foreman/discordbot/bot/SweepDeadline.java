@@ -0,0 +1,81 @@
+package mn.foreman.discordbot.bot;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * The deadline of the sweep that the current thread is polling a session
+ * for, so the calls to Foreman made on the session's behalf don't outlive
+ * the sweep.
+ *
+ * <p>A call that runs out of time because the deadline passed fails with a
+ * {@link RejectedExecutionException}, like a call that Foreman shed, so the
+ * session is left for the next sweep rather than counted as failing.</p>
+ */
+class SweepDeadline {
+
+    /** The deadline, in nanos, or null outside of a sweep. */
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    /**
+     * Performs a call on the current thread under a deadline.
+     *
+     * @param deadlineNanos The deadline, from {@link System#nanoTime()}, or
+     *                      null for none.
+     * @param call          The call.
+     * @param <T>           The response type.
+     *
+     * @return The response.
+     */
+    static <T> T call(
+            final Long deadlineNanos,
+            final Supplier<T> call) {
+        final Long previous = DEADLINE.get();
+        DEADLINE.set(deadlineNanos);
+        try {
+            return call.get();
+        } finally {
+            DEADLINE.set(previous);
+        }
+    }
+
+    /**
+     * Returns the current thread's deadline.
+     *
+     * @return The deadline, from {@link System#nanoTime()}, or null for none.
+     */
+    static Long get() {
+        return DEADLINE.get();
+    }
+
+    /**
+     * Returns whether or not the current thread's deadline has passed.
+     *
+     * @return Whether or not the deadline has passed.
+     */
+    static boolean isPassed() {
+        final Long deadline = DEADLINE.get();
+        return deadline != null && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * Returns how long a call can take on the current thread.
+     *
+     * @param maxNanos The most the call can take regardless of the deadline.
+     *
+     * @return The time left, capped at the max.
+     *
+     * @throws RejectedExecutionException if the deadline has already passed.
+     */
+    static long remainingNanos(final long maxNanos) {
+        final Long deadline = DEADLINE.get();
+        if (deadline == null) {
+            return maxNanos;
+        }
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            throw new RejectedExecutionException("The sweep's deadline has passed");
+        }
+        return Math.min(maxNanos, remaining);
+    }
+}
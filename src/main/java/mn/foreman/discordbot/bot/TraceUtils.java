@@ -0,0 +1,96 @@
+package mn.foreman.discordbot.bot;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanBuilder;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Scope;
+
+import java.util.function.Supplier;
+
+/** Utilities for tracing the bot's work. */
+public class TraceUtils {
+
+    /** The Foreman client that a span is for. */
+    public static final AttributeKey<Long> CLIENT_ID =
+            AttributeKey.longKey("foreman.client_id");
+
+    /** The command that a span is for. */
+    public static final AttributeKey<String> COMMAND =
+            AttributeKey.stringKey("bot.command");
+
+    /** The guild that a span is for. */
+    public static final AttributeKey<String> GUILD_ID =
+            AttributeKey.stringKey("discord.guild_id");
+
+    /** The session that a span is for. */
+    public static final AttributeKey<String> SESSION_ID =
+            AttributeKey.stringKey("bot.session_id");
+
+    /** The kind of session that a span is for. */
+    public static final AttributeKey<String> SESSION_TYPE =
+            AttributeKey.stringKey("bot.session_type");
+
+    /** The user that a span is for. */
+    public static final AttributeKey<String> USER_ID =
+            AttributeKey.stringKey("discord.user_id");
+
+    /**
+     * Marks the span as failed.
+     *
+     * @param span      The span.
+     * @param throwable The failure.
+     */
+    public static void fail(
+            final Span span,
+            final Throwable throwable) {
+        span.recordException(throwable);
+        span.setStatus(
+                StatusCode.ERROR,
+                String.valueOf(throwable.getMessage()));
+    }
+
+    /**
+     * Runs the work inside of a new span, which is current while the work
+     * runs and ends once it's done.
+     *
+     * @param spanBuilder The builder for the span.
+     * @param work        The work.
+     */
+    public static void trace(
+            final SpanBuilder spanBuilder,
+            final Runnable work) {
+        trace(
+                spanBuilder,
+                () -> {
+                    work.run();
+                    return null;
+                });
+    }
+
+    /**
+     * Runs the work inside of a new span, which is current while the work
+     * runs and ends once it's done.
+     *
+     * @param spanBuilder The builder for the span.
+     * @param work        The work.
+     * @param <T>         The result type.
+     *
+     * @return The result of the work.
+     */
+    public static <T> T trace(
+            final SpanBuilder spanBuilder,
+            final Supplier<T> work) {
+        final Span span = spanBuilder.startSpan();
+        try (final Scope ignored = span.makeCurrent()) {
+            return work.get();
+        } catch (final RuntimeException e) {
+            fail(
+                    span,
+                    e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+}
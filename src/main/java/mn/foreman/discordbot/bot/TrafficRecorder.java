@@ -0,0 +1,300 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.api.endpoints.miners.Miners;
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.api.endpoints.pickaxe.Pickaxe;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records what the bot reads from Foreman and what it sends to Discord as
+ * gzipped JSON lines, so real traffic can be played back offline by
+ * {@link TrafficReplay}.
+ *
+ * <p>Nothing that could be used to reach an account is written. API keys and
+ * pickaxe keys are scrubbed from every payload, and clients, pickaxes and
+ * destinations are replaced with pseudonyms that are only consistent within a
+ * single recording. Links are dropped from sent messages.</p>
+ */
+public class TrafficRecorder
+        implements Closeable {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(TrafficRecorder.class);
+
+    /** What scrubbed secrets are replaced with. */
+    private static final String REDACTED = "<redacted>";
+
+    /** Matches the links in sent messages. */
+    private static final Pattern URL = Pattern.compile("https?://\\S+");
+
+    /** Derives the pseudonyms, keyed for this recording only. */
+    private final Mac mac;
+
+    /** The mapper. */
+    private final ObjectMapper objectMapper;
+
+    /** When the recording started. */
+    private final long start = System.nanoTime();
+
+    /** The file. */
+    private final Writer writer;
+
+    /**
+     * Constructor.
+     *
+     * @param path         The file, which is replaced if it exists.
+     * @param objectMapper The mapper.
+     *
+     * @throws IOException on failure to open the file.
+     */
+    public TrafficRecorder(
+            final Path path,
+            final ObjectMapper objectMapper) throws IOException {
+        this.objectMapper = objectMapper;
+        try {
+            final byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            this.mac = Mac.getInstance("HmacSHA256");
+            this.mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        this.writer =
+                new BufferedWriter(
+                        new OutputStreamWriter(
+                                new GZIPOutputStream(Files.newOutputStream(path)),
+                                StandardCharsets.UTF_8));
+        LOG.info("Recording traffic to {}", path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this.writer) {
+            this.writer.close();
+        }
+    }
+
+    /**
+     * Records the miners on a pickaxe.
+     *
+     * @param clientId The client ID.
+     * @param apiKey   The API key.
+     * @param pickaxe  The pickaxe key.
+     * @param miners   The miners.
+     */
+    public void recordMiners(
+            final int clientId,
+            final String apiKey,
+            final String pickaxe,
+            final List<Miners.Miner> miners) {
+        final ObjectNode record = newRecord("miners", clientId);
+        record.put("pickaxe", pseudonym(pickaxe));
+        write(
+                record,
+                toJson(miners),
+                apiKey,
+                pickaxe);
+    }
+
+    /**
+     * Records a raw miners response.
+     *
+     * @param clientId The client ID.
+     * @param apiKey   The API key.
+     * @param pickaxe  The pickaxe key.
+     * @param body     The response.
+     */
+    public void recordMinersStream(
+            final int clientId,
+            final String apiKey,
+            final String pickaxe,
+            final byte[] body) {
+        final ObjectNode record = newRecord("miners", clientId);
+        record.put("pickaxe", pseudonym(pickaxe));
+        write(
+                record,
+                new String(body, StandardCharsets.UTF_8),
+                apiKey,
+                pickaxe);
+    }
+
+    /**
+     * Records a notifications response.
+     *
+     * @param clientId      The client ID.
+     * @param apiKey        The API key.
+     * @param notifications The notifications.
+     */
+    public void recordNotifications(
+            final int clientId,
+            final String apiKey,
+            final List<Notifications.Notification> notifications) {
+        write(
+                newRecord("notifications", clientId),
+                toJson(notifications),
+                apiKey);
+    }
+
+    /**
+     * Records a client's pickaxes. Each key is replaced with its pseudonym so
+     * the miners recorded for it can still be found.
+     *
+     * @param clientId The client ID.
+     * @param apiKey   The API key.
+     * @param pickaxes The pickaxes.
+     */
+    public void recordPickaxes(
+            final int clientId,
+            final String apiKey,
+            final List<Pickaxe.PickaxeInstance> pickaxes) {
+        final String[] secrets = new String[pickaxes.size() + 1];
+        secrets[0] = apiKey;
+        final JsonNode body = this.objectMapper.valueToTree(pickaxes);
+        for (int i = 0; i < pickaxes.size(); i++) {
+            secrets[i + 1] = pickaxes.get(i).key;
+            ((ObjectNode) body.get(i)).put("key", pseudonym(pickaxes.get(i).key));
+        }
+        write(
+                newRecord("pickaxes", clientId),
+                body.toString(),
+                secrets);
+    }
+
+    /**
+     * Records a message that was sent to Discord.
+     *
+     * @param sessionId    The destination.
+     * @param notification The message.
+     * @param failed       Whether or not Discord rejected it.
+     */
+    public void recordSend(
+            final String sessionId,
+            final NotificationsProcessorImpl.DiscordNotification notification,
+            final boolean failed) {
+        final ObjectNode record = newRecord("send", null);
+        record.put("session", pseudonym(sessionId));
+        record.put("error", notification.isError());
+        record.put("replay", notification.isReplay());
+        record.put("failed", failed);
+        record.put("length", notification.getMessage().length());
+        write(
+                record,
+                this.objectMapper
+                        .getNodeFactory()
+                        .textNode(URL.matcher(notification.getMessage()).replaceAll(REDACTED))
+                        .toString());
+    }
+
+    /**
+     * Creates a record stamped with the time since the recording started.
+     *
+     * @param type     The type.
+     * @param clientId The client ID, or null.
+     *
+     * @return The record.
+     */
+    private ObjectNode newRecord(
+            final String type,
+            final Integer clientId) {
+        final ObjectNode record = this.objectMapper.createObjectNode();
+        record.put("at", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.start));
+        record.put("type", type);
+        if (clientId != null) {
+            record.put("client", pseudonym(Integer.toString(clientId)));
+        }
+        return record;
+    }
+
+    /**
+     * Returns the pseudonym for a value.
+     *
+     * @param value The value.
+     *
+     * @return The pseudonym.
+     */
+    private String pseudonym(final String value) {
+        final byte[] digest;
+        synchronized (this.mac) {
+            digest = this.mac.doFinal(value.getBytes(StandardCharsets.UTF_8));
+        }
+        final StringBuilder pseudonym = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            pseudonym.append(String.format("%02x", digest[i]));
+        }
+        return pseudonym.toString();
+    }
+
+    /**
+     * Serializes a response.
+     *
+     * @param value The response.
+     *
+     * @return The JSON.
+     */
+    private String toJson(final Object value) {
+        try {
+            return this.objectMapper.writeValueAsString(value);
+        } catch (final JsonProcessingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Scrubs the secrets from a body and appends it to the file, along with
+     * its record. The body is stored as a JSON value if it is one, and as a
+     * string otherwise.
+     *
+     * @param record  The record.
+     * @param body    The body.
+     * @param secrets The secrets to scrub.
+     */
+    private void write(
+            final ObjectNode record,
+            final String body,
+            final String... secrets) {
+        String scrubbed = body;
+        for (final String secret : secrets) {
+            if (secret != null && !secret.isEmpty()) {
+                scrubbed = scrubbed.replace(secret, REDACTED);
+            }
+        }
+        try {
+            record.set("body", this.objectMapper.readTree(scrubbed));
+        } catch (final JsonProcessingException e) {
+            record.put("body", scrubbed);
+        }
+        final String line = record.toString();
+        synchronized (this.writer) {
+            try {
+                this.writer.write(line);
+                this.writer.write('\n');
+            } catch (final IOException e) {
+                LOG.warn("Failed to record {}", record.get("type"), e);
+            }
+        }
+    }
+}
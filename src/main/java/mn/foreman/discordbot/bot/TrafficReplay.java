@@ -0,0 +1,508 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.api.endpoints.miners.Miners;
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.api.endpoints.pickaxe.Pickaxe;
+import mn.foreman.discordbot.db.Session;
+import mn.foreman.discordbot.db.SessionType;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.api.trace.TracerProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Plays a recording made by {@link TrafficRecorder} back through the real
+ * notification and status pipelines, without Mongo, Discord or Foreman, so
+ * changes can be compared against the same traffic.
+ *
+ * <p>Every recorded client becomes a private session whose client ID is its
+ * position in the recording. Responses are served in the order they were
+ * recorded, once the replay's clock reaches them. Notifications are swept
+ * the way the {@link Notifier} does it, and every recorded pickaxes lookup is
+ * replayed as a status check. Messages are rendered and counted rather than
+ * sent.</p>
+ */
+public class TrafficReplay
+        implements ForemanSource {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(TrafficReplay.class);
+
+    /**
+     * How far past the clock responses are still served, so the polls that
+     * made up one recorded sweep are replayed in one sweep.
+     */
+    private static final long SWEEP_SLACK_MILLIS = 1000;
+
+    /** The recorded clients, in the order they were first seen. */
+    private final List<String> clients = new ArrayList<>();
+
+    /** The recorded miners, by client and pickaxe. */
+    private final Map<String, Deque<JsonNode>> miners = new HashMap<>();
+
+    /** The recorded notifications, by client. */
+    private final Map<String, Deque<JsonNode>> notifications = new HashMap<>();
+
+    /** The mapper. */
+    private final ObjectMapper objectMapper;
+
+    /** The recorded pickaxes, by client. */
+    private final Map<String, Deque<JsonNode>> pickaxes = new HashMap<>();
+
+    /** How many messages were sent while recording. */
+    private int recordedSends;
+
+    /** The recording time that's been replayed up to, in millis. */
+    private volatile long clock;
+
+    /**
+     * Constructor.
+     *
+     * @param path         The recording.
+     * @param objectMapper The mapper.
+     *
+     * @throws IOException on failure to read the recording.
+     */
+    public TrafficReplay(
+            final Path path,
+            final ObjectMapper objectMapper) throws IOException {
+        this.objectMapper = objectMapper;
+        try (final BufferedReader reader =
+                     new BufferedReader(
+                             new InputStreamReader(
+                                     new GZIPInputStream(Files.newInputStream(path)),
+                                     StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    load(objectMapper.readTree(line));
+                }
+            }
+        }
+    }
+
+    /**
+     * Replays a recording.
+     *
+     * @param args The recording and, optionally, the speed relative to the
+     *             recording, where 0 replays as fast as possible.
+     *
+     * @throws Exception on failure.
+     */
+    public static void main(final String[] args) throws Exception {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME))
+                .setLevel(ch.qos.logback.classic.Level.INFO);
+        new TrafficReplay(
+                Path.of(args[0]),
+                new ObjectMapper().findAndRegisterModules())
+                .run(args.length > 1
+                        ? Double.parseDouble(args[1])
+                        : 1.0);
+    }
+
+    @Override
+    public List<Miners.Miner> miners(
+            final int clientId,
+            final String apiKey,
+            final String pickaxe) {
+        return next(
+                this.miners,
+                this.clients.get(clientId) + '|' + pickaxe,
+                new TypeReference<List<Miners.Miner>>() {
+                });
+    }
+
+    @Override
+    public List<Notifications.Notification> notifications(
+            final int clientId,
+            final String apiKey,
+            final int lastNotificationId,
+            final Instant startDate) {
+        return next(
+                this.notifications,
+                this.clients.get(clientId),
+                new TypeReference<List<Notifications.Notification>>() {
+                });
+    }
+
+    @Override
+    public CompletableFuture<List<Notifications.Notification>> notificationsAsync(
+            final int clientId,
+            final String apiKey,
+            final int lastNotificationId,
+            final Instant startDate) {
+        return CompletableFuture.completedFuture(
+                notifications(
+                        clientId,
+                        apiKey,
+                        lastNotificationId,
+                        startDate));
+    }
+
+    @Override
+    public InputStream openMiners(
+            final int clientId,
+            final String apiKey,
+            final String pickaxe) {
+        final JsonNode body =
+                poll(
+                        this.miners,
+                        this.clients.get(clientId) + '|' + pickaxe);
+        return new ByteArrayInputStream(
+                (body != null ? body.toString() : "[]")
+                        .getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public List<Pickaxe.PickaxeInstance> pickaxes(
+            final int clientId,
+            final String apiKey) {
+        return next(
+                this.pickaxes,
+                this.clients.get(clientId),
+                new TypeReference<List<Pickaxe.PickaxeInstance>>() {
+                });
+    }
+
+    /**
+     * Replays the recording and logs what happened.
+     *
+     * @param speed The speed relative to the recording, where 0 replays as
+     *              fast as possible.
+     *
+     * @throws InterruptedException if interrupted while pacing the replay.
+     */
+    public void run(final double speed) throws InterruptedException {
+        final List<Session> sessions = new ArrayList<>(this.clients.size());
+        for (int i = 0; i < this.clients.size(); i++) {
+            sessions.add(
+                    Session
+                            .builder()
+                            .id(this.clients.get(i))
+                            .type(SessionType.PRIVATE)
+                            .clientId(i)
+                            .apiKey("")
+                            .dateRegistered(Instant.EPOCH)
+                            .build());
+        }
+
+        final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final ForemanCallLimiter foremanCallLimiter =
+                new ForemanCallLimiter(
+                        16,
+                        1,
+                        64,
+                        0.9,
+                        2500,
+                        20,
+                        0.5,
+                        30000,
+                        meterRegistry);
+        final MessageRenderer messageRenderer =
+                new MessageRenderer("https://dashboard.foreman.mn");
+        final MinerHistory minerHistory =
+                new MinerHistory(
+                        messageRenderer,
+                        10,
+                        262144,
+                        64 * 1024 * 1024,
+                        96,
+                        Duration.ofMinutes(15));
+        final Tracer tracer =
+                TracerProvider.noop().get(TrafficReplay.class.getName());
+
+        final AtomicInteger polls = new AtomicInteger();
+        final AtomicInteger sent = new AtomicInteger();
+        final NotificationsProcessorImpl<Session> notificationsProcessor =
+                new NotificationsProcessorImpl<>(
+                        SessionAccess.forSessions(
+                                session -> {
+                                },
+                                session -> {
+                                }),
+                        NotificationPolicies
+                                .builder()
+                                .alertBoardKeeper(
+                                        new AlertBoardKeeper(
+                                                messageRenderer,
+                                                10,
+                                                1000,
+                                                Duration.ofMinutes(1),
+                                                Duration.ofMinutes(15)))
+                                .catchUpPolicy(
+                                        new CatchUpPolicy(
+                                                false,
+                                                Duration.ZERO,
+                                                0,
+                                                1))
+                                .maxNotifications(10)
+                                .maxPerPoll(50)
+                                .messageRenderer(messageRenderer)
+                                .minerHistory(minerHistory)
+                                .notificationDigester(
+                                        new NotificationDigester(
+                                                messageRenderer,
+                                                10,
+                                                1000))
+                                .notificationSuppressor(
+                                        new NotificationSuppressor(
+                                                600000,
+                                                10000,
+                                                512,
+                                                meterRegistry))
+                                .build(),
+                        (notification, session) -> sent.incrementAndGet(),
+                        this,
+                        foremanCallLimiter,
+                        Instant.now(),
+                        tracer);
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        final Notifier<Session> notifier =
+                new Notifier<>(
+                        () -> sessions,
+                        session -> true,
+                        session -> {
+                            polls.incrementAndGet();
+                            notificationsProcessor.process(
+                                    session.getClientId(),
+                                    session.getApiKey(),
+                                    session.getDateRegistered(),
+                                    session.getLastNotificationId(),
+                                    session);
+                        },
+                        executorService,
+                        tracer,
+                        Duration.ofDays(1));
+        final CommandProcessorStatus<Session> statusProcessor =
+                new CommandProcessorStatus<>(
+                        null,
+                        null,
+                        MinerSources
+                                .<Session>builder()
+                                .pickaxesSupplier(session ->
+                                        pickaxes(
+                                                session.getClientId(),
+                                                session.getApiKey()))
+                                .minersSupplier((session, pickaxe) ->
+                                        miners(
+                                                session.getClientId(),
+                                                session.getApiKey(),
+                                                pickaxe))
+                                .minerStatusParser(
+                                        new MinerStatusParser(
+                                                this.objectMapper.getFactory(),
+                                                meterRegistry))
+                                .foremanCallLimiter(foremanCallLimiter)
+                                .build(),
+                        messageRenderer,
+                        10,
+                        0,
+                        Session::getClientId,
+                        minerHistory);
+
+        int sweeps = 0;
+        int statusChecks = 0;
+        final long start = System.nanoTime();
+        try {
+            String client;
+            while ((client = advance(speed)) != null) {
+                if (isDue(this.pickaxes.get(client))) {
+                    final MinerBuckets troubleMiners = new MinerBuckets();
+                    try {
+                        statusProcessor.findTroubleMiners(
+                                sessions.get(this.clients.indexOf(client)),
+                                troubleMiners,
+                                (checked, total) -> {
+                                });
+                        sent.addAndGet(statusProcessor.toMessages(troubleMiners).size());
+                    } catch (final RuntimeException e) {
+                        LOG.warn("Status check for {} failed", client, e);
+                    }
+                    statusChecks++;
+                } else {
+                    notifier.fetchAndNotify();
+                    sweeps++;
+                }
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        LOG.info("replay sweeps={} polls={} sent={} recordedSends={} statusChecks={} durationMs={}",
+                sweeps,
+                polls.get(),
+                sent.get(),
+                this.recordedSends,
+                statusChecks,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Advances the clock to the earliest recorded notifications or pickaxes
+     * response that's still waiting to be served, pacing the replay.
+     *
+     * @param speed The speed relative to the recording.
+     *
+     * @return The client the response is for, or null if the replay is done.
+     *
+     * @throws InterruptedException if interrupted while pacing the replay.
+     */
+    private String advance(final double speed) throws InterruptedException {
+        String next = null;
+        long at = Long.MAX_VALUE;
+        for (final String client : this.clients) {
+            for (final Deque<JsonNode> deque : List.of(
+                    this.pickaxes.getOrDefault(client, new ArrayDeque<>()),
+                    this.notifications.getOrDefault(client, new ArrayDeque<>()))) {
+                if (!deque.isEmpty() && deque.peek().get("at").asLong() < at) {
+                    at = deque.peek().get("at").asLong();
+                    next = client;
+                }
+            }
+        }
+        if (next != null) {
+            if (speed > 0 && at > this.clock) {
+                Thread.sleep((long) ((at - this.clock) / speed));
+            }
+            this.clock = Math.max(this.clock, at);
+        }
+        return next;
+    }
+
+    /**
+     * Returns whether or not the head of a recording is due.
+     *
+     * @param deque The recording.
+     *
+     * @return Whether or not it's due.
+     */
+    private boolean isDue(final Deque<JsonNode> deque) {
+        return deque != null &&
+                !deque.isEmpty() &&
+                deque.peek().get("at").asLong() <= this.clock;
+    }
+
+    /**
+     * Files a recorded record.
+     *
+     * @param record The record.
+     */
+    private void load(final JsonNode record) {
+        final String type = record.get("type").asText();
+        if ("send".equals(type)) {
+            this.recordedSends++;
+            return;
+        }
+        final String client = record.get("client").asText();
+        if (!this.clients.contains(client)) {
+            this.clients.add(client);
+        }
+        final Map<String, Deque<JsonNode>> recorded;
+        String key = client;
+        switch (type) {
+            case "miners":
+                recorded = this.miners;
+                key += '|' + record.get("pickaxe").asText();
+                break;
+            case "notifications":
+                recorded = this.notifications;
+                break;
+            case "pickaxes":
+                recorded = this.pickaxes;
+                break;
+            default:
+                LOG.warn("Skipping unknown record type {}", type);
+                return;
+        }
+        recorded
+                .computeIfAbsent(key, k -> new ArrayDeque<>())
+                .add(record);
+    }
+
+    /**
+     * Serves the next due response from a recording.
+     *
+     * @param recorded The recordings.
+     * @param key      The recording to serve from.
+     * @param type     The response type.
+     * @param <T>      The response type.
+     *
+     * @return The response, which is empty if none is due.
+     */
+    private <T> List<T> next(
+            final Map<String, Deque<JsonNode>> recorded,
+            final String key,
+            final TypeReference<List<T>> type) {
+        final JsonNode body =
+                poll(
+                        recorded,
+                        key);
+        return body != null
+                ? this.objectMapper.convertValue(body, type)
+                : Collections.emptyList();
+    }
+
+    /**
+     * Removes the next due body from a recording. Miners are only fetched
+     * by a replayed status check, right after its pickaxes, so they're always
+     * due.
+     *
+     * @param recorded The recordings.
+     * @param key      The recording to serve from.
+     *
+     * @return The body, or null if none is due.
+     */
+    private JsonNode poll(
+            final Map<String, Deque<JsonNode>> recorded,
+            final String key) {
+        final Deque<JsonNode> deque = recorded.get(key);
+        if (deque == null) {
+            return null;
+        }
+        synchronized (deque) {
+            if (deque.isEmpty() ||
+                    (recorded != this.miners &&
+                            deque.peek().get("at").asLong() > this.clock + SWEEP_SLACK_MILLIS)) {
+                return null;
+            }
+            final JsonNode body = deque.poll().get("body");
+            // Raw bodies that weren't JSON were recorded as strings, and
+            // can't be replayed
+            return body.isTextual()
+                    ? JsonNodeFactory.instance.arrayNode()
+                    : body;
+        }
+    }
+}
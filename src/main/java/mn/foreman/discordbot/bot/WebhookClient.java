@@ -0,0 +1,225 @@
+package mn.foreman.discordbot.bot;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.awt.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts messages through channel webhooks.
+ *
+ * <p>Every webhook has its own rate-limit bucket, separate from the bot's, so
+ * posts are paced per webhook from the limits Discord reports back. A single
+ * {@link HttpClient} (and its connection pool) is shared by every
+ * webhook.</p>
+ */
+public class WebhookClient {
+
+    /** The shared client. */
+    private final HttpClient httpClient;
+
+    /** How many times a rate-limited post is retried. */
+    private final int maxRetries;
+
+    /** The mapper. */
+    private final ObjectMapper objectMapper;
+
+    /** When each webhook's bucket resets, in nanos, once it's been drained. */
+    private final Cache<String, Long> resets;
+
+    /** The request timeout. */
+    private final Duration timeout;
+
+    /**
+     * Constructor.
+     *
+     * @param objectMapper The mapper.
+     * @param timeout      The request timeout.
+     * @param maxRetries   How many times a rate-limited post is retried.
+     * @param maxWebhooks  How many webhooks' buckets are tracked.
+     */
+    public WebhookClient(
+            final ObjectMapper objectMapper,
+            final Duration timeout,
+            final int maxRetries,
+            final int maxWebhooks) {
+        this.objectMapper = objectMapper;
+        this.timeout = timeout;
+        this.maxRetries = maxRetries;
+        this.resets =
+                CacheBuilder
+                        .newBuilder()
+                        .maximumSize(maxWebhooks)
+                        .build();
+        this.httpClient =
+                HttpClient
+                        .newBuilder()
+                        .connectTimeout(timeout)
+                        .build();
+    }
+
+    /**
+     * Returns whether or not a failed post means the webhook is gone for
+     * good, like when it was deleted from the channel.
+     *
+     * @param throwable The failure.
+     *
+     * @return Whether or not the webhook is gone.
+     */
+    public static boolean isGone(final Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause.getCause() != null && !(cause instanceof WebhookGoneException)) {
+            cause = cause.getCause();
+        }
+        return cause instanceof WebhookGoneException;
+    }
+
+    /**
+     * Posts a message as an embed.
+     *
+     * @param webhookUrl The webhook.
+     * @param message    The message.
+     * @param color      The color.
+     *
+     * @return A future that completes once Discord has accepted the message.
+     */
+    public CompletableFuture<Void> post(
+            final String webhookUrl,
+            final String message,
+            final Color color) {
+        final ObjectNode embed = this.objectMapper.createObjectNode();
+        embed.put("description", message);
+        embed.put("color", color.getRGB() & 0xFFFFFF);
+        final ObjectNode body = this.objectMapper.createObjectNode();
+        body.putArray("embeds").add(embed);
+        try {
+            return post(
+                    HttpRequest
+                            .newBuilder(URI.create(webhookUrl))
+                            .timeout(this.timeout)
+                            .header("Content-Type", "application/json")
+                            .POST(HttpRequest.BodyPublishers.ofString(
+                                    this.objectMapper.writeValueAsString(body)))
+                            .build(),
+                    webhookUrl,
+                    0);
+        } catch (final JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Delays until a duration has passed.
+     *
+     * @param nanos The duration.
+     *
+     * @return An executor that runs after the delay.
+     */
+    private static Executor after(final long nanos) {
+        return CompletableFuture.delayedExecutor(
+                nanos,
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Reads a duration in seconds from a response header.
+     *
+     * @param response The response.
+     * @param header   The header.
+     *
+     * @return The duration in nanos, or 0 if it's missing.
+     */
+    private static long seconds(
+            final HttpResponse<?> response,
+            final String header) {
+        return response
+                .headers()
+                .firstValue(header)
+                .map(value -> (long) (Double.parseDouble(value) * TimeUnit.SECONDS.toNanos(1)))
+                .orElse(0L);
+    }
+
+    /**
+     * Posts once the webhook's bucket allows it, retrying if Discord rate
+     * limits the post anyway.
+     *
+     * @param request    The post.
+     * @param webhookUrl The webhook.
+     * @param attempt    How many times the post has been rate limited.
+     *
+     * @return A future that completes once Discord has accepted the message.
+     */
+    private CompletableFuture<Void> post(
+            final HttpRequest request,
+            final String webhookUrl,
+            final int attempt) {
+        final Long reset = this.resets.getIfPresent(webhookUrl);
+        final long wait =
+                reset != null
+                        ? reset - System.nanoTime()
+                        : 0;
+        final CompletableFuture<Void> ready =
+                wait > 0
+                        ? CompletableFuture.runAsync(
+                        () -> {
+                        },
+                        after(wait))
+                        : CompletableFuture.completedFuture(null);
+        return ready
+                .thenCompose(ignored ->
+                        this.httpClient.sendAsync(
+                                request,
+                                HttpResponse.BodyHandlers.discarding()))
+                .thenCompose(response -> {
+                    if ("0".equals(response.headers().firstValue("X-RateLimit-Remaining").orElse(null))) {
+                        this.resets.put(
+                                webhookUrl,
+                                System.nanoTime() + seconds(response, "X-RateLimit-Reset-After"));
+                    }
+                    final int status = response.statusCode();
+                    if (status == 429 && attempt < this.maxRetries) {
+                        this.resets.put(
+                                webhookUrl,
+                                System.nanoTime() + seconds(response, "Retry-After"));
+                        return post(
+                                request,
+                                webhookUrl,
+                                attempt + 1);
+                    }
+                    if (status == 401 || status == 404) {
+                        return CompletableFuture.failedFuture(
+                                new WebhookGoneException(status));
+                    }
+                    if (status / 100 != 2) {
+                        return CompletableFuture.failedFuture(
+                                new IllegalStateException("Discord responded with " + status));
+                    }
+                    return CompletableFuture.completedFuture(null);
+                });
+    }
+
+    /** Thrown when a webhook no longer exists. */
+    private static class WebhookGoneException
+            extends IllegalStateException {
+
+        /**
+         * Constructor.
+         *
+         * @param status The status Discord responded with.
+         */
+        private WebhookGoneException(final int status) {
+            super("Webhook gone (" + status + ")");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.discordbot.db.Session;
+import mn.foreman.discordbot.db.SessionStore;
+
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.TextChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the webhook that a guild session's notifications are posted
+ * through. If the bot can't manage webhooks in the channel, the session keeps
+ * receiving notifications from the bot itself.
+ */
+public class WebhookProvisioner {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(WebhookProvisioner.class);
+
+    /** The name that webhooks post as. */
+    private final String name;
+
+    /** The session repository. */
+    private final SessionStore sessionRepository;
+
+    /**
+     * Constructor.
+     *
+     * @param name              The name that webhooks post as.
+     * @param sessionRepository The session repository.
+     */
+    public WebhookProvisioner(
+            final String name,
+            final SessionStore sessionRepository) {
+        this.name = name;
+        this.sessionRepository = sessionRepository;
+    }
+
+    /**
+     * Creates a webhook in the channel for the session, unless it already has
+     * one. The webhook is stored on the session once Discord creates it.
+     *
+     * @param session The session.
+     * @param channel The channel the session was registered in.
+     */
+    public void provision(
+            final Session session,
+            final TextChannel channel) {
+        if (session.getWebhookUrl() != null) {
+            return;
+        }
+        if (!channel.getGuild().getSelfMember().hasPermission(
+                channel,
+                Permission.MANAGE_WEBHOOKS)) {
+            LOG.info("Can't manage webhooks for {}, notifications will come from the bot",
+                    session.getId());
+            return;
+        }
+        channel
+                .createWebhook(this.name)
+                .queue(
+                        webhook -> {
+                            session.setWebhookUrl(webhook.getUrl());
+                            this.sessionRepository.saveWebhookUrl(session);
+                            LOG.info("Created webhook for {}", session.getId());
+                        },
+                        throwable ->
+                                LOG.warn("Failed to create webhook for {}, notifications will come from the bot",
+                                        session.getId(),
+                                        throwable));
+    }
+}
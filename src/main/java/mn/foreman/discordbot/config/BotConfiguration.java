@@ -1,43 +1,71 @@
 package mn.foreman.discordbot.config;
 
-import mn.foreman.api.ForemanApiImpl;
-import mn.foreman.api.JdkWebUtil;
+import mn.foreman.api.ForemanApi;
 import mn.foreman.discordbot.bot.*;
-import mn.foreman.discordbot.db.ChatSession;
-import mn.foreman.discordbot.db.PrivateSession;
-import mn.foreman.discordbot.db.PrivateSessionRepository;
+import mn.foreman.discordbot.db.LocalSessionStore;
+import mn.foreman.discordbot.db.Outbox;
+import mn.foreman.discordbot.db.ReactiveSessionRepository;
+import mn.foreman.discordbot.db.Session;
+import mn.foreman.discordbot.db.SessionMigrator;
+import mn.foreman.discordbot.db.SessionRegistry;
 import mn.foreman.discordbot.db.SessionRepository;
+import mn.foreman.discordbot.db.SessionStore;
+import mn.foreman.discordbot.db.SessionType;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.opentelemetry.api.trace.Tracer;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.entities.Activity;
-import net.dv8tion.jda.api.entities.MessageChannel;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import reactor.core.publisher.Flux;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.security.auth.login.LoginException;
-import java.awt.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /** Bot bean configuration. */
 @Configuration
 public class BotConfiguration {
 
-    /** The logger for this class. */
-    private static final Logger LOG =
-            LoggerFactory.getLogger(BotConfiguration.class);
+    /** The condition for beans that need the Discord gateway. */
+    private static final String HAS_GATEWAY = "!'${bot.role}'.equalsIgnoreCase('worker')";
+
+    /** The condition for beans that need sessions to be stored in MongoDB. */
+    private static final String HAS_MONGO = "'${sessions.store:mongo}'.equalsIgnoreCase('mongo')";
+
+    /**
+     * The schedulers for the periodic jobs, one thread each, so a job that
+     * blocks can't hold up the others.
+     */
+    private final List<ScheduledExecutorService> schedulers = new CopyOnWriteArrayList<>();
 
     /** The notifier fixed deplay. */
     @Value("${bot.check.fixedDelay}")
@@ -47,84 +75,81 @@ public class BotConfiguration {
     @Value("${bot.check.initialDelay}")
     private long initialDelay;
 
-    /** The notifiers. */
-    @Autowired
-    private List<Notifier<?>> notifiers;
+    /** How often gateway nodes check the outbox. */
+    @Value("${bot.outbox.pollInterval}")
+    private long outboxPollInterval;
+
+    /** How often quarantined sessions are probed. */
+    @Value("${bot.health.probeRate}")
+    private long probeRate;
+
+    /** Whether or not Foreman pushes notifications to the bot. */
+    @Value("${bot.push.enabled}")
+    private boolean pushEnabled;
+
+    /** The notifier fixed delay while notifications are being pushed. */
+    @Value("${bot.push.reconcileDelay}")
+    private long reconcileDelay;
+
+    /** Whether or not sweeps read sessions from the registry. */
+    @Value("${notifications.registry.enabled}")
+    private boolean registryEnabled;
 
-    /** The thread pool. */
+    /** How often the registry is refreshed when it can't stream changes. */
+    @Value("${notifications.registry.refreshInterval}")
+    private long registryRefreshInterval;
+
+    /** What this node runs. */
+    @Value("${bot.role}")
+    private BotRole role;
+
+    /** Tracks whether or not the gateway is ready. */
     @Autowired
-    private ScheduledExecutorService scheduledExecutorService;
+    private GatewayReadiness gatewayReadiness;
+
+    /** The relay for the outbox, on nodes that hold the gateway. */
+    @Autowired(required = false)
+    private OutboxRelay outboxRelay;
+
+    /** The migrator for legacy sessions, if sessions are stored in MongoDB. */
+    @Autowired(required = false)
+    private SessionMigrator sessionMigrator;
+
+    /** The prober for quarantined sessions, on nodes that hold the gateway. */
+    @Autowired(required = false)
+    private SessionProber sessionProber;
 
     /**
-     * Creates the notifier for managing guild sessions.
-     *
-     * @param sessionRepository   The session repository.
-     * @param jda                 The JDA.
-     * @param objectMapper        The mapper for JSON.
-     * @param startTime           When the application started.
-     * @param maxNotifications    The maximum number of notifications to send.
-     * @param foremanApiUrl       The API URL.
-     * @param foremanDashboardUrl The dashboard URL.
-     *
-     * @return The notifier.
+     * The in-memory registry of active sessions, if sessions are stored in
+     * MongoDB.
      */
-    @Bean
-    public Notifier<ChatSession> chatSessionNotifier(
-            final SessionRepository sessionRepository,
-            final JDA jda,
-            final ObjectMapper objectMapper,
-            final Instant startTime,
-            @Value("${notifications.max}") final int maxNotifications,
-            @Value("${foreman.apiUrl}") final String foremanApiUrl,
-            @Value("${foreman.dashboardUrl}") final String foremanDashboardUrl) {
-        final NotificationsProcessor<ChatSession> notificationsProcessor =
-                new NotificationsProcessorImpl<>(
-                        sessionRepository,
-                        (notification, session) -> {
-                            final MessageChannel messageChannel =
-                                    jda.getTextChannelById(session.getChannelId());
-                            if (messageChannel != null) {
-                                MessageUtils.sendSimple(
-                                        notification.getMessage(),
-                                        notification.isError()
-                                                ? Color.RED
-                                                : Color.GREEN,
-                                        messageChannel);
-                            } else {
-                                LOG.warn("Failed to obtain channel for {}",
-                                        session);
-                                sessionRepository.delete(session);
-                            }
-                        },
-                        ChatSession::setLastNotificationId,
-                        objectMapper,
-                        startTime,
-                        maxNotifications,
-                        foremanApiUrl,
-                        foremanDashboardUrl);
-        return new Notifier<>(
-                sessionRepository,
-                chatSession ->
-                        chatSession.getDateRegistered() != null,
-                chatSession ->
-                        notificationsProcessor.process(
-                                chatSession.getClientId(),
-                                chatSession.getApiKey(),
-                                chatSession.getDateRegistered(),
-                                chatSession.getLastNotificationId(),
-                                chatSession));
-    }
+    @Autowired(required = false)
+    private SessionRegistry sessionRegistry;
+
+    /** The notification sweepers. */
+    @Autowired
+    private List<NotificationSweeper> sweepers;
 
     /**
      * Creates the command processors.
      *
-     * @param commandPrefix            The command prefix.
-     * @param foremanApiUrl            The Foreman API URL.
-     * @param foremanDashboardUrl      The Foreman dashboard URL.
-     * @param maxNotifications         The max notification length.
-     * @param sessionRepository        The session repository.
-     * @param privateSessionRepository The private session repository.
-     * @param objectMapper             The mapper.
+     * @param commandPrefix       The command prefix.
+     * @param foremanApiUrl       The Foreman API URL.
+     * @param foremanDashboardUrl The Foreman dashboard URL.
+     * @param maxNotifications    The max notification length.
+     * @param sessionRepository   The session repository.
+     * @param foremanSource       The source for pickaxes and miners.
+     * @param messageRenderer     The renderer for messages.
+     * @param statusEditInterval  The minimum time between status progress
+     *                            edits.
+     * @param foremanCallLimiter  The limiter for calls to Foreman.
+     * @param sessionHealth       The health tracker for sessions.
+     * @param streamMiners        Whether or not to stream miners for status
+     *                            checks.
+     * @param minerStatusParser   The parser for streamed miners.
+     * @param webhookProvisioner  The provisioner for guild webhooks, if
+     *                            enabled.
+     * @param minerHistory        The history of each account's miners.
      *
      * @return The processors.
      */
@@ -134,13 +159,63 @@ public class BotConfiguration {
             @Value("${foreman.apiUrl}") final String foremanApiUrl,
             @Value("${foreman.dashboardUrl}") final String foremanDashboardUrl,
             @Value("${notifications.max}") final int maxNotifications,
-            final SessionRepository sessionRepository,
-            final PrivateSessionRepository privateSessionRepository,
-            final ObjectMapper objectMapper) {
+            final SessionStore sessionRepository,
+            final ForemanSource foremanSource,
+            final MessageRenderer messageRenderer,
+            @Value("${bot.status.editInterval}") final long statusEditInterval,
+            final ForemanCallLimiter foremanCallLimiter,
+            final SessionHealth sessionHealth,
+            @Value("${bot.status.streaming}") final boolean streamMiners,
+            final MinerStatusParser minerStatusParser,
+            final ObjectProvider<WebhookProvisioner> webhookProvisioner,
+            final MinerHistory minerHistory) {
+        final WebhookProvisioner provisioner = webhookProvisioner.getIfAvailable();
         final CommandProcessor startProcessor =
                 new CommandProcessorStart(
                         commandPrefix,
                         foremanDashboardUrl);
+        final CommandProcessorRegister.ClientIdApplier<Session> clientIdApplier =
+                (session, clientId, apiKey) -> {
+                    session.setClientId(clientId);
+                    session.setApiKey(apiKey);
+                    session.setDateRegistered(Instant.now());
+                    // New credentials get a clean slate
+                    sessionHealth.recordSuccess(session);
+                    sessionRepository.save(session);
+                };
+        final Function<Session, ForemanApi> apiSupplier =
+                session ->
+                        ForemanUtils.toApi(
+                                session,
+                                foremanApiUrl);
+        final MinerSources<Session> minerSources =
+                MinerSources
+                        .<Session>builder()
+                        .pickaxesSupplier(session ->
+                                foremanSource.pickaxes(
+                                        session.getClientId(),
+                                        session.getApiKey()))
+                        .minersSupplier((session, pickaxe) ->
+                                foremanSource.miners(
+                                        session.getClientId(),
+                                        session.getApiKey(),
+                                        pickaxe))
+                        .minersStreamer(
+                                streamMiners
+                                        ? (session, pickaxe) -> {
+                                            try {
+                                                return foremanSource.openMiners(
+                                                        session.getClientId(),
+                                                        session.getApiKey(),
+                                                        pickaxe);
+                                            } catch (final IOException e) {
+                                                throw new UncheckedIOException(e);
+                                            }
+                                        }
+                                        : null)
+                        .minerStatusParser(minerStatusParser)
+                        .foremanCallLimiter(foremanCallLimiter)
+                        .build();
         return new ImmutableMap.Builder<Command, CommandProcessor>()
                 .put(
                         Command.START,
@@ -155,7 +230,7 @@ public class BotConfiguration {
                                         sessionRepository,
                                         event -> event.getGuild().getId()),
                                 new CommandProcessorForget<>(
-                                        privateSessionRepository,
+                                        sessionRepository,
                                         event -> event.getAuthor().getId())))
                 .put(
                         Command.REGISTER,
@@ -164,45 +239,50 @@ public class BotConfiguration {
                                         sessionRepository,
                                         event -> event.getGuild().getId(),
                                         (session, event) -> {
+                                            if (!event.getChannel().getId().equals(session.getChannelId())) {
+                                                // A webhook only posts to its own channel
+                                                session.setWebhookUrl(null);
+                                            }
                                             session.setChannelId(event.getChannel().getId());
                                             sessionRepository.save(session);
+                                            if (provisioner != null) {
+                                                provisioner.provision(
+                                                        session,
+                                                        event.getTextChannel());
+                                            }
                                             return session;
                                         },
-                                        (event) ->
-                                                sessionRepository.insert(
-                                                        ChatSession
-                                                                .builder()
-                                                                .guildId(event.getGuild().getId())
-                                                                .channelId(event.getChannel().getId())
-                                                                .build()),
-                                        (session, clientId, apiKey) -> {
-                                            session.setClientId(clientId);
-                                            session.setApiKey(apiKey);
-                                            session.setDateRegistered(Instant.now());
-                                            sessionRepository.save(session);
+                                        (event) -> {
+                                            final Session session =
+                                                    sessionRepository.insert(
+                                                            Session
+                                                                    .builder()
+                                                                    .id(event.getGuild().getId())
+                                                                    .type(SessionType.GUILD)
+                                                                    .channelId(event.getChannel().getId())
+                                                                    .build());
+                                            if (provisioner != null) {
+                                                provisioner.provision(
+                                                        session,
+                                                        event.getTextChannel());
+                                            }
+                                            return session;
                                         },
+                                        clientIdApplier,
                                         foremanApiUrl,
                                         foremanDashboardUrl),
                                 new CommandProcessorRegister<>(
-                                        privateSessionRepository,
+                                        sessionRepository,
                                         event -> event.getAuthor().getId(),
-                                        (session, event) -> {
-                                            session.setAuthorId(event.getAuthor().getId());
-                                            privateSessionRepository.save(session);
-                                            return session;
-                                        },
+                                        (session, event) -> session,
                                         (event) ->
-                                                privateSessionRepository.insert(
-                                                        PrivateSession
+                                                sessionRepository.insert(
+                                                        Session
                                                                 .builder()
-                                                                .authorId(event.getAuthor().getId())
+                                                                .id(event.getAuthor().getId())
+                                                                .type(SessionType.PRIVATE)
                                                                 .build()),
-                                        (session, clientId, apiKey) -> {
-                                            session.setClientId(clientId);
-                                            session.setApiKey(apiKey);
-                                            session.setDateRegistered(Instant.now());
-                                            privateSessionRepository.save(session);
-                                        },
+                                        clientIdApplier,
                                         foremanApiUrl,
                                         foremanDashboardUrl)))
                 .put(
@@ -211,94 +291,209 @@ public class BotConfiguration {
                                 new CommandProcessorTest<>(
                                         sessionRepository,
                                         event -> event.getGuild().getId(),
-                                        session ->
-                                                ForemanUtils.toApi(
-                                                        session.getClientId(),
-                                                        session.getApiKey(),
-                                                        foremanApiUrl),
+                                        apiSupplier,
                                         startProcessor),
                                 new CommandProcessorTest<>(
-                                        privateSessionRepository,
+                                        sessionRepository,
                                         event -> event.getAuthor().getId(),
-                                        session ->
-                                                ForemanUtils.toApi(
-                                                        session.getClientId(),
-                                                        session.getApiKey(),
-                                                        foremanApiUrl),
+                                        apiSupplier,
                                         startProcessor)))
+                .put(
+                        Command.DIGEST,
+                        new EventRouter(
+                                new CommandProcessorDigest<>(
+                                        sessionRepository,
+                                        event -> event.getGuild().getId(),
+                                        Session::getDigest,
+                                        Session::setDigest,
+                                        sessionRepository::saveDigestInterval),
+                                new CommandProcessorDigest<>(
+                                        sessionRepository,
+                                        event -> event.getAuthor().getId(),
+                                        Session::getDigest,
+                                        Session::setDigest,
+                                        sessionRepository::saveDigestInterval)))
+                .put(
+                        Command.BOARD,
+                        new EventRouter(
+                                new CommandProcessorBoard<>(
+                                        sessionRepository,
+                                        event -> event.getGuild().getId(),
+                                        Session::getAlertBoard,
+                                        Session::setAlertBoard,
+                                        sessionRepository::saveBoardSettings),
+                                new CommandProcessorBoard<>(
+                                        sessionRepository,
+                                        event -> event.getAuthor().getId(),
+                                        Session::getAlertBoard,
+                                        Session::setAlertBoard,
+                                        sessionRepository::saveBoardSettings)))
                 .put(
                         Command.STATUS,
                         new EventRouter(
                                 new CommandProcessorStatus<>(
                                         sessionRepository,
                                         event -> event.getGuild().getId(),
-                                        (session, pickaxe) ->
-                                                new ForemanApiImpl(
-                                                        Integer.toString(session.getClientId()),
-                                                        pickaxe,
-                                                        objectMapper,
-                                                        new JdkWebUtil(
-                                                                foremanApiUrl,
-                                                                session.getApiKey(),
-                                                                5,
-                                                                TimeUnit.SECONDS)),
-                                        foremanDashboardUrl,
-                                        maxNotifications),
+                                        minerSources,
+                                        messageRenderer,
+                                        maxNotifications,
+                                        statusEditInterval,
+                                        Session::getClientId,
+                                        minerHistory),
                                 new CommandProcessorStatus<>(
-                                        privateSessionRepository,
+                                        sessionRepository,
                                         event -> event.getAuthor().getId(),
-                                        (session, pickaxe) ->
-                                                new ForemanApiImpl(
-                                                        Integer.toString(session.getClientId()),
-                                                        pickaxe,
-                                                        objectMapper,
-                                                        new JdkWebUtil(
-                                                                foremanApiUrl,
-                                                                session.getApiKey(),
-                                                                5,
-                                                                TimeUnit.SECONDS)),
-                                        foremanDashboardUrl,
-                                        maxNotifications)))
+                                        minerSources,
+                                        messageRenderer,
+                                        maxNotifications,
+                                        statusEditInterval,
+                                        Session::getClientId,
+                                        minerHistory)))
                 .build();
     }
 
     /**
-     * Creates a new thread pool.
+     * Creates the throttle for commands.
      *
-     * @return The thread pool.
+     * @param guildCapacity     The max tokens a guild can hold.
+     * @param guildPerMinute    The tokens a guild regains per minute.
+     * @param userCapacity      The max tokens a user can hold.
+     * @param userPerMinute     The tokens a user regains per minute.
+     * @param maxTrackedBuckets How many buckets of each kind can be tracked.
+     * @param meterRegistry     The registry for metrics.
+     *
+     * @return The throttle.
      */
     @Bean
-    public ScheduledExecutorService executorService() {
-        return Executors.newScheduledThreadPool(2);
+    public CommandThrottle commandThrottle(
+            @Value("${bot.throttle.guild.capacity}") final int guildCapacity,
+            @Value("${bot.throttle.guild.perMinute}") final double guildPerMinute,
+            @Value("${bot.throttle.user.capacity}") final int userCapacity,
+            @Value("${bot.throttle.user.perMinute}") final double userPerMinute,
+            @Value("${bot.throttle.maxTrackedBuckets}") final int maxTrackedBuckets,
+            final MeterRegistry meterRegistry) {
+        return new CommandThrottle(
+                guildCapacity,
+                guildPerMinute,
+                userCapacity,
+                userPerMinute,
+                maxTrackedBuckets,
+                meterRegistry);
     }
 
     /**
-     * Creates the {@link JDA}.
+     * Creates the sender for notifications.
+     *
+     * @param jda               The JDA.
+     * @param sessionRepository The session repository.
+     * @param sessionHealth     The health tracker for sessions.
+     * @param gatewayReadiness  Tracks whether or not the gateway is ready.
+     * @param catchUpPolicy     The policy that paces replayed notifications.
+     * @param tracer            The tracer.
+     * @param trafficRecorder   The recorder, if enabled.
+     * @param webhookClient     The client for guild webhooks, if enabled.
+     *
+     * @return The sender.
+     */
+    @Bean
+    @ConditionalOnExpression(HAS_GATEWAY)
+    public DiscordSender discordSender(
+            final JDA jda,
+            final SessionStore sessionRepository,
+            final SessionHealth sessionHealth,
+            final GatewayReadiness gatewayReadiness,
+            final CatchUpPolicy catchUpPolicy,
+            final Tracer tracer,
+            final ObjectProvider<TrafficRecorder> trafficRecorder,
+            final ObjectProvider<WebhookClient> webhookClient) {
+        return new DiscordSender(
+                jda,
+                sessionRepository,
+                sessionHealth,
+                gatewayReadiness,
+                catchUpPolicy,
+                tracer,
+                trafficRecorder.getIfAvailable(),
+                webhookClient.getIfAvailable());
+    }
+
+    /**
+     * Creates the tracker for whether or not the gateway is ready.
+     *
+     * @param maxDeferred The max sends to hold until the gateway is ready.
+     *
+     * @return The tracker.
+     */
+    @Bean
+    public GatewayReadiness gatewayReadiness(
+            @Value("${bot.gateway.maxDeferred}") final int maxDeferred) {
+        return new GatewayReadiness(maxDeferred);
+    }
+
+    /**
+     * Creates the {@link JDA}. The gateway connects in the background so the
+     * rest of the application can start in the meantime. Only nodes that
+     * hold the gateway connect, each to its own shard.
      *
      * @param token            The token.
      * @param activity         The activity message.
+     * @param shardId          The shard this node holds.
+     * @param shardTotal       How many shards there are.
+     * @param gatewayReadiness Tracks whether or not the gateway is ready.
      * @param messageListeners The listeners.
      *
      * @return The new {@link JDA}.
      *
-     * @throws LoginException       on failure.
-     * @throws InterruptedException on failure.
+     * @throws LoginException on failure.
      */
     @Bean
+    @ConditionalOnExpression(HAS_GATEWAY)
     public JDA jda(
             @Value("${bot.token}") final String token,
             @Value("${bot.activity}") final String activity,
+            @Value("${bot.gateway.shardId}") final int shardId,
+            @Value("${bot.gateway.shardTotal}") final int shardTotal,
+            final GatewayReadiness gatewayReadiness,
             final List<MessageListener> messageListeners)
-            throws
-            LoginException,
-            InterruptedException {
-        final JDA jda =
+            throws LoginException {
+        final JDABuilder builder =
                 JDABuilder.createDefault(token)
                         .setActivity(Activity.watching(activity))
-                        .build()
-                        .awaitReady();
-        messageListeners.forEach(jda::addEventListener);
-        return jda;
+                        .addEventListeners(gatewayReadiness)
+                        .addEventListeners(messageListeners.toArray());
+        if (shardTotal > 1) {
+            builder.useSharding(
+                    shardId,
+                    shardTotal);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Creates the store that keeps sessions in a local file instead of
+     * MongoDB. It can only be used by a single node that does both roles.
+     *
+     * @param file         The log.
+     * @param sync         Whether or not every write is forced to disk.
+     * @param objectMapper The mapper.
+     *
+     * @return The store.
+     *
+     * @throws IOException on failure to read the log.
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "sessions.store", havingValue = "local")
+    public LocalSessionStore localSessionStore(
+            @Value("${sessions.local.file}") final String file,
+            @Value("${sessions.local.sync}") final boolean sync,
+            final ObjectMapper objectMapper) throws IOException {
+        if (this.role != BotRole.BOTH) {
+            throw new IllegalStateException("Sessions can only be stored locally when bot.role is both");
+        }
+        return new LocalSessionStore(
+                Paths.get(file),
+                objectMapper,
+                sync);
     }
 
     /**
@@ -306,16 +501,179 @@ public class BotConfiguration {
      *
      * @param commandPrefix     The command prefix.
      * @param commandProcessors The processors.
+     * @param commandThrottle   The throttle for commands.
+     * @param tracer            The tracer.
      *
      * @return The listener.
      */
     @Bean
     public MessageListener messageListener(
             @Value("${bot.commandPrefix}") final String commandPrefix,
-            final Map<Command, CommandProcessor> commandProcessors) {
+            final Map<Command, CommandProcessor> commandProcessors,
+            final CommandThrottle commandThrottle,
+            final Tracer tracer) {
         return new MessageListener(
                 commandPrefix,
-                commandProcessors);
+                commandProcessors,
+                commandThrottle,
+                tracer);
+    }
+
+    /**
+     * Creates the history of each account's miners.
+     *
+     * @param messageRenderer  The renderer for messages.
+     * @param maxNotifications The max changes to render.
+     * @param maxAccountBytes  The max estimated size of each account.
+     * @param maxBytes         The max estimated size of every account together.
+     * @param samples          How many failing and warning counts each account
+     *                         keeps.
+     * @param sampleInterval   The min time between those counts.
+     *
+     * @return The history.
+     */
+    @Bean
+    public MinerHistory minerHistory(
+            final MessageRenderer messageRenderer,
+            @Value("${notifications.max}") final int maxNotifications,
+            @Value("${bot.status.history.maxAccountBytes}") final int maxAccountBytes,
+            @Value("${bot.status.history.maxBytes}") final long maxBytes,
+            @Value("${bot.status.history.samples}") final int samples,
+            @Value("${bot.status.history.sampleInterval}") final long sampleInterval) {
+        return new MinerHistory(
+                messageRenderer,
+                maxNotifications,
+                maxAccountBytes,
+                maxBytes,
+                samples,
+                Duration.ofMillis(sampleInterval));
+    }
+
+    /**
+     * Creates the parser for streamed miners.
+     *
+     * @param objectMapper  The mapper, whose factory creates the parsers.
+     * @param meterRegistry The registry for metrics.
+     *
+     * @return The parser.
+     */
+    @Bean
+    public MinerStatusParser minerStatusParser(
+            final ObjectMapper objectMapper,
+            final MeterRegistry meterRegistry) {
+        return new MinerStatusParser(
+                objectMapper.getFactory(),
+                meterRegistry);
+    }
+
+    /**
+     * Creates the renderer for messages.
+     *
+     * @param foremanDashboardUrl The dashboard URL.
+     *
+     * @return The renderer.
+     */
+    @Bean
+    public MessageRenderer messageRenderer(
+            @Value("${foreman.dashboardUrl}") final String foremanDashboardUrl) {
+        return new MessageRenderer(foremanDashboardUrl);
+    }
+
+    /**
+     * Creates and starts the receiver for notifications that Foreman pushes.
+     *
+     * @param port                   The port to listen on.
+     * @param threads                The threads that requests are handled on.
+     * @param maxBodyBytes           The largest payload to accept.
+     * @param maxSkew                The max age of a signed payload.
+     * @param pipeline               The notifications pipeline.
+     * @param sessionRepository      The session repository.
+     * @param sessionLocks           The locks that serialize pushes and
+     *                               polls.
+     * @param notificationsProcessor The processor that renders notifications.
+     * @param notificationSender     The sender for notifications.
+     * @param objectMapper           The mapper.
+     * @param gatewayReadiness       Tracks whether or not the gateway is
+     *                               ready.
+     *
+     * @return The receiver.
+     *
+     * @throws IOException on failure to bind.
+     */
+    @Bean(destroyMethod = "stop")
+    @ConditionalOnProperty(name = "bot.push.enabled", havingValue = "true")
+    public NotificationReceiver notificationReceiver(
+            @Value("${bot.push.port}") final int port,
+            @Value("${bot.push.threads}") final int threads,
+            @Value("${bot.push.maxBodyBytes}") final int maxBodyBytes,
+            @Value("${bot.push.maxSkew}") final long maxSkew,
+            @Value("${notifications.pipeline}") final String pipeline,
+            final SessionStore sessionRepository,
+            final SessionLocks sessionLocks,
+            final NotificationsProcessorImpl<Session> notificationsProcessor,
+            final NotificationSender notificationSender,
+            final ObjectMapper objectMapper,
+            final GatewayReadiness gatewayReadiness)
+            throws IOException {
+        if (!"blocking".equals(pipeline)) {
+            // Only the blocking pipeline takes the session locks
+            throw new IllegalStateException("Pushed notifications need notifications.pipeline to be blocking");
+        }
+        final NotificationReceiver notificationReceiver =
+                new NotificationReceiver(
+                        port,
+                        threads,
+                        maxBodyBytes,
+                        Duration.ofMillis(maxSkew),
+                        sessionRepository,
+                        sessionLocks,
+                        notificationsProcessor,
+                        notificationSender,
+                        objectMapper,
+                        // Workers send through the outbox, not the gateway
+                        this.role.isGateway()
+                                ? gatewayReadiness::isReady
+                                : () -> true);
+        notificationReceiver.start();
+        return notificationReceiver;
+    }
+
+    /**
+     * Creates the locks that keep pushes and polls for the same session from
+     * running at once.
+     *
+     * @param wait           How long to wait for a session's lock.
+     * @param reconcileDelay How often sessions are polled when notifications
+     *                       are pushed.
+     * @param maxTracked     The max pushed sessions to remember.
+     *
+     * @return The locks.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "bot.push.enabled", havingValue = "true")
+    public SessionLocks sessionLocks(
+            @Value("${bot.push.lockWait}") final long wait,
+            @Value("${bot.push.reconcileDelay}") final long reconcileDelay,
+            @Value("${bot.push.maxTracked}") final int maxTracked) {
+        return new SessionLocks(
+                1024,
+                Duration.ofMillis(wait),
+                // Outlive the sweep that follows the push
+                Duration.ofMillis(reconcileDelay * 2),
+                maxTracked);
+    }
+
+    /**
+     * Creates the thread pool that every session is polled on.
+     *
+     * @param concurrency The max sessions to poll at once.
+     *
+     * @return The thread pool.
+     */
+    @Bean
+    public ExecutorService notifierExecutorService(
+            @Value("${bot.check.concurrency}") final int concurrency) {
+        return Executors.newFixedThreadPool(concurrency);
     }
 
     /**
@@ -330,78 +688,444 @@ public class BotConfiguration {
         return objectMapper;
     }
 
-    /** Starts the notifiers. */
+    /**
+     * Creates the queue between worker and gateway nodes.
+     *
+     * @param mongoTemplate The template for the outbox collection.
+     *
+     * @return The outbox.
+     */
+    @Bean
+    @ConditionalOnExpression(HAS_MONGO)
+    public Outbox outbox(final MongoTemplate mongoTemplate) {
+        return new Outbox(mongoTemplate);
+    }
+
+    /**
+     * Creates the relay that delivers what workers left in the outbox. Every
+     * node that holds the gateway runs one, so workers can be added next to
+     * a node that does both.
+     *
+     * @param outbox            The outbox.
+     * @param sessionRepository The session repository.
+     * @param discordSender     The sender for notifications.
+     * @param gatewayReadiness  Tracks whether or not the gateway is ready.
+     * @param shardId           The shard this node holds.
+     * @param lease             How long a claim lasts.
+     * @param maxInFlight       The max messages to deliver at once.
+     * @param maxAttempts       How many times a delivery can fail before
+     *                          it's dead-lettered.
+     * @param retryDelay        The delay before the first retry.
+     * @param meterRegistry     The registry for metrics.
+     *
+     * @return The relay.
+     */
+    @Bean
+    @ConditionalOnExpression(HAS_GATEWAY + " and " + HAS_MONGO)
+    public OutboxRelay outboxRelay(
+            final Outbox outbox,
+            final SessionStore sessionRepository,
+            final DiscordSender discordSender,
+            final GatewayReadiness gatewayReadiness,
+            @Value("${bot.gateway.shardId}") final int shardId,
+            @Value("${bot.outbox.lease}") final long lease,
+            @Value("${bot.outbox.maxInFlight}") final int maxInFlight,
+            @Value("${bot.outbox.maxAttempts}") final int maxAttempts,
+            @Value("${bot.outbox.retryDelay}") final long retryDelay,
+            final MeterRegistry meterRegistry) {
+        return new OutboxRelay(
+                outbox,
+                sessionRepository,
+                discordSender,
+                gatewayReadiness,
+                ManagementFactory.getRuntimeMXBean().getName(),
+                shardId,
+                Duration.ofMillis(lease),
+                maxInFlight,
+                maxAttempts,
+                Duration.ofMillis(retryDelay),
+                meterRegistry);
+    }
+
+    /**
+     * Creates the sender for worker nodes, which hands every notification to
+     * a gateway node through the outbox.
+     *
+     * @param outbox        The outbox.
+     * @param shardTotal    How many gateway shards there are.
+     * @param meterRegistry The registry for metrics.
+     *
+     * @return The sender.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "bot.role", havingValue = "worker")
+    public OutboxSender outboxSender(
+            final Outbox outbox,
+            @Value("${bot.gateway.shardTotal}") final int shardTotal,
+            final MeterRegistry meterRegistry) {
+        return new OutboxSender(
+                outbox,
+                shardTotal,
+                meterRegistry);
+    }
+
+    /**
+     * Migrates legacy sessions and starts whatever this node's role runs:
+     * the notification sweepers on workers, and the prober for quarantined
+     * sessions and the outbox relay on gateways.
+     */
     @PostConstruct
     public void post() {
-        for (final Notifier<?> notifier : this.notifiers) {
-            this.scheduledExecutorService.scheduleAtFixedRate(
-                    notifier::fetchAndNotify,
-                    this.initialDelay,
-                    this.fixedDelay,
+        if (this.sessionMigrator != null) {
+            this.sessionMigrator.migrate();
+        }
+        if (this.role.isWorker()) {
+            startSweepers();
+        }
+        if (this.role.isGateway()) {
+            newScheduler("session-prober").scheduleAtFixedRate(
+                    this.sessionProber::probe,
+                    this.probeRate,
+                    this.probeRate,
                     TimeUnit.MILLISECONDS);
+            if (this.outboxRelay != null) {
+                newScheduler("outbox-relay").scheduleWithFixedDelay(
+                        this.outboxRelay::relay,
+                        this.outboxPollInterval,
+                        this.outboxPollInterval,
+                        TimeUnit.MILLISECONDS);
+            }
         }
     }
 
+    /** Stops the periodic jobs. */
+    @PreDestroy
+    public void stop() {
+        this.schedulers.forEach(ExecutorService::shutdownNow);
+    }
+
     /**
-     * Creates the notifier for managing private sessions.
+     * Creates the single-threaded scheduler for a periodic job.
      *
-     * @param sessionRepository   The session repository.
-     * @param jda                 The JDA.
-     * @param objectMapper        The mapper for JSON.
-     * @param startTime           When the application started.
-     * @param maxNotifications    The maximum number of notifications to send.
-     * @param foremanApiUrl       The API URL.
-     * @param foremanDashboardUrl The dashboard URL.
+     * @param name The thread name.
+     *
+     * @return The scheduler.
+     */
+    private ScheduledExecutorService newScheduler(final String name) {
+        final ScheduledExecutorService scheduler =
+                Executors.newSingleThreadScheduledExecutor(
+                        runnable -> new Thread(
+                                runnable,
+                                name));
+        this.schedulers.add(scheduler);
+        return scheduler;
+    }
+
+    /**
+     * Creates the notifier that sweeps every guild and private session
+     * through the non-blocking pipeline.
+     *
+     * @param registryEnabled        Whether or not sessions are read from the
+     *                               registry.
+     * @param sessionRegistry        The in-memory registry of active sessions,
+     *                               if sessions are stored in MongoDB.
+     * @param sessionRepository      The reactive session repository.
+     * @param foremanSource          The source for Foreman data.
+     * @param foremanCallLimiter     The limiter for calls to Foreman.
+     * @param notificationsProcessor The processor that renders notifications.
+     * @param notificationSender     The sender for notifications.
+     * @param fetchConcurrency       The max sessions being fetched at once.
+     * @param sendConcurrency        The max sessions being sent to at once.
+     * @param commitBatchSize        The max sessions to commit at once.
+     * @param commitInterval         The max time to hold a partial commit
+     *                               batch.
+     * @param sessionHealth          The health tracker for sessions.
+     * @param credentialVerifier     The verifier for sessions whose polls
+     *                               come back empty.
+     * @param notificationSuppressor The suppressor, whose expired windows
+     *                               are closed every sweep.
+     * @param deadline               How long a sweep can keep starting
+     *                               sessions.
+     * @param workerIndex            Which worker this node is.
+     * @param workerCount            How many workers there are.
      *
      * @return The notifier.
      */
     @Bean
-    public Notifier<PrivateSession> privateSessionNotifier(
-            final PrivateSessionRepository sessionRepository,
-            final JDA jda,
-            final ObjectMapper objectMapper,
-            final Instant startTime,
-            @Value("${notifications.max}") final int maxNotifications,
-            @Value("${foreman.apiUrl}") final String foremanApiUrl,
-            @Value("${foreman.dashboardUrl}") final String foremanDashboardUrl) {
-        final NotificationsProcessor<PrivateSession> notificationsProcessor =
-                new NotificationsProcessorImpl<>(
-                        sessionRepository,
-                        (notification, session) ->
-                                jda
-                                        .retrieveUserById(session.getAuthorId())
-                                        .queue(user -> {
-                                            if (user != null) {
-                                                user.openPrivateChannel().queue(
-                                                        privateChannel ->
-                                                                MessageUtils.sendSimple(
-                                                                        notification.getMessage(),
-                                                                        notification.isError()
-                                                                                ? Color.RED
-                                                                                : Color.GREEN,
-                                                                        privateChannel));
-                                            } else {
-                                                LOG.warn("User doesn't exist for {}", session);
-                                                sessionRepository.delete(session);
-                                            }
-                                        }),
-                        PrivateSession::setLastNotificationId,
-                        objectMapper,
-                        startTime,
-                        maxNotifications,
-                        foremanApiUrl,
-                        foremanDashboardUrl);
+    @ConditionalOnProperty(name = "notifications.pipeline", havingValue = "reactive")
+    public NotificationSweeper reactiveNotifier(
+            @Value("${notifications.registry.enabled}") final boolean registryEnabled,
+            final ObjectProvider<SessionRegistry> sessionRegistry,
+            final ReactiveSessionRepository sessionRepository,
+            final ForemanSource foremanSource,
+            final ForemanCallLimiter foremanCallLimiter,
+            final NotificationsProcessorImpl<Session> notificationsProcessor,
+            final NotificationSender notificationSender,
+            @Value("${notifications.reactive.fetchConcurrency}") final int fetchConcurrency,
+            @Value("${notifications.reactive.sendConcurrency}") final int sendConcurrency,
+            @Value("${notifications.reactive.commitBatchSize}") final int commitBatchSize,
+            @Value("${notifications.reactive.commitInterval}") final long commitInterval,
+            final SessionHealth sessionHealth,
+            final CredentialVerifier credentialVerifier,
+            final NotificationSuppressor notificationSuppressor,
+            @Value("${bot.check.deadline}") final long deadline,
+            @Value("${bot.worker.index}") final int workerIndex,
+            @Value("${bot.worker.count}") final int workerCount) {
+        final SessionRegistry registry = sessionRegistry.getIfAvailable();
+        final boolean useRegistry = registryEnabled && registry != null;
+        final Flux<Session> due =
+                Flux.defer(() -> {
+                    // Flap summaries shouldn't wait for more notifications
+                    notificationSuppressor.closeExpired();
+                    return useRegistry
+                            ? Flux.fromIterable(registry.findDue(Instant.now()))
+                            : sessionRepository.findDue(Instant.now());
+                });
+        return new ReactiveNotifier(
+                () -> due.filter(session -> ShardUtils.workerOf(session, workerCount) == workerIndex),
+                sessionRepository,
+                foremanSource,
+                foremanCallLimiter,
+                notificationsProcessor,
+                notificationSender,
+                fetchConcurrency,
+                sendConcurrency,
+                commitBatchSize,
+                Duration.ofMillis(commitInterval),
+                sessionHealth,
+                credentialVerifier,
+                useRegistry
+                        ? registry::update
+                        : session -> {
+                        },
+                Duration.ofMillis(deadline));
+    }
+
+    /**
+     * Creates the migrator for sessions stored in the legacy collections.
+     *
+     * @param mongoTemplate The template for raw collection access.
+     *
+     * @return The migrator.
+     */
+    @Bean
+    @ConditionalOnExpression(HAS_MONGO)
+    public SessionMigrator sessionMigrator(final MongoTemplate mongoTemplate) {
+        return new SessionMigrator(mongoTemplate);
+    }
+
+    /**
+     * Creates the health tracker for sessions.
+     *
+     * @param baseBackoff     The backoff after the first failure.
+     * @param maxBackoff      The max backoff between attempts.
+     * @param quarantineAfter How many failures in a row quarantine a session.
+     * @param probeInterval   The time between probes of a quarantined session.
+     * @param meterRegistry   The registry for metrics.
+     *
+     * @return The health tracker.
+     */
+    @Bean
+    public SessionHealth sessionHealth(
+            @Value("${bot.health.baseBackoff}") final long baseBackoff,
+            @Value("${bot.health.maxBackoff}") final long maxBackoff,
+            @Value("${bot.health.quarantineAfter}") final int quarantineAfter,
+            @Value("${bot.health.probeInterval}") final long probeInterval,
+            final MeterRegistry meterRegistry) {
+        return new SessionHealth(
+                Duration.ofMillis(baseBackoff),
+                Duration.ofMillis(maxBackoff),
+                quarantineAfter,
+                Duration.ofMillis(probeInterval),
+                meterRegistry);
+    }
+
+    /**
+     * Creates the notifier that sweeps every guild and private session on a
+     * thread pool. This is the default pipeline.
+     *
+     * @param registryEnabled        Whether or not sessions are read from the
+     *                               registry.
+     * @param sessionRegistry        The in-memory registry of active sessions,
+     *                               if sessions are stored in MongoDB.
+     * @param sessionRepository      The session repository.
+     * @param notificationsProcessor The processor for notifications.
+     * @param executorService        The thread pool that sessions are polled
+     *                               on.
+     * @param sessionHealth          The health tracker for sessions.
+     * @param credentialVerifier     The verifier for sessions whose polls
+     *                               come back empty.
+     * @param tracer                 The tracer.
+     * @param notificationSuppressor The suppressor, whose expired windows
+     *                               are closed every sweep.
+     * @param deadline               How long a sweep can run.
+     * @param workerIndex            Which worker this node is.
+     * @param workerCount            How many workers there are.
+     *
+     * @return The notifier.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "notifications.pipeline", havingValue = "blocking", matchIfMissing = true)
+    public NotificationSweeper sessionNotifier(
+            @Value("${notifications.registry.enabled}") final boolean registryEnabled,
+            final ObjectProvider<SessionRegistry> sessionRegistry,
+            final SessionStore sessionRepository,
+            final NotificationsProcessorImpl<Session> notificationsProcessor,
+            @Qualifier("notifierExecutorService") final ExecutorService executorService,
+            final SessionHealth sessionHealth,
+            final CredentialVerifier credentialVerifier,
+            final ObjectProvider<SessionLocks> sessionLocks,
+            final Tracer tracer,
+            final NotificationSuppressor notificationSuppressor,
+            @Value("${bot.check.deadline}") final long deadline,
+            @Value("${bot.worker.index}") final int workerIndex,
+            @Value("${bot.worker.count}") final int workerCount) {
+        final SessionRegistry registry = sessionRegistry.getIfAvailable();
+        final SessionLocks locks = sessionLocks.getIfAvailable();
+        final Consumer<Session> poller =
+                session -> {
+                    try {
+                        if (notificationsProcessor.process(
+                                session.getClientId(),
+                                session.getApiKey(),
+                                session.getDateRegistered(),
+                                session.getLastNotificationId(),
+                                session) == 0) {
+                            // A rejected key polls as empty, too
+                            credentialVerifier.verifyEmpty(session);
+                        }
+                    } catch (final RejectedExecutionException e) {
+                        // Foreman is shedding load, which isn't the session's fault
+                        throw e;
+                    } catch (final Exception e) {
+                        sessionHealth.recordFailure(session, e);
+                        sessionRepository.saveHealth(session);
+                        return;
+                    }
+                    if (sessionHealth.recordSuccess(session)) {
+                        sessionRepository.saveHealth(session);
+                    }
+                };
+        final boolean useRegistry = registryEnabled && registry != null;
+        final Consumer<Session> sweeper =
+                useRegistry
+                        ? poller.andThen(registry::update)
+                        : poller;
         return new Notifier<>(
+                () -> {
+                    // Flap summaries shouldn't wait for more notifications
+                    notificationSuppressor.closeExpired();
+                    return useRegistry
+                            ? registry.findDue(Instant.now())
+                            : sessionRepository.findDue(Instant.now());
+                },
+                session ->
+                        session.getDateRegistered() != null &&
+                                ShardUtils.workerOf(session, workerCount) == workerIndex,
+                locks == null
+                        ? sweeper
+                        : session -> {
+                            // A session that's mid-push is polled on the next sweep
+                            locks.run(
+                                    session.getId(),
+                                    () -> {
+                                        locks.catchUp(session);
+                                        sweeper.accept(session);
+                                    });
+                        },
+                executorService,
+                tracer,
+                Duration.ofMillis(deadline));
+    }
+
+    /**
+     * Creates the prober for quarantined sessions.
+     *
+     * @param sessionRepository  The session repository.
+     * @param sessionHealth      The health tracker for sessions.
+     * @param discordSender      The sender, used to check destinations.
+     * @param foremanApiUrl      The API URL.
+     * @param foremanCallLimiter The limiter for calls to Foreman.
+     * @param batchSize          The max sessions to probe per run.
+     * @param gatewayReadiness   Tracks whether or not the gateway is ready.
+     *
+     * @return The prober.
+     */
+    @Bean
+    @ConditionalOnExpression(HAS_GATEWAY)
+    public SessionProber sessionProber(
+            final SessionStore sessionRepository,
+            final SessionHealth sessionHealth,
+            final DiscordSender discordSender,
+            @Value("${foreman.apiUrl}") final String foremanApiUrl,
+            final ForemanCallLimiter foremanCallLimiter,
+            @Value("${bot.health.probeBatch}") final int batchSize,
+            final GatewayReadiness gatewayReadiness) {
+        return new SessionProber(
                 sessionRepository,
-                chatSession ->
-                        chatSession.getDateRegistered() != null,
-                chatSession ->
-                        notificationsProcessor.process(
-                                chatSession.getClientId(),
-                                chatSession.getApiKey(),
-                                chatSession.getDateRegistered(),
-                                chatSession.getLastNotificationId(),
-                                chatSession));
+                sessionHealth,
+                discordSender,
+                session ->
+                        ForemanUtils.toApi(
+                                session,
+                                foremanApiUrl),
+                foremanCallLimiter,
+                batchSize,
+                gatewayReadiness);
+    }
+
+    /**
+     * Creates the in-memory registry of active sessions.
+     *
+     * @param mongoOperations   The template for change streams.
+     * @param sessionRepository The session repository.
+     * @param meterRegistry     The registry for metrics.
+     *
+     * @return The registry.
+     */
+    @Bean(destroyMethod = "stop")
+    @ConditionalOnExpression(HAS_MONGO)
+    public SessionRegistry sessionRegistry(
+            final ReactiveMongoOperations mongoOperations,
+            final SessionRepository sessionRepository,
+            final MeterRegistry meterRegistry) {
+        return new SessionRegistry(
+                mongoOperations,
+                sessionRepository,
+                meterRegistry);
+    }
+
+    /**
+     * Starts the notification sweepers, and the registry they read from.
+     */
+    private void startSweepers() {
+        if (this.registryEnabled && this.sessionRegistry != null) {
+            this.sessionRegistry.refresh();
+            newScheduler("registry-refresh").scheduleAtFixedRate(
+                    this.sessionRegistry::refresh,
+                    this.registryRefreshInterval,
+                    this.registryRefreshInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+        // Polling only has to reconcile anything that failed to be pushed
+        final long delay =
+                this.pushEnabled
+                        ? this.reconcileDelay
+                        : this.fixedDelay;
+        for (int i = 0; i < this.sweepers.size(); i++) {
+            final NotificationSweeper sweeper = this.sweepers.get(i);
+            newScheduler("sweeper-" + i).scheduleAtFixedRate(
+                    () -> {
+                        // Sends would only queue up behind the login, while
+                        // the sweep committed cursors past them
+                        if (!this.role.isGateway() || this.gatewayReadiness.isReady()) {
+                            sweeper.fetchAndNotify();
+                        }
+                    },
+                    this.initialDelay,
+                    delay,
+                    TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
@@ -413,4 +1137,48 @@ public class BotConfiguration {
     public Instant startTime() {
         return Instant.now();
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates the client that guild notifications are posted through when
+     * webhooks are enabled.
+     *
+     * @param objectMapper The mapper.
+     * @param timeout      The request timeout.
+     * @param maxRetries   How many times a rate-limited post is retried.
+     * @param maxWebhooks  How many webhooks' rate limits are tracked.
+     *
+     * @return The client.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "bot.webhooks.enabled", havingValue = "true")
+    public WebhookClient webhookClient(
+            final ObjectMapper objectMapper,
+            @Value("${bot.webhooks.timeout}") final long timeout,
+            @Value("${bot.webhooks.maxRetries}") final int maxRetries,
+            @Value("${bot.webhooks.maxTracked}") final int maxWebhooks) {
+        return new WebhookClient(
+                objectMapper,
+                Duration.ofMillis(timeout),
+                maxRetries,
+                maxWebhooks);
+    }
+
+    /**
+     * Creates the provisioner that gives guild sessions a webhook when they
+     * register, if webhooks are enabled.
+     *
+     * @param name              The name that webhooks post as.
+     * @param sessionRepository The session repository.
+     *
+     * @return The provisioner.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "bot.webhooks.enabled", havingValue = "true")
+    public WebhookProvisioner webhookProvisioner(
+            @Value("${bot.webhooks.name}") final String name,
+            final SessionStore sessionRepository) {
+        return new WebhookProvisioner(
+                name,
+                sessionRepository);
+    }
+}
@@ -0,0 +1,54 @@
+package mn.foreman.discordbot.config;
+
+/**
+ * The parts of the bot that a node runs, selected at startup with
+ * {@code bot.role}.
+ */
+public enum BotRole {
+
+    /** Holds the Discord gateway, runs commands and delivers the outbox. */
+    GATEWAY(true, false),
+
+    /** Polls Foreman and renders notifications into the outbox. */
+    WORKER(false, true),
+
+    /** Does everything in one process, sending straight to Discord. */
+    BOTH(true, true);
+
+    /** Whether or not the node holds the gateway. */
+    private final boolean gateway;
+
+    /** Whether or not the node polls for notifications. */
+    private final boolean worker;
+
+    /**
+     * Constructor.
+     *
+     * @param gateway Whether or not the node holds the gateway.
+     * @param worker  Whether or not the node polls for notifications.
+     */
+    BotRole(
+            final boolean gateway,
+            final boolean worker) {
+        this.gateway = gateway;
+        this.worker = worker;
+    }
+
+    /**
+     * Returns whether or not the node holds the gateway.
+     *
+     * @return Whether or not the node holds the gateway.
+     */
+    public boolean isGateway() {
+        return this.gateway;
+    }
+
+    /**
+     * Returns whether or not the node polls for notifications.
+     *
+     * @return Whether or not the node polls for notifications.
+     */
+    public boolean isWorker() {
+        return this.worker;
+    }
+}
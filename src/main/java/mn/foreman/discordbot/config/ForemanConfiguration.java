@@ -0,0 +1,227 @@
+package mn.foreman.discordbot.config;
+
+import mn.foreman.discordbot.bot.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bean configuration for everything that reads from Foreman: the source of
+ * notifications, pickaxes and miners, and the limits on calls to it.
+ */
+@Configuration
+public class ForemanConfiguration {
+
+    /**
+     * Creates the verifier that checks the credentials of sessions whose
+     * polls come back empty.
+     *
+     * @param foremanApiUrl      The API URL.
+     * @param foremanCallLimiter The limiter for calls to Foreman.
+     * @param verifyInterval     How long verified credentials are trusted.
+     * @param maxVerified        The max verified sessions to remember.
+     *
+     * @return The verifier.
+     */
+    @Bean
+    public CredentialVerifier credentialVerifier(
+            @Value("${foreman.apiUrl}") final String foremanApiUrl,
+            final ForemanCallLimiter foremanCallLimiter,
+            @Value("${bot.health.verifyInterval}") final long verifyInterval,
+            @Value("${bot.health.maxVerified}") final int maxVerified) {
+        return new CredentialVerifier(
+                session ->
+                        ForemanUtils.toApi(
+                                session,
+                                foremanApiUrl),
+                foremanCallLimiter,
+                Duration.ofMillis(verifyInterval),
+                maxVerified);
+    }
+
+    /**
+     * Creates the limiter that's shared by every call to Foreman.
+     *
+     * @param initialLimit  The initial in-flight limit.
+     * @param minLimit      The min in-flight limit.
+     * @param maxLimit      The max in-flight limit.
+     * @param backoffRatio  The factor the limit is multiplied by on a slow or
+     *                      failed call.
+     * @param slowCall      How long a call can take before it counts as a
+     *                      failure.
+     * @param windowSize    How many recent calls the circuit considers.
+     * @param failureRate   The failure rate that opens the circuit.
+     * @param openDuration  How long the circuit stays open.
+     * @param meterRegistry The registry for metrics.
+     *
+     * @return The limiter.
+     */
+    @Bean
+    public ForemanCallLimiter foremanCallLimiter(
+            @Value("${foreman.limiter.initialLimit}") final int initialLimit,
+            @Value("${foreman.limiter.minLimit}") final int minLimit,
+            @Value("${foreman.limiter.maxLimit}") final int maxLimit,
+            @Value("${foreman.limiter.backoffRatio}") final double backoffRatio,
+            @Value("${foreman.limiter.slowCall}") final long slowCall,
+            @Value("${foreman.circuit.window}") final int windowSize,
+            @Value("${foreman.circuit.failureRate}") final double failureRate,
+            @Value("${foreman.circuit.openDuration}") final long openDuration,
+            final MeterRegistry meterRegistry) {
+        return new ForemanCallLimiter(
+                initialLimit,
+                minLimit,
+                maxLimit,
+                backoffRatio,
+                slowCall,
+                windowSize,
+                failureRate,
+                openDuration,
+                meterRegistry);
+    }
+
+    /**
+     * Creates the thread pool that hedged calls to Foreman run on. Attempts
+     * that lose a race keep running until Foreman responds, after their
+     * permits may have been returned to the limiter, so the pool has its own
+     * bound. Attempts beyond it are rejected rather than piling up threads.
+     *
+     * @param threads   The max attempts running at once.
+     * @param queueSize The max attempts waiting for a thread.
+     *
+     * @return The thread pool.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "foreman.hedging.enabled", havingValue = "true")
+    public ExecutorService foremanHedgeExecutorService(
+            @Value("${foreman.hedging.threads}") final int threads,
+            @Value("${foreman.hedging.queueSize}") final int queueSize) {
+        final ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(
+                        threads,
+                        threads,
+                        60,
+                        TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<>(queueSize));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Creates the client for Foreman that's used for streaming miners.
+     *
+     * @param foremanApiUrl The API URL.
+     *
+     * @return The client.
+     */
+    @Bean
+    public ForemanHttpClient foremanHttpClient(
+            @Value("${foreman.apiUrl}") final String foremanApiUrl) {
+        return new ForemanHttpClient(
+                foremanApiUrl,
+                Duration.ofSeconds(5));
+    }
+
+    /**
+     * Creates the source for everything the bot reads from Foreman, which is
+     * hedged if hedging is enabled, and recorded if recording is enabled.
+     *
+     * @param foremanApiUrl        The API URL.
+     * @param objectMapper         The mapper.
+     * @param foremanHttpClient    The client for streaming miners.
+     * @param hedgeExecutorService The thread pool for hedged calls, if enabled.
+     * @param foremanCallLimiter   The limiter that hedges take permits from.
+     * @param hedgePercentile      The latency percentile that starts a hedge.
+     * @param hedgeWindow          How many recent latencies are tracked per
+     *                             endpoint.
+     * @param hedgeMinSamples      How many latencies an endpoint needs before
+     *                             it's hedged.
+     * @param hedgeMinDelay        The min delay before a hedge.
+     * @param hedgeMaxDelay        The max delay before a hedge.
+     * @param hedgeBudget          The max hedges per call.
+     * @param hedgeMaxBudget       The max hedges that can be saved up.
+     * @param meterRegistry        The registry for metrics.
+     * @param trafficRecorder      The recorder, if enabled.
+     *
+     * @return The source.
+     */
+    @Bean
+    public ForemanSource foremanSource(
+            @Value("${foreman.apiUrl}") final String foremanApiUrl,
+            final ObjectMapper objectMapper,
+            final ForemanHttpClient foremanHttpClient,
+            @Qualifier("foremanHedgeExecutorService") final ObjectProvider<ExecutorService> hedgeExecutorService,
+            final ForemanCallLimiter foremanCallLimiter,
+            @Value("${foreman.hedging.percentile}") final double hedgePercentile,
+            @Value("${foreman.hedging.window}") final int hedgeWindow,
+            @Value("${foreman.hedging.minSamples}") final int hedgeMinSamples,
+            @Value("${foreman.hedging.minDelay}") final long hedgeMinDelay,
+            @Value("${foreman.hedging.maxDelay}") final long hedgeMaxDelay,
+            @Value("${foreman.hedging.budget}") final double hedgeBudget,
+            @Value("${foreman.hedging.maxBudget}") final double hedgeMaxBudget,
+            final MeterRegistry meterRegistry,
+            final ObjectProvider<TrafficRecorder> trafficRecorder) {
+        ForemanSource foremanSource =
+                new ForemanApiSource(
+                        foremanApiUrl,
+                        objectMapper,
+                        foremanHttpClient);
+        final ExecutorService executorService = hedgeExecutorService.getIfAvailable();
+        if (executorService != null) {
+            foremanSource =
+                    new HedgingForemanSource(
+                            foremanSource,
+                            executorService,
+                            foremanCallLimiter,
+                            hedgePercentile,
+                            hedgeWindow,
+                            hedgeMinSamples,
+                            hedgeMinDelay,
+                            hedgeMaxDelay,
+                            hedgeBudget,
+                            hedgeMaxBudget,
+                            meterRegistry);
+        }
+        final TrafficRecorder recorder = trafficRecorder.getIfAvailable();
+        if (recorder != null) {
+            return new RecordingForemanSource(
+                    foremanSource,
+                    recorder);
+        }
+        return foremanSource;
+    }
+
+    /**
+     * Creates the recorder for Foreman and Discord traffic, which can be
+     * played back offline with {@code replay <file>}.
+     *
+     * @param file         The recording.
+     * @param objectMapper The mapper.
+     *
+     * @return The recorder.
+     *
+     * @throws IOException on failure to open the file.
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "recording.enabled", havingValue = "true")
+    public TrafficRecorder trafficRecorder(
+            @Value("${recording.file}") final String file,
+            final ObjectMapper objectMapper) throws IOException {
+        return new TrafficRecorder(
+                Paths.get(file),
+                objectMapper);
+    }
+}
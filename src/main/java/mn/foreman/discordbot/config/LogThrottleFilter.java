@@ -0,0 +1,222 @@
+package mn.foreman.discordbot.config;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link TurboFilter} that keeps log volume bounded no matter how many
+ * sessions are being swept.
+ *
+ * <p>Every call site, which is a logger and a message format, may log a
+ * limited number of events per second. The limit comes from the longest
+ * configured category (logger name prefix) that matches the logger, or the
+ * default. Anything over the limit is dropped and counted, and the count is
+ * logged the next time that call site is allowed through. Categories can also
+ * be sampled, so only every Nth event below WARN is considered at all.
+ * Errors are never dropped.</p>
+ *
+ * <p>Configured in {@code logback-spring.xml}:</p>
+ *
+ * <pre>
+ * &lt;turboFilter class="mn.foreman.discordbot.config.LogThrottleFilter"&gt;
+ *     &lt;maxPerSecond&gt;50&lt;/maxPerSecond&gt;
+ *     &lt;category&gt;mn.foreman.discordbot.bot.DiscordSender=5&lt;/category&gt;
+ *     &lt;sample&gt;mn.foreman.discordbot.bot.NotificationsProcessorImpl=100&lt;/sample&gt;
+ * &lt;/turboFilter&gt;
+ * </pre>
+ */
+public class LogThrottleFilter
+        extends TurboFilter {
+
+    /** The marker for the lines that report dropped events. */
+    private static final Marker SUPPRESSED =
+            MarkerFactory.getMarker("SUPPRESSED");
+
+    /** The per-second limit for each category. */
+    private final Map<String, Integer> limits = new ConcurrentHashMap<>();
+
+    /** The resolved limit and sample rate for each logger. */
+    private final Map<String, int[]> resolved = new ConcurrentHashMap<>();
+
+    /** The sample rate for each category. */
+    private final Map<String, Integer> samples = new ConcurrentHashMap<>();
+
+    /** The windows for each call site. */
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    /** The per-second limit for loggers without a category. */
+    private int maxPerSecond = 100;
+
+    /**
+     * Adds a per-second limit for a category.
+     *
+     * @param category The category and its limit, as {@code name=limit}.
+     */
+    public void addCategory(final String category) {
+        put(
+                category,
+                this.limits);
+    }
+
+    /**
+     * Samples a category, so only every Nth event below WARN is logged.
+     *
+     * @param sample The category and the N, as {@code name=n}.
+     */
+    public void addSample(final String sample) {
+        put(
+                sample,
+                this.samples);
+    }
+
+    @Override
+    public FilterReply decide(
+            final Marker marker,
+            final Logger logger,
+            final Level level,
+            final String format,
+            final Object[] params,
+            final Throwable t) {
+        if (!isStarted() ||
+                format == null ||
+                level == null ||
+                marker == SUPPRESSED ||
+                level.isGreaterOrEqual(Level.ERROR) ||
+                // Turbo filters see every call, even ones below the level
+                !level.isGreaterOrEqual(logger.getEffectiveLevel())) {
+            return FilterReply.NEUTRAL;
+        }
+
+        final int[] settings =
+                this.resolved.computeIfAbsent(
+                        logger.getName(),
+                        this::resolve);
+        final Window window =
+                this.windows.computeIfAbsent(
+                        logger.getName() + '|' + format,
+                        key -> new Window());
+
+        final long sampled = window.seen.incrementAndGet();
+        if (settings[1] > 1 &&
+                !level.isGreaterOrEqual(Level.WARN) &&
+                sampled % settings[1] != 0) {
+            return FilterReply.DENY;
+        }
+
+        final long suppressed;
+        synchronized (window) {
+            final long second =
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+            if (second != window.second) {
+                window.second = second;
+                window.count = 0;
+            }
+            if (++window.count > settings[0]) {
+                window.suppressed++;
+                return FilterReply.DENY;
+            }
+            suppressed = window.suppressed;
+            window.suppressed = 0;
+        }
+
+        if (suppressed > 0) {
+            logger.info(
+                    SUPPRESSED,
+                    "suppressed={} format=\"{}\"",
+                    suppressed,
+                    format);
+        }
+        return FilterReply.NEUTRAL;
+    }
+
+    /**
+     * Sets the per-second limit for loggers without a category.
+     *
+     * @param maxPerSecond The limit.
+     */
+    public void setMaxPerSecond(final int maxPerSecond) {
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    /**
+     * Finds the limit and the sample rate for a logger.
+     *
+     * @param name The logger.
+     *
+     * @return The limit and the sample rate.
+     */
+    private int[] resolve(final String name) {
+        return new int[]{
+                longestMatch(name, this.limits, this.maxPerSecond),
+                longestMatch(name, this.samples, 1)
+        };
+    }
+
+    /**
+     * Finds the value of the longest category that matches a logger.
+     *
+     * @param name       The logger.
+     * @param categories The values for each category.
+     * @param fallback   The value if nothing matches.
+     *
+     * @return The value.
+     */
+    private static int longestMatch(
+            final String name,
+            final Map<String, Integer> categories,
+            final int fallback) {
+        String longest = null;
+        for (final String category : categories.keySet()) {
+            if (name.startsWith(category) &&
+                    (longest == null || category.length() > longest.length())) {
+                longest = category;
+            }
+        }
+        return longest != null
+                ? categories.get(longest)
+                : fallback;
+    }
+
+    /**
+     * Parses a {@code name=value} setting.
+     *
+     * @param setting The setting.
+     * @param values  Where the setting is stored.
+     */
+    private static void put(
+            final String setting,
+            final Map<String, Integer> values) {
+        final int split = setting.lastIndexOf('=');
+        if (split <= 0) {
+            throw new IllegalArgumentException("Expected name=value: " + setting);
+        }
+        values.put(
+                setting.substring(0, split).trim(),
+                Integer.parseInt(setting.substring(split + 1).trim()));
+    }
+
+    /** The events logged from one call site during the current second. */
+    private static class Window {
+
+        /** Every event that was seen, for sampling. */
+        private final AtomicLong seen = new AtomicLong();
+
+        /** How many events were let through during the current second. */
+        private int count;
+
+        /** The current second. */
+        private long second;
+
+        /** How many events were dropped since the last one let through. */
+        private long suppressed;
+    }
+}
@@ -0,0 +1,19 @@
+package mn.foreman.discordbot.config;
+
+import mn.foreman.discordbot.db.SessionRepository;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
+
+/**
+ * Enables the MongoDB repositories, unless sessions are stored locally. The
+ * {@code local} profile also turns off Spring Boot's MongoDB
+ * auto-configuration so no connection is ever attempted.
+ */
+@Configuration
+@ConditionalOnProperty(name = "sessions.store", havingValue = "mongo", matchIfMissing = true)
+@EnableMongoRepositories(basePackageClasses = SessionRepository.class)
+public class MongoConfiguration {
+
+}
@@ -0,0 +1,181 @@
+package mn.foreman.discordbot.config;
+
+import mn.foreman.discordbot.bot.*;
+import mn.foreman.discordbot.db.Session;
+import mn.foreman.discordbot.db.SessionStore;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.opentelemetry.api.trace.Tracer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Bean configuration for rendering notifications: the processor, and the
+ * suppression, digest, alert board and catch-up policies it follows.
+ */
+@Configuration
+public class NotificationsConfiguration {
+
+    /**
+     * Creates the keeper for sessions that use an alert board.
+     *
+     * @param messageRenderer  The renderer for messages.
+     * @param maxNotifications The max miners to render.
+     * @param maxEntries       The max entries per board.
+     * @param editInterval     The min time between edits of a board.
+     * @param expireAfter      How long an incident stays on a board after it
+     *                         was last reported.
+     *
+     * @return The keeper.
+     */
+    @Bean
+    public AlertBoardKeeper alertBoardKeeper(
+            final MessageRenderer messageRenderer,
+            @Value("${notifications.max}") final int maxNotifications,
+            @Value("${notifications.board.maxEntries}") final int maxEntries,
+            @Value("${notifications.board.editInterval}") final long editInterval,
+            @Value("${notifications.board.expireAfter}") final long expireAfter) {
+        return new AlertBoardKeeper(
+                messageRenderer,
+                maxNotifications,
+                maxEntries,
+                Duration.ofMillis(editInterval),
+                Duration.ofMillis(expireAfter));
+    }
+
+    /**
+     * Creates the policy for replaying notifications that were missed while
+     * the bot was down.
+     *
+     * @param enabled       Whether or not catch-up is enabled.
+     * @param maxWindow     The furthest back a session will catch up.
+     * @param collapseAbove How many notifications a backlog can have before
+     *                      it's collapsed into a summary.
+     * @param rate          The max replayed messages per second.
+     *
+     * @return The policy.
+     */
+    @Bean
+    public CatchUpPolicy catchUpPolicy(
+            @Value("${notifications.catchUp.enabled}") final boolean enabled,
+            @Value("${notifications.catchUp.maxWindow}") final long maxWindow,
+            @Value("${notifications.catchUp.collapseAbove}") final int collapseAbove,
+            @Value("${notifications.catchUp.rate}") final double rate) {
+        return new CatchUpPolicy(
+                enabled,
+                Duration.ofMillis(maxWindow),
+                collapseAbove,
+                rate);
+    }
+
+    /**
+     * Creates the digester for sessions that receive digests.
+     *
+     * @param messageRenderer  The renderer for messages.
+     * @param maxNotifications The max miners to render.
+     * @param maxEntries       The max entries to buffer per digest.
+     *
+     * @return The digester.
+     */
+    @Bean
+    public NotificationDigester notificationDigester(
+            final MessageRenderer messageRenderer,
+            @Value("${notifications.max}") final int maxNotifications,
+            @Value("${notifications.digest.maxEntries}") final int maxEntries) {
+        return new NotificationDigester(
+                messageRenderer,
+                maxNotifications,
+                maxEntries);
+    }
+
+    /**
+     * Creates the processor that renders and sends notifications for every
+     * guild and private session.
+     *
+     * @param sessionRepository      The session repository.
+     * @param notificationSender     The sender for notifications.
+     * @param foremanSource          The source for notifications.
+     * @param startTime              When the application started.
+     * @param maxNotifications       The maximum number of notifications to
+     *                               send.
+     * @param messageRenderer        The renderer for messages.
+     * @param notificationSuppressor The suppressor for repeated notifications.
+     * @param notificationDigester   The digester for sessions that receive
+     *                               digests.
+     * @param foremanCallLimiter     The limiter for calls to Foreman.
+     * @param catchUpPolicy          The policy for replaying notifications
+     *                               missed during downtime.
+     * @param tracer                 The tracer.
+     * @param maxPerPoll             The max notifications to render for a
+     *                               session per poll.
+     * @param alertBoardKeeper       The keeper for sessions that use an alert
+     *                               board.
+     * @param minerHistory           The history of each account's miners.
+     *
+     * @return The processor.
+     */
+    @Bean
+    public NotificationsProcessorImpl<Session> notificationsProcessor(
+            final SessionStore sessionRepository,
+            final NotificationSender notificationSender,
+            final ForemanSource foremanSource,
+            final Instant startTime,
+            @Value("${notifications.max}") final int maxNotifications,
+            final MessageRenderer messageRenderer,
+            final NotificationSuppressor notificationSuppressor,
+            final NotificationDigester notificationDigester,
+            final ForemanCallLimiter foremanCallLimiter,
+            final CatchUpPolicy catchUpPolicy,
+            final Tracer tracer,
+            @Value("${notifications.maxPerPoll}") final int maxPerPoll,
+            final AlertBoardKeeper alertBoardKeeper,
+            final MinerHistory minerHistory) {
+        return new NotificationsProcessorImpl<>(
+                SessionAccess.forSessions(
+                        sessionRepository::savePoll,
+                        sessionRepository::saveLastPolled),
+                NotificationPolicies
+                        .builder()
+                        .alertBoardKeeper(alertBoardKeeper)
+                        .catchUpPolicy(catchUpPolicy)
+                        .maxNotifications(maxNotifications)
+                        .maxPerPoll(maxPerPoll)
+                        .messageRenderer(messageRenderer)
+                        .minerHistory(minerHistory)
+                        .notificationDigester(notificationDigester)
+                        .notificationSuppressor(notificationSuppressor)
+                        .build(),
+                notificationSender,
+                foremanSource,
+                foremanCallLimiter,
+                startTime,
+                tracer);
+    }
+
+    /**
+     * Creates the suppressor for repeated notifications.
+     *
+     * @param window          The window for suppressing repeats.
+     * @param maxDestinations The max destinations to track repeats for.
+     * @param maxKeys         The max repeats to track per destination.
+     * @param meterRegistry   The registry for metrics.
+     *
+     * @return The suppressor.
+     */
+    @Bean
+    public NotificationSuppressor notificationSuppressor(
+            @Value("${notifications.suppression.window}") final long window,
+            @Value("${notifications.suppression.maxDestinations}") final int maxDestinations,
+            @Value("${notifications.suppression.maxKeys}") final int maxKeys,
+            final MeterRegistry meterRegistry) {
+        return new NotificationSuppressor(
+                window,
+                maxDestinations,
+                maxKeys,
+                meterRegistry);
+    }
+}
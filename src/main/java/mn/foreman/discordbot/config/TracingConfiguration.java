@@ -0,0 +1,99 @@
+package mn.foreman.discordbot.config;
+
+import mn.foreman.discordbot.bot.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.exporter.otlp.trace.OtlpGrpcSpanExporter;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SdkTracerProviderBuilder;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/** Tracing bean configuration. */
+@Configuration
+public class TracingConfiguration {
+
+    /**
+     * Creates the tracer for following sessions and commands through the bot.
+     *
+     * @param tracerProvider The provider for tracers.
+     *
+     * @return The tracer.
+     */
+    @Bean
+    public Tracer tracer(final SdkTracerProvider tracerProvider) {
+        return tracerProvider.get("mn.foreman.discordbot");
+    }
+
+    /**
+     * Creates the provider for tracers. Spans are only recorded if they're
+     * exported somewhere.
+     *
+     * @param exporter     Where spans are exported: none, file or otlp.
+     * @param sampleRatio  The fraction of traces to record.
+     * @param file         The file that spans are appended to.
+     * @param otlpEndpoint The OTLP collector.
+     * @param objectMapper The mapper.
+     *
+     * @return The provider.
+     *
+     * @throws IOException on failure to open the file.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public SdkTracerProvider tracerProvider(
+            @Value("${tracing.exporter}") final String exporter,
+            @Value("${tracing.sampleRatio}") final double sampleRatio,
+            @Value("${tracing.file}") final String file,
+            @Value("${tracing.otlpEndpoint}") final String otlpEndpoint,
+            final ObjectMapper objectMapper) throws IOException {
+        final SdkTracerProviderBuilder builder =
+                SdkTracerProvider
+                        .builder()
+                        .setResource(
+                                Resource.getDefault().merge(
+                                        Resource.create(
+                                                Attributes.of(
+                                                        AttributeKey.stringKey("service.name"),
+                                                        "discord-bot"))));
+        switch (exporter) {
+            case "file":
+                builder.addSpanProcessor(
+                        BatchSpanProcessor
+                                .builder(
+                                        new FileSpanExporter(
+                                                Paths.get(file),
+                                                objectMapper))
+                                .build());
+                break;
+            case "otlp":
+                builder.addSpanProcessor(
+                        BatchSpanProcessor
+                                .builder(
+                                        OtlpGrpcSpanExporter
+                                                .builder()
+                                                .setEndpoint(otlpEndpoint)
+                                                .build())
+                                .build());
+                break;
+            default:
+                return builder
+                        .setSampler(Sampler.alwaysOff())
+                        .build();
+        }
+        return builder
+                .setSampler(
+                        Sampler.parentBased(
+                                Sampler.traceIdRatioBased(sampleRatio)))
+                .build();
+    }
+}
@@ -0,0 +1,67 @@
+package mn.foreman.discordbot.db;
+
+import lombok.*;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link AlertBoard} is a single message per session that's edited in
+ * place to show what's currently wrong, rather than a new message for every
+ * repeat of an ongoing incident.
+ */
+@Data
+@Builder
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class AlertBoard {
+
+    /** The channel the board message was posted in. */
+    private String channelId;
+
+    /** Whether or not the board has changed since it was last rendered. */
+    private boolean dirty;
+
+    /** Whether or not the session uses the board. */
+    private boolean enabled;
+
+    /** The ongoing incidents. */
+    @Builder.Default
+    private List<Entry> entries = new ArrayList<>();
+
+    /** When the board was last rendered, or null if it never was. */
+    private Instant lastRendered;
+
+    /** The board message, or null if it hasn't been posted yet. */
+    private String messageId;
+
+    /** An ongoing incident: a failing miner, or a subject without miners. */
+    @Data
+    @Builder
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Entry {
+
+        /** The most recent diagnosis. */
+        @Builder.Default
+        private List<String> diagnosis = new ArrayList<>();
+
+        /** When the incident was first reported. */
+        private Instant firstSeen;
+
+        /** When the incident was last reported. */
+        private Instant lastSeen;
+
+        /** The miner name, or null if this entry is for a subject. */
+        private String miner;
+
+        /** The miner ID. */
+        private int minerId;
+
+        /** The subject the incident was reported under. */
+        private String subject;
+    }
+}
@@ -0,0 +1,59 @@
+package mn.foreman.discordbot.db;
+
+import lombok.*;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link Digest} holds the notifications that have been buffered for a
+ * session that receives one summary per window rather than one message per
+ * notification.
+ */
+@Data
+@Builder
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class Digest {
+
+    /** The buffered entries. */
+    @Builder.Default
+    private List<Entry> entries = new ArrayList<>();
+
+    /** The length of each window, in minutes. */
+    private int intervalMinutes;
+
+    /** How many entries were dropped because the buffer was full. */
+    private int overflow;
+
+    /** When the current window started, or null if nothing is buffered. */
+    private Instant windowStart;
+
+    /** A buffered miner, or a subject for notifications without miners. */
+    @Data
+    @Builder
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Entry {
+
+        /** How many notifications were merged into this entry. */
+        private int count;
+
+        /** The most recent diagnosis. */
+        @Builder.Default
+        private List<String> diagnosis = new ArrayList<>();
+
+        /** The miner name, or null if this entry is for a subject. */
+        private String miner;
+
+        /** The miner ID. */
+        private int minerId;
+
+        /** The distinct subjects that were seen. */
+        @Builder.Default
+        private List<String> subjects = new ArrayList<>();
+    }
+}
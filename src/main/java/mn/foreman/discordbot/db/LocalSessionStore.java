@@ -0,0 +1,591 @@
+package mn.foreman.discordbot.db;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Pageable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * A {@link SessionStore} that keeps every session in memory, backed by an
+ * append-only log in a local file, so small deployments don't need MongoDB.
+ *
+ * <p>Every write appends the session's new state, or its removal, as one
+ * JSON line, and is forced to disk before returning if syncing is enabled.
+ * On startup the log is replayed into the index. A line that was cut short by
+ * a crash can only be the last one, and it's discarded. A write that fails
+ * part way is cut back off the log right away, so later lines never follow a
+ * partial one. Once the log holds mostly superseded lines, it's rewritten
+ * with just the current sessions and atomically swapped in.</p>
+ *
+ * <p>The index holds each session's serialized form, so every lookup returns
+ * a fresh copy that can be changed freely until it's saved, just like a
+ * document read from MongoDB.</p>
+ */
+public class LocalSessionStore
+        implements SessionStore, Closeable {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(LocalSessionStore.class);
+
+    /** Orders sessions by when they were last polled, never polled first. */
+    private static final Comparator<Session> BY_STALENESS =
+            Comparator.comparing(
+                    Session::getLastPolled,
+                    Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    /** What every line for a stored session starts with. */
+    private static final byte[] PUT_PREFIX =
+            "{\"put\":".getBytes(StandardCharsets.UTF_8);
+
+    /** The log is never compacted while it's smaller than this. */
+    private static final long MIN_COMPACT_BYTES = 1024 * 1024;
+
+    /** The log. */
+    private final Path file;
+
+    /** The serialized sessions, by ID. */
+    private final Map<String, byte[]> index = new ConcurrentHashMap<>();
+
+    /** The mapper. */
+    private final ObjectMapper objectMapper;
+
+    /** Whether or not every write is forced to disk. */
+    private final boolean sync;
+
+    /** The open log. */
+    private FileChannel channel;
+
+    /** The size of the current sessions, as they'd be written. */
+    private long liveBytes;
+
+    /** The size of the log. */
+    private long logBytes;
+
+    /**
+     * Constructor.
+     *
+     * @param file         The log, which is created if it doesn't exist.
+     * @param objectMapper The mapper.
+     * @param sync         Whether or not every write is forced to disk.
+     *
+     * @throws IOException on failure to read the log.
+     */
+    public LocalSessionStore(
+            final Path file,
+            final ObjectMapper objectMapper,
+            final boolean sync) throws IOException {
+        this.file = file;
+        this.objectMapper = objectMapper;
+        this.sync = sync;
+        final long start = System.nanoTime();
+        load();
+        this.channel =
+                FileChannel.open(
+                        file,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+        LOG.info("Loaded {} sessions from {} in {}ms",
+                this.index.size(),
+                file,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.channel.close();
+    }
+
+    @Override
+    public long count() {
+        return this.index.size();
+    }
+
+    @Override
+    public void delete(final Session session) {
+        deleteById(session.getId());
+    }
+
+    @Override
+    public void deleteAll(final Iterable<? extends Session> sessions) {
+        for (final Session session : sessions) {
+            delete(session);
+        }
+    }
+
+    @Override
+    public synchronized void deleteAll() {
+        for (final String id : new ArrayList<>(this.index.keySet())) {
+            deleteById(id);
+        }
+    }
+
+    @Override
+    public synchronized void deleteById(final String id) {
+        final byte[] removed = this.index.get(id);
+        if (removed != null) {
+            append(
+                    toRemoval(id),
+                    id,
+                    null);
+        }
+    }
+
+    @Override
+    public boolean existsById(final String id) {
+        return this.index.containsKey(id);
+    }
+
+    @Override
+    public List<Session> findActive() {
+        return find(LocalSessionStore::isActive);
+    }
+
+    @Override
+    public Iterable<Session> findAll() {
+        return find(session -> true);
+    }
+
+    @Override
+    public Iterable<Session> findAllById(final Iterable<String> ids) {
+        final List<Session> found = new ArrayList<>();
+        for (final String id : ids) {
+            findById(id).ifPresent(found::add);
+        }
+        return found;
+    }
+
+    @Override
+    public List<Session> findByClientId(final int clientId) {
+        return find(session -> session.getClientId() == clientId);
+    }
+
+    @Override
+    public Optional<Session> findById(final String id) {
+        final byte[] bytes = this.index.get(id);
+        return bytes != null
+                ? Optional.of(toSession(bytes))
+                : Optional.empty();
+    }
+
+    @Override
+    public List<Session> findDue(final Instant now) {
+        final List<Session> due =
+                find(session ->
+                        isActive(session) &&
+                                (session.getNextAttempt() == null ||
+                                        !session.getNextAttempt().isAfter(now)));
+        due.sort(BY_STALENESS);
+        return due;
+    }
+
+    @Override
+    public List<Session> findQuarantined(
+            final Instant now,
+            final Pageable pageable) {
+        final List<Session> quarantined =
+                find(session ->
+                        session.isQuarantined() &&
+                                session.getNextAttempt() != null &&
+                                !session.getNextAttempt().isAfter(now));
+        return pageable.isPaged() && quarantined.size() > pageable.getPageSize()
+                ? quarantined.subList(0, pageable.getPageSize())
+                : quarantined;
+    }
+
+    @Override
+    public synchronized <S extends Session> S insert(final S session) {
+        if (this.index.containsKey(session.getId())) {
+            throw new DuplicateKeyException("Session " + session.getId() + " already exists");
+        }
+        return save(session);
+    }
+
+    @Override
+    public synchronized <S extends Session> S save(final S session) {
+        if (session.getId() == null) {
+            throw new IllegalArgumentException("Sessions need an ID");
+        }
+        final byte[] bytes = toBytes(session);
+        append(
+                toPut(bytes),
+                session.getId(),
+                bytes);
+        return session;
+    }
+
+    @Override
+    public synchronized void savePoll(final Session session) {
+        findById(session.getId()).ifPresent(stored -> {
+            SessionFields.copyPolled(
+                    session,
+                    stored);
+            save(stored);
+        });
+    }
+
+    @Override
+    public synchronized void saveLastPolled(final Session session) {
+        findById(session.getId()).ifPresent(stored -> {
+            SessionFields.copyLastPolled(
+                    session,
+                    stored);
+            save(stored);
+        });
+    }
+
+    @Override
+    public synchronized void saveHealth(final Session session) {
+        findById(session.getId()).ifPresent(stored -> {
+            SessionFields.copyHealth(
+                    session,
+                    stored);
+            save(stored);
+        });
+    }
+
+    @Override
+    public synchronized void saveWebhookUrl(final Session session) {
+        findById(session.getId()).ifPresent(stored -> {
+            stored.setWebhookUrl(session.getWebhookUrl());
+            save(stored);
+        });
+    }
+
+    @Override
+    public synchronized void saveBoardMessage(final Session session) {
+        findById(session.getId()).ifPresent(stored -> {
+            SessionFields.copyBoardMessage(
+                    session,
+                    stored);
+            save(stored);
+        });
+    }
+
+    @Override
+    public synchronized void saveBoardSettings(final Session session) {
+        findById(session.getId()).ifPresent(stored -> {
+            SessionFields.copyBoardSettings(
+                    session,
+                    stored);
+            save(stored);
+        });
+    }
+
+    @Override
+    public synchronized void saveDigestInterval(final Session session) {
+        findById(session.getId()).ifPresent(stored -> {
+            SessionFields.copyDigestInterval(
+                    session,
+                    stored);
+            save(stored);
+        });
+    }
+
+    @Override
+    public <S extends Session> Iterable<S> saveAll(final Iterable<S> sessions) {
+        final List<S> saved = new ArrayList<>();
+        for (final S session : sessions) {
+            saved.add(save(session));
+        }
+        return saved;
+    }
+
+    /**
+     * Returns whether or not a session is registered and isn't quarantined.
+     *
+     * @param session The session.
+     *
+     * @return Whether or not the session is active.
+     */
+    private static boolean isActive(final Session session) {
+        return session.getDateRegistered() != null && !session.isQuarantined();
+    }
+
+    /**
+     * Wraps a serialized session as a log line.
+     *
+     * @param bytes The serialized session.
+     *
+     * @return The line.
+     */
+    private static byte[] toPut(final byte[] bytes) {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream(bytes.length + 9);
+        line.writeBytes(PUT_PREFIX);
+        line.writeBytes(bytes);
+        line.writeBytes("}\n".getBytes(StandardCharsets.UTF_8));
+        return line.toByteArray();
+    }
+
+    /**
+     * Writes a line to the log and applies it to the index. The log is
+     * compacted first if it's mostly superseded lines.
+     *
+     * @param line  The line.
+     * @param id    The session ID.
+     * @param bytes The serialized session, or null if it was removed.
+     */
+    private void append(
+            final byte[] line,
+            final String id,
+            final byte[] bytes) {
+        try {
+            write(line);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final byte[] previous =
+                bytes != null
+                        ? this.index.put(id, bytes)
+                        : this.index.remove(id);
+        this.liveBytes +=
+                (bytes != null ? toPut(bytes).length : 0) -
+                        (previous != null ? toPut(previous).length : 0);
+        if (this.logBytes > MIN_COMPACT_BYTES && this.logBytes > 2 * this.liveBytes) {
+            try {
+                compact();
+            } catch (final IOException e) {
+                // The log is still intact, so this can wait for the next write
+                LOG.warn("Failed to compact {}", this.file, e);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the log with only the current sessions, replacing the old log
+     * once the new one is safely on disk.
+     *
+     * @throws IOException on failure.
+     */
+    private void compact() throws IOException {
+        final Path compacted = this.file.resolveSibling(this.file.getFileName() + ".compact");
+        long written = 0;
+        try (final FileChannel out =
+                     FileChannel.open(
+                             compacted,
+                             StandardOpenOption.CREATE,
+                             StandardOpenOption.WRITE,
+                             StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (final byte[] bytes : this.index.values()) {
+                final ByteBuffer buffer = ByteBuffer.wrap(toPut(bytes));
+                while (buffer.hasRemaining()) {
+                    written += out.write(buffer);
+                }
+            }
+            out.force(true);
+        }
+        this.channel.close();
+        boolean moved = false;
+        try {
+            Files.move(
+                    compacted,
+                    this.file,
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            moved = true;
+        } finally {
+            // Whether or not the log was swapped, writes carry on against it
+            this.channel =
+                    FileChannel.open(
+                            this.file,
+                            StandardOpenOption.WRITE,
+                            StandardOpenOption.APPEND);
+        }
+        if (moved) {
+            LOG.info("Compacted {} from {} to {} bytes",
+                    this.file,
+                    this.logBytes,
+                    written);
+            this.logBytes = written;
+            this.liveBytes = written;
+        }
+        // The rename isn't durable until the directory is
+        syncDirectory();
+    }
+
+    /**
+     * Finds every session that matches.
+     *
+     * @param filter The filter.
+     *
+     * @return The matching sessions.
+     */
+    private List<Session> find(final Predicate<Session> filter) {
+        final List<Session> found = new ArrayList<>();
+        for (final byte[] bytes : this.index.values()) {
+            final Session session = toSession(bytes);
+            if (filter.test(session)) {
+                found.add(session);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Replays the log into the index, discarding a final line that was cut
+     * short.
+     *
+     * @throws IOException on failure to read the log, or if a line before the
+     *                     last is corrupt.
+     */
+    private void load() throws IOException {
+        if (!Files.exists(this.file)) {
+            return;
+        }
+        final byte[] log = Files.readAllBytes(this.file);
+        int start = 0;
+        while (start < log.length) {
+            int end = start;
+            while (end < log.length && log[end] != '\n') {
+                end++;
+            }
+            final JsonNode line;
+            try {
+                line =
+                        end < log.length
+                                ? this.objectMapper.readTree(log, start, end - start)
+                                : null;
+            } catch (final IOException e) {
+                throw new IOException("Corrupt session log " + this.file + " at byte " + start, e);
+            }
+            if (line == null) {
+                LOG.warn("Discarding {} bytes cut short at the end of {}",
+                        log.length - start,
+                        this.file);
+                try (final FileChannel truncate =
+                             FileChannel.open(
+                                     this.file,
+                                     StandardOpenOption.WRITE)) {
+                    truncate.truncate(start);
+                }
+                break;
+            }
+            if (line.has("put")) {
+                // Lines are written as {"put":<session>}, so the session can be sliced out
+                this.index.put(
+                        line.get("put").get("id").asText(),
+                        Arrays.copyOfRange(
+                                log,
+                                start + PUT_PREFIX.length,
+                                end - 1));
+            } else {
+                this.index.remove(line.get("delete").asText());
+            }
+            start = end + 1;
+        }
+        this.logBytes = start;
+        for (final byte[] bytes : this.index.values()) {
+            this.liveBytes += toPut(bytes).length;
+        }
+    }
+
+    /**
+     * Forces the log's directory to disk, so a rename within it survives a
+     * crash.
+     *
+     * @throws IOException on failure.
+     */
+    private void syncDirectory() throws IOException {
+        final Path dir = this.file.toAbsolutePath().getParent();
+        try (final FileChannel channel =
+                     FileChannel.open(
+                             dir,
+                             StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Serializes a session.
+     *
+     * @param session The session.
+     *
+     * @return The serialized session.
+     */
+    private byte[] toBytes(final Session session) {
+        try {
+            return this.objectMapper.writeValueAsBytes(session);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Creates the log line for a removed session.
+     *
+     * @param id The session ID.
+     *
+     * @return The line.
+     */
+    private byte[] toRemoval(final String id) {
+        return ("{\"delete\":" + this.objectMapper.getNodeFactory().textNode(id) + "}\n")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Deserializes a session.
+     *
+     * @param bytes The serialized session.
+     *
+     * @return The session.
+     */
+    private Session toSession(final byte[] bytes) {
+        try {
+            return this.objectMapper.readValue(bytes, Session.class);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends a line to the log, forcing it to disk if syncing is enabled. If
+     * the write fails, whatever part of the line made it is cut back off.
+     *
+     * @param line The line.
+     *
+     * @throws IOException on failure.
+     */
+    private void write(final byte[] line) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(line);
+        try {
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+            if (this.sync) {
+                this.channel.force(false);
+            }
+        } catch (final IOException e) {
+            try {
+                this.channel.truncate(this.logBytes);
+            } catch (final IOException truncateFailure) {
+                e.addSuppressed(truncateFailure);
+            }
+            throw e;
+        }
+        this.logBytes += line.length;
+    }
+}
@@ -0,0 +1,126 @@
+package mn.foreman.discordbot.db;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * The queue of {@link OutboxMessage messages} between the nodes that poll
+ * Foreman and the nodes that hold the Discord gateway. Each message is
+ * addressed to the gateway shard that can reach its destination.
+ *
+ * <p>Gateway nodes claim messages one at a time, oldest first, with a lease.
+ * A message is removed once it's been delivered. If a gateway node dies
+ * while holding a claim, the lease runs out and another node delivers the
+ * message instead, so every message is delivered at least once. A delivery
+ * that fails in a way that could succeed later is released to be retried,
+ * and a message that keeps failing is moved to the dead letters, where it's
+ * kept for inspection rather than lost.</p>
+ */
+public class Outbox {
+
+    /** The collection for messages that couldn't be delivered. */
+    private static final String DEAD_LETTERS = "outboxDead";
+
+    /** The template for the outbox collection. */
+    private final MongoTemplate mongoTemplate;
+
+    /**
+     * Constructor.
+     *
+     * @param mongoTemplate The template for the outbox collection.
+     */
+    public Outbox(final MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Claims the oldest message for a shard that isn't already claimed.
+     *
+     * @param owner The node claiming the message.
+     * @param shard The gateway shard the node holds.
+     * @param lease How long the claim lasts.
+     *
+     * @return The claimed message, if there was one.
+     */
+    public Optional<OutboxMessage> claim(
+            final String owner,
+            final int shard,
+            final Duration lease) {
+        final Instant now = Instant.now();
+        return Optional.ofNullable(
+                this.mongoTemplate.findAndModify(
+                        Query
+                                .query(
+                                        Criteria
+                                                .where("shard").is(shard)
+                                                .orOperator(
+                                                        Criteria.where("claimedUntil").is(null),
+                                                        Criteria.where("claimedUntil").lt(now)))
+                                .with(Sort.by("id")),
+                        Update
+                                .update("claimedBy", owner)
+                                .set("claimedUntil", now.plus(lease)),
+                        FindAndModifyOptions
+                                .options()
+                                .returnNew(true),
+                        OutboxMessage.class));
+    }
+
+    /**
+     * Adds a message to the outbox.
+     *
+     * @param message The message.
+     */
+    public void enqueue(final OutboxMessage message) {
+        this.mongoTemplate.insert(message);
+    }
+
+    /**
+     * Moves a message that couldn't be delivered to the dead letters.
+     *
+     * @param message The message.
+     */
+    public void deadLetter(final OutboxMessage message) {
+        this.mongoTemplate.insert(
+                message,
+                DEAD_LETTERS);
+        this.mongoTemplate.remove(message);
+    }
+
+    /**
+     * Releases a message whose delivery failed, counting the attempt. No node
+     * can claim it again until the retry delay has passed.
+     *
+     * @param message    The message.
+     * @param retryAfter How long to wait before it's retried.
+     */
+    public void release(
+            final OutboxMessage message,
+            final Duration retryAfter) {
+        this.mongoTemplate.updateFirst(
+                Query.query(Criteria.where("id").is(message.getId())),
+                new Update()
+                        .inc("attempts", 1)
+                        .unset("claimedBy")
+                        .set("claimedUntil", Instant.now().plus(retryAfter)),
+                OutboxMessage.class);
+    }
+
+    /**
+     * Removes a message that was delivered, or that Discord rejected for
+     * good.
+     *
+     * @param message The message.
+     */
+    public void remove(final OutboxMessage message) {
+        this.mongoTemplate.remove(message);
+    }
+}
@@ -0,0 +1,65 @@
+package mn.foreman.discordbot.db;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * An {@link OutboxMessage} is a rendered notification that a worker node has
+ * handed off to be delivered by a gateway node.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "outbox")
+@CompoundIndex(
+        name = "claim",
+        def = "{'shard': 1, 'claimedUntil': 1}")
+public class OutboxMessage {
+
+    /** How many deliveries have failed in a way that could be retried. */
+    private int attempts;
+
+    /** Whether or not the message replaces the session's alert board. */
+    private boolean board;
+
+    /** The gateway node that claimed the message. */
+    private String claimedBy;
+
+    /**
+     * When the claim expires and another gateway node can take the message.
+     * Null if it was never claimed.
+     */
+    private Instant claimedUntil;
+
+    /**
+     * When the message was enqueued. Messages that nobody delivered within a
+     * day are dropped.
+     */
+    @Indexed(expireAfterSeconds = 86400)
+    private Instant enqueued;
+
+    /** Whether or not the notification represents an error. */
+    private boolean error;
+
+    /** The message ID, which orders messages by when they were enqueued. */
+    @Id
+    private String id;
+
+    /** The message. */
+    private String message;
+
+    /** Whether or not the notification was missed during downtime. */
+    private boolean replay;
+
+    /** The session the message is for. */
+    private String sessionId;
+
+    /** The gateway shard that can deliver the message. */
+    private int shard;
+}
@@ -0,0 +1,30 @@
+package mn.foreman.discordbot.db;
+
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Flux;
+
+import java.time.Instant;
+
+/**
+ * A non-blocking repository for {@link Session sessions}, used by the
+ * reactive notification pipeline.
+ */
+public interface ReactiveSessionRepository
+        extends ReactiveMongoRepository<Session, String>, ReactiveSessionUpdates {
+
+    /**
+     * Streams every registered session that's healthy and isn't backing off,
+     * stalest first.
+     *
+     * @param now The current time.
+     *
+     * @return The sessions to sweep.
+     */
+    @Query(
+            value = "{ 'dateRegistered' : { $exists : true, $ne : null }, " +
+                    "'quarantined' : { $ne : true }, " +
+                    "$or : [ { 'nextAttempt' : null }, { 'nextAttempt' : { $lte : ?0 } } ] }",
+            sort = "{ 'lastPolled' : 1 }")
+    Flux<Session> findDue(Instant now);
+}
@@ -0,0 +1,22 @@
+package mn.foreman.discordbot.db;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Field-level updates to stored {@link Session sessions} for the reactive
+ * notification pipeline. See {@link SessionUpdates} for why sessions aren't
+ * saved whole.
+ */
+public interface ReactiveSessionUpdates {
+
+    /**
+     * Persists what a sweep changed: everything that
+     * {@link SessionUpdates#savePoll(Session)} persists, along with the
+     * session's health.
+     *
+     * @param session The session.
+     *
+     * @return The session, once it's been persisted.
+     */
+    Mono<Session> saveSwept(Session session);
+}
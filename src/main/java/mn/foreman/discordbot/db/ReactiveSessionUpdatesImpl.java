@@ -0,0 +1,35 @@
+package mn.foreman.discordbot.db;
+
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Mono;
+
+/** The MongoDB implementation of {@link ReactiveSessionUpdates}. */
+public class ReactiveSessionUpdatesImpl
+        implements ReactiveSessionUpdates {
+
+    /** The operations for the sessions collection. */
+    private final ReactiveMongoOperations mongoOperations;
+
+    /**
+     * Constructor.
+     *
+     * @param mongoOperations The operations for the sessions collection.
+     */
+    public ReactiveSessionUpdatesImpl(final ReactiveMongoOperations mongoOperations) {
+        this.mongoOperations = mongoOperations;
+    }
+
+    @Override
+    public Mono<Session> saveSwept(final Session session) {
+        return this.mongoOperations
+                .updateFirst(
+                        Query.query(Criteria.where("id").is(session.getId())),
+                        SessionUpdatesImpl.withHealth(
+                                SessionUpdatesImpl.toPollUpdate(session),
+                                session),
+                        Session.class)
+                .thenReturn(session);
+    }
+}
@@ -0,0 +1,81 @@
+package mn.foreman.discordbot.db;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * A {@link Session} represents the bot's state for each registered
+ * destination, either a guild or a private session with a user.
+ */
+@Data
+@Builder
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "sessions")
+@CompoundIndex(
+        name = "account",
+        def = "{'clientId': 1, 'apiKey': 1}")
+public class Session {
+
+    /** The alert board, or null if the session never used one. */
+    private AlertBoard alertBoard;
+
+    /** The API key. */
+    private String apiKey;
+
+    /** The notification channel, for guild sessions. */
+    @Indexed(sparse = true)
+    private String channelId;
+
+    /** The client ID. */
+    private int clientId;
+
+    /** How many sweeps in a row have failed for this session. */
+    private int consecutiveFailures;
+
+    /** When the session was added. */
+    @Indexed(sparse = true)
+    private Instant dateRegistered;
+
+    /** The digest settings and buffer, or null to send immediately. */
+    private Digest digest;
+
+    /** The guild ID for guild sessions, or the author ID for private ones. */
+    @Id
+    private String id;
+
+    /** The last notification id. */
+    private int lastNotificationId;
+
+    /**
+     * When the session was last polled for notifications. Sweeps start with
+     * the stalest sessions.
+     */
+    @Indexed
+    private Instant lastPolled;
+
+    /**
+     * When the session should next be swept, or probed if it's quarantined.
+     * Null if it can be swept right away.
+     */
+    @Indexed(sparse = true)
+    private Instant nextAttempt;
+
+    /** Whether or not the session has been pulled out of the sweep. */
+    private boolean quarantined;
+
+    /** The kind of destination. */
+    private SessionType type;
+
+    /**
+     * The webhook that a guild's notifications are posted through, or null if
+     * they're sent by the bot.
+     */
+    private String webhookUrl;
+}
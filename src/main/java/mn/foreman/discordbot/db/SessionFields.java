@@ -0,0 +1,134 @@
+package mn.foreman.discordbot.db;
+
+/**
+ * Copies the groups of {@link Session} fields that each writer owns from one
+ * instance of a session to another.
+ */
+final class SessionFields {
+
+    /** Not instantiable. */
+    private SessionFields() {
+        // Do nothing
+    }
+
+    /**
+     * Copies where the alert board was posted, if both sessions have one.
+     *
+     * @param from The session to copy from.
+     * @param to   The session to copy to.
+     */
+    static void copyBoardMessage(
+            final Session from,
+            final Session to) {
+        final AlertBoard fromBoard = from.getAlertBoard();
+        final AlertBoard toBoard = to.getAlertBoard();
+        if (fromBoard != null && toBoard != null) {
+            toBoard.setChannelId(fromBoard.getChannelId());
+            toBoard.setMessageId(fromBoard.getMessageId());
+        }
+    }
+
+    /**
+     * Copies whether or not the alert board is used and needs to be rendered,
+     * creating the board if the session doesn't have one yet.
+     *
+     * @param from The session to copy from.
+     * @param to   The session to copy to.
+     */
+    static void copyBoardSettings(
+            final Session from,
+            final Session to) {
+        final AlertBoard fromBoard = from.getAlertBoard();
+        if (fromBoard != null) {
+            if (to.getAlertBoard() == null) {
+                to.setAlertBoard(AlertBoard.builder().build());
+            }
+            to.getAlertBoard().setDirty(fromBoard.isDirty());
+            to.getAlertBoard().setEnabled(fromBoard.isEnabled());
+        }
+    }
+
+    /**
+     * Copies how often the session receives a digest, creating the digest if
+     * the session doesn't have one yet.
+     *
+     * @param from The session to copy from.
+     * @param to   The session to copy to.
+     */
+    static void copyDigestInterval(
+            final Session from,
+            final Session to) {
+        final Digest fromDigest = from.getDigest();
+        if (fromDigest != null) {
+            if (to.getDigest() == null) {
+                to.setDigest(Digest.builder().build());
+            }
+            to.getDigest().setIntervalMinutes(fromDigest.getIntervalMinutes());
+        }
+    }
+
+    /**
+     * Copies the fields that sessions' health is tracked in.
+     *
+     * @param from The session to copy from.
+     * @param to   The session to copy to.
+     */
+    static void copyHealth(
+            final Session from,
+            final Session to) {
+        to.setConsecutiveFailures(from.getConsecutiveFailures());
+        to.setNextAttempt(from.getNextAttempt());
+        to.setQuarantined(from.isQuarantined());
+    }
+
+    /**
+     * Copies when the session was last polled, unless it's earlier than what
+     * the destination already has.
+     *
+     * @param from The session to copy from.
+     * @param to   The session to copy to.
+     */
+    static void copyLastPolled(
+            final Session from,
+            final Session to) {
+        if (to.getLastPolled() == null ||
+                (from.getLastPolled() != null && from.getLastPolled().isAfter(to.getLastPolled()))) {
+            to.setLastPolled(from.getLastPolled());
+        }
+    }
+
+    /**
+     * Copies the fields that rendering notifications changes. The cursor and
+     * the poll time only move forward.
+     *
+     * @param from The session to copy from.
+     * @param to   The session to copy to.
+     */
+    static void copyPolled(
+            final Session from,
+            final Session to) {
+        to.setLastNotificationId(
+                Math.max(
+                        to.getLastNotificationId(),
+                        from.getLastNotificationId()));
+        copyLastPolled(
+                from,
+                to);
+
+        final Digest fromDigest = from.getDigest();
+        final Digest toDigest = to.getDigest();
+        if (fromDigest != null && toDigest != null) {
+            toDigest.setEntries(fromDigest.getEntries());
+            toDigest.setOverflow(fromDigest.getOverflow());
+            toDigest.setWindowStart(fromDigest.getWindowStart());
+        }
+
+        final AlertBoard fromBoard = from.getAlertBoard();
+        final AlertBoard toBoard = to.getAlertBoard();
+        if (fromBoard != null && toBoard != null) {
+            toBoard.setDirty(fromBoard.isDirty());
+            toBoard.setEntries(fromBoard.getEntries());
+            toBoard.setLastRendered(fromBoard.getLastRendered());
+        }
+    }
+}
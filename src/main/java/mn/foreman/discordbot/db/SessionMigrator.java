@@ -0,0 +1,90 @@
+package mn.foreman.discordbot.db;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * Moves sessions out of the collections that were used before guild and
+ * private sessions shared a single collection.
+ *
+ * <p>Each legacy document is upserted into the sessions collection with its
+ * type set, and the legacy collection is renamed afterwards so the migration
+ * only ever runs once and the original data is kept around.</p>
+ */
+public class SessionMigrator {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(SessionMigrator.class);
+
+    /** The suffix given to legacy collections once they're migrated. */
+    private static final String MIGRATED_SUFFIX = "_migrated";
+
+    /** The template for raw collection access. */
+    private final MongoTemplate mongoTemplate;
+
+    /**
+     * Constructor.
+     *
+     * @param mongoTemplate The template for raw collection access.
+     */
+    public SessionMigrator(final MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /** Migrates every legacy collection that's still present. */
+    public void migrate() {
+        migrate(
+                "chatSession",
+                SessionType.GUILD);
+        migrate(
+                "privateSession",
+                SessionType.PRIVATE);
+    }
+
+    /**
+     * Migrates a legacy collection.
+     *
+     * @param collectionName The legacy collection.
+     * @param type           The type of session it held.
+     */
+    private void migrate(
+            final String collectionName,
+            final SessionType type) {
+        if (!this.mongoTemplate.collectionExists(collectionName)) {
+            return;
+        }
+
+        final MongoCollection<Document> legacy =
+                this.mongoTemplate.getCollection(collectionName);
+        final MongoCollection<Document> sessions =
+                this.mongoTemplate.getCollection(
+                        this.mongoTemplate.getCollectionName(Session.class));
+
+        int migrated = 0;
+        for (final Document document : legacy.find()) {
+            document.remove("_class");
+            document.put("type", type.name());
+            sessions.replaceOne(
+                    Filters.eq("_id", document.get("_id")),
+                    document,
+                    new ReplaceOptions().upsert(true));
+            migrated++;
+        }
+
+        legacy.renameCollection(
+                new MongoNamespace(
+                        this.mongoTemplate.getDb().getName(),
+                        collectionName + MIGRATED_SUFFIX));
+        LOG.info("Migrated {} {} sessions from {}",
+                migrated,
+                type,
+                collectionName);
+    }
+}
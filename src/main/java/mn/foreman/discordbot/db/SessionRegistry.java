@@ -0,0 +1,477 @@
+package mn.foreman.discordbot.db;
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import reactor.core.Disposable;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * A {@link SessionRegistry} keeps every active {@link Session} in memory so
+ * that sweeps don't have to read the sessions collection.
+ *
+ * <p>The registry is loaded once and then kept current from a change stream
+ * on the sessions collection, which fires whenever a session is registered,
+ * forgotten, quarantined or changed. Updates that only touch what sweeps write
+ * on every poll are filtered out of the stream, as the sweeping node applies
+ * those itself. Change streams need a replica set: if the stream can't be
+ * opened, or it ends, the registry falls back to reloading the whole
+ * collection every time it's refreshed, and tries to open the stream
+ * again.</p>
+ *
+ * <p>Only registered sessions that aren't quarantined are held. Quarantined
+ * sessions return through the change stream once a probe recovers them.</p>
+ *
+ * <p>The held sessions are never handed out or changed in place. Sweeps get
+ * copies, and report what they changed back through {@link #update(Session)},
+ * which swaps in a new instance. A change that lands mid-sweep therefore
+ * can't change a session under the sweep, and the size gauge never reads a
+ * list that's being written.</p>
+ */
+public class SessionRegistry {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(SessionRegistry.class);
+
+    /** Orders sessions by when they were last polled, never polled first. */
+    private static final Comparator<Session> BY_STALENESS =
+            Comparator.comparing(
+                    Session::getLastPolled,
+                    Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    /**
+     * Drops updates that only touched the fields sweeps write on every poll,
+     * which the sweeping node already applied through
+     * {@link #update(Session)}. Without it, every poll would cost a full
+     * document lookup per session.
+     */
+    private static final Document SKIP_SWEPT =
+            skipFields("^(lastPolled|lastNotificationId|digest\\.(entries|overflow|windowStart)|alertBoard\\.(dirty|entries|lastRendered))(\\.|$)");
+
+    /** The approximate size of an {@link AlertBoard} and its list. */
+    private static final int BOARD_BYTES = 64;
+
+    /** The approximate size of an {@link AlertBoard.Entry} and its list. */
+    private static final int BOARD_ENTRY_BYTES = 120;
+
+    /** The approximate size of a {@link Digest} and its list. */
+    private static final int DIGEST_BYTES = 64;
+
+    /** The approximate size of a {@link Digest.Entry} and its lists. */
+    private static final int DIGEST_ENTRY_BYTES = 112;
+
+    /** The approximate size of an {@link Instant}. */
+    private static final int INSTANT_BYTES = 24;
+
+    /** The approximate size of a map entry plus a {@link Session}. */
+    private static final int SESSION_BYTES = 96;
+
+    /** The converter that sessions are copied through. */
+    private final MongoConverter mongoConverter;
+
+    /** The template for change streams. */
+    private final ReactiveMongoOperations mongoOperations;
+
+    /** The session repository. */
+    private final SessionRepository sessionRepository;
+
+    /** The active sessions, by ID, which are never changed once held. */
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    /** The change stream subscription. */
+    private volatile Disposable subscription;
+
+    /**
+     * The IDs that changed while the collection was being reloaded, or null
+     * if a reload isn't running.
+     */
+    private volatile Set<String> touched;
+
+    /** Whether or not a change stream failure has been reported. */
+    private boolean warned;
+
+    /**
+     * Constructor.
+     *
+     * @param mongoOperations   The template for change streams.
+     * @param sessionRepository The session repository.
+     * @param meterRegistry     The registry for metrics.
+     */
+    public SessionRegistry(
+            final ReactiveMongoOperations mongoOperations,
+            final SessionRepository sessionRepository,
+            final MeterRegistry meterRegistry) {
+        this.mongoOperations = mongoOperations;
+        this.mongoConverter = mongoOperations.getConverter();
+        this.sessionRepository = sessionRepository;
+        meterRegistry.gauge(
+                "bot.sessions.registry.size",
+                this.sessions,
+                Map::size);
+        meterRegistry.gauge(
+                "bot.sessions.registry.bytes",
+                this,
+                SessionRegistry::estimateBytes);
+        meterRegistry.gauge(
+                "bot.sessions.registry.streaming",
+                this,
+                registry -> registry.isStreaming() ? 1 : 0);
+    }
+
+    /**
+     * Creates the change stream stage that drops updates which only set
+     * fields matching the provided pattern. Inserts, replaces, deletes and
+     * updates that removed fields always pass.
+     *
+     * @param pattern The pattern for the dotted paths to ignore.
+     *
+     * @return The stage.
+     */
+    private static Document skipFields(final String pattern) {
+        final Document ignored =
+                new Document(
+                        "$regexMatch",
+                        new Document("input", "$$this.k")
+                                .append("regex", pattern));
+        final Document anyKept =
+                new Document(
+                        "$anyElementTrue",
+                        Collections.singletonList(
+                                new Document(
+                                        "$map",
+                                        new Document("input", new Document("$objectToArray", "$updateDescription.updatedFields"))
+                                                .append("in", new Document("$not", Collections.singletonList(ignored))))));
+        return new Document(
+                "$match",
+                new Document(
+                        "$or",
+                        Arrays.asList(
+                                new Document("operationType", new Document("$ne", "update")),
+                                new Document("updateDescription.removedFields.0", new Document("$exists", true)),
+                                new Document("$expr", anyKept))));
+    }
+
+    /**
+     * Returns the approximate heap used by the registry.
+     *
+     * @return The estimate, in bytes.
+     */
+    public long estimateBytes() {
+        long bytes = 0;
+        for (final Session session : new ArrayList<>(this.sessions.values())) {
+            bytes += estimateBytes(session);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns a copy of every session that's due to be swept, stalest
+     * first.
+     *
+     * @param now The current time.
+     *
+     * @return The sessions to sweep.
+     */
+    public List<Session> findDue(final Instant now) {
+        final List<Session> due = new ArrayList<>(this.sessions.size());
+        for (final Session session : this.sessions.values()) {
+            if (session.getNextAttempt() == null || !session.getNextAttempt().isAfter(now)) {
+                due.add(session);
+            }
+        }
+        due.sort(BY_STALENESS);
+        due.replaceAll(this::copy);
+        return due;
+    }
+
+    /**
+     * Returns whether or not the registry is being kept current by a change
+     * stream.
+     *
+     * @return Whether or not the change stream is open.
+     */
+    public boolean isStreaming() {
+        final Disposable current = this.subscription;
+        return current != null && !current.isDisposed();
+    }
+
+    /**
+     * Brings the registry up to date. While the change stream is open this
+     * does nothing; otherwise, the stream is reopened and every active session
+     * is reloaded.
+     */
+    public synchronized void refresh() {
+        if (isStreaming()) {
+            return;
+        }
+
+        // Open the stream first so nothing is missed while reloading
+        this.touched = ConcurrentHashMap.newKeySet();
+        this.subscription =
+                this.mongoOperations
+                        .changeStream(Session.class)
+                        .withOptions(options ->
+                                options
+                                        .filter(SKIP_SWEPT)
+                                        .fullDocumentLookup(FullDocument.UPDATE_LOOKUP))
+                        .listen()
+                        .subscribe(
+                                this::apply,
+                                this::onStreamError,
+                                () -> LOG.warn("Session change stream ended, falling back to reloading"));
+
+        try {
+            final Map<String, Session> loaded =
+                    this.sessionRepository
+                            .findActive()
+                            .stream()
+                            .collect(Collectors.toMap(
+                                    Session::getId,
+                                    session -> session));
+            synchronized (this.sessions) {
+                // A change that arrived during the reload is newer than what was read
+                final Set<String> changed = this.touched;
+                this.sessions
+                        .keySet()
+                        .removeIf(id -> !loaded.containsKey(id) && !changed.contains(id));
+                loaded.forEach((id, session) -> {
+                    if (!changed.contains(id)) {
+                        this.sessions.put(id, session);
+                    }
+                });
+                this.touched = null;
+            }
+        } finally {
+            this.touched = null;
+        }
+
+        final int size = this.sessions.size();
+        LOG.info("Loaded {} sessions into the registry (~{} bytes each, streaming: {})",
+                size,
+                size > 0 ? estimateBytes() / size : 0,
+                isStreaming());
+    }
+
+    /**
+     * Applies what a sweep changed on a session, so the next sweep starts
+     * from it even before the change comes back through the change stream, or
+     * when there's no change stream. Only the fields that sweeps own are
+     * taken, and everything else is kept from the held session.
+     *
+     * @param session The swept copy.
+     */
+    public void update(final Session session) {
+        synchronized (this.sessions) {
+            final Session held = this.sessions.get(session.getId());
+            if (held == null) {
+                return;
+            }
+            final Session updated = copy(held);
+            SessionFields.copyPolled(
+                    session,
+                    updated);
+            SessionFields.copyHealth(
+                    session,
+                    updated);
+            if (isActive(updated)) {
+                this.sessions.put(updated.getId(), updated);
+            } else {
+                this.sessions.remove(updated.getId());
+            }
+        }
+    }
+
+    /** Closes the change stream. */
+    public void stop() {
+        final Disposable current = this.subscription;
+        if (current != null) {
+            current.dispose();
+        }
+    }
+
+    /**
+     * Applies a change to the sessions collection.
+     *
+     * @param event The change.
+     */
+    private void apply(final ChangeStreamEvent<Session> event) {
+        final ChangeStreamDocument<Document> raw = event.getRaw();
+        if (raw == null || raw.getDocumentKey() == null || event.getOperationType() == null) {
+            return;
+        }
+
+        final String id = toId(raw.getDocumentKey().get("_id"));
+        synchronized (this.sessions) {
+            switch (event.getOperationType()) {
+                case INSERT:
+                case UPDATE:
+                case REPLACE:
+                    final Session session = event.getBody();
+                    if (session != null && isActive(session)) {
+                        this.sessions.put(id, session);
+                    } else {
+                        this.sessions.remove(id);
+                    }
+                    break;
+                case DELETE:
+                    this.sessions.remove(id);
+                    break;
+                default:
+                    return;
+            }
+
+            final Set<String> changed = this.touched;
+            if (changed != null) {
+                changed.add(id);
+            }
+        }
+    }
+
+    /**
+     * Copies a session, down to its digest and alert board entries.
+     *
+     * @param session The session.
+     *
+     * @return The copy.
+     */
+    private Session copy(final Session session) {
+        final Document document = new Document();
+        this.mongoConverter.write(
+                session,
+                document);
+        return this.mongoConverter.read(
+                Session.class,
+                document);
+    }
+
+    /**
+     * Handles the change stream failing, which is expected when Mongo isn't
+     * running as a replica set.
+     *
+     * @param throwable The failure.
+     */
+    private void onStreamError(final Throwable throwable) {
+        if (!this.warned) {
+            LOG.warn("Session change stream is unavailable, falling back to reloading: {}",
+                    throwable.getMessage());
+            this.warned = true;
+        } else {
+            LOG.debug("Session change stream failed", throwable);
+        }
+    }
+
+    /**
+     * Returns the approximate heap used by a session.
+     *
+     * @param session The session.
+     *
+     * @return The estimate, in bytes.
+     */
+    private static long estimateBytes(final Session session) {
+        long bytes =
+                SESSION_BYTES +
+                        estimateBytes(session.getApiKey()) +
+                        estimateBytes(session.getChannelId()) +
+                        estimateBytes(session.getId()) +
+                        estimateBytes(session.getWebhookUrl());
+        if (session.getDateRegistered() != null) {
+            bytes += INSTANT_BYTES;
+        }
+        if (session.getLastPolled() != null) {
+            bytes += INSTANT_BYTES;
+        }
+        if (session.getNextAttempt() != null) {
+            bytes += INSTANT_BYTES;
+        }
+
+        final Digest digest = session.getDigest();
+        if (digest != null) {
+            bytes += DIGEST_BYTES;
+            for (final Digest.Entry entry : digest.getEntries()) {
+                bytes += DIGEST_ENTRY_BYTES + estimateBytes(entry.getMiner());
+                for (final String diagnosis : entry.getDiagnosis()) {
+                    bytes += 4 + estimateBytes(diagnosis);
+                }
+                for (final String subject : entry.getSubjects()) {
+                    bytes += 4 + estimateBytes(subject);
+                }
+            }
+        }
+
+        final AlertBoard board = session.getAlertBoard();
+        if (board != null) {
+            bytes +=
+                    BOARD_BYTES +
+                            estimateBytes(board.getChannelId()) +
+                            estimateBytes(board.getMessageId());
+            for (final AlertBoard.Entry entry : board.getEntries()) {
+                bytes +=
+                        BOARD_ENTRY_BYTES +
+                                estimateBytes(entry.getMiner()) +
+                                estimateBytes(entry.getSubject());
+                for (final String diagnosis : entry.getDiagnosis()) {
+                    bytes += 4 + estimateBytes(diagnosis);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the approximate heap used by a string, assuming compact
+     * strings.
+     *
+     * @param value The string.
+     *
+     * @return The estimate, in bytes.
+     */
+    private static long estimateBytes(final String value) {
+        return value != null
+                ? 40 + value.length()
+                : 0;
+    }
+
+    /**
+     * Returns whether or not a session belongs in the registry.
+     *
+     * @param session The session.
+     *
+     * @return Whether or not the session is registered and not quarantined.
+     */
+    private static boolean isActive(final Session session) {
+        return session.getDateRegistered() != null && !session.isQuarantined();
+    }
+
+    /**
+     * Converts a document key to a session ID.
+     *
+     * @param value The key.
+     *
+     * @return The ID.
+     */
+    private static String toId(final BsonValue value) {
+        return value.isString()
+                ? value.asString().getValue()
+                : value.isObjectId()
+                ? value.asObjectId().getValue().toHexString()
+                : value.toString();
+    }
+}
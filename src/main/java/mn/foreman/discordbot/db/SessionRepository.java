@@ -1,9 +1,59 @@
 package mn.foreman.discordbot.db;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
-/** A repository for storing {@link ChatSession sessions}. */
+import java.time.Instant;
+import java.util.List;
+
+/** A repository for storing {@link Session sessions} in MongoDB. */
 public interface SessionRepository
-        extends MongoRepository<ChatSession, String> {
+        extends MongoRepository<Session, String>, SessionStore {
+
+    /**
+     * Finds every session for the provided Foreman client.
+     *
+     * @param clientId The client ID.
+     *
+     * @return The sessions.
+     */
+    List<Session> findByClientId(int clientId);
+
+    /**
+     * Finds every registered session that isn't quarantined.
+     *
+     * @return The active sessions.
+     */
+    @Query("{ 'dateRegistered' : { $exists : true, $ne : null }, " +
+            "'quarantined' : { $ne : true } }")
+    List<Session> findActive();
+
+    /**
+     * Finds every registered session that's healthy and isn't backing off,
+     * stalest first.
+     *
+     * @param now The current time.
+     *
+     * @return The sessions to sweep.
+     */
+    @Query(
+            value = "{ 'dateRegistered' : { $exists : true, $ne : null }, " +
+                    "'quarantined' : { $ne : true }, " +
+                    "$or : [ { 'nextAttempt' : null }, { 'nextAttempt' : { $lte : ?0 } } ] }",
+            sort = "{ 'lastPolled' : 1 }")
+    List<Session> findDue(Instant now);
 
+    /**
+     * Finds the quarantined sessions that are due to be probed.
+     *
+     * @param now      The current time.
+     * @param pageable The max sessions to return.
+     *
+     * @return The sessions to probe.
+     */
+    @Query("{ 'quarantined' : true, 'nextAttempt' : { $lte : ?0 } }")
+    List<Session> findQuarantined(
+            Instant now,
+            Pageable pageable);
 }
@@ -0,0 +1,70 @@
+package mn.foreman.discordbot.db;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.NoRepositoryBean;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Where {@link Session sessions} are stored. {@link SessionRepository} keeps
+ * them in MongoDB, and {@link LocalSessionStore} keeps them in a local file
+ * for deployments that don't need a database.
+ */
+@NoRepositoryBean
+public interface SessionStore
+        extends CrudRepository<Session, String>, SessionUpdates {
+
+    /**
+     * Finds every registered session that isn't quarantined.
+     *
+     * @return The active sessions.
+     */
+    List<Session> findActive();
+
+    /**
+     * Finds every session for the provided Foreman client.
+     *
+     * @param clientId The client ID.
+     *
+     * @return The sessions.
+     */
+    List<Session> findByClientId(int clientId);
+
+    /**
+     * Finds every registered session that's healthy and isn't backing off,
+     * stalest first.
+     *
+     * @param now The current time.
+     *
+     * @return The sessions to sweep.
+     */
+    List<Session> findDue(Instant now);
+
+    /**
+     * Finds the quarantined sessions that are due to be probed.
+     *
+     * @param now      The current time.
+     * @param pageable The max sessions to return.
+     *
+     * @return The sessions to probe.
+     */
+    List<Session> findQuarantined(
+            Instant now,
+            Pageable pageable);
+
+    /**
+     * Stores a new session.
+     *
+     * @param session The session.
+     * @param <S>     The session type.
+     *
+     * @return The stored session.
+     *
+     * @throws org.springframework.dao.DuplicateKeyException if a session with
+     *                                                       the same ID is
+     *                                                       already stored.
+     */
+    <S extends Session> S insert(S session);
+}
@@ -0,0 +1,11 @@
+package mn.foreman.discordbot.db;
+
+/** The kinds of destinations that a {@link Session} can notify. */
+public enum SessionType {
+
+    /** A channel in a guild. */
+    GUILD,
+
+    /** A direct message to a user. */
+    PRIVATE
+}
@@ -0,0 +1,69 @@
+package mn.foreman.discordbot.db;
+
+/**
+ * Field-level updates to stored {@link Session sessions}.
+ *
+ * <p>The worker that polls a session, the receiver that accepts pushes, the
+ * gateway that sends messages and the commands that change settings all
+ * update the same documents. Each only writes the fields it owns through
+ * these updates, rather than saving the whole session, so none of them can
+ * overwrite another's changes with a stale copy.</p>
+ */
+public interface SessionUpdates {
+
+    /**
+     * Persists what rendering notifications changed: the cursor, when the
+     * session was last polled, the pending digest and the alert board's
+     * entries. The cursor and the poll time only ever move forward, so a
+     * slower writer holding older values can't rewind them.
+     *
+     * @param session The session.
+     */
+    void savePoll(Session session);
+
+    /**
+     * Persists when the session was last polled, for polls that changed
+     * nothing else. Like {@link #savePoll(Session)}, it only moves forward.
+     *
+     * @param session The session.
+     */
+    void saveLastPolled(Session session);
+
+    /**
+     * Persists the session's health: its failures, when it's next attempted
+     * and whether or not it's quarantined.
+     *
+     * @param session The session.
+     */
+    void saveHealth(Session session);
+
+    /**
+     * Persists the session's webhook, or that it no longer has one.
+     *
+     * @param session The session.
+     */
+    void saveWebhookUrl(Session session);
+
+    /**
+     * Persists where the session's alert board was posted.
+     *
+     * @param session The session.
+     */
+    void saveBoardMessage(Session session);
+
+    /**
+     * Persists whether or not the session uses its alert board, and that the
+     * board needs to be rendered, keeping where it was already posted.
+     *
+     * @param session The session.
+     */
+    void saveBoardSettings(Session session);
+
+    /**
+     * Persists how often the session receives a digest, keeping anything
+     * that's already buffered.
+     *
+     * @param session The session.
+     */
+    void saveDigestInterval(Session session);
+}
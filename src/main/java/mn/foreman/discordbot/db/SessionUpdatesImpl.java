@@ -0,0 +1,150 @@
+package mn.foreman.discordbot.db;
+
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/** The MongoDB implementation of {@link SessionUpdates}. */
+public class SessionUpdatesImpl
+        implements SessionUpdates {
+
+    /** The operations for the sessions collection. */
+    private final MongoOperations mongoOperations;
+
+    /**
+     * Constructor.
+     *
+     * @param mongoOperations The operations for the sessions collection.
+     */
+    public SessionUpdatesImpl(final MongoOperations mongoOperations) {
+        this.mongoOperations = mongoOperations;
+    }
+
+    /**
+     * Creates the update for what rendering notifications changed.
+     *
+     * @param session The session.
+     *
+     * @return The update.
+     */
+    static Update toPollUpdate(final Session session) {
+        final Update update =
+                new Update()
+                        .max("lastNotificationId", session.getLastNotificationId())
+                        .max("lastPolled", session.getLastPolled());
+        final Digest digest = session.getDigest();
+        if (digest != null) {
+            update
+                    .set("digest.entries", digest.getEntries())
+                    .set("digest.overflow", digest.getOverflow())
+                    .set("digest.windowStart", digest.getWindowStart());
+        }
+        final AlertBoard alertBoard = session.getAlertBoard();
+        if (alertBoard != null) {
+            update
+                    .set("alertBoard.dirty", alertBoard.isDirty())
+                    .set("alertBoard.entries", alertBoard.getEntries())
+                    .set("alertBoard.lastRendered", alertBoard.getLastRendered());
+        }
+        return update;
+    }
+
+    /**
+     * Adds the session's health to an update.
+     *
+     * @param update  The update.
+     * @param session The session.
+     *
+     * @return The update.
+     */
+    static Update withHealth(
+            final Update update,
+            final Session session) {
+        return update
+                .set("consecutiveFailures", session.getConsecutiveFailures())
+                .set("nextAttempt", session.getNextAttempt())
+                .set("quarantined", session.isQuarantined());
+    }
+
+    @Override
+    public void savePoll(final Session session) {
+        update(
+                session,
+                toPollUpdate(session));
+    }
+
+    @Override
+    public void saveLastPolled(final Session session) {
+        update(
+                session,
+                new Update().max("lastPolled", session.getLastPolled()));
+    }
+
+    @Override
+    public void saveHealth(final Session session) {
+        update(
+                session,
+                withHealth(
+                        new Update(),
+                        session));
+    }
+
+    @Override
+    public void saveWebhookUrl(final Session session) {
+        update(
+                session,
+                session.getWebhookUrl() != null
+                        ? Update.update("webhookUrl", session.getWebhookUrl())
+                        : new Update().unset("webhookUrl"));
+    }
+
+    @Override
+    public void saveBoardMessage(final Session session) {
+        final AlertBoard alertBoard = session.getAlertBoard();
+        if (alertBoard != null) {
+            update(
+                    session,
+                    new Update()
+                            .set("alertBoard.channelId", alertBoard.getChannelId())
+                            .set("alertBoard.messageId", alertBoard.getMessageId()));
+        }
+    }
+
+    @Override
+    public void saveBoardSettings(final Session session) {
+        final AlertBoard alertBoard = session.getAlertBoard();
+        if (alertBoard != null) {
+            update(
+                    session,
+                    new Update()
+                            .set("alertBoard.dirty", alertBoard.isDirty())
+                            .set("alertBoard.enabled", alertBoard.isEnabled()));
+        }
+    }
+
+    @Override
+    public void saveDigestInterval(final Session session) {
+        final Digest digest = session.getDigest();
+        if (digest != null) {
+            update(
+                    session,
+                    Update.update("digest.intervalMinutes", digest.getIntervalMinutes()));
+        }
+    }
+
+    /**
+     * Applies an update to a stored session.
+     *
+     * @param session The session.
+     * @param update  The update.
+     */
+    private void update(
+            final Session session,
+            final Update update) {
+        this.mongoOperations.updateFirst(
+                Query.query(Criteria.where("id").is(session.getId())),
+                update,
+                Session.class);
+    }
+}
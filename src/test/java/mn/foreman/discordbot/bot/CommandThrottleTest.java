@@ -0,0 +1,158 @@
+package mn.foreman.discordbot.bot;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests for the {@link CommandThrottle} buckets. */
+class CommandThrottleTest {
+
+    /** The registry for metrics. */
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /** The current time. */
+    private final AtomicLong now = new AtomicLong();
+
+    /** Tests that a bucket refills one token per interval, up to capacity. */
+    @Test
+    void refills() {
+        final CommandThrottle throttle = throttle(10, 3);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(throttle.tryAcquire(null, "user", Command.HELP)).isZero();
+        }
+        assertThat(throttle.tryAcquire(null, "user", Command.HELP)).isEqualTo(1_000);
+
+        advance(400);
+        assertThat(throttle.tryAcquire(null, "user", Command.HELP)).isEqualTo(600);
+        advance(600);
+        assertThat(throttle.tryAcquire(null, "user", Command.HELP)).isZero();
+        assertThat(throttle.tryAcquire(null, "user", Command.HELP)).isEqualTo(1_000);
+
+        // Idle time beyond a full bucket isn't saved up
+        advance(60_000);
+        for (int i = 0; i < 3; i++) {
+            assertThat(throttle.tryAcquire(null, "user", Command.HELP)).isZero();
+        }
+        assertThat(throttle.tryAcquire(null, "user", Command.HELP)).isPositive();
+    }
+
+    /** Tests that a command costs its tokens. */
+    @Test
+    void costsCharged() {
+        final CommandThrottle throttle = throttle(10, 6);
+
+        assertThat(throttle.tryAcquire(null, "user", Command.STATUS)).isZero();
+        assertThat(throttle.tryAcquire(null, "user", Command.STATUS)).isEqualTo(4_000);
+        assertThat(throttle.tryAcquire(null, "user", Command.HELP)).isZero();
+    }
+
+    /**
+     * Tests that a user's tokens are given back when the guild rejects the
+     * command.
+     */
+    @Test
+    void guildRejectionRefundsUser() {
+        final CommandThrottle throttle = throttle(2, 4);
+
+        assertThat(throttle.tryAcquire("guild", "a", Command.HELP)).isZero();
+        assertThat(throttle.tryAcquire("guild", "b", Command.HELP)).isZero();
+        assertThat(throttle.tryAcquire("guild", "a", Command.HELP)).isPositive();
+        assertThat(throttled("guild")).isEqualTo(1);
+
+        // Only the command that ran was charged to the user
+        for (int i = 0; i < 3; i++) {
+            assertThat(throttle.tryAcquire(null, "a", Command.HELP)).isZero();
+        }
+        assertThat(throttle.tryAcquire(null, "a", Command.HELP)).isPositive();
+    }
+
+    /**
+     * Tests that a user who's out of tokens is stopped in every guild, without
+     * taking anything from the guild.
+     */
+    @Test
+    void userRejectionSparesGuild() {
+        final CommandThrottle throttle = throttle(2, 1);
+
+        assertThat(throttle.tryAcquire("guild", "a", Command.HELP)).isZero();
+        assertThat(throttle.tryAcquire("guild", "a", Command.HELP)).isPositive();
+        assertThat(throttle.tryAcquire("other", "a", Command.HELP)).isPositive();
+        assertThat(throttled("user")).isEqualTo(2);
+
+        // The guild still has the token that a's rejected command didn't take
+        assertThat(throttle.tryAcquire("guild", "b", Command.HELP)).isZero();
+        assertThat(throttle.tryAcquire("guild", "c", Command.HELP)).isPositive();
+        assertThat(throttled("guild")).isEqualTo(1);
+    }
+
+    /**
+     * Tests that a bucket that expired while idle comes back full, so nothing
+     * is lost by dropping it.
+     */
+    @Test
+    void idleBucketExpiresFull() {
+        final CommandThrottle throttle = throttle(10, 2);
+
+        assertThat(throttle.tryAcquire(null, "user", Command.HELP)).isZero();
+        assertThat(throttle.tryAcquire(null, "user", Command.HELP)).isZero();
+        advance(2_000);
+        for (int i = 0; i < 2; i++) {
+            assertThat(throttle.tryAcquire(null, "user", Command.HELP)).isZero();
+        }
+        assertThat(throttle.tryAcquire(null, "user", Command.HELP)).isPositive();
+    }
+
+    /**
+     * Moves the clock forward.
+     *
+     * @param millis How far to move it.
+     */
+    private void advance(final long millis) {
+        this.now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Creates a throttle on the test clock where every bucket regains a token
+     * per second.
+     *
+     * @param guildCapacity The max tokens a guild can hold.
+     * @param userCapacity  The max tokens a user can hold.
+     *
+     * @return The throttle.
+     */
+    private CommandThrottle throttle(
+            final int guildCapacity,
+            final int userCapacity) {
+        return new CommandThrottle(
+                guildCapacity,
+                60,
+                userCapacity,
+                60,
+                100,
+                this.meterRegistry,
+                this.now::get);
+    }
+
+    /**
+     * Returns how many commands a scope rejected.
+     *
+     * @param scope The scope.
+     *
+     * @return How many were rejected.
+     */
+    private double throttled(final String scope) {
+        return this.meterRegistry
+                .find("bot.commands.throttled")
+                .tag("scope", scope)
+                .counters()
+                .stream()
+                .mapToDouble(Counter::count)
+                .sum();
+    }
+}
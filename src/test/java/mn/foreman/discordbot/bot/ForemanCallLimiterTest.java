@@ -0,0 +1,177 @@
+package mn.foreman.discordbot.bot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/** Tests for the {@link ForemanCallLimiter} circuit. */
+class ForemanCallLimiterTest {
+
+    /** How long the circuit stays open. */
+    private static final long OPEN_MILLIS = 50;
+
+    /** The thread pool for calls that are held in flight. */
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+
+    /** The registry for metrics. */
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /** The limiter. */
+    private final ForemanCallLimiter limiter =
+            new ForemanCallLimiter(
+                    16,
+                    1,
+                    64,
+                    0.9,
+                    60_000,
+                    2,
+                    0.5,
+                    OPEN_MILLIS,
+                    this.meterRegistry);
+
+    /** Stops the calls that are still held. */
+    @AfterEach
+    void tearDown() {
+        this.executorService.shutdownNow();
+    }
+
+    /**
+     * Tests that a call that started before the circuit opened can't close
+     * it while the probe is in flight.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void onlyProbeClosesCircuit() throws Exception {
+        final CountDownLatch releaseEarly = new CountDownLatch(1);
+        final Future<String> early = hold(releaseEarly);
+
+        fail();
+        fail();
+        assertThat(isOpen()).isTrue();
+        Thread.sleep(OPEN_MILLIS * 2);
+
+        final CountDownLatch releaseProbe = new CountDownLatch(1);
+        final Future<String> probe = hold(releaseProbe);
+        awaitInFlight(2);
+
+        // The early call finishes healthy, but it isn't the probe
+        releaseEarly.countDown();
+        assertThat(early.get()).isEqualTo("ok");
+        assertThat(isOpen()).isTrue();
+        assertThatThrownBy(() -> this.limiter.call(() -> "rejected"))
+                .isInstanceOf(RejectedExecutionException.class);
+
+        releaseProbe.countDown();
+        assertThat(probe.get()).isEqualTo("ok");
+        assertThat(isOpen()).isFalse();
+        assertThat(this.limiter.call(() -> "closed")).isEqualTo("closed");
+    }
+
+    /**
+     * Tests that a failure that started before the circuit opened doesn't
+     * re-open it after the probe is let through.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void earlyFailureDoesNotReopen() throws Exception {
+        final CountDownLatch releaseEarly = new CountDownLatch(1);
+        final Future<String> early =
+                this.executorService.submit(() ->
+                        this.limiter.call(() -> {
+                            await(releaseEarly);
+                            throw new IllegalStateException("early");
+                        }));
+        awaitInFlight(1);
+
+        fail();
+        fail();
+        Thread.sleep(OPEN_MILLIS * 2);
+
+        final CountDownLatch releaseProbe = new CountDownLatch(1);
+        final Future<String> probe = hold(releaseProbe);
+        awaitInFlight(2);
+
+        releaseEarly.countDown();
+        assertThatThrownBy(early::get).hasCauseInstanceOf(IllegalStateException.class);
+
+        releaseProbe.countDown();
+        assertThat(probe.get()).isEqualTo("ok");
+        assertThat(isOpen()).isFalse();
+    }
+
+    /**
+     * Waits for a latch.
+     *
+     * @param latch The latch.
+     */
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for the provided number of calls to be in flight.
+     *
+     * @param inFlight The calls.
+     *
+     * @throws InterruptedException if interrupted.
+     */
+    private void awaitInFlight(final int inFlight) throws InterruptedException {
+        while (this.meterRegistry.get("bot.foreman.inflight").gauge().value() < inFlight) {
+            Thread.sleep(1);
+        }
+    }
+
+    /** Performs a failed call. */
+    private void fail() {
+        assertThatThrownBy(() ->
+                this.limiter.call(() -> {
+                    throw new IllegalStateException("failed");
+                }))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    /**
+     * Starts a call that's held in flight until the latch is released.
+     *
+     * @param release The latch.
+     *
+     * @return The call.
+     *
+     * @throws InterruptedException if interrupted.
+     */
+    private Future<String> hold(final CountDownLatch release) throws InterruptedException {
+        final int before = (int) this.meterRegistry.get("bot.foreman.inflight").gauge().value();
+        final Future<String> future =
+                this.executorService.submit(() ->
+                        this.limiter.call(() -> {
+                            await(release);
+                            return "ok";
+                        }));
+        awaitInFlight(before + 1);
+        return future;
+    }
+
+    /**
+     * Returns whether or not the circuit isn't closed.
+     *
+     * @return Whether or not the circuit is open or half open.
+     */
+    private boolean isOpen() {
+        return this.meterRegistry.get("bot.foreman.circuit.open").gauge().value() > 0;
+    }
+}
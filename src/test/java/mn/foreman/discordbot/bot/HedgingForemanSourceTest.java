@@ -0,0 +1,359 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.api.endpoints.miners.Miners;
+import mn.foreman.api.endpoints.notifications.Notifications;
+import mn.foreman.api.endpoints.pickaxe.Pickaxe;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/** Tests for the {@link HedgingForemanSource} thresholds, budget and winner. */
+class HedgingForemanSourceTest {
+
+    /** How many calls it takes to compute the first threshold. */
+    private static final int WARM_UP = 50;
+
+    /** How many attempts have been made. */
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    /** The thread pool that attempts run on. */
+    private final ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+    /** How long each attempt takes on the test clock. */
+    private final AtomicLong latencyNanos = new AtomicLong();
+
+    /** The registry for metrics. */
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /** The current time. */
+    private final AtomicLong now = new AtomicLong();
+
+    /** Answers each attempt, by its number from 1. */
+    private volatile IntFunction<String> responder = attempt -> "ok";
+
+    /** Stops the attempts that are still running. */
+    @AfterEach
+    void tearDown() {
+        this.executorService.shutdownNow();
+    }
+
+    /** Tests that the delay before a hedge is the configured percentile. */
+    @Test
+    void thresholdFromPercentile() {
+        final HedgingForemanSource source = source(1, 1_000, 1, 1);
+        for (int i = 1; i <= WARM_UP; i++) {
+            this.latencyNanos.set(TimeUnit.MILLISECONDS.toNanos(i));
+            call(source);
+        }
+        assertThat(delayMillis()).isEqualTo(46);
+    }
+
+    /** Tests that the delay before a hedge is kept within its bounds. */
+    @Test
+    void thresholdClamped() {
+        final HedgingForemanSource source = source(1, 30, 1, 1);
+        for (int i = 1; i <= WARM_UP; i++) {
+            this.latencyNanos.set(TimeUnit.MILLISECONDS.toNanos(i));
+            call(source);
+        }
+        assertThat(delayMillis()).isEqualTo(30);
+    }
+
+    /** Tests that the latencies of failed calls are part of the threshold. */
+    @Test
+    void failuresRecorded() {
+        final HedgingForemanSource source = source(1, 1_000, 1, 1);
+        this.latencyNanos.set(TimeUnit.MILLISECONDS.toNanos(200));
+        this.responder = attempt -> {
+            throw new IllegalStateException("timed out");
+        };
+        for (int i = 0; i < WARM_UP; i++) {
+            assertThatThrownBy(() -> call(source))
+                    .isInstanceOf(IllegalStateException.class);
+        }
+        assertThat(delayMillis()).isEqualTo(200);
+    }
+
+    /** Tests that a hedge that responds first wins. */
+    @Test
+    void fasterHedgeWins() {
+        final HedgingForemanSource source = warmedUp(1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        this.responder = attempt -> {
+            if (attempt == 1) {
+                await(release);
+                return "first";
+            }
+            return "hedge";
+        };
+        try {
+            assertThat(call(source)).isEqualTo("hedge");
+        } finally {
+            release.countDown();
+        }
+        assertThat(hedges("sent")).isEqualTo(1);
+        // Counted just after the response is handed back
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (hedges("won") == 0 && System.nanoTime() < deadline) {
+            sleep(1);
+        }
+        assertThat(hedges("won")).isEqualTo(1);
+    }
+
+    /** Tests that a first attempt that responds before the hedge wins. */
+    @Test
+    void fasterFirstAttemptWins() {
+        final HedgingForemanSource source = warmedUp(1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        this.responder = attempt -> {
+            if (attempt == 1) {
+                sleep(100);
+                return "first";
+            }
+            await(release);
+            return "hedge";
+        };
+        try {
+            assertThat(call(source)).isEqualTo("first");
+        } finally {
+            release.countDown();
+        }
+        assertThat(hedges("sent")).isEqualTo(1);
+        assertThat(hedges("won")).isZero();
+    }
+
+    /** Tests that hedges stop once the budget runs out. */
+    @Test
+    void budgetWithdrawn() {
+        final HedgingForemanSource source = warmedUp(0, 1);
+        this.responder = attempt -> {
+            if (attempt % 2 == 1) {
+                sleep(100);
+                return "first";
+            }
+            return "hedge";
+        };
+        assertThat(call(source)).isEqualTo("hedge");
+        assertThat(call(source)).isEqualTo("first");
+        assertThat(hedges("sent")).isEqualTo(1);
+        assertThat(hedges("denied")).isEqualTo(1);
+    }
+
+    /** Tests that the first attempt runs on the caller when the pool is full. */
+    @Test
+    void fullPoolRunsInline() {
+        this.executorService.shutdown();
+        final HedgingForemanSource source = source(1, 1_000, 1, 1);
+        final String caller = Thread.currentThread().getName();
+        this.responder = attempt -> Thread.currentThread().getName();
+        assertThat(call(source)).isEqualTo(caller);
+    }
+
+    /**
+     * Waits for a latch, giving up after a while.
+     *
+     * @param latch The latch.
+     */
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(
+                    5,
+                    TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sleeps.
+     *
+     * @param millis How long to sleep.
+     */
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Performs a hedged call.
+     *
+     * @param source The source.
+     *
+     * @return The response.
+     */
+    private static String call(final HedgingForemanSource source) {
+        return source
+                .pickaxes(
+                        1,
+                        "key")
+                .get(0)
+                .key;
+    }
+
+    /**
+     * Returns the current delay before a hedge.
+     *
+     * @return The delay, in millis.
+     */
+    private double delayMillis() {
+        return this.meterRegistry
+                .get("bot.foreman.hedge.delay")
+                .tag("endpoint", "pickaxes")
+                .gauge()
+                .value();
+    }
+
+    /**
+     * Returns how many hedges had an outcome.
+     *
+     * @param outcome The outcome.
+     *
+     * @return How many hedges.
+     */
+    private double hedges(final String outcome) {
+        return this.meterRegistry
+                .counter(
+                        "bot.foreman.hedges",
+                        "endpoint",
+                        "pickaxes",
+                        "outcome",
+                        outcome)
+                .count();
+    }
+
+    /**
+     * Creates a source that hedges {@link FakeSource}.
+     *
+     * @param minDelayMillis The min delay before a hedge.
+     * @param maxDelayMillis The max delay before a hedge.
+     * @param budgetRatio    The max hedges per call.
+     * @param maxBudget      The max hedges that can be saved up.
+     *
+     * @return The source.
+     */
+    private HedgingForemanSource source(
+            final long minDelayMillis,
+            final long maxDelayMillis,
+            final double budgetRatio,
+            final double maxBudget) {
+        return new HedgingForemanSource(
+                new FakeSource(),
+                this.executorService,
+                new ForemanCallLimiter(
+                        16,
+                        1,
+                        64,
+                        0.9,
+                        60_000,
+                        64,
+                        0.5,
+                        1_000,
+                        this.meterRegistry),
+                0.9,
+                WARM_UP,
+                10,
+                minDelayMillis,
+                maxDelayMillis,
+                budgetRatio,
+                maxBudget,
+                this.meterRegistry,
+                this.now::get);
+    }
+
+    /**
+     * Creates a source that hedges after 20ms, and warms it up so it does.
+     *
+     * @param budgetRatio The max hedges per call.
+     * @param maxBudget   The max hedges that can be saved up.
+     *
+     * @return The source.
+     */
+    private HedgingForemanSource warmedUp(
+            final double budgetRatio,
+            final double maxBudget) {
+        final HedgingForemanSource source =
+                source(
+                        20,
+                        20,
+                        budgetRatio,
+                        maxBudget);
+        for (int i = 0; i < WARM_UP; i++) {
+            call(source);
+        }
+        assertThat(delayMillis()).isEqualTo(20);
+        this.attempts.set(0);
+        return source;
+    }
+
+    /** A source whose pickaxes are answered by the test. */
+    private class FakeSource
+            implements ForemanSource {
+
+        @Override
+        public List<Miners.Miner> miners(
+                final int clientId,
+                final String apiKey,
+                final String pickaxe) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Notifications.Notification> notifications(
+                final int clientId,
+                final String apiKey,
+                final int lastNotificationId,
+                final Instant startDate) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<List<Notifications.Notification>> notificationsAsync(
+                final int clientId,
+                final String apiKey,
+                final int lastNotificationId,
+                final Instant startDate) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public InputStream openMiners(
+                final int clientId,
+                final String apiKey,
+                final String pickaxe) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Pickaxe.PickaxeInstance> pickaxes(
+                final int clientId,
+                final String apiKey) {
+            final int attempt =
+                    HedgingForemanSourceTest.this.attempts.incrementAndGet();
+            HedgingForemanSourceTest.this.now.addAndGet(
+                    HedgingForemanSourceTest.this.latencyNanos.get());
+            final Pickaxe.PickaxeInstance pickaxe = new Pickaxe.PickaxeInstance();
+            pickaxe.key = HedgingForemanSourceTest.this.responder.apply(attempt);
+            return Collections.singletonList(pickaxe);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package mn.foreman.discordbot.bot;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Times rendering a large notification through the {@link MessageRenderer}
+ * against the {@link String#format(String, Object...)} formatter it replaced.
+ *
+ * <p>Run with {@code mvn -Pbenchmark test}.</p>
+ */
+@Tag("benchmark")
+class MessageRendererBenchmark {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(MessageRendererBenchmark.class);
+
+    /** The dashboard URL. */
+    private static final String DASHBOARD_URL = "https://dashboard.foreman.mn";
+
+    /** The max length of an embed description. */
+    private static final int MAX_LENGTH = 4096;
+
+    /** How many failing miners are rendered. */
+    private static final int MINERS = 500;
+
+    /** How many renders are timed. */
+    private static final int RENDERS = 2_000;
+
+    /** How many renders are done before timing. */
+    private static final int WARMUPS = 500;
+
+    /** The failing miners. */
+    private final List<Miner> miners = newMiners();
+
+    /** Times both renderers and checks the pages fit. */
+    @Test
+    void render() {
+        final MessageRenderer messageRenderer =
+                new MessageRenderer(
+                        DASHBOARD_URL,
+                        MAX_LENGTH);
+
+        final List<String> pages = renderPaged(messageRenderer);
+        assertThat(pages).hasSizeGreaterThan(1);
+        for (int i = 0; i < pages.size(); i++) {
+            assertThat(pages.get(i)).hasSizeLessThanOrEqualTo(MAX_LENGTH);
+            assertThat(pages.get(i)).startsWith(
+                    i == 0
+                            ? "**Miners Offline**\n\n"
+                            : "**Miners Offline** (cont.)\n\n");
+        }
+        assertThat(String.join("", pages).replace("**Miners Offline** (cont.)\n\n", ""))
+                .isEqualTo(renderFormatted());
+
+        final long formatted = time(this::renderFormatted);
+        final long paged = time(() -> renderPaged(messageRenderer));
+        LOG.info("{} miners: String.format {}us/render, renderer {}us/render ({} pages)",
+                MINERS,
+                formatted / 1_000,
+                paged / 1_000,
+                pages.size());
+    }
+
+    /**
+     * Creates the failing miners.
+     *
+     * @return The miners.
+     */
+    private static List<Miner> newMiners() {
+        final List<Miner> miners = new ArrayList<>(MINERS);
+        for (int i = 0; i < MINERS; i++) {
+            miners.add(
+                    new Miner(
+                            "rack-" + (i / 40) + "-miner-" + i,
+                            100_000 + i,
+                            Arrays.asList(
+                                    "Hash rate is 0 MH/s",
+                                    "Board " + (i % 3) + " is offline")));
+        }
+        return miners;
+    }
+
+    /**
+     * Returns the average time of a render, in nanos.
+     *
+     * @param render The render.
+     *
+     * @return The average time.
+     */
+    private static long time(final Runnable render) {
+        for (int i = 0; i < WARMUPS; i++) {
+            render.run();
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < RENDERS; i++) {
+            render.run();
+        }
+        return (System.nanoTime() - start) / RENDERS;
+    }
+
+    /**
+     * Renders the miners the way the bot did before the renderer, into one
+     * unbounded message.
+     *
+     * @return The message.
+     */
+    private String renderFormatted() {
+        String message = String.format("**%s**", "Miners Offline") + "\n\n";
+        for (final Miner miner : this.miners) {
+            final StringBuilder stringBuilder = new StringBuilder();
+            stringBuilder
+                    .append(
+                            String.format(
+                                    "[%s](%s/dashboard/miners/%d/details/)",
+                                    miner.name,
+                                    DASHBOARD_URL,
+                                    miner.id))
+                    .append("\n");
+            miner.diagnosis.forEach(
+                    diag ->
+                            stringBuilder
+                                    .append(diag)
+                                    .append("\n"));
+            stringBuilder.append("\n");
+            message += stringBuilder;
+        }
+        return message;
+    }
+
+    /**
+     * Renders the miners through the renderer, into pages.
+     *
+     * @param messageRenderer The renderer.
+     *
+     * @return The pages.
+     */
+    private List<String> renderPaged(final MessageRenderer messageRenderer) {
+        final MessageRenderer.PagedMessage message =
+                messageRenderer.newMessage("**Miners Offline**\n\n");
+        for (final Miner miner : this.miners) {
+            final StringBuilder entry = message.entry();
+            messageRenderer
+                    .appendMinerLink(
+                            entry,
+                            miner.name,
+                            miner.id)
+                    .append('\n');
+            for (final String diag : miner.diagnosis) {
+                entry
+                        .append(diag)
+                        .append('\n');
+            }
+            entry.append('\n');
+            message.commit();
+        }
+        return message.toPages();
+    }
+
+    /** A failing miner. */
+    private static class Miner {
+
+        /** The diagnosis. */
+        private final List<String> diagnosis;
+
+        /** The miner ID. */
+        private final int id;
+
+        /** The miner name. */
+        private final String name;
+
+        /**
+         * Constructor.
+         *
+         * @param name      The miner name.
+         * @param id        The miner ID.
+         * @param diagnosis The diagnosis.
+         */
+        Miner(
+                final String name,
+                final int id,
+                final List<String> diagnosis) {
+            this.name = name;
+            this.id = id;
+            this.diagnosis = diagnosis;
+        }
+    }
+}
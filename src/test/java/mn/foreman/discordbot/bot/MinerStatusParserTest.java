@@ -0,0 +1,107 @@
+package mn.foreman.discordbot.bot;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/** Tests for filtering miners in the {@link MinerStatusParser}. */
+class MinerStatusParserTest {
+
+    /** A miners response, shaped like the one the API handler parses. */
+    private static final String MINERS =
+            "[" +
+                    "{\"id\":1,\"name\":\"healthy\",\"status\":\"okay\",\"seen\":true,\"active\":true}," +
+                    "{\"id\":2,\"name\":\"warm\",\"status\":\"warn\",\"seen\":true,\"active\":true," +
+                    "\"stats\":{\"temps\":[70,71],\"name\":\"ignored\"}}," +
+                    "{\"id\":3,\"name\":\"unseen\",\"status\":\"fail\",\"seen\":false,\"active\":true}," +
+                    "{\"id\":4,\"name\":\"inactive\",\"status\":\"fail\",\"seen\":true,\"active\":false}," +
+                    "{\"name\":\"hot\",\"status\":\"fail\",\"active\":true,\"seen\":true,\"id\":\"5\"}," +
+                    "{\"id\":\"six\",\"name\":\"bad-string\",\"status\":\"fail\",\"seen\":true,\"active\":true}," +
+                    "{\"id\":7.5,\"name\":\"bad-float\",\"status\":\"fail\",\"seen\":true,\"active\":true}," +
+                    "{\"id\":null,\"name\":\"bad-null\",\"status\":\"fail\",\"seen\":true,\"active\":true}," +
+                    "{\"id\":{\"value\":9},\"name\":\"bad-object\",\"status\":\"fail\",\"seen\":true,\"active\":true}," +
+                    "{\"id\":10,\"name\":[\"bad\"],\"status\":\"fail\",\"seen\":true,\"active\":true}," +
+                    "{\"name\":\"no-id\",\"status\":\"fail\",\"seen\":true,\"active\":true}" +
+                    "]";
+
+    /** The registry for metrics. */
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /** The parser. */
+    private final MinerStatusParser parser =
+            new MinerStatusParser(
+                    new JsonFactory(),
+                    this.meterRegistry);
+
+    /**
+     * Tests that only unhealthy, seen and active miners are kept.
+     *
+     * @throws IOException on failure.
+     */
+    @Test
+    void onlyUnhealthyKept() throws IOException {
+        final MinerBuckets buckets = parse(MINERS);
+
+        assertThat(buckets.contains("okay")).isFalse();
+        final MinerBuckets.Bucket warn = buckets.get("warn");
+        assertThat(warn.size()).isEqualTo(1);
+        assertThat(warn.getId(0)).isEqualTo(2);
+        assertThat(warn.getName(0)).isEqualTo("warm");
+
+        assertThat(this.meterRegistry.counter("bot.status.parse.miners").count())
+                .isEqualTo(11);
+        assertThat(this.meterRegistry.counter("bot.status.parse.kept").count())
+                .isEqualTo(3);
+    }
+
+    /**
+     * Tests that IDs are read from ints and numeric strings, and that miners
+     * without a usable ID are dropped rather than linked to another miner.
+     *
+     * @throws IOException on failure.
+     */
+    @Test
+    void idsChecked() throws IOException {
+        final MinerBuckets.Bucket fail = parse(MINERS).get("fail");
+
+        assertThat(fail.size()).isEqualTo(2);
+        assertThat(fail.getId(0)).isEqualTo(5);
+        assertThat(fail.getName(0)).isEqualTo("hot");
+        // A name that isn't a string is dropped, but the miner is kept
+        assertThat(fail.getId(1)).isEqualTo(10);
+        assertThat(fail.getName(1)).isNull();
+    }
+
+    /**
+     * Tests that a response that isn't an array is rejected.
+     */
+    @Test
+    void nonArrayRejected() {
+        assertThatThrownBy(() -> parse("{\"miners\":[]}"))
+                .isInstanceOf(IOException.class);
+    }
+
+    /**
+     * Parses a response.
+     *
+     * @param json The response.
+     *
+     * @return The kept miners.
+     *
+     * @throws IOException on failure.
+     */
+    private MinerBuckets parse(final String json) throws IOException {
+        final MinerBuckets buckets = new MinerBuckets();
+        this.parser.parse(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+                buckets);
+        return buckets;
+    }
+}
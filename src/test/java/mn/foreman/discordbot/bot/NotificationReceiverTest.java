@@ -0,0 +1,447 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.discordbot.db.LocalSessionStore;
+import mn.foreman.discordbot.db.Session;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.opentelemetry.api.trace.TracerProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests for the {@link NotificationReceiver}. */
+class NotificationReceiverTest {
+
+    /** The session's API key. */
+    private static final String API_KEY = "secret";
+
+    /** The session's client. */
+    private static final int CLIENT_ID = 42;
+
+    /** The largest payload that's accepted. */
+    private static final int MAX_BODY_BYTES = 4096;
+
+    /** The session's ID. */
+    private static final String SESSION_ID = "session";
+
+    /** The client for pushes. */
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    /** The messages that were sent. */
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+
+    /** The locks that serialize pushes and polls. */
+    private final SessionLocks sessionLocks =
+            new SessionLocks(
+                    16,
+                    Duration.ofMillis(100),
+                    Duration.ofMinutes(1),
+                    100);
+
+    /** Whether or not the gateway is ready. */
+    private volatile boolean ready = true;
+
+    /** The receiver. */
+    private NotificationReceiver receiver;
+
+    /** The session store. */
+    private LocalSessionStore sessionStore;
+
+    /**
+     * Starts the receiver on a free port with one session at cursor 10.
+     *
+     * @param dir The directory for the session log.
+     *
+     * @throws Exception on failure.
+     */
+    @BeforeEach
+    void setUp(@TempDir final Path dir) throws Exception {
+        final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        this.sessionStore =
+                new LocalSessionStore(
+                        dir.resolve("sessions.log"),
+                        objectMapper,
+                        false);
+        this.sessionStore.save(
+                Session
+                        .builder()
+                        .id(SESSION_ID)
+                        .clientId(CLIENT_ID)
+                        .apiKey(API_KEY)
+                        .dateRegistered(Instant.now())
+                        .lastNotificationId(10)
+                        .build());
+
+        final MessageRenderer messageRenderer =
+                new MessageRenderer(
+                        "https://dashboard.foreman.mn",
+                        4096);
+        final NotificationsProcessorImpl<Session> notificationsProcessor =
+                new NotificationsProcessorImpl<>(
+                        SessionAccess.forSessions(
+                                this.sessionStore::savePoll,
+                                this.sessionStore::saveLastPolled),
+                        NotificationPolicies
+                                .builder()
+                                .maxNotifications(10)
+                                .maxPerPoll(50)
+                                .messageRenderer(messageRenderer)
+                                .notificationDigester(
+                                        new NotificationDigester(
+                                                messageRenderer,
+                                                10,
+                                                100))
+                                .notificationSuppressor(
+                                        new NotificationSuppressor(
+                                                60_000,
+                                                100,
+                                                100,
+                                                new SimpleMeterRegistry()))
+                                .build(),
+                        (notification, session) -> {
+                        },
+                        null,
+                        null,
+                        Instant.now(),
+                        TracerProvider.noop().get("test"));
+        this.receiver =
+                new NotificationReceiver(
+                        0,
+                        2,
+                        MAX_BODY_BYTES,
+                        Duration.ofMinutes(5),
+                        this.sessionStore,
+                        this.sessionLocks,
+                        notificationsProcessor,
+                        (notification, session) -> {
+                            this.sent.add(notification.getMessage());
+                            return CompletableFuture.completedFuture(null);
+                        },
+                        objectMapper,
+                        () -> this.ready);
+        this.receiver.start();
+    }
+
+    /**
+     * Stops the receiver.
+     *
+     * @throws Exception on failure.
+     */
+    @AfterEach
+    void tearDown() throws Exception {
+        this.receiver.stop();
+        this.sessionStore.close();
+    }
+
+    /**
+     * Tests that a signed batch that follows the cursor is sent and moves
+     * the cursor.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void signedIsDelivered() throws Exception {
+        assertThat(push(now(), "10", toBody(11, 12), API_KEY)).isEqualTo(204);
+        assertThat(this.sent).hasSize(2);
+        assertThat(this.sent.get(0)).contains("Subject 11");
+        assertThat(this.sent.get(1)).contains("Subject 12");
+        assertThat(cursor()).isEqualTo(12);
+    }
+
+    /**
+     * Tests that a batch that overlaps the cursor only sends what's new.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void overlappingSendsOnlyUnseen() throws Exception {
+        assertThat(push(now(), "9", toBody(10, 11), API_KEY)).isEqualTo(204);
+        assertThat(this.sent).hasSize(1);
+        assertThat(this.sent.get(0)).contains("Subject 11");
+        assertThat(cursor()).isEqualTo(11);
+    }
+
+    /**
+     * Tests that pushes are refused until the gateway is ready, so they're
+     * retried rather than moving the cursor past what couldn't be sent.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void notReadyIsRetried() throws Exception {
+        this.ready = false;
+        assertThat(push(now(), "10", toBody(11), API_KEY)).isEqualTo(503);
+        assertThat(this.sent).isEmpty();
+        assertThat(cursor()).isEqualTo(10);
+
+        this.ready = true;
+        assertThat(push(now(), "10", toBody(11), API_KEY)).isEqualTo(204);
+        assertThat(this.sent).hasSize(1);
+        assertThat(cursor()).isEqualTo(11);
+    }
+
+    /**
+     * Tests that a payload signed with the wrong key is rejected.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void badSignatureIsRejected() throws Exception {
+        assertThat(push(now(), "10", toBody(11), "wrong")).isEqualTo(401);
+        assertThat(this.sent).isEmpty();
+        assertThat(cursor()).isEqualTo(10);
+    }
+
+    /**
+     * Tests that the since header can't be changed without breaking the
+     * signature.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void tamperedSinceIsRejected() throws Exception {
+        final String timestamp = now();
+        final String body = toBody(11);
+        assertThat(
+                send(
+                        timestamp,
+                        "5",
+                        body,
+                        sign(API_KEY, timestamp, "10", body)))
+                .isEqualTo(401);
+        assertThat(this.sent).isEmpty();
+    }
+
+    /**
+     * Tests that a payload signed too long ago is rejected.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void staleTimestampIsRejected() throws Exception {
+        final String stale =
+                Long.toString(
+                        Instant
+                                .now()
+                                .minus(Duration.ofMinutes(10))
+                                .getEpochSecond());
+        assertThat(push(stale, "10", toBody(11), API_KEY)).isEqualTo(401);
+        assertThat(this.sent).isEmpty();
+        assertThat(cursor()).isEqualTo(10);
+    }
+
+    /**
+     * Tests that a payload larger than allowed is rejected.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void oversizedIsRejected() throws Exception {
+        final String body = "[" + " ".repeat(MAX_BODY_BYTES) + "]";
+        assertThat(push(now(), "10", body, API_KEY)).isEqualTo(413);
+        assertThat(this.sent).isEmpty();
+        assertThat(cursor()).isEqualTo(10);
+    }
+
+    /**
+     * Tests that a replayed payload is accepted but not sent again.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void replayIsNotSentTwice() throws Exception {
+        final String timestamp = now();
+        final String body = toBody(11);
+        final String signature = sign(API_KEY, timestamp, "10", body);
+        assertThat(send(timestamp, "10", body, signature)).isEqualTo(204);
+        assertThat(send(timestamp, "10", body, signature)).isEqualTo(204);
+        assertThat(this.sent).hasSize(1);
+        assertThat(cursor()).isEqualTo(11);
+    }
+
+    /**
+     * Tests that a batch that doesn't follow the cursor is left for the next
+     * poll rather than skipping what came in between.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void gapIsLeftForPoll() throws Exception {
+        assertThat(push(now(), "12", toBody(13, 14), API_KEY)).isEqualTo(204);
+        assertThat(this.sent).isEmpty();
+        assertThat(cursor()).isEqualTo(10);
+    }
+
+    /**
+     * Tests that a push for a session that's being polled is turned away to
+     * be retried.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void busyIsRetried() throws Exception {
+        final int[] status = new int[1];
+        assertThat(
+                this.sessionLocks.run(
+                        SESSION_ID,
+                        () -> {
+                            try {
+                                status[0] = push(now(), "10", toBody(11), API_KEY);
+                            } catch (final Exception e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }))
+                .isTrue();
+        assertThat(status[0]).isEqualTo(503);
+        assertThat(this.sent).isEmpty();
+        assertThat(cursor()).isEqualTo(10);
+    }
+
+    /**
+     * Returns the current epoch second.
+     *
+     * @return The timestamp.
+     */
+    private static String now() {
+        return Long.toString(Instant.now().getEpochSecond());
+    }
+
+    /**
+     * Signs a payload the way Foreman does.
+     *
+     * @param apiKey    The key.
+     * @param timestamp The timestamp.
+     * @param since     The ID the notifications follow.
+     * @param body      The body.
+     *
+     * @return The hex-encoded signature.
+     *
+     * @throws Exception on failure.
+     */
+    private static String sign(
+            final String apiKey,
+            final String timestamp,
+            final String since,
+            final String body) throws Exception {
+        final Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(
+                new SecretKeySpec(
+                        apiKey.getBytes(StandardCharsets.UTF_8),
+                        "HmacSHA256"));
+        final byte[] signature =
+                mac.doFinal(
+                        (timestamp + "." + since + "." + body)
+                                .getBytes(StandardCharsets.UTF_8));
+        final StringBuilder hex = new StringBuilder();
+        for (final byte b : signature) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Creates a payload with one notification per ID.
+     *
+     * @param ids The IDs.
+     *
+     * @return The payload.
+     */
+    private static String toBody(final int... ids) {
+        return Arrays
+                .stream(ids)
+                .mapToObj(id ->
+                        "{\"id\":" + id + ",\"subject\":\"Subject " + id + "\",\"failingMiners\":[]}")
+                .collect(Collectors.joining(",", "[", "]"));
+    }
+
+    /**
+     * Returns the stored cursor.
+     *
+     * @return The cursor.
+     */
+    private int cursor() {
+        return this.sessionStore
+                .findById(SESSION_ID)
+                .orElseThrow()
+                .getLastNotificationId();
+    }
+
+    /**
+     * Pushes a payload signed with the provided key.
+     *
+     * @param timestamp The timestamp.
+     * @param since     The ID the notifications follow.
+     * @param body      The body.
+     * @param apiKey    The key to sign with.
+     *
+     * @return The status code.
+     *
+     * @throws Exception on failure.
+     */
+    private int push(
+            final String timestamp,
+            final String since,
+            final String body,
+            final String apiKey) throws Exception {
+        return send(
+                timestamp,
+                since,
+                body,
+                sign(apiKey, timestamp, since, body));
+    }
+
+    /**
+     * Pushes a payload.
+     *
+     * @param timestamp The timestamp.
+     * @param since     The ID the notifications follow.
+     * @param body      The body.
+     * @param signature The signature.
+     *
+     * @return The status code.
+     *
+     * @throws Exception on failure.
+     */
+    private int send(
+            final String timestamp,
+            final String since,
+            final String body,
+            final String signature) throws Exception {
+        return this.httpClient
+                .send(
+                        HttpRequest
+                                .newBuilder(
+                                        URI.create(
+                                                "http://localhost:" +
+                                                        this.receiver.getPort() +
+                                                        "/notifications/" +
+                                                        CLIENT_ID))
+                                .header("X-Foreman-Timestamp", timestamp)
+                                .header("X-Foreman-Since", since)
+                                .header("X-Foreman-Signature", signature)
+                                .POST(HttpRequest.BodyPublishers.ofString(body))
+                                .build(),
+                        HttpResponse.BodyHandlers.discarding())
+                .statusCode();
+    }
+}
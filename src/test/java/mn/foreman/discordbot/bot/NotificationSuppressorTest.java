@@ -0,0 +1,189 @@
+package mn.foreman.discordbot.bot;
+
+import mn.foreman.api.endpoints.notifications.Notifications;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests for the {@link NotificationSuppressor} windows and summaries. */
+class NotificationSuppressorTest {
+
+    /** The suppression window. */
+    private static final long WINDOW_MILLIS = 1_000;
+
+    /** The current time. */
+    private final AtomicLong now = new AtomicLong(10_000);
+
+    /** The registry for metrics. */
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /** Tests that repeats inside of a window are dropped and counted. */
+    @Test
+    void repeatsSuppressedInsideWindow() {
+        final NotificationSuppressor suppressor = suppressor(10, 10);
+
+        assertThat(suppressor.admit("a", notification("hot", 1))).isPresent();
+        this.now.addAndGet(WINDOW_MILLIS / 2);
+        assertThat(suppressor.admit("a", notification("hot", 1))).isEmpty();
+        assertThat(suppressor.admit("a", notification("hot", 1))).isEmpty();
+
+        // Other keys and destinations have their own windows
+        assertThat(suppressor.admit("a", notification("hot", 2))).isPresent();
+        assertThat(suppressor.admit("b", notification("hot", 1))).isPresent();
+
+        // Nothing closed yet
+        assertThat(suppressor.closeWindows("a")).isEmpty();
+        assertThat(count("bot.notifications.suppressed")).isEqualTo(2);
+    }
+
+    /** Tests that a summary is produced once the window closes. */
+    @Test
+    void summaryAfterWindowCloses() {
+        final NotificationSuppressor suppressor = suppressor(10, 10);
+
+        suppressor.admit("a", notification("hot", 1));
+        suppressor.admit("a", notification("hot", 1));
+        suppressor.admit("a", notification("hot", 1));
+        suppressor.admit("a", notification("cold", 2));
+
+        this.now.addAndGet(WINDOW_MILLIS);
+        final List<NotificationSuppressor.Summary> summaries =
+                suppressor.closeWindows("a");
+        assertThat(summaries).containsExactly(summary("hot", 1, 2));
+        assertThat(suppressor.closeWindows("a")).isEmpty();
+
+        // The window closed, so the next one is forwarded again
+        assertThat(suppressor.admit("a", notification("hot", 1))).isPresent();
+    }
+
+    /**
+     * Tests that a window closed by the sweep leaves its summary pending for
+     * a destination that went quiet.
+     */
+    @Test
+    void closeExpiredLeavesSummaryPending() {
+        final NotificationSuppressor suppressor = suppressor(10, 10);
+
+        suppressor.admit("a", notification("hot", 1));
+        suppressor.admit("a", notification("hot", 1));
+
+        this.now.addAndGet(WINDOW_MILLIS);
+        suppressor.closeExpired();
+
+        assertThat(suppressor.closeWindows("b")).isEmpty();
+        assertThat(suppressor.closeWindows("a"))
+                .containsExactly(summary("hot", 1, 1));
+        assertThat(suppressor.closeWindows("a")).isEmpty();
+    }
+
+    /** Tests that a key that's evicted still produces its summary. */
+    @Test
+    void keyEvictionKeepsSummary() {
+        final NotificationSuppressor suppressor = suppressor(10, 1);
+
+        suppressor.admit("a", notification("hot", 1));
+        suppressor.admit("a", notification("hot", 1));
+        suppressor.admit("a", notification("hot", 2));
+
+        // Evicted before its window closed
+        assertThat(suppressor.closeWindows("a"))
+                .containsExactly(summary("hot", 1, 1));
+    }
+
+    /** Tests that a destination that's evicted still produces its summary. */
+    @Test
+    void destinationEvictionKeepsSummary() {
+        final NotificationSuppressor suppressor = suppressor(1, 10);
+
+        suppressor.admit("a", notification("hot", 1));
+        suppressor.admit("a", notification("hot", 1));
+        suppressor.admit("b", notification("hot", 1));
+
+        assertThat(suppressor.closeWindows("a"))
+                .containsExactly(summary("hot", 1, 1));
+        assertThat(count("bot.notifications.flap.dropped")).isZero();
+    }
+
+    /**
+     * Creates a suppressor on the test clock.
+     *
+     * @param maxDestinations       The max destinations to track.
+     * @param maxKeysPerDestination The max keys to track per destination.
+     *
+     * @return The suppressor.
+     */
+    private NotificationSuppressor suppressor(
+            final int maxDestinations,
+            final int maxKeysPerDestination) {
+        return new NotificationSuppressor(
+                WINDOW_MILLIS,
+                maxDestinations,
+                maxKeysPerDestination,
+                this.meterRegistry,
+                this.now::get);
+    }
+
+    /**
+     * Returns the current value of a counter.
+     *
+     * @param name The counter name.
+     *
+     * @return The value.
+     */
+    private double count(final String name) {
+        return this.meterRegistry.counter(name).count();
+    }
+
+    /**
+     * Creates a notification for a single miner.
+     *
+     * @param subject The subject.
+     * @param minerId The miner ID.
+     *
+     * @return The notification.
+     */
+    private static Notifications.Notification notification(
+            final String subject,
+            final int minerId) {
+        final Notifications.Notification.FailingMiner failingMiner =
+                new Notifications.Notification.FailingMiner();
+        failingMiner.miner = "miner-" + minerId;
+        failingMiner.minerId = minerId;
+        failingMiner.diagnosis = Collections.emptyList();
+
+        final Notifications.Notification notification =
+                new Notifications.Notification();
+        notification.subject = subject;
+        notification.failingMiners = new ArrayList<>(List.of(failingMiner));
+        return notification;
+    }
+
+    /**
+     * Creates the summary expected for a miner.
+     *
+     * @param subject The subject.
+     * @param minerId The miner ID.
+     * @param count   How many were suppressed.
+     *
+     * @return The summary.
+     */
+    private static NotificationSuppressor.Summary summary(
+            final String subject,
+            final int minerId,
+            final int count) {
+        return NotificationSuppressor.Summary
+                .builder()
+                .subject(subject)
+                .miner("miner-" + minerId)
+                .minerId(minerId)
+                .count(count)
+                .build();
+    }
+}
@@ -0,0 +1,153 @@
+package mn.foreman.discordbot.db;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests for replaying and compacting the {@link LocalSessionStore} log. */
+class LocalSessionStoreTest {
+
+    /** The mapper. */
+    private final ObjectMapper objectMapper =
+            new ObjectMapper().findAndRegisterModules();
+
+    /** The directory for the log. */
+    @TempDir
+    Path dir;
+
+    /**
+     * Tests that a line cut short at the end of the log is discarded, and
+     * that later writes replay cleanly after it.
+     *
+     * @throws IOException on failure.
+     */
+    @Test
+    void tornTailDiscarded() throws IOException {
+        final Path file = this.dir.resolve("sessions.log");
+        try (final LocalSessionStore store = open(file)) {
+            store.save(session("1", 1));
+            store.save(session("2", 2));
+        }
+        final long intact = Files.size(file);
+        Files.write(
+                file,
+                "{\"put\":{\"id\":\"3\",\"cli".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        try (final LocalSessionStore store = open(file)) {
+            assertThat(Files.size(file)).isEqualTo(intact);
+            assertThat(store.count()).isEqualTo(2);
+            assertThat(store.existsById("3")).isFalse();
+            store.save(session("4", 4));
+        }
+
+        try (final LocalSessionStore store = open(file)) {
+            assertThat(store.count()).isEqualTo(3);
+            assertThat(store.findById("4"))
+                    .hasValueSatisfying(session ->
+                            assertThat(session.getClientId()).isEqualTo(4));
+        }
+    }
+
+    /**
+     * Tests that removals are replayed, including a session that was
+     * re-added after it was removed.
+     *
+     * @throws IOException on failure.
+     */
+    @Test
+    void deletesReplayed() throws IOException {
+        final Path file = this.dir.resolve("sessions.log");
+        try (final LocalSessionStore store = open(file)) {
+            store.save(session("1", 1));
+            store.save(session("2", 2));
+            store.save(session("3", 3));
+            store.deleteById("1");
+            store.deleteById("3");
+            store.save(session("3", 30));
+        }
+
+        try (final LocalSessionStore store = open(file)) {
+            assertThat(store.existsById("1")).isFalse();
+            assertThat(store.existsById("2")).isTrue();
+            assertThat(store.findById("3"))
+                    .hasValueSatisfying(session ->
+                            assertThat(session.getClientId()).isEqualTo(30));
+        }
+    }
+
+    /**
+     * Tests that a log of mostly superseded lines is compacted, and that the
+     * compacted log replays to the same sessions.
+     *
+     * @throws IOException on failure.
+     */
+    @Test
+    void compactedLogReplays() throws IOException {
+        final Path file = this.dir.resolve("sessions.log");
+        try (final LocalSessionStore store = open(file)) {
+            // Well past the point where compaction starts
+            for (int i = 0; i < 20_000; i++) {
+                store.save(session(Integer.toString(i % 10), i));
+            }
+        }
+        assertThat(Files.size(file)).isLessThan(1024 * 1024);
+        assertThat(Files.exists(this.dir.resolve("sessions.log.compact"))).isFalse();
+
+        try (final LocalSessionStore store = open(file)) {
+            assertThat(store.count()).isEqualTo(10);
+            for (int i = 0; i < 10; i++) {
+                final int clientId = 19_990 + i;
+                assertThat(store.findById(Integer.toString(i)))
+                        .hasValueSatisfying(session ->
+                                assertThat(session.getClientId()).isEqualTo(clientId));
+            }
+        }
+    }
+
+    /**
+     * Opens a store without syncing.
+     *
+     * @param file The log.
+     *
+     * @return The store.
+     *
+     * @throws IOException on failure.
+     */
+    private LocalSessionStore open(final Path file) throws IOException {
+        return new LocalSessionStore(
+                file,
+                this.objectMapper,
+                false);
+    }
+
+    /**
+     * Creates a registered guild session.
+     *
+     * @param id       The ID.
+     * @param clientId The client ID.
+     *
+     * @return The session.
+     */
+    private static Session session(
+            final String id,
+            final int clientId) {
+        return Session.builder()
+                .id(id)
+                .type(SessionType.GUILD)
+                .clientId(clientId)
+                .apiKey("key-" + clientId)
+                .channelId("channel-" + id)
+                .dateRegistered(Instant.parse("2020-12-01T00:00:00Z"))
+                .build();
+    }
+}
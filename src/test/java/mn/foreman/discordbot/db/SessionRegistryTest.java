@@ -0,0 +1,273 @@
+package mn.foreman.discordbot.db;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for the {@link SessionRegistry} against a single-node replica set, so
+ * the change stream is open.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class SessionRegistryTest {
+
+    /** The database. */
+    private static final String DATABASE = "registry-test";
+
+    /** How long to wait for a change to come through the stream. */
+    private static final long WAIT_MILLIS = 10_000;
+
+    /** MongoDB, which the container runs as a replica set. */
+    @Container
+    private static final MongoDBContainer MONGO =
+            new MongoDBContainer(DockerImageName.parse("mongo:4.4.2"));
+
+    /** The client for the repository. */
+    private MongoClient mongoClient;
+
+    /** The template for direct updates. */
+    private MongoTemplate mongoTemplate;
+
+    /** The client for the change stream. */
+    private com.mongodb.reactivestreams.client.MongoClient reactiveClient;
+
+    /** The registry. */
+    private SessionRegistry registry;
+
+    /** The session repository. */
+    private SessionRepository sessionRepository;
+
+    /** Opens the registry over one stored session at cursor 10. */
+    @BeforeEach
+    void setUp() {
+        this.mongoClient = MongoClients.create(MONGO.getReplicaSetUrl());
+        this.mongoTemplate =
+                new MongoTemplate(
+                        this.mongoClient,
+                        DATABASE);
+        this.sessionRepository =
+                new MongoRepositoryFactory(this.mongoTemplate)
+                        .getRepository(
+                                SessionRepository.class,
+                                new SessionUpdatesImpl(this.mongoTemplate));
+        this.sessionRepository.save(toSession("a"));
+
+        this.reactiveClient =
+                com.mongodb.reactivestreams.client.MongoClients.create(MONGO.getReplicaSetUrl());
+        this.registry =
+                new SessionRegistry(
+                        new ReactiveMongoTemplate(
+                                this.reactiveClient,
+                                DATABASE),
+                        this.sessionRepository,
+                        new SimpleMeterRegistry());
+        this.registry.refresh();
+    }
+
+    /** Closes the registry and drops the database. */
+    @AfterEach
+    void tearDown() {
+        this.registry.stop();
+        this.mongoClient.getDatabase(DATABASE).drop();
+        this.mongoClient.close();
+        this.reactiveClient.close();
+    }
+
+    /** Tests that the change stream opens against a replica set. */
+    @Test
+    void streams() {
+        assertThat(this.registry.isStreaming()).isTrue();
+        assertThat(find("a")).isPresent();
+    }
+
+    /** Tests that changing a swept session doesn't change the held one. */
+    @Test
+    void sweepsGetCopies() {
+        final Session swept = find("a").orElseThrow();
+        swept.setLastNotificationId(99);
+        swept.getDigest().getEntries().add(new Digest.Entry());
+
+        final Session held = find("a").orElseThrow();
+        assertThat(held.getLastNotificationId()).isEqualTo(10);
+        assertThat(held.getDigest().getEntries()).isEmpty();
+    }
+
+    /** Tests that sessions registered elsewhere arrive through the stream. */
+    @Test
+    void insertsArrive() throws Exception {
+        this.sessionRepository.save(toSession("b"));
+        assertThat(await(sessions -> sessions.stream().anyMatch(session -> "b".equals(session.getId()))))
+                .isTrue();
+    }
+
+    /**
+     * Tests that a change that lands mid-sweep replaces the held session
+     * without touching the copy being swept.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void changeMidSweepLeavesCopyAlone() throws Exception {
+        final Session swept = find("a").orElseThrow();
+        setIntervalMinutes(60);
+        assertThat(await(sessions -> intervalOf(sessions) == 60)).isTrue();
+        assertThat(swept.getDigest().getIntervalMinutes()).isEqualTo(0);
+    }
+
+    /**
+     * Tests that a sweep's changes are merged into the held session without
+     * undoing a change that landed mid-sweep.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void updateKeepsOtherChanges() throws Exception {
+        final Session swept = find("a").orElseThrow();
+        setIntervalMinutes(60);
+        assertThat(await(sessions -> intervalOf(sessions) == 60)).isTrue();
+
+        swept.setLastNotificationId(20);
+        swept.setLastPolled(Instant.now());
+        this.registry.update(swept);
+
+        final Session held = find("a").orElseThrow();
+        assertThat(held.getLastNotificationId()).isEqualTo(20);
+        assertThat(held.getDigest().getIntervalMinutes()).isEqualTo(60);
+    }
+
+    /**
+     * Tests that updates that only touch the fields sweeps own are dropped
+     * from the change stream, since the sweeping node applied them already.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void sweptUpdatesSkipped() throws Exception {
+        this.mongoTemplate.updateFirst(
+                Query.query(Criteria.where("id").is("a")),
+                new Update()
+                        .max("lastNotificationId", 30)
+                        .set("lastPolled", Instant.now()),
+                Session.class);
+
+        // Changes arrive in order, so the poll was dropped once this arrives
+        this.sessionRepository.save(toSession("b"));
+        assertThat(await(sessions -> sessions.stream().anyMatch(session -> "b".equals(session.getId()))))
+                .isTrue();
+        assertThat(find("a").orElseThrow().getLastNotificationId()).isEqualTo(10);
+    }
+
+    /**
+     * Tests that quarantined sessions leave the registry.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void quarantinedLeave() throws Exception {
+        this.mongoTemplate.updateFirst(
+                Query.query(Criteria.where("id").is("a")),
+                Update.update("quarantined", true),
+                Session.class);
+        assertThat(await(List::isEmpty)).isTrue();
+        assertThat(this.registry.estimateBytes()).isZero();
+    }
+
+    /**
+     * Waits for the due sessions to match.
+     *
+     * @param condition The condition.
+     *
+     * @return Whether or not they matched in time.
+     *
+     * @throws InterruptedException if interrupted.
+     */
+    private boolean await(final Predicate<List<Session>> condition) throws InterruptedException {
+        final long stopAt = System.currentTimeMillis() + WAIT_MILLIS;
+        while (System.currentTimeMillis() < stopAt) {
+            if (condition.test(this.registry.findDue(Instant.now()))) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+
+    /**
+     * Finds a due session in the registry.
+     *
+     * @param id The session ID.
+     *
+     * @return The session, if it's held.
+     */
+    private Optional<Session> find(final String id) {
+        return this.registry
+                .findDue(Instant.now())
+                .stream()
+                .filter(session -> id.equals(session.getId()))
+                .findFirst();
+    }
+
+    /**
+     * Returns the digest interval of the first session.
+     *
+     * @param sessions The sessions.
+     *
+     * @return The interval, or -1 if there are none.
+     */
+    private static int intervalOf(final List<Session> sessions) {
+        return sessions.isEmpty()
+                ? -1
+                : sessions.get(0).getDigest().getIntervalMinutes();
+    }
+
+    /**
+     * Changes the digest interval the way the digest command does.
+     *
+     * @param intervalMinutes The interval.
+     */
+    private void setIntervalMinutes(final int intervalMinutes) {
+        this.mongoTemplate.updateFirst(
+                Query.query(Criteria.where("id").is("a")),
+                Update.update("digest.intervalMinutes", intervalMinutes),
+                Session.class);
+    }
+
+    /**
+     * Creates a registered session.
+     *
+     * @param id The session ID.
+     *
+     * @return The session.
+     */
+    private static Session toSession(final String id) {
+        return Session
+                .builder()
+                .id(id)
+                .clientId(1)
+                .apiKey("key")
+                .dateRegistered(Instant.now())
+                .lastNotificationId(10)
+                .digest(Digest.builder().build())
+                .build();
+    }
+}
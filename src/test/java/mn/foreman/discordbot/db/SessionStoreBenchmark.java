@@ -0,0 +1,184 @@
+package mn.foreman.discordbot.db;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.function.IntConsumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Times the lookups, updates and sweeps that the bot makes against each
+ * {@link SessionStore}, so the local store can be compared with MongoDB on
+ * the same machine.
+ *
+ * <p>Run with {@code mvn -Pbenchmark test}. The local store is always
+ * measured, in a temporary file. MongoDB is measured too if its URI is
+ * provided with {@code -Dbench.mongoUri=mongodb://localhost:27017}, in a
+ * throwaway database that's dropped afterwards.</p>
+ */
+@Tag("benchmark")
+class SessionStoreBenchmark {
+
+    /** The logger for this class. */
+    private static final Logger LOG =
+            LoggerFactory.getLogger(SessionStoreBenchmark.class);
+
+    /** The database that MongoDB is measured in. */
+    private static final String DATABASE = "foreman-bench";
+
+    /** How many sessions are stored. */
+    private static final int SESSIONS = 10_000;
+
+    /** How many sweeps are timed. */
+    private static final int SWEEPS = 20;
+
+    /**
+     * Times the local store, and how long it takes to reopen.
+     *
+     * @param dir The directory for the session log.
+     *
+     * @throws Exception on failure.
+     */
+    @Test
+    void local(@TempDir final Path dir) throws Exception {
+        final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        final Path file = dir.resolve("sessions.log");
+        try (final LocalSessionStore store =
+                     new LocalSessionStore(
+                             file,
+                             objectMapper,
+                             true)) {
+            run(
+                    "local",
+                    store);
+        }
+        final long start = System.nanoTime();
+        try (final LocalSessionStore store =
+                     new LocalSessionStore(
+                             file,
+                             objectMapper,
+                             true)) {
+            LOG.info("local: reopened {} sessions in {}ms",
+                    SESSIONS,
+                    (System.nanoTime() - start) / 1_000_000);
+            assertThat(store.count()).isEqualTo(SESSIONS);
+        }
+    }
+
+    /** Times MongoDB, if its URI was provided. */
+    @Test
+    @EnabledIfSystemProperty(named = "bench.mongoUri", matches = ".+")
+    void mongo() {
+        try (final MongoClient mongoClient = MongoClients.create(System.getProperty("bench.mongoUri"))) {
+            final MongoTemplate mongoTemplate =
+                    new MongoTemplate(
+                            mongoClient,
+                            DATABASE);
+            try {
+                run(
+                        "mongo",
+                        new MongoRepositoryFactory(mongoTemplate)
+                                .getRepository(
+                                        SessionRepository.class,
+                                        new SessionUpdatesImpl(mongoTemplate)));
+            } finally {
+                mongoClient.getDatabase(DATABASE).drop();
+            }
+        }
+    }
+
+    /**
+     * Creates a registered guild session.
+     *
+     * @param i Which session.
+     *
+     * @return The session.
+     */
+    private static Session newSession(final int i) {
+        return Session.builder()
+                .id(Integer.toString(1_000_000 + i))
+                .type(SessionType.GUILD)
+                .clientId(i)
+                .apiKey("key" + i)
+                .channelId(Integer.toString(2_000_000 + i))
+                .dateRegistered(Instant.now())
+                .lastPolled(Instant.ofEpochSecond(i))
+                .build();
+    }
+
+    /**
+     * Times every operation against a store.
+     *
+     * @param name  The name of the store.
+     * @param store The store.
+     */
+    private static void run(
+            final String name,
+            final SessionStore store) {
+        store.deleteAll();
+        time(
+                name,
+                "insert",
+                SESSIONS,
+                i -> store.insert(newSession(i)));
+        time(
+                name,
+                "findById",
+                SESSIONS,
+                i -> store.findById(Integer.toString(1_000_000 + i)));
+        time(
+                name,
+                "save",
+                SESSIONS,
+                i -> {
+                    final Session session = store.findById(Integer.toString(1_000_000 + i)).orElseThrow();
+                    session.setLastNotificationId(session.getLastNotificationId() + 1);
+                    session.setLastPolled(Instant.now());
+                    store.save(session);
+                });
+        time(
+                name,
+                "findDue",
+                SWEEPS,
+                i -> store.findDue(Instant.now()));
+        assertThat(store.findDue(Instant.now())).hasSize(SESSIONS);
+    }
+
+    /**
+     * Times an operation.
+     *
+     * @param name      The name of the store.
+     * @param operation The name of the operation.
+     * @param count     How many times to run it.
+     * @param work      The operation.
+     */
+    private static void time(
+            final String name,
+            final String operation,
+            final int count,
+            final IntConsumer work) {
+        final long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            work.accept(i);
+        }
+        final long elapsed = System.nanoTime() - start;
+        LOG.info("{}: {} x{} in {}ms ({} ops/sec)",
+                name,
+                operation,
+                count,
+                elapsed / 1_000_000,
+                (long) (count / (elapsed / 1e9)));
+    }
+}